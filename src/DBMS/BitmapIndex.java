@@ -1,20 +1,46 @@
 package DBMS;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a Bitmap Index for a specific column in a database table.
- * The index maps each unique value in the column to a BitSet representing
+ * The index maps each unique value in the column to a CompressedBitmap representing
  * the rows in which the value appears.
+ * <p>
+ * Inserts never change a bitmap a reader may be holding: each insert builds new versions of
+ * the bitmaps it touches and swaps them into a concurrent map. A reader of a table snapshot
+ * (see {@link TableSnapshots}) clips what it gets to the records of its snapshot with
+ * {@link #getBitmap(String, int)}, and old versions are reclaimed by the garbage collector
+ * once no reader holds them.
  */
-public class BitmapIndex implements Serializable {
+public class BitmapIndex implements ColumnIndex {
+    // Kept from the BitSet version so index files written before the bitmaps were compressed still load
+    private static final long serialVersionUID = 6294866195031463988L;
+
+    // The serialized form is still the HashMap field of earlier versions
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("tableName", String.class),
+            new ObjectStreamField("columnName", String.class),
+            new ObjectStreamField("columnSize", int.class),
+            new ObjectStreamField("BitMapIndex", HashMap.class)
+    };
+
     private String tableName;
     private String columnName;
-    private int columnSize;
-    private HashMap<String, BitSet> BitMapIndex;
+    private volatile int columnSize;
+    private transient ConcurrentHashMap<String, CompressedBitmap> bitmaps = new ConcurrentHashMap<>();
 
     /**
      * Constructs a BitmapIndex for the specified table and column.
@@ -48,11 +74,29 @@ public class BitmapIndex implements Serializable {
 
     /**
      * Returns the internal map of the bitmap index.
+     * The bitmaps cover every record indexed so far and must not be modified.
      *
-     * @return a HashMap mapping values to BitSets
+     * @return a read-only map of values to CompressedBitmaps
      */
-    public HashMap<String, BitSet> getBitMapIndex() {
-        return BitMapIndex;
+    public Map<String, CompressedBitmap> getBitMapIndex() {
+        return Collections.unmodifiableMap(bitmaps);
+    }
+
+    /**
+     * Returns the positions holding a value among the first records of the table, such as
+     * the records of a snapshot. The bitmap returned must not be modified.
+     *
+     * @param value        the value to look up
+     * @param recordsCount the number of records visible to the caller
+     * @return the positions below recordsCount holding the value, or null if no record holds it
+     */
+    public CompressedBitmap getBitmap(String value, int recordsCount) {
+        CompressedBitmap bitmap = bitmaps.get(value);
+        // Inserts grow the size before swapping their bitmaps in, so it covers the bitmap read
+        if (bitmap == null || columnSize <= recordsCount) {
+            return bitmap;
+        }
+        return CompressedBitmap.and(bitmap, CompressedBitmap.range(0, recordsCount));
     }
 
 
@@ -65,39 +109,57 @@ public class BitmapIndex implements Serializable {
      * @param colIndex the index of the column to be indexed
      */
     public void createBitMapIndex(ArrayList<String[]> records, int colIndex){
-        BitMapIndex = new HashMap<String,BitSet>();
+        HashMap<String, CompressedBitmap> built = new HashMap<String,CompressedBitmap>();
         for(int i = 0; i < records.size(); i++){
             String[] record = records.get(i);
-            if(BitMapIndex.containsKey(record[colIndex])) {
-                BitMapIndex.get(record[colIndex]).set(i);
+            if(built.containsKey(record[colIndex])) {
+                built.get(record[colIndex]).set(i);
             }
             else{
-                BitSet bitSet = new BitSet();
-                bitSet.set(i);
-                BitMapIndex.put(record[colIndex], bitSet);
+                CompressedBitmap bitmap = new CompressedBitmap();
+                bitmap.set(i);
+                built.put(record[colIndex], bitmap);
             }
         }
+        for (CompressedBitmap bitmap : built.values())
+            bitmap.runOptimize();
+        bitmaps = new ConcurrentHashMap<>(built);
     }
 
     /**
      * Inserts a new entry into the bitmap index at the given position.
-     * Updates the BitSet for the specified value to mark the insertion index.
+     * Updates the bitmap for the specified value to mark the insertion index.
+     * Inserting the same entry twice, as when a logged insert is replayed, has no further effect.
      *
      * @param value          the value to insert
-     * @param insertionIndex the index in the BitSet to be set
+     * @param insertionIndex the index in the bitmap to be set
      */
     public void insertIntoBitMapIndex(String value, int insertionIndex){
-        if(BitMapIndex.containsKey(value)){
-            BitSet bitSet = BitMapIndex.get(value);
-            bitSet.set(insertionIndex);
-            BitMapIndex.put(value, bitSet);
-        }
-        else{
-            BitSet bitSet = new BitSet();
-            bitSet.set(insertionIndex);
-            BitMapIndex.put(value, bitSet);
+        insertIntoBitMapIndex(Collections.singletonList(value), insertionIndex);
+    }
+
+    /**
+     * Inserts consecutive entries into the bitmap index, the first one at the given position.
+     * Each bitmap touched is copied once for the whole batch and the copy replaces it, so
+     * readers holding the previous version are not affected.
+     *
+     * @param values     the values of the entries, in position order
+     * @param firstIndex the position of the first entry
+     */
+    public void insertIntoBitMapIndex(List<String> values, int firstIndex){
+        HashMap<String, CompressedBitmap> versions = new HashMap<>();
+        for (int i = 0; i < values.size(); i++) {
+            String value = values.get(i);
+            CompressedBitmap version = versions.get(value);
+            if (version == null) {
+                CompressedBitmap current = bitmaps.get(value);
+                version = current == null ? new CompressedBitmap() : current.copyForAppend(firstIndex);
+                versions.put(value, version);
+            }
+            version.set(firstIndex + i);
         }
-        columnSize++;
+        columnSize = Math.max(columnSize, firstIndex + values.size());
+        bitmaps.putAll(versions);
     }
 
     /**
@@ -108,7 +170,7 @@ public class BitmapIndex implements Serializable {
      * @return a binary string (e.g., "0100") representing the positions of the value
      */
     public String getBitMapIndexByValue(String value) {
-        BitSet bitMap = BitMapIndex.get(value);
+        CompressedBitmap bitMap = bitmaps.get(value);
         if (bitMap != null)
             return  toBitString(bitMap, columnSize);
         else
@@ -130,6 +192,23 @@ public class BitmapIndex implements Serializable {
         return sb.toString();
     }
 
+    /**
+     * Converts a CompressedBitmap to a binary string of the specified size.
+     * Only the set positions are visited.
+     *
+     * @param bitmap the bitmap to convert
+     * @param size   the length of the resulting string
+     * @return a binary string representation of the bitmap
+     */
+    public static String toBitString(CompressedBitmap bitmap, int size) {
+        char[] bits = new char[size];
+        Arrays.fill(bits, '0');
+        for (int i = bitmap.nextSetBit(0); i >= 0 && i < size; i = bitmap.nextSetBit(i + 1)) {
+            bits[i] = '1';
+        }
+        return new String(bits);
+    }
+
     /**
      * Returns a binary string of all zeroes of the given size.
      * Useful for representing values not present in the index.
@@ -144,4 +223,44 @@ public class BitmapIndex implements Serializable {
         return sb.toString();
     }
 
+    /**
+     * Estimates the heap used by the index: its values and their bitmaps.
+     *
+     * @return the estimated size in bytes
+     */
+    public long sizeInBytes() {
+        long bytes = 64;
+        for (Map.Entry<String, CompressedBitmap> entry : bitmaps.entrySet())
+            bytes += 80 + 2L * entry.getKey().length() + entry.getValue().sizeInBytes();
+        return bytes;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("tableName", tableName);
+        fields.put("columnName", columnName);
+        fields.put("columnSize", columnSize);
+        fields.put("BitMapIndex", new HashMap<>(bitmaps));
+        out.writeFields();
+    }
+
+    /**
+     * Reads an index, converting the BitSets of files written before compression was added.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        tableName = (String) fields.get("tableName", null);
+        columnName = (String) fields.get("columnName", null);
+        columnSize = fields.get("columnSize", 0);
+        bitmaps = new ConcurrentHashMap<>();
+        HashMap<String, Object> stored = (HashMap<String, Object>) fields.get("BitMapIndex", null);
+        if (stored != null) {
+            for (Map.Entry<String, Object> entry : stored.entrySet()) {
+                Object bitmap = entry.getValue();
+                bitmaps.put(entry.getKey(), bitmap instanceof BitSet ? CompressedBitmap.valueOf((BitSet) bitmap) : (CompressedBitmap) bitmap);
+            }
+        }
+    }
+
 }
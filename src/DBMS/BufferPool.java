@@ -0,0 +1,391 @@
+package DBMS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A shared, size-bounded cache of table pages sitting in front of the page files.
+ * <p>
+ * Pages are held in a fixed number of frames. A page is pinned while a caller works
+ * on it and can only be evicted once it is unpinned. Victims are chosen with the CLOCK
+ * algorithm: every access sets the frame's reference bit, and the clock hand clears
+ * reference bits until it reaches an unpinned frame whose bit is already clear.
+ * Modified pages are marked dirty and written back when flushed or evicted; while
+ * {@link #writeThrough} is set they are written back as soon as they are unpinned.
+ * <p>
+ * Pages are read and written without holding the pool's lock, so threads working on
+ * different pages do not wait for each other's disk I/O. A frame is latched on its own
+ * monitor while its page is written back, so a page is written by one thread at a time.
+ * Only clean pages are evicted: a dirty victim is written back first, outside the lock,
+ * and the clock is consulted again. A victim that cannot be written stays cached and dirty,
+ * and the fetch or new page that needed its frame fails instead.
+ */
+public class BufferPool {
+	static int capacity = 128;
+	static boolean writeThrough = true;
+
+	private static Frame[] frames = new Frame[capacity];
+	private static HashMap<String, Frame> pageTable = new HashMap<>();
+	// Pages being read from disk outside the lock; a load made stale by a write must not be installed
+	private static HashMap<String, Load> loading = new HashMap<>();
+	private static int clockHand = 0;
+
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+
+	private static class Frame {
+		String tableName;
+		int pageNumber;
+		Page page;
+		int pinCount;
+		boolean referenced;
+		boolean dirty;
+		// Bumped whenever the page is modified, so writing back an older version leaves it dirty
+		int version;
+	}
+
+	private static class Load {
+		int readers;
+		boolean stale;
+	}
+
+	/**
+	 * Fetches a page and pins it, loading it from disk if it is not cached.
+	 * Every call must be matched by a call to {@link #unpinPage(String, int, boolean)}.
+	 * <p>
+	 * The page file is read without holding the pool's lock, so threads missing on
+	 * different pages load them in parallel. If the page was cached by another thread
+	 * in the meantime, the cached copy wins. If the page was written back or evicted
+	 * while it was being read, the copy read may be older than the one on disk and is
+	 * dropped, and the page is read again.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @return the cached page, or null if it does not exist on disk or no frame could be freed for it.
+	 */
+	public static Page fetchPage(String tableName, int pageNumber) {
+		String key = key(tableName, pageNumber);
+		boolean missed = false;
+		while (true) {
+			Load load;
+			synchronized (BufferPool.class) {
+				Frame frame = pageTable.get(key);
+				if (frame != null) {
+					if (!missed) {
+						hits++;
+					}
+					return pin(frame);
+				}
+				if (!missed) {
+					misses++;
+					missed = true;
+				}
+				load = loading.computeIfAbsent(key, k -> new Load());
+				load.readers++;
+			}
+
+			Page page = FileManager.readTablePage(tableName, pageNumber);
+
+			while (true) {
+				Frame victim;
+				synchronized (BufferPool.class) {
+					Frame frame = pageTable.get(key);
+					if (frame != null || load.stale || page == null) {
+						release(key, load);
+						if (frame != null) {
+							return pin(frame);
+						}
+						if (!load.stale) {
+							return null;
+						}
+						break;
+					}
+					victim = dirtyVictim();
+					if (victim == null) {
+						release(key, load);
+						return pin(install(tableName, pageNumber, page));
+					}
+				}
+				if (!writeBack(victim)) {
+					synchronized (BufferPool.class) {
+						release(key, load);
+					}
+					return null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Places a page that was created in memory into the pool and pins it, replacing
+	 * any cached version of the same page. The page is marked dirty.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @param page       the page.
+	 * @return false if no frame could be freed for the page, which is then not cached or pinned.
+	 */
+	public static boolean newPage(String tableName, int pageNumber, Page page) {
+		String key = key(tableName, pageNumber);
+		while (true) {
+			Frame victim = null;
+			synchronized (BufferPool.class) {
+				Frame frame = pageTable.get(key);
+				if (frame == null) {
+					victim = dirtyVictim();
+					if (victim == null) {
+						frame = install(tableName, pageNumber, page);
+					}
+				}
+				if (frame != null) {
+					frame.page = page;
+					frame.pinCount++;
+					frame.referenced = true;
+					frame.dirty = true;
+					frame.version++;
+					return true;
+				}
+			}
+			if (!writeBack(victim)) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Releases a pin taken by {@link #fetchPage(String, int)} or {@link #newPage(String, int, Page)}.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @param dirty      whether the caller modified the page.
+	 * @return false if the page had to be written back and could not be stored.
+	 */
+	public static boolean unpinPage(String tableName, int pageNumber, boolean dirty) {
+		Frame frame;
+		synchronized (BufferPool.class) {
+			frame = pageTable.get(key(tableName, pageNumber));
+			if (frame == null) {
+				return true;
+			}
+			if (frame.pinCount > 0) {
+				frame.pinCount--;
+			}
+			if (dirty) {
+				frame.dirty = true;
+				frame.version++;
+			}
+			if (!frame.dirty || !writeThrough) {
+				return true;
+			}
+		}
+		return write(frame);
+	}
+
+	/**
+	 * Writes a page back to disk if it is dirty.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @return false if the page could not be stored.
+	 */
+	public static boolean flushPage(String tableName, int pageNumber) {
+		Frame frame;
+		synchronized (BufferPool.class) {
+			frame = pageTable.get(key(tableName, pageNumber));
+		}
+		return frame == null || write(frame);
+	}
+
+	/**
+	 * Writes every dirty page back to disk.
+	 *
+	 * @return false if any page could not be stored.
+	 */
+	public static boolean flushAll() {
+		ArrayList<Frame> dirty = new ArrayList<>();
+		synchronized (BufferPool.class) {
+			for (Frame frame : frames) {
+				if (frame != null && frame.dirty) {
+					dirty.add(frame);
+				}
+			}
+		}
+		boolean stored = true;
+		for (Frame frame : dirty) {
+			stored &= write(frame);
+		}
+		return stored;
+	}
+
+	/**
+	 * Drops every cached page without writing it back and resets the counters.
+	 * Used when the files on disk are deleted.
+	 */
+	public static synchronized void clear() {
+		frames = new Frame[capacity];
+		pageTable.clear();
+		for (Load load : loading.values()) {
+			load.stale = true;
+		}
+		loading.clear();
+		clockHand = 0;
+		resetStatistics();
+	}
+
+	/**
+	 * Changes the number of frames. Dirty pages are written back and the pool is emptied.
+	 *
+	 * @param frameCount the new number of frames.
+	 */
+	public static void setCapacity(int frameCount) {
+		if (frameCount <= 0) {
+			throw new IllegalArgumentException("Buffer pool capacity must be positive.");
+		}
+		while (true) {
+			boolean stored = flushAll();
+			synchronized (BufferPool.class) {
+				// Pages dirtied during the flush are flushed again; pages that could not be written are dropped
+				if (!stored || !hasDirtyFrames()) {
+					capacity = frameCount;
+					clear();
+					return;
+				}
+			}
+		}
+	}
+
+	public static synchronized long getHitCount() { return hits; }
+
+	public static synchronized long getMissCount() { return misses; }
+
+	public static synchronized long getEvictionCount() { return evictions; }
+
+	public static synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private static Page pin(Frame frame) {
+		frame.pinCount++;
+		frame.referenced = true;
+		return frame.page;
+	}
+
+	// Ends a reader's part in a load
+	private static void release(String key, Load load) {
+		if (--load.readers == 0 && loading.get(key) == load) {
+			loading.remove(key);
+		}
+	}
+
+	// Finds the frame the clock evicts next and leaves the hand on it. Returns it if its page
+	// is dirty, so it can be written back outside the lock, or null if install() may use it
+	private static Frame dirtyVictim() {
+		int slot = findVictim();
+		clockHand = slot;
+		Frame frame = frames[slot];
+		return frame != null && frame.dirty ? frame : null;
+	}
+
+	// Writes back a victim found by dirtyVictim(). A victim that cannot be written keeps its
+	// unsaved changes: it stays cached and dirty, and returns false so the caller fails
+	private static boolean writeBack(Frame victim) {
+		if (write(victim)) {
+			return true;
+		}
+		synchronized (BufferPool.class) {
+			System.err.println("Error: Page " + victim.pageNumber + " of table '" + victim.tableName + "' could not be written back to free its frame.");
+			// The clock passes over it once, so the next caller may free another frame
+			victim.referenced = true;
+		}
+		return false;
+	}
+
+	// Must follow a call to dirtyVictim() that returned null, under the same hold of the lock
+	private static Frame install(String tableName, int pageNumber, Page page) {
+		int slot = findVictim();
+		Frame frame = frames[slot];
+		if (frame != null) {
+			pageTable.remove(key(frame.tableName, frame.pageNumber));
+			invalidate(key(frame.tableName, frame.pageNumber));
+			evictions++;
+		}
+		frame = new Frame();
+		frame.tableName = tableName;
+		frame.pageNumber = pageNumber;
+		frame.page = page;
+		frames[slot] = frame;
+		pageTable.put(key(tableName, pageNumber), frame);
+		return frame;
+	}
+
+	private static int findVictim() {
+		// Two full sweeps are enough: the first clears every reference bit
+		for (int i = 0; i < 2 * frames.length; i++) {
+			int slot = clockHand;
+			clockHand = (clockHand + 1) % frames.length;
+			Frame frame = frames[slot];
+			if (frame == null) {
+				return slot;
+			}
+			if (frame.pinCount > 0) {
+				continue;
+			}
+			if (frame.referenced) {
+				frame.referenced = false;
+			} else {
+				return slot;
+			}
+		}
+		throw new IllegalStateException("Buffer pool is full: all " + frames.length + " frames are pinned.");
+	}
+
+	private static boolean hasDirtyFrames() {
+		for (Frame frame : frames) {
+			if (frame != null && frame.dirty) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Writes a frame's page back if it is dirty, holding the frame's latch but not the pool's lock.
+	// A page modified while it was being written stays dirty
+	private static boolean write(Frame frame) {
+		synchronized (frame) {
+			String key = key(frame.tableName, frame.pageNumber);
+			Page page;
+			int version;
+			synchronized (BufferPool.class) {
+				if (!frame.dirty || pageTable.get(key) != frame) {
+					return true;
+				}
+				page = frame.page;
+				version = frame.version;
+			}
+			boolean written = FileManager.writeTablePage(frame.tableName, frame.pageNumber, page);
+			synchronized (BufferPool.class) {
+				// Even a failed write may have changed the file
+				invalidate(key);
+				if (written && frame.version == version) {
+					frame.dirty = false;
+				}
+			}
+			return written;
+		}
+	}
+
+	// Marks the reads of a page in progress as stale; readers starting later get a new load
+	private static void invalidate(String key) {
+		Load load = loading.remove(key);
+		if (load != null) {
+			load.stale = true;
+		}
+	}
+
+	private static String key(String tableName, int pageNumber) {
+		return tableName + "/" + pageNumber;
+	}
+}
@@ -0,0 +1,282 @@
+package DBMS;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the rows of a CSV or TSV file into a table.
+ * <p>
+ * Rows are read one page at a time, so memory stays bounded by a single page whatever the
+ * size of the file. The free slots of the table's last page are filled first, then every
+ * following page is built in memory and written to its page file once, in page order,
+ * without going through the {@link BufferPool}. The bitmap indexes passed in are updated
+ * in the same pass, once per page of rows. Progress (rows/sec and bytes/sec) is printed every {@link #reportInterval} rows.
+ * <p>
+ * Fields may be enclosed in double quotes, in which case they can hold the delimiter,
+ * line breaks and doubled quotes. Rows whose number of fields does not match the table
+ * are reported and skipped.
+ */
+public class BulkLoader {
+	// Number of rows between two progress reports, 0 disables them.
+	static int reportInterval = 100000;
+
+	/**
+	 * What a load did and how fast it went.
+	 */
+	public static class Result {
+		private final int rowsCount;
+		private final int skippedCount;
+		private final long bytesRead;
+		private final long elapsedNanos;
+
+		Result(int rowsCount, int skippedCount, long bytesRead, long elapsedNanos) {
+			this.rowsCount = rowsCount;
+			this.skippedCount = skippedCount;
+			this.bytesRead = bytesRead;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public int getRowsCount() { return rowsCount; }
+
+		public int getSkippedCount() { return skippedCount; }
+
+		public long getBytesRead() { return bytesRead; }
+
+		public long getElapsedNanos() { return elapsedNanos; }
+
+		public long getRowsPerSecond() { return perSecond(rowsCount, elapsedNanos); }
+
+		public long getBytesPerSecond() { return perSecond(bytesRead, elapsedNanos); }
+	}
+
+	/**
+	 * Loads every row of a delimited file into a table. The table itself is not stored.
+	 *
+	 * @param t         the table to load into.
+	 * @param file      the file to read.
+	 * @param delimiter the field delimiter, usually ',' or '\t'.
+	 * @param hasHeader whether the first row holds column names and must be skipped.
+	 * @param indexes   the bitmap indexes to update, by column position in the table.
+	 * @return the number of rows loaded and the load speed.
+	 * @throws IOException if the file cannot be read or a page cannot be written.
+	 */
+	public static Result load(Table t, Path file, char delimiter, boolean hasHeader, Map<Integer, BitmapIndex> indexes) throws IOException {
+		long startTime = System.nanoTime();
+		int columnsCount = t.getColumnNames().length;
+		int pageSize = t.getPageSize();
+		int rowsCount = 0;
+		int skippedCount = 0;
+
+		try (CountingInputStream in = new CountingInputStream(Files.newInputStream(file));
+			 BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16)) {
+			if (hasHeader) {
+				readRow(reader, delimiter);
+			}
+
+			// Top up the last page first, so every page written afterwards starts empty
+			int lastPageNumber = t.getPagesCount() - 1;
+			int free = lastPageNumber < 0 ? 0 : pageSize - t.getPageRecordsCount(lastPageNumber);
+			ArrayList<String[]> rows = new ArrayList<>(pageSize);
+			Page page = null;
+
+			String[] row;
+			while ((row = readRow(reader, delimiter)) != null) {
+				if (row.length != columnsCount) {
+					if (!(row.length == 1 && row[0].isEmpty())) {
+						System.err.println("Error: Row " + (rowsCount + skippedCount + 1) + " of '" + file + "' has " + row.length + " fields instead of " + columnsCount + ", skipped.");
+						skippedCount++;
+					}
+					continue;
+				}
+				try {
+					row = t.normalize(row);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Error: Row " + (rowsCount + skippedCount + 1) + " of '" + file + "' is invalid, skipped: " + e.getMessage());
+					skippedCount++;
+					continue;
+				}
+
+				rowsCount++;
+
+				if (free > 0) {
+					rows.add(row);
+					if (rows.size() == free) {
+						index(indexes, rows, t.getRecordsCount());
+						t.insertBatch(rows);
+						rows.clear();
+						free = 0;
+					}
+				} else {
+					if (page == null) {
+						page = t.newPage(t.getPagesCount());
+					}
+					page.insert(row);
+					if (page.isFull()) {
+						index(indexes, page.getRecords(), t.getRecordsCount());
+						appendPage(t, page);
+						page = null;
+					}
+				}
+
+				if (reportInterval > 0 && rowsCount % reportInterval == 0) {
+					report(t.getTableName(), rowsCount, in.getCount(), System.nanoTime() - startTime);
+				}
+			}
+
+			if (!rows.isEmpty()) {
+				index(indexes, rows, t.getRecordsCount());
+				t.insertBatch(rows);
+			}
+			if (page != null) {
+				index(indexes, page.getRecords(), t.getRecordsCount());
+				appendPage(t, page);
+			}
+			Result result = new Result(rowsCount, skippedCount, in.getCount(), System.nanoTime() - startTime);
+			if (reportInterval > 0) {
+				report(t.getTableName(), rowsCount, result.getBytesRead(), result.getElapsedNanos());
+			}
+			return result;
+		}
+	}
+
+	// Adds consecutive rows to the bitmap indexes, the first one at the given position
+	private static void index(Map<Integer, BitmapIndex> indexes, List<String[]> rows, int firstIndex) {
+		for (Map.Entry<Integer, BitmapIndex> index : indexes.entrySet()) {
+			ArrayList<String> values = new ArrayList<>(rows.size());
+			for (String[] row : rows) {
+				values.add(row[index.getKey()]);
+			}
+			index.getValue().insertIntoBitMapIndex(values, firstIndex);
+		}
+	}
+
+	private static void appendPage(Table t, Page page) throws IOException {
+		if (!t.appendPage(page)) {
+			throw new IOException("Page " + page.getPageNumber() + " of table '" + t.getTableName() + "' could not be written.");
+		}
+	}
+
+	/**
+	 * Reads the fields of the next row, following quoted fields across line breaks.
+	 *
+	 * @return the fields, or null at the end of the file.
+	 */
+	private static String[] readRow(BufferedReader reader, char delimiter) throws IOException {
+		String line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
+		if (line.indexOf('"') < 0) {
+			return split(line, delimiter);
+		}
+
+		ArrayList<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		int i = 0;
+		while (true) {
+			if (i == line.length()) {
+				if (!quoted) {
+					break;
+				}
+				line = reader.readLine();
+				if (line == null) {
+					break; // Unterminated quote, keep what was read
+				}
+				field.append('\n');
+				i = 0;
+				continue;
+			}
+			char c = line.charAt(i++);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i < line.length() && line.charAt(i) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == delimiter) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields.toArray(new String[0]);
+	}
+
+	private static String[] split(String line, char delimiter) {
+		ArrayList<String> fields = new ArrayList<>();
+		int start = 0;
+		int end;
+		while ((end = line.indexOf(delimiter, start)) >= 0) {
+			fields.add(line.substring(start, end));
+			start = end + 1;
+		}
+		fields.add(line.substring(start));
+		return fields.toArray(new String[0]);
+	}
+
+	private static void report(String tableName, int rowsCount, long bytesRead, long elapsedNanos) {
+		System.out.println("Bulk load of '" + tableName + "': " + rowsCount + " rows, "
+				+ perSecond(rowsCount, elapsedNanos) + " rows/sec, " + perSecond(bytesRead, elapsedNanos) + " bytes/sec");
+	}
+
+	private static long perSecond(long count, long nanos) {
+		return nanos <= 0 ? 0 : count * 1000000000L / nanos;
+	}
+
+	/**
+	 * Counts the bytes read from the file, before they are decoded.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		long getCount() {
+			return count;
+		}
+	}
+}
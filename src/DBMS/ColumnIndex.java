@@ -0,0 +1,13 @@
+package DBMS;
+
+import java.io.Serializable;
+
+/**
+ * An index over one column of a table, stored in its own file and cached by the {@link IndexCache}.
+ */
+public interface ColumnIndex extends Serializable {
+	/**
+	 * @return the estimated heap used by the index, in bytes.
+	 */
+	long sizeInBytes();
+}
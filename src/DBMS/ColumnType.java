@@ -0,0 +1,102 @@
+package DBMS;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The type of a column, declared when a table is created.
+ * <p>
+ * Cells of INT, LONG, DOUBLE and DATE columns are also kept as a primitive long per cell:
+ * the number itself, the bits of the double, or the day since 1970-01-01 of the date
+ * ({@link #toBits(String)}). Pages store and compare these instead of parsing the cells.
+ * Inserted cells are written in the form {@link #format(long)} gives, such as "7" for "007",
+ * "1.5" for "1.50" or "2024-01-05" for a date, so equal values are always equal strings.
+ * STRING columns, the type of every column of a table created without types, keep any value.
+ */
+public enum ColumnType {
+	INT, LONG, DOUBLE, DATE, STRING;
+
+	/**
+	 * @return true if cells of the type are kept as primitive values.
+	 */
+	public boolean isPrimitive() {
+		return this != STRING;
+	}
+
+	/**
+	 * Converts a cell to the primitive value kept for it.
+	 *
+	 * @param value the cell.
+	 * @return the number, the bits of the double or the epoch day of the date.
+	 * @throws IllegalArgumentException if the cell is null or not a value of the type, or the type is STRING.
+	 */
+	public long toBits(String value) {
+		if (value == null) {
+			throw new IllegalArgumentException(this + " values cannot be null.");
+		}
+		try {
+			switch (this) {
+				case INT:
+					return Integer.parseInt(value);
+				case LONG:
+					return Long.parseLong(value);
+				case DOUBLE:
+					double d = Double.parseDouble(value);
+					if (Double.isNaN(d) || Double.isInfinite(d)) {
+						break;
+					}
+					// -0.0 is written as "0.0", so it is kept as 0.0
+					return Double.doubleToLongBits(d == 0 ? 0.0 : d);
+				case DATE:
+					return LocalDate.parse(value).toEpochDay();
+				default:
+					throw new IllegalArgumentException("STRING values have no primitive form.");
+			}
+		} catch (NumberFormatException | DateTimeParseException e) {
+			// Reported below
+		}
+		throw new IllegalArgumentException("'" + value + "' is not a valid " + this + " value.");
+	}
+
+	/**
+	 * Writes a primitive value as a cell.
+	 *
+	 * @param bits a value returned by {@link #toBits(String)}.
+	 * @return the cell, in canonical form. Doubles are written without an exponent.
+	 */
+	public String format(long bits) {
+		switch (this) {
+			case INT:
+			case LONG:
+				return Long.toString(bits);
+			case DOUBLE:
+				String value = Double.toString(Double.longBitsToDouble(bits));
+				return value.indexOf('E') < 0 ? value : new BigDecimal(value).toPlainString();
+			case DATE:
+				return LocalDate.ofEpochDay(bits).toString();
+			default:
+				throw new IllegalArgumentException("STRING values have no primitive form.");
+		}
+	}
+
+	/**
+	 * Brings a cell to its canonical form.
+	 *
+	 * @param value the cell.
+	 * @return the cell as {@link #format(long)} writes it; STRING cells are returned unchanged.
+	 * @throws IllegalArgumentException if the cell is not a value of the type.
+	 */
+	public String normalize(String value) {
+		return this == STRING ? value : format(toBits(value));
+	}
+
+	/**
+	 * Compares two primitive values of the type.
+	 *
+	 * @return a negative number, zero or a positive number as a is less than, equal to or greater than b.
+	 */
+	public int compareBits(long a, long b) {
+		return this == DOUBLE ? Double.compare(Double.longBitsToDouble(a), Double.longBitsToDouble(b)) : Long.compare(a, b);
+	}
+}
@@ -0,0 +1,827 @@
+package DBMS;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A compressed set of record positions, organised like a Roaring bitmap.
+ * <p>
+ * Positions are split into chunks of 65536 by their high 16 bits. Each non-empty chunk is
+ * held in the smallest of three containers:
+ * <ul>
+ *     <li>an array container, the sorted low 16 bits of up to 4096 positions;</li>
+ *     <li>a bitmap container, 1024 words of 64 bits, for denser chunks;</li>
+ *     <li>a run container, sorted (start, length) pairs, for chunks made of long runs of
+ *     consecutive positions. Chunks are turned into runs by {@link #runOptimize()}.</li>
+ * </ul>
+ * A sparse value therefore costs a few bytes per matching record instead of one bit per
+ * record of the table, and AND, OR and ANDNOT work chunk by chunk, skipping the chunks
+ * that are missing from either side.
+ */
+public class CompressedBitmap implements Serializable, Cloneable {
+	private static final long serialVersionUID = 1L;
+
+	static final int ARRAY_MAX = 4096;
+	private static final int WORDS = 1024;
+
+	private static final byte ARRAY = 0;
+	private static final byte BITMAP = 1;
+	private static final byte RUN = 2;
+
+	private transient char[] keys = new char[4];
+	private transient Container[] containers = new Container[4];
+	private transient int size = 0;
+
+	/**
+	 * Builds a compressed bitmap holding the set bits of a {@link BitSet}.
+	 *
+	 * @param bits the bits to copy.
+	 * @return the compressed bitmap, run-optimized.
+	 */
+	public static CompressedBitmap valueOf(BitSet bits) {
+		CompressedBitmap bitmap = new CompressedBitmap();
+		for (int i = bits.nextSetBit(0); i >= 0; i = i == Integer.MAX_VALUE ? -1 : bits.nextSetBit(i + 1)) {
+			bitmap.set(i);
+		}
+		bitmap.runOptimize();
+		return bitmap;
+	}
+
+	/**
+	 * @return the positions of this bitmap as a {@link BitSet}.
+	 */
+	public BitSet toBitSet() {
+		BitSet bits = new BitSet();
+		for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+			bits.set(i);
+		}
+		return bits;
+	}
+
+	/**
+	 * Adds a position.
+	 *
+	 * @param index the position, not negative.
+	 */
+	public void set(int index) {
+		if (index < 0) {
+			throw new IndexOutOfBoundsException("index < 0: " + index);
+		}
+		char key = (char) (index >>> 16);
+		int i = find(key);
+		if (i >= 0) {
+			containers[i] = containers[i].add((char) index);
+		} else {
+			insertAt(-i - 1, key, new ArrayContainer().add((char) index));
+		}
+	}
+
+	/**
+	 * @param index the position to check.
+	 * @return true if the position is in the bitmap.
+	 */
+	public boolean get(int index) {
+		if (index < 0) {
+			return false;
+		}
+		int i = find((char) (index >>> 16));
+		return i >= 0 && containers[i].contains((char) index);
+	}
+
+	/**
+	 * @return the number of positions in the bitmap.
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality();
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the first position at or after a given one, like {@link BitSet#nextSetBit(int)}.
+	 *
+	 * @param fromIndex the position to start from.
+	 * @return the next position in the bitmap, or -1 if there is none.
+	 */
+	public int nextSetBit(int fromIndex) {
+		if (fromIndex < 0) {
+			return -1; // Past Integer.MAX_VALUE when iterating
+		}
+		int i = find((char) (fromIndex >>> 16));
+		int low = fromIndex & 0xFFFF;
+		if (i < 0) {
+			i = -i - 1;
+			low = 0;
+		}
+		for (; i < size; i++, low = 0) {
+			int next = containers[i].next(low);
+			if (next >= 0) {
+				return (keys[i] << 16) | next;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Keeps only the positions that are also in another bitmap.
+	 *
+	 * @param other the other bitmap.
+	 */
+	public void and(CompressedBitmap other) {
+		replaceWith(and(this, other));
+	}
+
+	/**
+	 * Adds the positions of another bitmap.
+	 *
+	 * @param other the other bitmap.
+	 */
+	public void or(CompressedBitmap other) {
+		replaceWith(or(this, other));
+	}
+
+	/**
+	 * Removes the positions that are in another bitmap.
+	 *
+	 * @param other the other bitmap.
+	 */
+	public void andNot(CompressedBitmap other) {
+		replaceWith(andNot(this, other));
+	}
+
+	/**
+	 * @return a new bitmap holding the positions that are in both bitmaps.
+	 */
+	public static CompressedBitmap and(CompressedBitmap a, CompressedBitmap b) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.size && j < b.size) {
+			if (a.keys[i] == b.keys[j]) {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].and(b.containers[j]));
+				i++;
+				j++;
+			} else if (a.keys[i] < b.keys[j]) {
+				i = a.advance(i, b.keys[j]);
+			} else {
+				j = b.advance(j, a.keys[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new bitmap holding the positions that are in either bitmap.
+	 */
+	public static CompressedBitmap or(CompressedBitmap a, CompressedBitmap b) {
+		CompressedBitmap result = new CompressedBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < a.size || j < b.size) {
+			if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+				result.append(a.keys[i], a.containers[i].copy());
+				i++;
+			} else if (i == a.size || b.keys[j] < a.keys[i]) {
+				result.append(b.keys[j], b.containers[j].copy());
+				j++;
+			} else {
+				result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new bitmap holding the positions of the first bitmap that are not in the second.
+	 */
+	public static CompressedBitmap andNot(CompressedBitmap a, CompressedBitmap b) {
+		CompressedBitmap result = new CompressedBitmap();
+		int j = 0;
+		for (int i = 0; i < a.size; i++) {
+			j = b.advance(j, a.keys[i]);
+			if (j < b.size && b.keys[j] == a.keys[i]) {
+				result.appendIfNotEmpty(a.keys[i], a.containers[i].andNot(b.containers[j]));
+			} else {
+				result.append(a.keys[i], a.containers[i].copy());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the bitmap of a range of positions, held as one run per chunk.
+	 *
+	 * @param from the first position, included.
+	 * @param to   the last position, excluded.
+	 * @return a new bitmap holding every position from {@code from} to {@code to - 1}.
+	 */
+	public static CompressedBitmap range(int from, int to) {
+		if (from < 0 || to < from) {
+			throw new IllegalArgumentException("Invalid bitmap range: " + from + " to " + to + ".");
+		}
+		CompressedBitmap result = new CompressedBitmap();
+		for (int start = from; start < to; ) {
+			int key = start >>> 16;
+			int end = Math.min(to - 1, (key << 16) | 0xFFFF);
+			RunContainer run = new RunContainer(1);
+			run.starts[0] = (char) start;
+			run.lengths[0] = (char) (end - start);
+			run.runs = 1;
+			run.cardinality = end - start + 1;
+			result.append((char) key, run);
+			start = end + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Converts each chunk to a run container when that is smaller, and back when it is not.
+	 *
+	 * @return true if any chunk is held as runs afterwards.
+	 */
+	public boolean runOptimize() {
+		boolean hasRuns = false;
+		for (int i = 0; i < size; i++) {
+			containers[i] = containers[i].optimize();
+			hasRuns |= containers[i] instanceof RunContainer;
+		}
+		return hasRuns;
+	}
+
+	/**
+	 * @return an estimate of the heap used by the bitmap, in bytes.
+	 */
+	public long sizeInBytes() {
+		long bytes = 16 + 10L * keys.length;
+		for (int i = 0; i < size; i++) {
+			bytes += containers[i].sizeInBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public CompressedBitmap clone() {
+		CompressedBitmap copy = new CompressedBitmap();
+		copy.keys = Arrays.copyOf(keys, Math.max(size, 1));
+		copy.containers = new Container[copy.keys.length];
+		for (int i = 0; i < size; i++) {
+			copy.containers[i] = containers[i].copy();
+		}
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Copies the bitmap so that positions from a given one on can be added to the copy
+	 * without changing this bitmap. Only the containers those positions fall in are copied,
+	 * the others are shared, so appending to a large bitmap copies at most its last chunks.
+	 *
+	 * @param from the lowest position that will be added to the copy.
+	 * @return the copy.
+	 */
+	CompressedBitmap copyForAppend(int from) {
+		CompressedBitmap copy = new CompressedBitmap();
+		copy.keys = Arrays.copyOf(keys, Math.max(size, 1));
+		copy.containers = Arrays.copyOf(containers, copy.keys.length);
+		int first = find((char) (from >>> 16));
+		for (int i = first >= 0 ? first : -first - 1; i < size; i++) {
+			copy.containers[i] = containers[i].copy();
+		}
+		copy.size = size;
+		return copy;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CompressedBitmap)) {
+			return false;
+		}
+		CompressedBitmap other = (CompressedBitmap) o;
+		if (size != other.size) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (keys[i] != other.keys[i] || !Arrays.equals(containers[i].words(), other.containers[i].words())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+			hash = 31 * hash + i;
+		}
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("{");
+		for (int i = nextSetBit(0); i >= 0; i = nextSetBit(i + 1)) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(i);
+		}
+		return sb.append('}').toString();
+	}
+
+	private int find(char key) {
+		return Arrays.binarySearch(keys, 0, size, key);
+	}
+
+	// First container at or after i whose key is not below the given key
+	private int advance(int i, char key) {
+		while (i < size && keys[i] < key) {
+			i++;
+		}
+		return i;
+	}
+
+	private void insertAt(int i, char key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		size++;
+	}
+
+	private void append(char key, Container container) {
+		insertAt(size, key, container);
+	}
+
+	private void appendIfNotEmpty(char key, Container container) {
+		if (container.cardinality() > 0) {
+			append(key, container);
+		}
+	}
+
+	private void replaceWith(CompressedBitmap other) {
+		keys = other.keys;
+		containers = other.containers;
+		size = other.size;
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeChar(keys[i]);
+			containers[i].write(out);
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int count = in.readInt();
+		keys = new char[Math.max(count, 4)];
+		containers = new Container[keys.length];
+		for (int i = 0; i < count; i++) {
+			keys[i] = in.readChar();
+			byte type = in.readByte();
+			if (type == ARRAY) {
+				containers[i] = ArrayContainer.read(in);
+			} else if (type == BITMAP) {
+				containers[i] = BitmapContainer.read(in);
+			} else if (type == RUN) {
+				containers[i] = RunContainer.read(in);
+			} else {
+				throw new IOException("Unknown bitmap container type " + type + ".");
+			}
+		}
+		size = count;
+	}
+
+	/**
+	 * The low 16 bits of the positions of one chunk.
+	 */
+	private static abstract class Container {
+		abstract int cardinality();
+
+		abstract boolean contains(char value);
+
+		/** Adds a value, returning the container that now holds the chunk. */
+		abstract Container add(char value);
+
+		/** The first value at or after a given one, or -1. */
+		abstract int next(int from);
+
+		/** Sets the bits of the container's values in 1024 words. */
+		abstract void fillWords(long[] words);
+
+		abstract Container copy();
+
+		abstract long sizeInBytes();
+
+		abstract void write(ObjectOutputStream out) throws IOException;
+
+		Container and(Container other) {
+			if (this instanceof ArrayContainer) {
+				return ((ArrayContainer) this).filter(other, true);
+			}
+			if (other instanceof ArrayContainer) {
+				return ((ArrayContainer) other).filter(this, true);
+			}
+			long[] words = words();
+			long[] otherWords = other.words();
+			for (int k = 0; k < WORDS; k++) {
+				words[k] &= otherWords[k];
+			}
+			return fromWords(words);
+		}
+
+		Container or(Container other) {
+			if (this instanceof ArrayContainer && other instanceof ArrayContainer
+					&& cardinality() + other.cardinality() <= ARRAY_MAX) {
+				return ((ArrayContainer) this).merge((ArrayContainer) other);
+			}
+			long[] words = words();
+			other.fillWords(words);
+			return fromWords(words);
+		}
+
+		Container andNot(Container other) {
+			if (this instanceof ArrayContainer) {
+				return ((ArrayContainer) this).filter(other, false);
+			}
+			long[] words = words();
+			long[] otherWords = other.words();
+			for (int k = 0; k < WORDS; k++) {
+				words[k] &= ~otherWords[k];
+			}
+			return fromWords(words);
+		}
+
+		long[] words() {
+			long[] words = new long[WORDS];
+			fillWords(words);
+			return words;
+		}
+
+		/** Picks the smallest of the three representations for the current values. */
+		Container optimize() {
+			int cardinality = cardinality();
+			int runs = 0;
+			int previous = -2;
+			for (int v = next(0); v >= 0; v = v == 0xFFFF ? -1 : next(v + 1)) {
+				if (v != previous + 1) {
+					runs++;
+				}
+				previous = v;
+			}
+			long plainBytes = cardinality <= ARRAY_MAX ? 2L * cardinality : 8L * WORDS;
+			if (4L * runs < plainBytes) {
+				return this instanceof RunContainer ? this : RunContainer.of(this, runs);
+			}
+			return this instanceof RunContainer ? fromWords(words()) : this;
+		}
+
+		static Container fromWords(long[] words) {
+			int cardinality = 0;
+			for (long word : words) {
+				cardinality += Long.bitCount(word);
+			}
+			if (cardinality > ARRAY_MAX) {
+				return new BitmapContainer(words, cardinality);
+			}
+			ArrayContainer array = new ArrayContainer(cardinality);
+			for (int k = 0; k < WORDS; k++) {
+				long word = words[k];
+				while (word != 0) {
+					array.values[array.cardinality++] = (char) (k * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return array;
+		}
+	}
+
+	private static class ArrayContainer extends Container {
+		char[] values;
+		int cardinality;
+
+		ArrayContainer() {
+			this(4);
+		}
+
+		ArrayContainer(int capacity) {
+			values = new char[Math.max(capacity, 1)];
+		}
+
+		int cardinality() { return cardinality; }
+
+		boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		Container add(char value) {
+			int i = Arrays.binarySearch(values, 0, cardinality, value);
+			if (i >= 0) {
+				return this;
+			}
+			if (cardinality == ARRAY_MAX) {
+				return new BitmapContainer(words(), cardinality).add(value);
+			}
+			i = -i - 1;
+			if (cardinality == values.length) {
+				values = Arrays.copyOf(values, Math.min(values.length * 2, ARRAY_MAX));
+			}
+			System.arraycopy(values, i, values, i + 1, cardinality - i);
+			values[i] = value;
+			cardinality++;
+			return this;
+		}
+
+		int next(int from) {
+			int i = Arrays.binarySearch(values, 0, cardinality, (char) from);
+			if (i >= 0) {
+				return from;
+			}
+			i = -i - 1;
+			return i < cardinality ? values[i] : -1;
+		}
+
+		void fillWords(long[] words) {
+			for (int i = 0; i < cardinality; i++) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+		}
+
+		/** The values that are (keep) or are not (!keep) in another container. */
+		ArrayContainer filter(Container other, boolean keep) {
+			ArrayContainer result = new ArrayContainer(cardinality);
+			for (int i = 0; i < cardinality; i++) {
+				if (other.contains(values[i]) == keep) {
+					result.values[result.cardinality++] = values[i];
+				}
+			}
+			return result;
+		}
+
+		ArrayContainer merge(ArrayContainer other) {
+			ArrayContainer result = new ArrayContainer(cardinality + other.cardinality);
+			int i = 0;
+			int j = 0;
+			while (i < cardinality || j < other.cardinality) {
+				char value;
+				if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+					value = values[i++];
+				} else if (i == cardinality || other.values[j] < values[i]) {
+					value = other.values[j++];
+				} else {
+					value = values[i++];
+					j++;
+				}
+				result.values[result.cardinality++] = value;
+			}
+			return result;
+		}
+
+		Container copy() {
+			ArrayContainer copy = new ArrayContainer(0);
+			copy.values = Arrays.copyOf(values, Math.max(cardinality, 1));
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		long sizeInBytes() { return 24 + 2L * values.length; }
+
+		void write(ObjectOutputStream out) throws IOException {
+			out.writeByte(ARRAY);
+			out.writeShort(cardinality);
+			for (int i = 0; i < cardinality; i++) {
+				out.writeChar(values[i]);
+			}
+		}
+
+		static ArrayContainer read(ObjectInputStream in) throws IOException {
+			int cardinality = in.readUnsignedShort();
+			ArrayContainer array = new ArrayContainer(cardinality);
+			for (int i = 0; i < cardinality; i++) {
+				array.values[i] = in.readChar();
+			}
+			array.cardinality = cardinality;
+			return array;
+		}
+	}
+
+	private static class BitmapContainer extends Container {
+		final long[] words;
+		int cardinality;
+
+		BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		int cardinality() { return cardinality; }
+
+		boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value)) != 0;
+		}
+
+		Container add(char value) {
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+
+		int next(int from) {
+			int k = from >>> 6;
+			long word = words[k] & (-1L << from);
+			while (word == 0) {
+				if (++k == WORDS) {
+					return -1;
+				}
+				word = words[k];
+			}
+			return k * 64 + Long.numberOfTrailingZeros(word);
+		}
+
+		void fillWords(long[] target) {
+			for (int k = 0; k < WORDS; k++) {
+				target[k] |= words[k];
+			}
+		}
+
+		Container copy() {
+			return new BitmapContainer(words.clone(), cardinality);
+		}
+
+		long sizeInBytes() { return 24 + 8L * WORDS; }
+
+		void write(ObjectOutputStream out) throws IOException {
+			out.writeByte(BITMAP);
+			for (long word : words) {
+				out.writeLong(word);
+			}
+		}
+
+		static BitmapContainer read(ObjectInputStream in) throws IOException {
+			long[] words = new long[WORDS];
+			int cardinality = 0;
+			for (int k = 0; k < WORDS; k++) {
+				words[k] = in.readLong();
+				cardinality += Long.bitCount(words[k]);
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+	}
+
+	private static class RunContainer extends Container {
+		// Run i covers starts[i] .. starts[i] + lengths[i], both included
+		char[] starts;
+		char[] lengths;
+		int runs;
+		int cardinality;
+
+		RunContainer(int capacity) {
+			starts = new char[Math.max(capacity, 1)];
+			lengths = new char[starts.length];
+		}
+
+		static RunContainer of(Container container, int runs) {
+			RunContainer result = new RunContainer(runs);
+			for (int v = container.next(0); v >= 0; v = v == 0xFFFF ? -1 : container.next(v + 1)) {
+				if (result.runs > 0 && result.end(result.runs - 1) == v - 1) {
+					result.lengths[result.runs - 1]++;
+				} else {
+					result.starts[result.runs] = (char) v;
+					result.lengths[result.runs] = 0;
+					result.runs++;
+				}
+				result.cardinality++;
+			}
+			return result;
+		}
+
+		int cardinality() { return cardinality; }
+
+		int end(int run) {
+			return starts[run] + lengths[run];
+		}
+
+		// Index of the last run starting at or before the value, or -1
+		int runOf(int value) {
+			int i = Arrays.binarySearch(starts, 0, runs, (char) value);
+			return i >= 0 ? i : -i - 2;
+		}
+
+		boolean contains(char value) {
+			int i = runOf(value);
+			return i >= 0 && value <= end(i);
+		}
+
+		Container add(char value) {
+			int i = runOf(value);
+			if (i >= 0 && value <= end(i)) {
+				return this;
+			}
+			cardinality++;
+			boolean extendsPrevious = i >= 0 && end(i) + 1 == value;
+			boolean extendsNext = i + 1 < runs && starts[i + 1] == value + 1;
+			if (extendsPrevious && extendsNext) {
+				lengths[i] = (char) (end(i + 1) - starts[i]);
+				System.arraycopy(starts, i + 2, starts, i + 1, runs - i - 2);
+				System.arraycopy(lengths, i + 2, lengths, i + 1, runs - i - 2);
+				runs--;
+			} else if (extendsPrevious) {
+				lengths[i]++;
+			} else if (extendsNext) {
+				starts[i + 1] = value;
+				lengths[i + 1]++;
+			} else {
+				if (runs == starts.length) {
+					starts = Arrays.copyOf(starts, runs * 2);
+					lengths = Arrays.copyOf(lengths, runs * 2);
+				}
+				System.arraycopy(starts, i + 1, starts, i + 2, runs - i - 1);
+				System.arraycopy(lengths, i + 1, lengths, i + 2, runs - i - 1);
+				starts[i + 1] = value;
+				lengths[i + 1] = 0;
+				runs++;
+			}
+			return this;
+		}
+
+		int next(int from) {
+			int i = runOf(from);
+			if (i >= 0 && from <= end(i)) {
+				return from;
+			}
+			return i + 1 < runs ? starts[i + 1] : -1;
+		}
+
+		void fillWords(long[] words) {
+			for (int r = 0; r < runs; r++) {
+				int start = starts[r];
+				int end = end(r);
+				int first = start >>> 6;
+				int last = end >>> 6;
+				if (first == last) {
+					words[first] |= (-1L << start) & (-1L >>> (63 - (end & 63)));
+				} else {
+					words[first] |= -1L << start;
+					for (int k = first + 1; k < last; k++) {
+						words[k] = -1L;
+					}
+					words[last] |= -1L >>> (63 - (end & 63));
+				}
+			}
+		}
+
+		Container copy() {
+			RunContainer copy = new RunContainer(0);
+			copy.starts = Arrays.copyOf(starts, Math.max(runs, 1));
+			copy.lengths = Arrays.copyOf(lengths, copy.starts.length);
+			copy.runs = runs;
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		long sizeInBytes() { return 40 + 4L * starts.length; }
+
+		void write(ObjectOutputStream out) throws IOException {
+			out.writeByte(RUN);
+			out.writeShort(runs);
+			for (int r = 0; r < runs; r++) {
+				out.writeChar(starts[r]);
+				out.writeChar(lengths[r]);
+			}
+		}
+
+		static RunContainer read(ObjectInputStream in) throws IOException {
+			int runs = in.readUnsignedShort();
+			RunContainer result = new RunContainer(runs);
+			for (int r = 0; r < runs; r++) {
+				result.starts[r] = in.readChar();
+				result.lengths[r] = in.readChar();
+				result.cardinality += result.lengths[r] + 1;
+			}
+			result.runs = runs;
+			return result;
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package DBMS;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A condition on one column of a table, such as {@code age >= 21} or {@code name BETWEEN a AND m}.
+ * Conditions are the leaves of an {@link Expression}.
+ * <p>
+ * Values are compared by type: when both sides parse as numbers they are compared numerically
+ * (so "9" &lt; "10"), otherwise as strings, with numbers ordered before other strings.
+ * Equality and inequality keep matching the exact value, like the bitmap indexes do.
+ * <p>
+ * On INT, LONG, DOUBLE and DATE columns of a typed table, a value of the column's type is
+ * converted once and compared with the primitive values of the cells (see {@link ColumnType}).
+ */
+public class Condition extends Expression {
+	/**
+	 * The comparison a condition applies to a column.
+	 */
+	public enum Operator {
+		EQUAL("="), NOT_EQUAL("!="), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">="), BETWEEN("BETWEEN");
+
+		private final String symbol;
+
+		Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		public String getSymbol() { return symbol; }
+	}
+
+	private final String columnName;
+	private final Operator operator;
+	private final String value;
+	private final String upperValue;
+
+	/**
+	 * Constructs a condition.
+	 *
+	 * @param columnName the column the condition applies to.
+	 * @param operator   the comparison.
+	 * @param value      the value compared with, or the lower bound of a BETWEEN.
+	 * @param upperValue the upper bound of a BETWEEN, ignored by the other operators.
+	 */
+	public Condition(String columnName, Operator operator, String value, String upperValue) {
+		if (columnName == null || operator == null || value == null) {
+			throw new IllegalArgumentException("Condition column, operator and value cannot be null.");
+		}
+		if (operator == Operator.BETWEEN && upperValue == null) {
+			throw new IllegalArgumentException("BETWEEN needs an upper bound.");
+		}
+		this.columnName = columnName;
+		this.operator = operator;
+		this.value = value;
+		this.upperValue = operator == Operator.BETWEEN ? upperValue : null;
+	}
+
+	public static Condition equalTo(String columnName, String value) {
+		return new Condition(columnName, Operator.EQUAL, value, null);
+	}
+
+	public static Condition notEqualTo(String columnName, String value) {
+		return new Condition(columnName, Operator.NOT_EQUAL, value, null);
+	}
+
+	public static Condition lessThan(String columnName, String value) {
+		return new Condition(columnName, Operator.LESS, value, null);
+	}
+
+	public static Condition lessThanOrEqualTo(String columnName, String value) {
+		return new Condition(columnName, Operator.LESS_OR_EQUAL, value, null);
+	}
+
+	public static Condition greaterThan(String columnName, String value) {
+		return new Condition(columnName, Operator.GREATER, value, null);
+	}
+
+	public static Condition greaterThanOrEqualTo(String columnName, String value) {
+		return new Condition(columnName, Operator.GREATER_OR_EQUAL, value, null);
+	}
+
+	/**
+	 * @return a condition holding for values from lower to upper, both included.
+	 */
+	public static Condition between(String columnName, String lower, String upper) {
+		return new Condition(columnName, Operator.BETWEEN, lower, upper);
+	}
+
+	public String getColumnName() { return columnName; }
+
+	public Operator getOperator() { return operator; }
+
+	public String getValue() { return value; }
+
+	public String getUpperValue() { return upperValue; }
+
+	/**
+	 * @return true for the operators a sorted index answers with a range of keys.
+	 */
+	public boolean isRange() {
+		return operator != Operator.EQUAL && operator != Operator.NOT_EQUAL;
+	}
+
+	/**
+	 * Checks a column value against the condition.
+	 *
+	 * @param columnValue the value of the column in a record.
+	 * @return true if the condition holds.
+	 */
+	public boolean matches(String columnValue) {
+		switch (operator) {
+			case EQUAL:
+				return columnValue.equals(value);
+			case NOT_EQUAL:
+				return !columnValue.equals(value);
+			case LESS:
+				return compareValues(columnValue, value) < 0;
+			case LESS_OR_EQUAL:
+				return compareValues(columnValue, value) <= 0;
+			case GREATER:
+				return compareValues(columnValue, value) > 0;
+			case GREATER_OR_EQUAL:
+				return compareValues(columnValue, value) >= 0;
+			default:
+				return compareValues(columnValue, value) >= 0 && compareValues(columnValue, upperValue) <= 0;
+		}
+	}
+
+	@Override
+	Candidates candidates(Function<Condition, CompressedBitmap> index, int recordsCount) {
+		CompressedBitmap positions = index.apply(this);
+		return positions == null ? new Candidates(null, this) : new Candidates(positions, null);
+	}
+
+	@Override
+	Predicate<String[]> toFilter(Table t) {
+		int columnIndex = t.getColumnIndex(columnName);
+		ColumnType type = t.getColumnType(columnIndex);
+		long[] bounds = primitiveBounds(type);
+		if (bounds == null) {
+			return record -> matches(record[columnIndex]);
+		}
+		// Only the cell is parsed, by its column's type
+		return record -> matchesBits(type, type.toBits(record[columnIndex]), bounds);
+	}
+
+	@Override
+	ParallelScan.PageFilter toPageFilter(Table t) {
+		int columnIndex = t.getColumnIndex(columnName);
+		ColumnType type = t.getColumnType(columnIndex);
+		long[] bounds = primitiveBounds(type);
+		if (bounds == null) {
+			return super.toPageFilter(t);
+		}
+		return (page, slot) -> {
+			long[] column = page.getPrimitiveColumn(columnIndex);
+			return matchesBits(type, column == null ? type.toBits(page.getRecord(slot)[columnIndex]) : column[slot], bounds);
+		};
+	}
+
+	/**
+	 * Converts the value, and the upper bound of a BETWEEN, to primitive values of a column's type.
+	 * Equality keeps matching the exact value, so a value not written in canonical form, such
+	 * as "07" for an INT column, is left to {@link #matches(String)} and matches no cell.
+	 *
+	 * @return the value and the upper bound, or null if the type is not primitive or they are not values of it.
+	 */
+	private long[] primitiveBounds(ColumnType type) {
+		if (!type.isPrimitive()) {
+			return null;
+		}
+		try {
+			long lower = type.toBits(value);
+			if ((operator == Operator.EQUAL || operator == Operator.NOT_EQUAL) && !type.format(lower).equals(value)) {
+				return null;
+			}
+			return new long[]{lower, operator == Operator.BETWEEN ? type.toBits(upperValue) : 0};
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private boolean matchesBits(ColumnType type, long cell, long[] bounds) {
+		switch (operator) {
+			case EQUAL:
+				return cell == bounds[0];
+			case NOT_EQUAL:
+				return cell != bounds[0];
+			case LESS:
+				return type.compareBits(cell, bounds[0]) < 0;
+			case LESS_OR_EQUAL:
+				return type.compareBits(cell, bounds[0]) <= 0;
+			case GREATER:
+				return type.compareBits(cell, bounds[0]) > 0;
+			case GREATER_OR_EQUAL:
+				return type.compareBits(cell, bounds[0]) >= 0;
+			default:
+				return type.compareBits(cell, bounds[0]) >= 0 && type.compareBits(cell, bounds[1]) <= 0;
+		}
+	}
+
+	@Override
+	void addColumns(Collection<String> columns) {
+		columns.add(columnName);
+	}
+
+	/**
+	 * Compares two values by type: numerically if both are numbers, as strings otherwise.
+	 * Numbers come before any other string. Values that are numerically equal but written
+	 * differently, such as "1" and "1.0", compare as equal.
+	 *
+	 * @return a negative number, zero or a positive number as a is less than, equal to or greater than b.
+	 */
+	public static int compareValues(String a, String b) {
+		boolean aNumber = isNumber(a);
+		boolean bNumber = isNumber(b);
+		if (aNumber && bNumber) {
+			if (isInteger(a) && isInteger(b) && a.length() < 19 && b.length() < 19) {
+				return Long.compare(Long.parseLong(a), Long.parseLong(b));
+			}
+			return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+		}
+		if (aNumber != bNumber) {
+			return aNumber ? -1 : 1;
+		}
+		return a.compareTo(b);
+	}
+
+	// Accepts an optional sign, digits and at most one decimal point, e.g. "-12" or "3.5"
+	static boolean isNumber(String s) {
+		int start = s.length() > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+') ? 1 : 0;
+		boolean digits = false;
+		boolean point = false;
+		for (int i = start; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits = true;
+			} else if (c == '.' && !point) {
+				point = true;
+			} else {
+				return false;
+			}
+		}
+		return digits;
+	}
+
+	private static boolean isInteger(String s) {
+		return s.indexOf('.') < 0;
+	}
+
+	@Override
+	public String toString() {
+		if (operator == Operator.BETWEEN) {
+			return columnName + " BETWEEN " + value + " AND " + upperValue;
+		}
+		return columnName + operator.getSymbol() + value;
+	}
+}
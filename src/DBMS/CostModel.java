@@ -0,0 +1,109 @@
+package DBMS;
+
+import java.util.Locale;
+
+/**
+ * Chooses between fetching the candidate records of an index lookup and scanning the
+ * whole table, by estimating the cost of each in units of one page read.
+ * <p>
+ * Fetching candidates reads only the pages holding one of them. With a selectivity s (the
+ * fraction of the records that are candidates) and p records per page, a page holds no
+ * candidate with probability (1 - s)^p, so the fetch is expected to read
+ * pages * (1 - (1 - s)^p) pages, each at {@link #randomPageCost}, and to look at every
+ * candidate. A scan reads every page in order and checks every record, but can split the
+ * pages over the threads of the {@link ParallelScan} pool. The fetch is chosen while it is
+ * cheaper, so the scan takes over once the selectivity crosses the point where the two
+ * estimates meet.
+ * <p>
+ * Every page of a table is its own file, so reading pages out of order costs about the same
+ * as reading them in order, and {@link #randomPageCost} defaults to 1. It can be raised for
+ * storage where out-of-order reads are slower.
+ */
+public class CostModel {
+	// Cost of reading a page out of order, relative to reading the next page of a scan
+	static double randomPageCost = 1.0;
+	// Cost of looking at one record, relative to reading a page
+	static double recordCost = 0.01;
+	// When false, an index lookup is always followed by fetching its candidates
+	static boolean enabled = true;
+
+	/**
+	 * The access path chosen for a select and the estimates it was chosen on.
+	 */
+	public static final class Plan {
+		private final boolean scan;
+		private final double selectivity;
+		private final double indexCost;
+		private final double scanCost;
+
+		Plan(boolean scan, double selectivity, double indexCost, double scanCost) {
+			this.scan = scan;
+			this.selectivity = selectivity;
+			this.indexCost = indexCost;
+			this.scanCost = scanCost;
+		}
+
+		/**
+		 * @return true if the table is scanned, false if the index candidates are fetched.
+		 */
+		public boolean isScan() { return scan; }
+
+		/**
+		 * @return the fraction of the records that are index candidates.
+		 */
+		public double getSelectivity() { return selectivity; }
+
+		public double getIndexCost() { return indexCost; }
+
+		public double getScanCost() { return scanCost; }
+
+		@Override
+		public String toString() {
+			if (Double.isNaN(indexCost)) {
+				return "sequential scan (no index narrows the select)";
+			}
+			return String.format(Locale.ROOT, "%s (selectivity %.3f, index cost %.1f, scan cost %.1f)",
+					scan ? "sequential scan" : "index fetch", selectivity, indexCost, scanCost);
+		}
+	}
+
+	/**
+	 * Chooses how to read the records of an index lookup.
+	 *
+	 * @param t          the table.
+	 * @param candidates the number of candidate positions the indexes gave.
+	 * @param parallel   whether a scan would run on the {@link ParallelScan} pool.
+	 * @return the chosen plan.
+	 */
+	public static Plan choose(Table t, int candidates, boolean parallel) {
+		int pagesCount = t.getPagesCount();
+		int recordsCount = t.getRecordsCount();
+		double selectivity = recordsCount == 0 ? 0 : Math.min(1.0, (double) candidates / recordsCount);
+
+		double pagesTouched = pagesCount * (1 - Math.pow(1 - selectivity, t.getPageSize()));
+		pagesTouched = Math.min(pagesTouched, Math.min(candidates, pagesCount));
+		double indexCost = pagesTouched * randomPageCost + candidates * recordCost;
+
+		double scanCost = pagesCount + recordsCount * recordCost;
+		if (parallel) {
+			scanCost /= scanThreads(pagesCount);
+		}
+		return new Plan(enabled && scanCost < indexCost, selectivity, indexCost, scanCost);
+	}
+
+	/**
+	 * @return the plan of a select no index can narrow down, which scans the table.
+	 */
+	public static Plan scanOnly(Table t) {
+		return new Plan(true, 1.0, Double.NaN, t.getPagesCount() + t.getRecordsCount() * recordCost);
+	}
+
+	// The number of threads a parallel scan of the pages keeps busy
+	private static int scanThreads(int pagesCount) {
+		if (pagesCount <= ParallelScan.pagesPerTask) {
+			return 1;
+		}
+		int tasks = (pagesCount + ParallelScan.pagesPerTask - 1) / ParallelScan.pagesPerTask;
+		return Math.max(1, Math.min(tasks, ParallelScan.getParallelism()));
+	}
+}
@@ -3,7 +3,12 @@ package DBMS;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -14,13 +19,33 @@ import static org.junit.Assert.assertTrue;
 /**
  * The main class representing the Database Management System (DBMS).
  * It provides functionalities for creating tables, inserting records, and selecting data.
+ * <p>
+ * Its methods may be called from several threads: changes to a table run alone under its
+ * write lock (see {@link TableLocks}), while selects read the table as it was last committed
+ * without taking a lock (see {@link TableSnapshots}), so they neither wait for nor delay inserts.
  */
 public class DBApp {
 	static int dataPageSize = 2;
 
-	// A map to store traces for each table.
-	private static Map<String, ArrayList<String>> tableTraces = new HashMap<>();
-	private static HashMap<String, ArrayList<String>> tableIndices = new HashMap<String, ArrayList<String>>();
+	// When enabled, inserts are made durable through the write-ahead log and the data files are written at checkpoints.
+	private static boolean useWriteAheadLog = false;
+	// Size the write-ahead log may reach before the next insert triggers a checkpoint.
+	static long checkpointLogSize = 4 * 1024 * 1024;
+	// When inserts reach the data files, see setDurability.
+	private static Durability durability = Durability.SYNC;
+	// When enabled, index selects load the next page holding a match while the current one is filtered.
+	static boolean prefetchPages = false;
+
+	// A map to store traces for each table. The maps are shared by every thread; a table's
+	// index lists are copy-on-write, as selects read them without a lock, and its trace is thread safe.
+	private static Map<String, TraceLog> tableTraces = new ConcurrentHashMap<>();
+	private static Map<String, List<String>> tableIndices = new ConcurrentHashMap<String, List<String>>();
+	// The columns of each table with a sorted (B+-tree) index, answering range conditions
+	private static Map<String, List<String>> tableSortedIndices = new ConcurrentHashMap<>();
+
+	static {
+		recoverFromWriteAheadLog();
+	}
 
 	// MILESTONE 1
 	/**
@@ -31,34 +56,56 @@ public class DBApp {
 	 */
 
 	public static void createTable(String tableName, String[] columnsNames) {
-		if (tableName == null || tableName == "" || tableName == " ") {
-			throw new IllegalArgumentException("Table name cannot be null or empty");
-		}
-		if (columnsNames == null || columnsNames.length == 0) {
-			throw new IllegalArgumentException("Column names cannot be null or empty");
-		}
+		createTable(tableName, columnsNames, null);
+	}
 
-		tableTraces.put(tableName, new ArrayList<>());
-		tableIndices.put(tableName, new ArrayList<String>());
+	/**
+	 * Creates a new table with typed columns. Cells of INT, LONG, DOUBLE and DATE columns are
+	 * checked and written in canonical form on insert, kept as primitive values in the pages
+	 * and compared as such by conditions (see {@link ColumnType}).
+	 *
+	 * @param tableName    The name of the table you want to create.
+	 * @param columnsNames The list of column names for the table.
+	 * @param columnTypes  The type of each column, or null for STRING columns only.
+	 */
+	public static void createTable(String tableName, String[] columnsNames, ColumnType[] columnTypes) {
+		TableLocks.write(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty");
+			}
+			if (columnsNames == null || columnsNames.length == 0) {
+				throw new IllegalArgumentException("Column names cannot be null or empty");
+			}
+			if (columnTypes != null && (columnTypes.length != columnsNames.length || Arrays.asList(columnTypes).contains(null))) {
+				throw new IllegalArgumentException("Column types must give one type per column.");
+			}
 
-		if (FileManager.loadTable(tableName) != null) {
-			throw new IllegalArgumentException("Table '" + tableName + "' already exists.");
-		}
+			tableTraces.put(tableName, new TraceLog(tableName));
+			tableIndices.put(tableName, new CopyOnWriteArrayList<String>());
+			tableSortedIndices.put(tableName, new CopyOnWriteArrayList<String>());
 
-		File tablesDir = new File("Tables");
-		if (!tablesDir.exists() && !tablesDir.mkdirs()) {
-			return;
-		}
+			if (FileManager.loadTable(tableName) != null) {
+				throw new IllegalArgumentException("Table '" + tableName + "' already exists.");
+			}
 
-		if (!tablesDir.canWrite()) {
-			return;
-		}
+			File tablesDir = new File("Tables");
+			if (!tablesDir.exists() && !tablesDir.mkdirs()) {
+				return;
+			}
 
-		Table newTable = new Table(tableName,dataPageSize, columnsNames);
-		FileManager.storeTable(tableName, newTable);
-		// Log the creation trace
-		tableTraces.get(tableName).add("Table created name:" + tableName + ", columnsNames:" + Arrays.toString(columnsNames));
+			if (!tablesDir.canWrite()) {
+				return;
+			}
 
+			Table newTable = new Table(tableName,dataPageSize, columnsNames, columnTypes);
+			FileManager.storeTable(tableName, newTable);
+			// Log the creation trace
+			tableTraces.get(tableName).add("Table created name:" + tableName + ", columnsNames:" + Arrays.toString(columnsNames)
+					+ (columnTypes == null ? "" : ", columnTypes:" + Arrays.toString(columnTypes)));
+		});
+		if (useWriteAheadLog) {
+			checkpoint(); // The log only covers inserts, so the new table is written right away
+		}
 	}
 
 
@@ -69,50 +116,482 @@ public class DBApp {
 	 * @param record    An array of values representing the record.
 	 */
 	public static void insert(String tableName, String[] record) {
-		if (tableName == null || tableName == "" || tableName == " ") {
-			throw new IllegalArgumentException("Table name cannot be null or empty.");
+		TableLocks.write(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
+
+			if (record == null || record.length == 0) {
+				throw new IllegalArgumentException("Record cannot be null or empty.");
+			}
+
+			Table t = FileManager.loadTable(tableName);
+			if (t != null) {
+				long startTime = System.nanoTime();  // Start time for execution time calculation
+				String[] stored = t.normalize(record);
+				if (useWriteAheadLog) {
+					try {
+						WriteAheadLog.commit(WriteAheadLog.append(tableName, t.getRecordsCount(), stored));
+					} catch (IOException e) {
+						System.err.println("Error: Insert into table '" + tableName + "' could not be logged: " + e.getMessage());
+						return;
+					}
+				}
+
+				if (!applyInsert(t, stored, tableIndices.get(tableName), tableSortedIndices.get(tableName))) {
+					abortLogged(tableName, t.getRecordsCount());
+					return;
+				}
+
+				boolean storeTable = FileManager.storeTable(tableName, t);
+				if(!storeTable) {
+					System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+				}
+
+				long executionTime = Metrics.record(Metrics.INSERT, startTime) / 1000000;  // Convert to milliseconds
+
+				// Log the insert trace directly with execution time
+				int lastPageNumber = t.getPagesCount() - 1;
+				tableTraces.get(tableName).inserted(stored, lastPageNumber, executionTime);
+			} else {
+				System.err.println("Error: Table '" + tableName + "' not found.");
+			}
+		});
+		checkpointIfLogFull();
+		awaitDurability(Collections.singletonList(record));
+	}
+
+	/**
+	 * Inserts several records into the specified table in one pass.
+	 * <p>
+	 * Pages are filled in memory and each touched page is written once, each bitmap index
+	 * is loaded and stored once, and the table is stored once, instead of once per record.
+	 * A single trace line summarizes the batch.
+	 *
+	 * @param tableName The name of the table to insert into.
+	 * @param records   The records to insert, in order.
+	 */
+	public static void insertBatch(String tableName, List<String[]> records) {
+		TableLocks.write(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
+
+			if (records == null || records.isEmpty()) {
+				throw new IllegalArgumentException("Records cannot be null or empty.");
+			}
+			for (String[] record : records) {
+				if (record == null || record.length == 0) {
+					throw new IllegalArgumentException("Record cannot be null or empty.");
+				}
+			}
+
+			Table t = FileManager.loadTable(tableName);
+			if (t != null) {
+				long startTime = System.nanoTime();
+				List<String[]> stored = records;
+				if (t.getColumnTypes() != null) {
+					stored = new ArrayList<>(records.size());
+					for (String[] record : records) {
+						stored.add(t.normalize(record));
+					}
+				}
+				int firstPageNumber = Math.max(t.getPagesCount() - 1, 0);
+				if (useWriteAheadLog) {
+					try {
+						long position = 0;
+						for (int i = 0; i < stored.size(); i++) {
+							position = WriteAheadLog.append(tableName, t.getRecordsCount() + i, stored.get(i));
+						}
+						WriteAheadLog.commit(position);
+					} catch (IOException e) {
+						System.err.println("Error: Batch insert into table '" + tableName + "' could not be logged: " + e.getMessage());
+						return;
+					}
+				}
+
+				int inserted = applyInsert(t, stored, tableIndices.get(tableName), tableSortedIndices.get(tableName));
+				if (inserted < stored.size()) {
+					abortLogged(tableName, t.getRecordsCount());
+				}
+				if (inserted == 0) {
+					return;
+				}
+
+				boolean storeTable = FileManager.storeTable(tableName, t);
+				if(!storeTable) {
+					System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+				}
+
+				long executionTime = Metrics.record(Metrics.INSERT_BATCH, startTime) / 1000000;
+
+				tableTraces.get(tableName).insertedBatch(inserted, firstPageNumber, t.getPagesCount() - 1, executionTime);
+			} else {
+				System.err.println("Error: Table '" + tableName + "' not found.");
+			}
+		});
+		checkpointIfLogFull();
+		awaitDurability(records);
+	}
+
+	/**
+	 * Loads a CSV or TSV file into the specified table. The delimiter is a tab for files
+	 * ending in ".tsv" and a comma otherwise, and the first row is taken as a header.
+	 *
+	 * @param tableName The name of the table to load into.
+	 * @param filePath  The path of the file to load.
+	 * @return The number of rows loaded and the load speed, or null if the load failed.
+	 */
+	public static BulkLoader.Result bulkLoad(String tableName, String filePath) {
+		char delimiter = filePath != null && filePath.toLowerCase().endsWith(".tsv") ? '\t' : ',';
+		return bulkLoad(tableName, filePath, delimiter, true);
+	}
+
+	/**
+	 * Streams a delimited file into the specified table.
+	 * <p>
+	 * Unlike {@link #insert(String, String[])} in a loop, records are not persisted one by
+	 * one: pages are built in memory and each page file is written once, in page order, the
+	 * bitmap indexes of the table are filled in the same pass and stored once, and the table
+	 * is stored last. Only one page of records is held in memory at a time.
+	 *
+	 * @param tableName The name of the table to load into.
+	 * @param filePath  The path of the file to load.
+	 * @param delimiter The field delimiter.
+	 * @param hasHeader Whether the first row holds column names and must be skipped.
+	 * @return The number of rows loaded and the load speed, or null if the load failed.
+	 */
+	public static BulkLoader.Result bulkLoad(String tableName, String filePath, char delimiter, boolean hasHeader) {
+		if (useWriteAheadLog || durability != Durability.SYNC) {
+			flush(); // Loaded rows are not logged and pages are written directly, so the data files must be current first
 		}
+		BulkLoader.Result loaded = TableLocks.write(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
+			if (filePath == null || filePath.isEmpty()) {
+				throw new IllegalArgumentException("File path cannot be null or empty.");
+			}
+
+			Table t = FileManager.loadTable(tableName);
+			if (t == null) {
+				System.err.println("Error: Table '" + tableName + "' not found.");
+				return null;
+			}
 
-		if (record == null || record.length == 0) {
-			throw new IllegalArgumentException("Record cannot be null or empty.");
+			String[] colNames = t.getColumnNames();
+			Collection<String> indexedColumns = tableIndices.get(tableName);
+			HashMap<Integer, BitmapIndex> indexes = new HashMap<>();
+			for (int i = 0; i < colNames.length; i++) {
+				if (indexedColumns != null && indexedColumns.contains(colNames[i])) {
+					BitmapIndex b = FileManager.loadTableIndex(tableName, colNames[i]);
+					if (b != null) {
+						indexes.put(i, b);
+					}
+				}
+			}
+
+			long startTime = System.nanoTime();
+			int firstPageNumber = Math.max(t.getPagesCount() - 1, 0);
+			int firstRecordIndex = t.getRecordsCount();
+			BulkLoader.Result result;
+			try {
+				result = BulkLoader.load(t, new File(filePath).toPath(), delimiter, hasHeader, indexes);
+			} catch (IOException e) {
+				System.err.println("Error: File '" + filePath + "' could not be loaded into table '" + tableName + "': " + e.getMessage());
+				return null;
+			}
+
+			// The table is stored last, so its pages and indexes are on disk before it refers to them
+			for (Map.Entry<Integer, BitmapIndex> index : indexes.entrySet()) {
+				if (!FileManager.storeTableIndex(tableName, colNames[index.getKey()], index.getValue())) {
+					System.err.println("Error: Index on column '" + colNames[index.getKey()] + "' could not be stored.");
+				}
+			}
+			// Sorted indexes are filled from the new pages, which BulkLoader does not keep in memory
+			Collection<String> sortedColumns = tableSortedIndices.get(tableName);
+			for (int i = 0; sortedColumns != null && i < colNames.length; i++) {
+				SortedIndex s = sortedColumns.contains(colNames[i]) ? FileManager.loadTableSortedIndex(tableName, colNames[i]) : null;
+				if (s != null) {
+					s.addRecords(t, i, firstRecordIndex);
+					if (!FileManager.storeTableSortedIndex(tableName, colNames[i], s)) {
+						System.err.println("Error: Sorted index on column '" + colNames[i] + "' could not be stored.");
+					}
+				}
+			}
+			if (!FileManager.storeTable(tableName, t)) {
+				System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+			}
+			long executionTime = Metrics.record(Metrics.BULK_LOAD, startTime) / 1000000;
+			if (tableTraces.get(tableName) != null) {
+				tableTraces.get(tableName).add("Bulk loaded:" + result.getRowsCount() + " records from " + new File(filePath).getName() +
+						", at page numbers:" + firstPageNumber + "-" + (t.getPagesCount() - 1) +
+						", rows/sec:" + result.getRowsPerSecond() + ", bytes/sec:" + result.getBytesPerSecond() +
+						", execution time (mil):" + executionTime);
+			}
+			return result;
+		});
+		if (useWriteAheadLog || durability != Durability.SYNC) {
+			flush(); // The loaded pages and indexes were written directly, the rest is written now
 		}
+		return loaded;
+	}
 
-		Table t = FileManager.loadTable(tableName);
-		if (t != null) {
-			long startTime = System.nanoTime();  // Start time for execution time calculation
-			t.insert(record);
+	/**
+	 * Adds a record to a table and to the bitmap and sorted indexes of the given columns.
+	 * The table itself is not stored.
+	 *
+	 * @param t              the table to insert into.
+	 * @param record         the record to insert.
+	 * @param indexedColumns the columns with a bitmap index, or null if there are none.
+	 * @param sortedColumns  the columns with a sorted index, or null if there are none.
+	 * @return false if the record could not be added to the table.
+	 */
+	private static boolean applyInsert(Table t, String[] record, Collection<String> indexedColumns, Collection<String> sortedColumns) {
+		return applyInsert(t, Collections.singletonList(record), indexedColumns, sortedColumns) == 1;
+	}
 
-			if(tableIndices.containsKey(tableName)) {
-				ArrayList<String> indices = tableIndices.get(tableName);
-				String[] colNames = t.getColumnNames();
-				String colName;
-				for (int i = 0; i < colNames.length; i++) {
-					colName = colNames[i];
-					if (indices != null && indices.contains(colName)) {
-						BitmapIndex b = FileManager.loadTableIndex(tableName, colName);
-						if(b != null){
-							b.insertIntoBitMapIndex(record[i], t.getRecordsCount()-1);
-							FileManager.storeTableIndex(tableName,colName,b);
+	// Cancels the logged inserts of a table from a position on, after they could not be applied
+	private static void abortLogged(String tableName, int recordIndex) {
+		if (!useWriteAheadLog) {
+			return;
+		}
+		try {
+			WriteAheadLog.commit(WriteAheadLog.abort(tableName, recordIndex));
+		} catch (IOException e) {
+			System.err.println("Error: Failed insert into table '" + tableName + "' could not be cancelled in the log: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Appends records to a table and to the bitmap and sorted indexes of the given columns,
+	 * loading and storing each index once. The table itself is not stored.
+	 *
+	 * @param t              the table to insert into.
+	 * @param records        the records to insert, in order.
+	 * @param indexedColumns the columns with a bitmap index, or null if there are none.
+	 * @param sortedColumns  the columns with a sorted index, or null if there are none.
+	 * @return the number of records added to the table.
+	 */
+	private static int applyInsert(Table t, List<String[]> records, Collection<String> indexedColumns, Collection<String> sortedColumns) {
+		int firstRecordIndex = t.getRecordsCount();
+		int inserted = t.insertBatch(records);
+
+		if (inserted > 0 && indexedColumns != null) {
+			String[] colNames = t.getColumnNames();
+			for (int i = 0; i < colNames.length; i++) {
+				if (indexedColumns.contains(colNames[i])) {
+					BitmapIndex b = FileManager.loadTableIndex(t.getTableName(), colNames[i]);
+					if (b != null) {
+						ArrayList<String> values = new ArrayList<>(inserted);
+						for (int r = 0; r < inserted; r++) {
+							values.add(records.get(r)[i]);
 						}
+						b.insertIntoBitMapIndex(values, firstRecordIndex);
+						FileManager.storeTableIndex(t.getTableName(), colNames[i], b);
 					}
 				}
 			}
+		}
+		if (inserted > 0 && sortedColumns != null) {
+			String[] colNames = t.getColumnNames();
+			for (int i = 0; i < colNames.length; i++) {
+				SortedIndex s = sortedColumns.contains(colNames[i]) ? FileManager.loadTableSortedIndex(t.getTableName(), colNames[i]) : null;
+				if (s != null) {
+					for (int r = 0; r < inserted; r++) {
+						s.insert(records.get(r)[i], firstRecordIndex + r);
+					}
+					FileManager.storeTableSortedIndex(t.getTableName(), colNames[i], s);
+				}
+			}
+		}
+		return inserted;
+	}
 
-			boolean storeTable = FileManager.storeTable(tableName, t);
-			if(!storeTable) {
-				System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+	/**
+	 * Enables or disables the write-ahead log for inserts.
+	 * <p>
+	 * While it is enabled, an insert is durable once it is appended to the log, and the page,
+	 * table and index files are only written at checkpoints. Disabling it checkpoints first.
+	 *
+	 * @param enabled true to log inserts and checkpoint the data files lazily.
+	 */
+	public static void setWriteAheadLog(boolean enabled) {
+		if (!enabled) {
+			checkpoint();
+		}
+		useWriteAheadLog = enabled;
+		FileManager.setDeferredWrites(enabled || durability != Durability.SYNC);
+	}
+
+	/**
+	 * When inserted records reach the page, table and index files.
+	 * <p>
+	 * With the write-ahead log enabled, an insert is durable once it is logged whatever the
+	 * mode, and {@link #GROUP} does not wait for the data files.
+	 */
+	public enum Durability {
+		/** Every insert writes its page, table and index files before returning. */
+		SYNC,
+		/**
+		 * Inserts change the cached files and return once a background flush that includes
+		 * them has completed. Inserters waiting at the same time share one flush.
+		 */
+		GROUP,
+		/**
+		 * Inserts change the cached files and return right away. A background flush writes
+		 * them shortly after, see {@link WriteBehindFlusher}, so the latest inserts are lost
+		 * if the process dies first.
+		 */
+		ASYNC
+	}
+
+	/**
+	 * Sets when inserts reach the data files. Switching back to {@link Durability#SYNC}
+	 * flushes everything pending first.
+	 *
+	 * @param mode the durability mode.
+	 */
+	public static void setDurability(Durability mode) {
+		if (mode == null) {
+			throw new IllegalArgumentException("Durability mode cannot be null.");
+		}
+		if (mode == Durability.SYNC) {
+			flush();
+		}
+		durability = mode;
+		FileManager.setDeferredWrites(useWriteAheadLog || mode != Durability.SYNC);
+		WriteBehindFlusher.setEnabled(mode != Durability.SYNC);
+	}
+
+	/**
+	 * @return the current durability mode.
+	 */
+	public static Durability getDurability() {
+		return durability;
+	}
+
+	/**
+	 * Writes every dirty page, pending table and dirty index to disk now. With the
+	 * write-ahead log enabled this is a {@link #checkpoint()}, which also empties the log.
+	 *
+	 * @return false if anything could not be written.
+	 */
+	public static boolean flush() {
+		if (useWriteAheadLog) {
+			return checkpoint();
+		}
+		if (TableLocks.isHeldByCurrentThread()) {
+			// Waiting for the other writers to finish could wait for this thread
+			System.err.println("Error: Flush requested while holding a table lock, skipped.");
+			return false;
+		}
+		return TableLocks.exclusive(() -> {
+			if (!FileManager.flush()) {
+				System.err.println("Error: Flush failed, some pages, tables or indexes were not written.");
+				return false;
 			}
+			return true;
+		});
+	}
 
-			long endTime = System.nanoTime();  // End time for execution time calculation
-			long executionTime = (endTime - startTime) / 1000000;  // Convert to milliseconds
+	// Waits for or schedules the flush of inserted records, depending on the durability mode
+	private static void awaitDurability(List<String[]> records) {
+		if (durability == Durability.SYNC) {
+			return;
+		}
+		if (durability == Durability.GROUP && !useWriteAheadLog) {
+			if (!WriteBehindFlusher.awaitFlush()) {
+				System.err.println("Error: Inserted records could not be flushed.");
+			}
+			return;
+		}
+		long bytes = 0;
+		for (String[] record : records) {
+			for (String cell : record) {
+				bytes += cell == null ? 0 : cell.length();
+			}
+		}
+		WriteBehindFlusher.written(bytes);
+	}
+
+	/**
+	 * Writes every pending page, table and index to disk and empties the write-ahead log.
+	 *
+	 * @return false if the data files could not be written or the log could not be emptied.
+	 */
+	public static boolean checkpoint() {
+		if (TableLocks.isHeldByCurrentThread()) {
+			// Waiting for the other writers to finish could wait for this thread
+			System.err.println("Error: Checkpoint requested while holding a table lock, skipped.");
+			return false;
+		}
+		return TableLocks.exclusive(() -> {
+			if (!FileManager.flush()) {
+				System.err.println("Error: Checkpoint failed, the write-ahead log is kept.");
+				return false;
+			}
+			try {
+				WriteAheadLog.truncate();
+				return true;
+			} catch (IOException e) {
+				System.err.println("Error: Write-ahead log could not be emptied: " + e.getMessage());
+				return false;
+			}
+		});
+	}
 
-			// Log the insert trace directly with execution time
-			int lastPageNumber = t.getPages().get(t.getPages().size() - 1).getPageNumber();
-			tableTraces.get(tableName).add("Inserted:[" + String.join(", ", record) + "], at page number:" + lastPageNumber + ", execution time (mil):" + executionTime);
+	// Checkpoints once the write-ahead log has grown past checkpointLogSize
+	private static void checkpointIfLogFull() {
+		if (useWriteAheadLog && WriteAheadLog.size() >= checkpointLogSize) {
+			checkpoint();
+		}
+	}
 
-		} else {
-			System.err.println("Error: Table '" + tableName + "' not found.");
+	/**
+	 * Re-applies the logged inserts that never reached the data files, for example after a
+	 * crash, and then checkpoints. Inserts whose position is already taken in the table
+	 * were checkpointed before and are skipped, and inserts that failed were cancelled in
+	 * the log and are not read back.
+	 */
+	private static void recoverFromWriteAheadLog() {
+		ArrayList<WriteAheadLog.Entry> entries = WriteAheadLog.read();
+		if (entries.isEmpty()) {
+			return;
+		}
+
+		HashMap<String, ArrayList<String>> indexedColumns = new HashMap<>();
+		HashMap<String, ArrayList<String>> sortedColumns = new HashMap<>();
+		for (WriteAheadLog.Entry entry : entries) {
+			String tableName = entry.getTableName();
+			Table t = FileManager.loadTable(tableName);
+			if (t == null || entry.getRecordIndex() < t.getRecordsCount()) {
+				continue;
+			}
+			if (entry.getRecordIndex() > t.getRecordsCount()) {
+				System.err.println("Error: Logged insert at position " + entry.getRecordIndex() + " of table '" + tableName + "' is past its end.");
+				continue;
+			}
+
+			if (!indexedColumns.containsKey(tableName)) {
+				ArrayList<String> columns = new ArrayList<>();
+				ArrayList<String> sorted = new ArrayList<>();
+				for (String colName : t.getColumnNames()) {
+					if (FileManager.loadTableIndex(tableName, colName) != null) {
+						columns.add(colName);
+					}
+					if (FileManager.loadTableSortedIndex(tableName, colName) != null) {
+						sorted.add(colName);
+					}
+				}
+				indexedColumns.put(tableName, columns);
+				sortedColumns.put(tableName, sorted);
+			}
+			if (applyInsert(t, entry.getRecord(), indexedColumns.get(tableName), sortedColumns.get(tableName))) {
+				FileManager.storeTable(tableName, t);
+			}
 		}
+		checkpoint();
 	}
 
 	public static ArrayList<String[]> select(String tableName) {
@@ -122,15 +601,14 @@ public class DBApp {
 
 		long startTime = System.nanoTime();  // Start time for execution time calculation
 
-		Table t = FileManager.loadTable(tableName);
+		Table t = TableSnapshots.open(tableName);
 		ArrayList<String[]> result = t.getRecords();
 
-		long endTime = System.nanoTime();  // End time for execution time calculation
-		long executionTime = (endTime - startTime) / 1000000;  // Convert to milliseconds
+		long executionTime = Metrics.record(Metrics.SELECT_ALL, startTime) / 1000000;  // Convert to milliseconds
 
 
 		// Log the select trace directly with execution time
-		tableTraces.get(tableName).add("Select all pages:" + t.getPages().size() + ", records:" + result.size() + ", execution time (mil):" + executionTime);
+		tableTraces.get(tableName).selectedAll(t.getPagesCount(), result.size(), executionTime);
 
 
 		return result;
@@ -144,7 +622,7 @@ public class DBApp {
 		long startTime = System.nanoTime();  // Start time for execution time calculation
 
 
-		Table t = FileManager.loadTable(tableName);
+		Table t = TableSnapshots.open(tableName);
 		if (t == null) {
 			System.out.println("Table " + tableName + " not found.");
 			return new ArrayList<>();
@@ -156,18 +634,18 @@ public class DBApp {
 			return new ArrayList<>();
 		}
 
-		String[] record = page.getRecord(recordNumber);
+		// The page may already hold records of an insert that is not committed yet
+		String[] record = recordNumber >= 0 && recordNumber < t.getPageRecordsCount(pageNumber) ? page.getRecord(recordNumber) : null;
 		ArrayList<String[]> result = new ArrayList<>();
 
 		if (record != null) {
-			result.add(record);
+			result.add(record.clone());
 		}
 
-		long endTime = System.nanoTime();
-		long executionTime = (endTime - startTime) / 1000000;
+		long executionTime = Metrics.record(Metrics.SELECT_POINTER, startTime) / 1000000;
 
 
-		tableTraces.get(tableName).add("Select pointer page:" + pageNumber + ", record:" + recordNumber + ", total output count:" + result.size() + ", execution time (mil):" + executionTime);
+		tableTraces.get(tableName).selectedPointer(pageNumber, recordNumber, result.size(), executionTime);
 
 		return result;
 	}
@@ -180,21 +658,18 @@ public class DBApp {
 		}
 
 		long startTime = System.nanoTime();
-		Table t = FileManager.loadTable(tableName);
+		Table t = TableSnapshots.open(tableName);
 
 		if (t == null) {
 			System.out.println("Table " + tableName + " not found.");
 			return new ArrayList<>();
 		}
 
-		ArrayList<String[]> records = t.getRecords();
-		ArrayList<String[]> result = new ArrayList<>();
-
-
 		String[] columnNames = t.getColumnNames();
-		ArrayList<Integer> colIndexes = new ArrayList<>();
+		int[] colIndexes = new int[cols.length];
 
-		for (String col : cols) {
+		for (int c = 0; c < cols.length; c++) {
+			String col = cols[c];
 			int index = -1;
 
 			for (int i = 0; i < columnNames.length; i++) {
@@ -209,72 +684,156 @@ public class DBApp {
 				return new ArrayList<>();
 			}
 
-			colIndexes.add(index);
+			colIndexes[c] = index;
 		}
 
-		for (String[] record : records) {
-			boolean match = true;
-			for (int i = 0; i < cols.length; i++) {
-				int colIndex = colIndexes.get(i);
-				if (!record[colIndex].equals(vals[i])) {
-					match = false;
-					break;
+		// Pages are scanned in parallel; the predicate runs once per record and also yields the per-page counts
+		ParallelScan.Result scan = ParallelScan.scan(t, record -> {
+			for (int i = 0; i < colIndexes.length; i++) {
+				if (!record[colIndexes[i]].equals(vals[i])) {
+					return false;
 				}
 			}
-			if (match) {
-				result.add(record);
-			}
-		}
+			return true;
+		});
+		ArrayList<String[]> result = scan.getRecords();
 
-		long endTime = System.nanoTime();
-		long executionTime = (endTime - startTime) / 1000000;
+		long executionTime = Metrics.record(Metrics.SELECT_CONDITION, startTime) / 1000000;
 
-		Map<Integer, Integer> pageMatchCounts = new TreeMap<>();
-		for (Page page : t.getPages()) {
-			int pageNum = page.getPageNumber();
-			int count = 0;
-			for (String[] rec : page.getRecords()) {
-				boolean match = true;
-				for (int i = 0; i < cols.length; i++) {
-					int colIndex = colIndexes.get(i);
-					if (!rec[colIndex].equals(vals[i])) {
-						match = false;
-						break;
-					}
-				}
-				if (match) count++;
-			}
-			if (count > 0) {
-				pageMatchCounts.put(pageNum, count);
-			}
+		tableTraces.get(tableName).selectedCondition(TraceLog.condition(cols, vals), scan.getPageMatchCounts(), result.size(), executionTime);
+
+		return result;
+	}
+
+	/**
+	 * Selects the records meeting every condition by scanning the table's pages in parallel.
+	 * Unlike {@link #select(String, String[], String[])}, conditions may compare with
+	 * {@code <}, {@code <=}, {@code >}, {@code >=}, {@code !=} or {@code BETWEEN}; see {@link Condition}.
+	 *
+	 * @param tableName  The name of the table.
+	 * @param conditions The conditions, such as {@code Condition.between("age", "18", "30")}.
+	 * @return The matching records in table order.
+	 */
+	public static ArrayList<String[]> select(String tableName, Condition[] conditions) {
+		if(tableName == null || tableName == "" || tableName == " ") {
+			throw new IllegalArgumentException("Table name cannot be null or empty.");
 		}
-		String entrySet = pageMatchCounts.entrySet().stream()
-				.map(e -> "[" + e.getKey() + ", " + e.getValue() + "]")
-				.collect(Collectors.joining(", ", "[", "]"));
 
-		tableTraces.get(tableName).add("Select condition:" + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-				", Records per page:" + entrySet +
-				", records:" + result.size() + ", execution time (mil):" + executionTime);
+		long startTime = System.nanoTime();
+		Table t = TableSnapshots.open(tableName);
+		if (t == null) {
+			System.out.println("Table " + tableName + " not found.");
+			return new ArrayList<>();
+		}
+		Expression where = Expression.and(conditions);
+		String missing = findMissingColumn(t, where);
+		if (missing != null) {
+			System.out.println("Column " + missing + " not found.");
+			return new ArrayList<>();
+		}
+
+		ParallelScan.Result scan = ParallelScan.scan(t, where.toPageFilter(t));
+		ArrayList<String[]> result = scan.getRecords();
 
+		long executionTime = Metrics.record(Metrics.SELECT_CONDITION, startTime) / 1000000;
+		tableTraces.get(tableName).selectedCondition(TraceLog.list(conditions), scan.getPageMatchCounts(), result.size(), executionTime);
 		return result;
 	}
 
-	public static String getFullTrace(String tableName) {
+	/**
+	 * Opens a cursor over every record of a table. Unlike {@link #select(String)}, the
+	 * records are not collected in a list: pages are loaded one at a time as the cursor
+	 * advances, so tables larger than the heap can be scanned. The select trace is added
+	 * when the cursor is closed.
+	 *
+	 * @param tableName The name of the table.
+	 * @return A cursor over the records in table order, empty if the table does not exist.
+	 */
+	public static RecordCursor selectCursor(String tableName) {
+		if(tableName == null || tableName == "" || tableName == " ") {
+			throw new IllegalArgumentException("Table name cannot be null or empty.");
+		}
+
+		long startTime = System.nanoTime();
+		Table t = TableSnapshots.open(tableName);
+		if (t == null) {
+			System.out.println("Table " + tableName + " not found.");
+			return RecordCursor.empty();
+		}
+
+		RecordCursor cursor = new RecordCursor(t, null, null, prefetchPages);
+		cursor.setOnClose(() -> {
+			long executionTime = Metrics.record(Metrics.SELECT_CURSOR, startTime) / 1000000;
+			tableTraces.get(tableName).selectedCursorAll(t.getPagesCount(), cursor.getRecordsReturned(), cursor.getPagesRead(), executionTime);
+		});
+		return cursor;
+	}
+
+	/**
+	 * Opens a cursor over the records of a table matching every condition, scanning the
+	 * pages lazily. This is the streaming counterpart of {@link #select(String, String[], String[])}.
+	 *
+	 * @param tableName The name of the table.
+	 * @param cols      The columns of the conditions.
+	 * @param vals      The values the columns must hold.
+	 * @return A cursor over the matching records in table order, empty if the table or a column does not exist.
+	 */
+	public static RecordCursor selectCursor(String tableName, String[] cols, String[] vals) {
+		return selectCursor(tableName, equalityConditions(cols, vals));
+	}
+
+	/**
+	 * Opens a cursor over the records of a table meeting every condition, scanning the
+	 * pages lazily. This is the streaming counterpart of {@link #select(String, Condition[])}.
+	 *
+	 * @param tableName  The name of the table.
+	 * @param conditions The conditions, such as {@code Condition.greaterThan("age", "21")}.
+	 * @return A cursor over the matching records in table order, empty if the table or a column does not exist.
+	 */
+	public static RecordCursor selectCursor(String tableName, Condition[] conditions) {
 		if(tableName == null || tableName == "" || tableName == " ") {
 			throw new IllegalArgumentException("Table name cannot be null or empty.");
 		}
 
-		ArrayList<String> trace = (ArrayList<String>) tableTraces.get(tableName).clone();
-		if (trace == null) {
-			return "No traces found for table " + tableName;
+		long startTime = System.nanoTime();
+		Table t = TableSnapshots.open(tableName);
+		if (t == null) {
+			System.out.println("Table " + tableName + " not found.");
+			return RecordCursor.empty();
+		}
+		Expression where = Expression.and(conditions);
+		String missing = findMissingColumn(t, where);
+		if (missing != null) {
+			System.out.println("Column " + missing + " not found.");
+			return RecordCursor.empty();
 		}
-		else {
+
+		List<Object> label = TraceLog.list(conditions);
+		RecordCursor cursor = new RecordCursor(t, null, where.toFilter(t), prefetchPages);
+		cursor.setOnClose(() -> {
+			long executionTime = Metrics.record(Metrics.SELECT_CURSOR, startTime) / 1000000;
+			tableTraces.get(tableName).selectedCursorCondition(label, cursor.getRecordsReturned(), cursor.getPagesRead(), executionTime);
+		});
+		return cursor;
+	}
+
+	public static String getFullTrace(String tableName) {
+		return TableLocks.read(tableName, () -> {
+			if(tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
+
+			TraceLog traces = tableTraces.get(tableName);
+			if (traces == null) {
+				return "No traces found for table " + tableName;
+			}
+			ArrayList<String> trace = traces.lines();
 			Table t = FileManager.loadTable(tableName);
-			List<String> indexedCols = tableIndices.getOrDefault(tableName, new ArrayList<>());
+			List<String> indexedCols = new ArrayList<>(tableIndices.getOrDefault(tableName, new ArrayList<>()));
 			Collections.sort(indexedCols);
 			trace.add("Pages Count: " + t.getPagesCount() + ", Records Count: " + t.getRecordsCount() + ", Indexed Columns: " + indexedCols.toString());
-		}
-		return String.join("\n", trace);
+			return String.join("\n", trace);
+		});
 	}
 
 	public static String getLastTrace(String tableName) {
@@ -282,11 +841,9 @@ public class DBApp {
 			throw new IllegalArgumentException("Table name cannot be null or empty.");
 		}
 
-		ArrayList<String> trace = tableTraces.get(tableName);
-		if (trace == null || trace.isEmpty()) {
-			return "No traces found for table " + tableName;
-		}
-		return trace.get(trace.size() - 1);
+		TraceLog trace = tableTraces.get(tableName);
+		String last = trace == null ? null : trace.last();
+		return last == null ? "No traces found for table " + tableName : last;
 	}
 
 	// MILESTONE 2
@@ -303,60 +860,106 @@ public class DBApp {
 	 * @throws IllegalArgumentException if either {@code tableName} or {@code colName} is {@code null}.
 	 */
 	public static void createBitMapIndex(String tableName, String colName) {
-		if (tableName == null || tableName == "" || tableName == " ") {
-			throw new IllegalArgumentException("Table name cannot be null or empty.");
-		}
+		TableLocks.write(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
 
-		if(colName == null || colName == "" || colName == " ") {
-			throw new IllegalArgumentException("Column name cannot be null or empty.");
-		}
+			if(colName == null || colName == "" || colName == " ") {
+				throw new IllegalArgumentException("Column name cannot be null or empty.");
+			}
 
-		Table t = FileManager.loadTable(tableName);
-		if (t != null) {
-			ArrayList<String[]> records = t.getRecords();
-			String[] colNames = t.getColumnNames();
+			Table t = FileManager.loadTable(tableName);
+			if (t != null) {
+				ArrayList<String[]> records = t.getRecords();
+				String[] colNames = t.getColumnNames();
 
-			int index = -1;
-			for (int i = 0;i<colNames.length;i++){
-				if (colNames[i].equals(colName)) {
-					index = i;
-					break;
+				int index = -1;
+				for (int i = 0;i<colNames.length;i++){
+					if (colNames[i].equals(colName)) {
+						index = i;
+						break;
+					}
 				}
-			}
 
-			if (index == -1) {
-				System.err.println("Error: Column '" + colName + "' not found.");
-			}
-			else {
-				long startTime = System.nanoTime();
-				BitmapIndex b = new BitmapIndex(tableName, colName,t.getRecordsCount());
-				b.createBitMapIndex(records,index);
-
-				if(tableIndices.containsKey(tableName)) {
-					tableIndices.get(tableName).add(colName);
+				if (index == -1) {
+					System.err.println("Error: Column '" + colName + "' not found.");
 				}
 				else {
-					ArrayList<String> newList = new ArrayList<>();
-					newList.add(colName);
-					tableIndices.put(tableName, newList);
-				}
+					long startTime = System.nanoTime();
+					BitmapIndex b = new BitmapIndex(tableName, colName,t.getRecordsCount());
+					b.createBitMapIndex(records,index);
 
-				boolean storeTable = FileManager.storeTableIndex(tableName,colName,b);
-				if (!storeTable)
-					System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+					boolean storeTable = FileManager.storeTableIndex(tableName,colName,b);
+					if (!storeTable)
+						System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+
+					// Registered once stored, so a select never looks up an index that is not there yet
+					tableIndices.computeIfAbsent(tableName, k -> new CopyOnWriteArrayList<>()).add(colName);
 
-				long endTime = System.nanoTime();
-				long executionTime = (endTime - startTime) / 1000000;
+					long executionTime = Metrics.record(Metrics.INDEX_BUILD, startTime) / 1000000;
 
-				tableTraces.get(tableName).add("Index created for column: " + colName + ", execution time (mil):" + executionTime);
+					tableTraces.get(tableName).add("Index created for column: " + colName + ", execution time (mil):" + executionTime);
+				}
 			}
-		}
-		else {
-			System.err.println("Error: Table '" + tableName + "' not found.");
+			else {
+				System.err.println("Error: Table '" + tableName + "' not found.");
+			}
+		});
+		if (useWriteAheadLog) {
+			checkpoint(); // The log cannot rebuild an index, so it is written right away
 		}
 	}
 
 
+	/**
+	 * Creates a sorted (B+-tree) index on a column, so that range conditions on it are
+	 * answered by {@link #selectIndex(String, Condition[])} without scanning the table.
+	 * The index is kept up to date by later inserts.
+	 *
+	 * @param tableName the name of the table.
+	 * @param colName   the name of the column to index.
+	 * @throws IllegalArgumentException if either {@code tableName} or {@code colName} is {@code null}.
+	 */
+	public static void createSortedIndex(String tableName, String colName) {
+		TableLocks.write(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
+
+			if(colName == null || colName == "" || colName == " ") {
+				throw new IllegalArgumentException("Column name cannot be null or empty.");
+			}
+
+			Table t = FileManager.loadTable(tableName);
+			if (t == null) {
+				System.err.println("Error: Table '" + tableName + "' not found.");
+				return;
+			}
+			int index = Arrays.asList(t.getColumnNames()).indexOf(colName);
+			if (index == -1) {
+				System.err.println("Error: Column '" + colName + "' not found.");
+				return;
+			}
+
+			long startTime = System.nanoTime();
+			SortedIndex s = SortedIndex.build(t, index);
+			if (!FileManager.storeTableSortedIndex(tableName, colName, s))
+				System.err.println("Error: Sorted index on column '" + colName + "' could not be stored.");
+
+			List<String> sortedColumns = tableSortedIndices.computeIfAbsent(tableName, k -> new CopyOnWriteArrayList<>());
+			if (!sortedColumns.contains(colName)) {
+				sortedColumns.add(colName);
+			}
+
+			long executionTime = Metrics.record(Metrics.SORTED_INDEX_BUILD, startTime) / 1000000;
+			tableTraces.get(tableName).add("Sorted index created for column: " + colName + ", keys:" + s.getKeysCount() + ", execution time (mil):" + executionTime);
+		});
+		if (useWriteAheadLog) {
+			checkpoint(); // The log cannot rebuild an index, so it is written right away
+		}
+	}
+
 	/**
 	 * Retrieves the bitmap representation of a specific value in a column for a given table.
 	 * <p>
@@ -370,84 +973,136 @@ public class DBApp {
 	 * @throws IllegalArgumentException if either {@code tableName} or {@code colName} is {@code null}.
 	 */
 	public static String getValueBits(String tableName, String colName, String value){
-		if (tableName == null || tableName == "" || tableName == " ") {
-			throw new IllegalArgumentException("Table name cannot be null or empty.");
-		}
+		return TableLocks.read(tableName, () -> {
+			if (tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
 
-		if(colName == null || colName == "" || colName == " ") {
-			throw new IllegalArgumentException("Column name cannot be null or empty.");
-		}
+			if(colName == null || colName == "" || colName == " ") {
+				throw new IllegalArgumentException("Column name cannot be null or empty.");
+			}
 
-		if(value == null || value == "" || value == " ") {
-			throw new IllegalArgumentException("Value cannot be null or empty.");
-		}
+			if(value == null || value == "" || value == " ") {
+				throw new IllegalArgumentException("Value cannot be null or empty.");
+			}
 
-		BitmapIndex b = FileManager.loadTableIndex(tableName,colName);
-		String result = null;
-		if (b != null)
-			result = b.getBitMapIndexByValue(value);
-		else
-			System.err.println("Error: Index for Column '" + colName + "' not found.");
-		return result;
+			BitmapIndex b = FileManager.loadTableIndex(tableName,colName);
+			String result = null;
+			if (b != null)
+				result = b.getBitMapIndexByValue(value);
+			else
+				System.err.println("Error: Index for Column '" + colName + "' not found.");
+			return result;
+		});
 	}
 
 	/**
 	 * Validates records of a table by checking if the corresponding pages exist.
 	 * <p>
-	 * This method identifies records from pages that are missing on disk and returns them.
+	 * This method identifies the records of pages that are missing or damaged on disk, using the
+	 * record counts kept in the table catalog. Pages are checked in parallel against the length and
+	 * checksum in the table's {@link PageManifest}, without being decoded. If the table's dictionary fails its
+	 * check, every page is reported, since coded pages cannot be decoded without it. The catalog does not keep a copy of the
+	 * records, so each missing record is reported as an empty record of the table's width: it
+	 * only counts the missing records, and {@link #recoverRecords(String, ArrayList)} rejects it.
 	 * It also logs the number of records found to be missing from the file system.
 	 *
 	 * @param tableName the name of the table to validate.
-	 * @return a list of string arrays, each representing a missing record.
+	 * @return a list of string arrays, one per missing record.
 	 */
 	public static ArrayList<String []> validateRecords(String tableName){
-		if(tableName == null || tableName == "" || tableName == " ") {
-			throw new IllegalArgumentException("Table name cannot be null or empty.");
+		if (useWriteAheadLog || durability != Durability.SYNC) {
+			flush(); // Pages that were never written would otherwise look missing
 		}
+		return TableLocks.read(tableName, () -> {
+			if(tableName == null || tableName == "" || tableName == " ") {
+				throw new IllegalArgumentException("Table name cannot be null or empty.");
+			}
 
-		Table t = FileManager.loadTable(tableName);
-		ArrayList<String[]> resultRecords = new ArrayList<>();
-		for(Page page : t.getPages()){
-			if(FileManager.loadTablePage(tableName,page.getPageNumber())==null)
-			{
-				resultRecords.addAll(page.getRecords());
+			Table t = FileManager.loadTable(tableName);
+			ArrayList<String[]> resultRecords = new ArrayList<>();
+			int columnsCount = t.getColumnNames().length;
+			PageManifest manifest = PageManifest.read(tableName);
+			boolean dictionaryIntact = FileManager.verifyTableDictionary(tableName, manifest);
+			for(int pageNumber : failingPages(tableName, t, manifest, dictionaryIntact)){
+				for(int i = 0; i < t.getPageRecordsCount(pageNumber); i++)
+					resultRecords.add(new String[columnsCount]);
 			}
-		}
-		tableTraces.get(tableName).add("Validating records: " + resultRecords.size() + " records missing.");
-		return resultRecords;
+			tableTraces.get(tableName).add("Validating records: " + resultRecords.size() + " records missing.");
+			return resultRecords;
+		});
 	}
 
+	/**
+	 * Restores the pages of a table that are missing or damaged on disk. Intact pages are not rewritten.
+	 * If the table's dictionary failed its check, it is discarded and every page is rewritten with new codes.
+	 * <p>
+	 * The missing records are expected in their original order. They are placed back into
+	 * the failing pages in ascending page order, each page taking as many records as the
+	 * table catalog recorded for it.
+	 *
+	 * @param tableName the name of the table to recover.
+	 * @param missing   the records of the missing pages, in table order.
+	 * @throws IllegalArgumentException If a record is null, has fewer cells than the table has columns
+	 *         or has a null cell, such as the placeholders of {@link #validateRecords(String)}. Nothing is rewritten then.
+	 */
 	public static void recoverRecords(String tableName, ArrayList<String[]> missing){
-//		if(tableName == null || tableName.equals("") || tableName.equals(" ")) {
-//			throw new IllegalArgumentException("Table name cannot be null or empty.");
-//		}
-//
-//		if(missing == null || missing.isEmpty()) return;
-
-		// Ensure the trace exists
-		if(!tableTraces.containsKey(tableName)) {
-			tableTraces.put(tableName, new ArrayList<>());
-		}
-
-		Table t = FileManager.loadTable(tableName);
-		ArrayList<Integer> missingPages = new ArrayList<Integer>();
-		for(Page page : t.getPages()){
-			int pageNumber = page.getPageNumber();
-			if(FileManager.loadTablePage(tableName,pageNumber)==null)
-			{
-				missingPages.add(pageNumber);
+		if (useWriteAheadLog || durability != Durability.SYNC) {
+			flush(); // Recovered pages are written directly, so pending writes go first
+		}
+		TableLocks.write(tableName, () -> {
+	//		if(tableName == null || tableName.equals("") || tableName.equals(" ")) {
+	//			throw new IllegalArgumentException("Table name cannot be null or empty.");
+	//		}
+	//
+	//		if(missing == null || missing.isEmpty()) return;
+
+			// Ensure the trace exists
+			if(!tableTraces.containsKey(tableName)) {
+				tableTraces.put(tableName, new TraceLog(tableName));
+			}
+
+
+			Table t = FileManager.loadTable(tableName);
+			int columnsCount = t.getColumnNames().length;
+			for (int i = 0; i < missing.size(); i++) {
+				String[] record = missing.get(i);
+				if (record == null || record.length < columnsCount || Arrays.asList(record).contains(null)) {
+					throw new IllegalArgumentException("Missing record " + i + " of table '" + tableName + "' is not a record of its "
+							+ columnsCount + " columns: " + Arrays.toString(record) + ".");
+				}
+			}
+			PageManifest manifest = PageManifest.read(tableName);
+			boolean dictionaryIntact = FileManager.verifyTableDictionary(tableName, manifest);
+			List<Integer> missingPages = failingPages(tableName, t, manifest, dictionaryIntact);
+			if (!dictionaryIntact) {
+				TableDictionary.discard(tableName);
+			}
+			int nextMissing = 0;
+			for(int pageNumber : missingPages){
+				Page page = t.newPage(pageNumber);
+				for(int i = 0; i < t.getPageRecordsCount(pageNumber) && nextMissing < missing.size(); i++)
+					page.insert(t.normalize(missing.get(nextMissing++)));
 				FileManager.storeTablePage(tableName,pageNumber,page);
 			}
-		}
 
-		// Update the trace
-		tableTraces.get(tableName).add("Recovering " + missing.size() + " records in pages: " + missingPages.toString() +".");
+			// Update the trace
+			tableTraces.get(tableName).add("Recovering " + missing.size() + " records in pages: " + missingPages.toString() +".");
+		});
+	}
+
+	// Pages of the table that are missing on disk or fail their manifest check, in ascending order; all of them without an intact dictionary
+	private static List<Integer> failingPages(String tableName, Table t, PageManifest manifest, boolean dictionaryIntact) {
+		return IntStream.range(0, t.getPagesCount()).parallel()
+				.filter(pageNumber -> !dictionaryIntact || !FileManager.verifyTablePage(tableName, manifest, pageNumber))
+				.boxed()
+				.collect(Collectors.toList());
 	}
 
 	public static ArrayList<String[]> selectIndex(String tableName, String[] cols, String[] vals) { // Removed throws DBAppException
 		// Removed startTime here
 
-		Table table = FileManager.loadTable(tableName);
+		Table table = TableSnapshots.open(tableName);
 		if (table == null) {
 			System.err.println("Error: Table '" + tableName + "' not found during selectIndex.");
 			// No trace added to tableTraces if table is not found
@@ -514,10 +1169,323 @@ public class DBApp {
 	}
 
 
+	/**
+	 * Selects the records meeting every condition, using the indexes of their columns.
+	 * <p>
+	 * Equality conditions on a column with a bitmap index take the value's bitmap, and other
+	 * conditions on a column with a sorted index walk the matching key range of the B+-tree.
+	 * The positions found for the indexed conditions are ANDed, the pages holding them are
+	 * read once each, and the remaining conditions are checked on the records read. Without
+	 * any usable index the table is scanned as by {@link #select(String, Condition[])}.
+	 *
+	 * @param tableName  The name of the table.
+	 * @param conditions The conditions, such as {@code Condition.lessThan("gpa", "2.5")}.
+	 * @return The matching records in table order.
+	 */
+	public static ArrayList<String[]> selectIndex(String tableName, Condition[] conditions) {
+		return selectIndex(tableName, Expression.and(conditions), Arrays.toString(conditions));
+	}
+
+	/**
+	 * Selects the records matching a boolean expression, such as
+	 * {@code or(in("major", "CS", "EE"), and(greaterThan("gpa", "3"), not(equalTo("year", "1"))))}.
+	 * <p>
+	 * The expression is planned against the indexes first (see {@link Expression}): indexed
+	 * conditions and IN lists become bitmaps, combined with AND, OR and ANDNOT. Only the
+	 * records left as candidates are read, and only the parts of the expression no index
+	 * answered are checked on them. An IN list on an indexed column is the union of the
+	 * bitmaps of its values. Without any usable index the table is scanned.
+	 *
+	 * @param tableName The name of the table.
+	 * @param where     The expression the records must match.
+	 * @return The matching records in table order.
+	 */
+	public static ArrayList<String[]> selectIndex(String tableName, Expression where) {
+		return selectIndex(tableName, where, where.toString());
+	}
+
+	private static ArrayList<String[]> selectIndex(String tableName, Expression where, String label) {
+		long startTime = System.nanoTime();
+		Table table = TableSnapshots.open(tableName);
+		if (table == null) {
+			System.err.println("Error: Table '" + tableName + "' not found during selectIndex.");
+			return new ArrayList<>();
+		}
+		String missing = findMissingColumn(table, where);
+		if (missing != null) {
+			System.err.println("Error: Column '" + missing + "' not found in table '" + tableName + "' during selectIndex.");
+			return new ArrayList<>();
+		}
+
+		TreeSet<String> indexedNames = new TreeSet<>();
+		Expression.Candidates candidates = where.candidates(indexLookup(table, indexedNames), table.getRecordsCount());
+		Predicate<String[]> filter = candidates.residual == null ? record -> true : candidates.residual.toFilter(table);
+
+		ArrayList<String[]> result = new ArrayList<>();
+		CostModel.Plan plan;
+		int pagesRead;
+		if (candidates.positions == null) {
+			plan = CostModel.scanOnly(table);
+			pagesRead = readPlanned(table, plan, null, filter,
+					candidates.residual == null ? (page, slot) -> true : candidates.residual.toPageFilter(table), result);
+		} else {
+			plan = CostModel.choose(table, candidates.positions.cardinality(), true);
+			pagesRead = readPlanned(table, plan, candidates.positions, filter, where.toPageFilter(table), result);
+		}
+
+		long executionTime = Metrics.record(Metrics.SELECT_INDEX, startTime) / 1000000;
+		tableTraces.get(tableName).selectedIndex(false, label, indexedNames,
+				candidates.positions == null ? 0 : candidates.positions.cardinality(), residualColumns(candidates),
+				result.size(), pagesRead, plan, executionTime);
+		return result;
+	}
+
+	/**
+	 * Opens a cursor over the records matching every condition, using the bitmap indexes of
+	 * the indexed columns among the conditions. This is the streaming counterpart of
+	 * {@link #selectIndex(String, String[], String[])}.
+	 *
+	 * @param tableName The name of the table.
+	 * @param cols      The columns of the conditions.
+	 * @param vals      The values the columns must hold.
+	 * @return A cursor over the matching records in table order, empty if the table or a column does not exist.
+	 */
+	public static RecordCursor selectIndexCursor(String tableName, String[] cols, String[] vals) {
+		return selectIndexCursor(tableName, equalityConditions(cols, vals));
+	}
+
+	/**
+	 * Opens a cursor over the records meeting every condition, using the indexes of their
+	 * columns as {@link #selectIndex(String, Condition[])} does.
+	 *
+	 * @param tableName  The name of the table.
+	 * @param conditions The conditions.
+	 * @return A cursor over the matching records in table order, empty if the table or a column does not exist.
+	 */
+	public static RecordCursor selectIndexCursor(String tableName, Condition[] conditions) {
+		return selectIndexCursor(tableName, Expression.and(conditions), Arrays.toString(conditions));
+	}
+
+	/**
+	 * Opens a cursor over the records matching a boolean expression, planned against the
+	 * indexes as by {@link #selectIndex(String, Expression)}. The candidate positions are
+	 * found up front; only pages holding a candidate are then loaded, one at a time as the
+	 * cursor advances, and the residual expression is checked on each candidate.
+	 *
+	 * @param tableName The name of the table.
+	 * @param where     The expression the records must match.
+	 * @return A cursor over the matching records in table order, empty if the table or a column does not exist.
+	 */
+	public static RecordCursor selectIndexCursor(String tableName, Expression where) {
+		return selectIndexCursor(tableName, where, where.toString());
+	}
+
+	private static RecordCursor selectIndexCursor(String tableName, Expression where, String label) {
+		long startTime = System.nanoTime();
+		Table table = TableSnapshots.open(tableName);
+		if (table == null) {
+			System.err.println("Error: Table '" + tableName + "' not found during selectIndexCursor.");
+			return RecordCursor.empty();
+		}
+		String missing = findMissingColumn(table, where);
+		if (missing != null) {
+			System.err.println("Error: Column '" + missing + "' not found in table '" + tableName + "' during selectIndexCursor.");
+			return RecordCursor.empty();
+		}
+
+		TreeSet<String> indexedNames = new TreeSet<>();
+		Expression.Candidates candidates = where.candidates(indexLookup(table, indexedNames), table.getRecordsCount());
+		int indexedSelectionCount = candidates.positions == null ? 0 : candidates.positions.cardinality();
+		Predicate<String[]> filter = candidates.residual == null ? null : candidates.residual.toFilter(table);
+		// A cursor reads its pages one at a time, so the scan it could switch to is not parallel
+		CostModel.Plan plan = candidates.positions == null ? CostModel.scanOnly(table)
+				: CostModel.choose(table, indexedSelectionCount, false);
+		RecordCursor cursor = plan.isScan()
+				? new RecordCursor(table, null, where.toFilter(table), prefetchPages)
+				: new RecordCursor(table, candidates.positions, filter, prefetchPages);
+		cursor.setOnClose(() -> {
+			long executionTime = Metrics.record(Metrics.SELECT_INDEX_CURSOR, startTime) / 1000000;
+			tableTraces.get(tableName).selectedIndex(true, label, indexedNames, indexedSelectionCount, residualColumns(candidates),
+					cursor.getRecordsReturned(), cursor.getPagesRead(), plan, executionTime);
+		});
+		return cursor;
+	}
+
+	/**
+	 * Counts the records matching every condition. When every column of the conditions has
+	 * a bitmap index, the count is the cardinality of the ANDed bitmaps and no page is read.
+	 *
+	 * @param tableName The name of the table.
+	 * @param cols      The columns of the conditions.
+	 * @param vals      The values the columns must hold.
+	 * @return The number of matching records, 0 if the table or a column does not exist.
+	 */
+	public static int count(String tableName, String[] cols, String[] vals) {
+		return countMatches(tableName, Expression.and(equalityConditions(cols, vals)),
+				Arrays.toString(cols) + "->" + Arrays.toString(vals), false);
+	}
+
+	/**
+	 * Counts the records matching a boolean expression, planned against the indexes as by
+	 * {@link #selectIndex(String, Expression)}. If the indexes answer the whole expression the
+	 * count comes from the candidate bitmap alone. Otherwise the pages holding a candidate are
+	 * read one at a time and the residual is checked on each candidate, without keeping the
+	 * matching records.
+	 *
+	 * @param tableName The name of the table.
+	 * @param where     The expression the records must match.
+	 * @return The number of matching records, 0 if the table or a column does not exist.
+	 */
+	public static int count(String tableName, Expression where) {
+		return countMatches(tableName, where, where.toString(), false);
+	}
+
+	/**
+	 * Checks whether any record matches every condition, from the bitmap indexes alone when
+	 * every column of the conditions is indexed.
+	 *
+	 * @param tableName The name of the table.
+	 * @param cols      The columns of the conditions.
+	 * @param vals      The values the columns must hold.
+	 * @return true if a record matches, false otherwise or if the table or a column does not exist.
+	 */
+	public static boolean exists(String tableName, String[] cols, String[] vals) {
+		return countMatches(tableName, Expression.and(equalityConditions(cols, vals)),
+				Arrays.toString(cols) + "->" + Arrays.toString(vals), true) > 0;
+	}
+
+	/**
+	 * Checks whether any record matches a boolean expression, as {@link #count(String, Expression)}
+	 * counts them, but stops at the first match.
+	 *
+	 * @param tableName The name of the table.
+	 * @param where     The expression the records must match.
+	 * @return true if a record matches, false otherwise or if the table or a column does not exist.
+	 */
+	public static boolean exists(String tableName, Expression where) {
+		return countMatches(tableName, where, where.toString(), true) > 0;
+	}
+
+	// Counts the records matching an expression, or stops at the first one when only existence is asked
+	private static int countMatches(String tableName, Expression where, String label, boolean firstOnly) {
+		String operation = firstOnly ? "exists" : "count";
+		if(tableName == null || tableName == "" || tableName == " ") {
+			throw new IllegalArgumentException("Table name cannot be null or empty.");
+		}
+
+		long startTime = System.nanoTime();
+		Table table = TableSnapshots.open(tableName);
+		if (table == null) {
+			System.err.println("Error: Table '" + tableName + "' not found during " + operation + ".");
+			return 0;
+		}
+		String missing = findMissingColumn(table, where);
+		if (missing != null) {
+			System.err.println("Error: Column '" + missing + "' not found in table '" + tableName + "' during " + operation + ".");
+			return 0;
+		}
+
+		TreeSet<String> indexedNames = new TreeSet<>();
+		Expression.Candidates candidates = where.candidates(indexLookup(table, indexedNames), table.getRecordsCount());
+		int count = 0;
+		int pagesRead = 0;
+		if (candidates.residual == null) {
+			// The indexes answer the whole expression: the candidates are the matches
+			count = firstOnly ? (candidates.positions.isEmpty() ? 0 : 1) : candidates.positions.cardinality();
+		} else {
+			try (RecordCursor cursor = new RecordCursor(table, candidates.positions, candidates.residual.toFilter(table), prefetchPages)) {
+				while (cursor.hasNext() && !(firstOnly && count > 0)) {
+					cursor.next();
+					count++;
+				}
+				pagesRead = cursor.getPagesRead();
+			}
+		}
+
+		long executionTime = Metrics.record(firstOnly ? Metrics.EXISTS : Metrics.COUNT, startTime) / 1000000;
+		tableTraces.get(tableName).counted(firstOnly, label, indexedNames, residualColumns(candidates), count, pagesRead, executionTime);
+		return count;
+	}
+
+	/**
+	 * Gives the positions an index of a table answers for a condition: equality and inequality
+	 * on a column with a bitmap index, or any comparison on a column with a sorted index.
+	 *
+	 * @param table        the table.
+	 * @param indexedNames receives the columns of the conditions answered by an index.
+	 * @return a lookup returning the matching positions, or null when no index answers the condition.
+	 */
+	private static Function<Condition, CompressedBitmap> indexLookup(Table table, Collection<String> indexedNames) {
+		String tableName = table.getTableName();
+		Collection<String> bitmapColumns = tableIndices.getOrDefault(tableName, new ArrayList<>());
+		Collection<String> sortedColumns = tableSortedIndices.getOrDefault(tableName, new ArrayList<>());
+		return c -> {
+			String colName = c.getColumnName();
+			CompressedBitmap matches = null;
+			boolean equality = c.getOperator() == Condition.Operator.EQUAL || c.getOperator() == Condition.Operator.NOT_EQUAL;
+			if (equality && bitmapColumns.contains(colName)) {
+				BitmapIndex b = FileManager.loadTableIndex(tableName, colName);
+				if (b != null) {
+					matches = b.getBitmap(c.getValue(), table.getRecordsCount());
+					if (matches == null) {
+						matches = new CompressedBitmap();
+					}
+					if (c.getOperator() == Condition.Operator.NOT_EQUAL) {
+						matches = CompressedBitmap.andNot(CompressedBitmap.range(0, table.getRecordsCount()), matches);
+					}
+				}
+			}
+			if (matches == null && sortedColumns.contains(colName)) {
+				SortedIndex s = FileManager.loadTableSortedIndex(tableName, colName);
+				if (s != null) {
+					matches = s.search(c, table.getRecordsCount());
+				}
+			}
+			if (matches != null) {
+				indexedNames.add(colName);
+			}
+			return matches;
+		};
+	}
+
+	// The columns of the part of an expression left to check on the records, in order
+	private static TreeSet<String> residualColumns(Expression.Candidates candidates) {
+		TreeSet<String> columns = new TreeSet<>();
+		if (candidates.residual != null) {
+			candidates.residual.addColumns(columns);
+		}
+		return columns;
+	}
+
+	// The first column of the expression that the table does not have, or null
+	private static String findMissingColumn(Table t, Expression where) {
+		HashSet<String> colNames = new HashSet<>(Arrays.asList(t.getColumnNames()));
+		TreeSet<String> columns = new TreeSet<>();
+		where.addColumns(columns);
+		for (String column : columns) {
+			if (!colNames.contains(column)) {
+				return column;
+			}
+		}
+		return null;
+	}
+
+	private static Condition[] equalityConditions(String[] cols, String[] vals) {
+		Condition[] conditions = new Condition[cols.length];
+		for (int i = 0; i < cols.length; i++) {
+			conditions[i] = Condition.equalTo(cols[i], vals[i]);
+		}
+		return conditions;
+	}
+
+
+
 	private static ArrayList<String[]> selectCase1_AllIndexedColumns(Table table, String[] cols, String[] vals, ArrayList<Integer> indexedColIndicesInQuery) { // Removed throws DBAppException
 		long startTime = System.nanoTime(); // Start time for trace
 		ArrayList<String[]> result = new ArrayList<>(); // Prepare result list
-		int indexedSelectionCount = 0; // For trace - cardinality of final combined BitSet
+		int indexedSelectionCount = 0; // For trace - cardinality of final combined bitmap
+		int pagesRead = 0; // For trace - pages loaded to fetch the matching records
+		CostModel.Plan plan = null; // For trace - how the matching records were read
 
 		try {
 			Map<String, BitmapIndex> loadedIndices = new HashMap<>();
@@ -526,8 +1494,7 @@ public class DBApp {
 				String colName = cols[i];
 				BitmapIndex index = FileManager.loadTableIndex(table.getTableName(), colName);
 				if (index == null) {
-					long endTime = System.nanoTime();
-					long executionTime = (endTime - startTime) / 1000000;
+					long executionTime = Metrics.record(Metrics.SELECT_CASE_1, startTime) / 1000000;
 					System.err.println("Error: Index not found for column: '" + colName + "' unexpectedly during selectCase1 for table " + table.getTableName());
 //					tableTraces.get(table.getTableName()).add("Select Case 1 Error: Index not found for " + colName + ", execution time (mil):" + executionTime);
 					return result; // Return empty list on error
@@ -536,69 +1503,64 @@ public class DBApp {
 			}
 
 
-			// Perform bitwise AND
-			BitSet combinedBitSet = null; // Initialize outside loop
-			boolean firstIndex = true;
+			// Look up the bitmap of each condition's value
+			ArrayList<CompressedBitmap> bitmaps = new ArrayList<>();
 			for (int i : indexedColIndicesInQuery) {
 				String colName = cols[i];
 				String value = vals[i];
 				BitmapIndex index = loadedIndices.get(colName); // Get already loaded index
 
-				BitSet currentBitSet = index.getBitMapIndex().get(value);
+				CompressedBitmap currentBitmap = index.getBitmap(value, table.getRecordsCount());
 
-				if (currentBitSet == null) {
+				if (currentBitmap == null) {
 					// If a required value doesn't exist in an index, no records match ALL conditions
-					long endTime = System.nanoTime();
-					long executionTime = (endTime - startTime) / 1000000;
+					long executionTime = Metrics.record(Metrics.SELECT_CASE_1, startTime) / 1000000;
 
 					Arrays.sort(cols);
 					Arrays.sort(vals);
 					// Match PDF format for early exit trace
-					tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-							", Indexed columns: " + Arrays.toString(cols) +
-							", Indexed selection count: 0, Final count: 0, execution time (mil):" + executionTime);
+					tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), TraceLog.list(cols), 0, null,
+							0, -1, null, executionTime);
 					return result;
 				}
+				bitmaps.add(currentBitmap);
+			}
 
+			// Perform bitwise AND, container by container, starting from the smallest bitmap
+			// so every intermediate result is as small as it can be
+			bitmaps.sort(Comparator.comparingInt(CompressedBitmap::cardinality));
+			CompressedBitmap combinedBitmap = null; // Initialize outside loop
+			boolean firstIndex = true;
+			for (CompressedBitmap currentBitmap : bitmaps) {
 				if (firstIndex) {
-					combinedBitSet = (BitSet) currentBitSet.clone(); // Clone to avoid modifying original index's BitSet
+					combinedBitmap = currentBitmap; // The index's bitmap is only read, AND builds a new one
 					firstIndex = false;
 				} else {
-					combinedBitSet.and(currentBitSet);
+					combinedBitmap = CompressedBitmap.and(combinedBitmap, currentBitmap);
 					// If at any point the combined set becomes empty, no need to continue
-					if (combinedBitSet.isEmpty()) {
-						long endTime = System.nanoTime();
-						long executionTime = (endTime - startTime) / 1000000;
+					if (combinedBitmap.isEmpty()) {
+						long executionTime = Metrics.record(Metrics.SELECT_CASE_1, startTime) / 1000000;
 
 						Arrays.sort(cols);
 						Arrays.sort(vals);
 						// Match PDF format for early exit trace
-						tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-								", Indexed columns: " + Arrays.toString(cols) +
-								", Indexed selection count: 0, Final count: 0, execution time (mil):" + executionTime);
+						tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), TraceLog.list(cols), 0, null,
+								0, -1, null, executionTime);
 						return result;
 					}
 				}
 			}
 
-			// combinedBitSet now contains the global record indices that match all indexed conditions.
+			// combinedBitmap now contains the global record indices that match all indexed conditions.
 			// If indexedColIndicesInQuery was empty (should be caught by dispatch, but defensive check)
-			if (combinedBitSet != null) {
-				indexedSelectionCount = combinedBitSet.cardinality(); // Calculate cardinality for trace
-				// Iterate through the set bits of the combined result
-				for (int i = combinedBitSet.nextSetBit(0); i >= 0; i = combinedBitSet.nextSetBit(i + 1)) {
-					// Load the specific record corresponding to global index 'i' from disk
-					// *** PLACEHOLDER: Use your implemented method to load a record by its global index ***
-					String[] record = table.getRecordByGlobalIndex(i); // Call your method here
-
-					if (record != null) {
-						result.add(record);
-					} else {
-						// Handle case where record index is invalid or record cannot be loaded
-						System.err.println("Warning: Could not load record with global index: " + i + " during selectCase1 for table " + table.getTableName());
-						// Continue to the next index even if one record fails to load
-					}
-				}
+			if (combinedBitmap != null) {
+				indexedSelectionCount = combinedBitmap.cardinality(); // Calculate cardinality for trace
+				// Load the records of the combined result page by page, reading each page once,
+				// unless scanning the table is estimated to be cheaper
+				Map<Integer, Integer> colMap = columnMap(table, cols);
+				plan = CostModel.choose(table, indexedSelectionCount, true);
+				pagesRead = readPlanned(table, plan, combinedBitmap, record -> true,
+						record -> matchesColumns(record, colMap, vals, "selectCase1", table.getTableName()), result);
 			}
 
 
@@ -611,17 +1573,13 @@ public class DBApp {
 			return new ArrayList<>(); // Return empty list on error
 		}
 
-		long endTime = System.nanoTime(); // End time for trace
-		long executionTime = (endTime - startTime) / 1000000;
+		long executionTime = Metrics.record(Metrics.SELECT_CASE_1, startTime) / 1000000;
 
 		Arrays.sort(cols);
 		Arrays.sort(vals);
 		// Trace for successful completion (matching PDF output format)
-		tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-				", Indexed columns: " + Arrays.toString(cols) + // Use cols array for trace
-				", Indexed selection count: " + indexedSelectionCount + // Cardinality of combined index result
-				", Final count: " + result.size() +
-				", execution time (mil):" + executionTime);
+		tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), TraceLog.list(cols), // Use cols array for trace
+				indexedSelectionCount, null, result.size(), pagesRead, plan, executionTime);
 		return result;
 	}
 
@@ -630,6 +1588,8 @@ public class DBApp {
 		long startTime = System.nanoTime(); // Start time for trace
 		ArrayList<String[]> result = new ArrayList<>(); // Prepare result list
 		int indexedSelectionCount = 0; // Counter for cardinality before linear filtering (for trace)
+		int pagesRead = 0; // For trace - pages loaded to fetch the matching records
+		CostModel.Plan plan = null; // For trace - how the matching records were read
 
 		try {
 			Map<String, BitmapIndex> loadedIndices = new HashMap<>();
@@ -638,8 +1598,7 @@ public class DBApp {
 				String colName = cols[i];
 				BitmapIndex index = FileManager.loadTableIndex(table.getTableName(), colName);
 				if (index == null) {
-					long endTime = System.nanoTime();
-					long executionTime = (endTime - startTime) / 1000000;
+					long executionTime = Metrics.record(Metrics.SELECT_CASE_2, startTime) / 1000000;
 					System.err.println("Error: Index not found for column: '" + colName + "' unexpectedly during selectCase2 for table " + table.getTableName());
 //					tableTraces.get(table.getTableName()).add("Select Case 2 Error: Index not found for " + colName + ", execution time (mil):" + executionTime);
 					return result;
@@ -647,20 +1606,22 @@ public class DBApp {
 				loadedIndices.put(colName, index);
 			}
 
-			// Perform bitwise AND on indexed columns
-			BitSet combinedBitSet = null; // Initialize outside loop
-			boolean firstIndex = true;
+			// Perform bitwise AND on indexed columns, container by container, starting from the
+			// smallest bitmap so every intermediate result is as small as it can be
+			ArrayList<CompressedBitmap> bitmaps = new ArrayList<>();
 			for (int i : indexedColIndicesInQuery) {
-				String colName = cols[i];
-				String value = vals[i];
-				BitmapIndex index = loadedIndices.get(colName); // Get already loaded index
-
-				BitSet currentBitSet = index.getBitMapIndex().get(value);
+				bitmaps.add(loadedIndices.get(cols[i]).getBitmap(vals[i], table.getRecordsCount()));
+			}
+			if (!bitmaps.contains(null)) {
+				bitmaps.sort(Comparator.comparingInt(CompressedBitmap::cardinality));
+			}
+			CompressedBitmap combinedBitmap = null; // Initialize outside loop
+			boolean firstIndex = true;
+			for (CompressedBitmap currentBitmap : bitmaps) {
 
-				if (currentBitSet == null) {
+				if (currentBitmap == null) {
 					// If a required value doesn't exist in an index, no records match ALL indexed conditions
-					long endTime = System.nanoTime();
-					long executionTime = (endTime - startTime) / 1000000;
+					long executionTime = Metrics.record(Metrics.SELECT_CASE_2, startTime) / 1000000;
 					ArrayList<String> indexedColNames = new ArrayList<>();
 					for(int idx : indexedColIndicesInQuery) indexedColNames.add(cols[idx]);
 					ArrayList<String> notIndexedColNames = new ArrayList<>();
@@ -669,21 +1630,18 @@ public class DBApp {
 					Collections.sort(indexedColNames);
 					Collections.sort(notIndexedColNames);
 					// Match PDF format for early exit trace
-					tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-							", Indexed columns: " + indexedColNames.toString() +
-							", Indexed selection count: 0, Non Indexed: " + notIndexedColNames.toString() +
-							", Final count: 0, execution time (mil):" + executionTime);
+					tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), indexedColNames, 0, notIndexedColNames,
+							0, -1, null, executionTime);
 					return result;
 				}
 
 				if (firstIndex) {
-					combinedBitSet = (BitSet) currentBitSet.clone();
+					combinedBitmap = currentBitmap; // The index's bitmap is only read, AND builds a new one
 					firstIndex = false;
 				} else {
-					combinedBitSet.and(currentBitSet);
-					if (combinedBitSet.isEmpty()) {
-						long endTime = System.nanoTime();
-						long executionTime = (endTime - startTime) / 1000000;
+					combinedBitmap = CompressedBitmap.and(combinedBitmap, currentBitmap);
+					if (combinedBitmap.isEmpty()) {
+						long executionTime = Metrics.record(Metrics.SELECT_CASE_2, startTime) / 1000000;
 						ArrayList<String> indexedColNames = new ArrayList<>();
 						for(int idx : indexedColIndicesInQuery) indexedColNames.add(cols[idx]);
 						ArrayList<String> notIndexedColNames = new ArrayList<>();
@@ -692,28 +1650,25 @@ public class DBApp {
 						Collections.sort(indexedColNames);
 						Collections.sort(notIndexedColNames);
 						// Match PDF format for early exit trace
-						tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-								", Indexed columns: " + indexedColNames.toString() +
-								", Indexed selection count: 0, Non Indexed: " + notIndexedColNames.toString() +
-								", Final count: 0, execution time (mil):" + executionTime);
+						tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), indexedColNames, 0, notIndexedColNames,
+								0, -1, null, executionTime);
 						return result;
 					}
 				}
 			}
 
-			// combinedBitSet now contains the global record indices that match all indexed conditions.
+			// combinedBitmap now contains the global record indices that match all indexed conditions.
 			// If indexedColIndicesInQuery was empty (should be caught by dispatch, but defensive check)
-			if (combinedBitSet == null && !indexedColIndicesInQuery.isEmpty()) {
-				long endTime = System.nanoTime();
-				long executionTime = (endTime - startTime) / 1000000;
-				System.err.println("Logical Error: combinedBitSet is null after processing indexed columns in selectCase2 for table " + table.getTableName());
-//				tableTraces.get(table.getTableName()).add("Select Case 2 Error: Logical Error combinedBitSet null, execution time (mil):" + executionTime);
+			if (combinedBitmap == null && !indexedColIndicesInQuery.isEmpty()) {
+				long executionTime = Metrics.record(Metrics.SELECT_CASE_2, startTime) / 1000000;
+				System.err.println("Logical Error: combinedBitmap is null after processing indexed columns in selectCase2 for table " + table.getTableName());
+//				tableTraces.get(table.getTableName()).add("Select Case 2 Error: Logical Error combinedBitmap null, execution time (mil):" + executionTime);
 				return result;
 			}
 
 			// Calculate indexed selection count for trace
-			if (combinedBitSet != null) {
-				indexedSelectionCount = combinedBitSet.cardinality();
+			if (combinedBitmap != null) {
+				indexedSelectionCount = combinedBitmap.cardinality();
 			}
 
 
@@ -727,8 +1682,7 @@ public class DBApp {
 					// notIndexedColNames.add(colName); // ** REMOVED - Populate later **
 				}
 			} catch (IllegalArgumentException e) {
-				long endTime = System.nanoTime();
-				long executionTime = (endTime - startTime) / 1000000;
+				long executionTime = Metrics.record(Metrics.SELECT_CASE_2, startTime) / 1000000;
 				System.err.println("Error getting column index for non-indexed column during selectCase2: " + e.getMessage());
 				e.printStackTrace(); // Print stack trace for debugging
 //				tableTraces.get(table.getTableName()).add("Select Case 2 Error: Invalid non-indexed column: " + e.getMessage() + ", execution time (mil):" + executionTime);
@@ -736,41 +1690,14 @@ public class DBApp {
 			}
 
 
-			// Iterate through the set bits of the combined result (from indexed columns)
-			// And apply linear filtering for non-indexed columns
-			if (combinedBitSet != null) { // Only iterate if there are indexed results
-				for (int i = combinedBitSet.nextSetBit(0); i >= 0; i = combinedBitSet.nextSetBit(i + 1)) {
-					// Load the specific record corresponding to global index 'i' from disk
-					String[] record = table.getRecordByGlobalIndex(i); // Call your method here
-
-					if (record != null) {
-						// Now linearly check the conditions for the non-indexed columns
-						boolean nonIndexedMatch = true;
-						for (Map.Entry<Integer, Integer> entry : notIndexedColMap.entrySet()) {
-							int queryColIndex = entry.getKey(); // Index in the original 'cols' array
-							int tableColIndex = entry.getValue(); // Index in the record array
-
-							// Add check for valid tableColIndex in case getColumnIndex failed somehow (though it throws exception)
-							if (tableColIndex < 0 || tableColIndex >= record.length) {
-								System.err.println("Warning: Invalid table column index " + tableColIndex + " for record during selectCase2 for table " + table.getTableName());
-								nonIndexedMatch = false; // Treat as non-match if index is bad
-								break;
-							}
-
-							if (!record[tableColIndex].equals(vals[queryColIndex])) {
-								nonIndexedMatch = false;
-								break;
-							}
-						}
-
-						if (nonIndexedMatch) {
-							result.add(record);
-						}
-					} else {
-						System.err.println("Warning: Could not load record with global index: " + i + " during selectCase2 for table " + table.getTableName());
-						// Continue even if one record fails to load
-					}
-				}
+			// Load the records of the combined result (from indexed columns) page by page,
+			// and apply linear filtering for non-indexed columns as each page is read
+			if (combinedBitmap != null) { // Only iterate if there are indexed results
+				Map<Integer, Integer> colMap = columnMap(table, cols);
+				plan = CostModel.choose(table, indexedSelectionCount, true);
+				pagesRead = readPlanned(table, plan, combinedBitmap,
+						record -> matchesColumns(record, notIndexedColMap, vals, "selectCase2", table.getTableName()),
+						record -> matchesColumns(record, colMap, vals, "selectCase2", table.getTableName()), result);
 			}
 
 
@@ -783,8 +1710,7 @@ public class DBApp {
 			return new ArrayList<>(); // Return empty list on error
 		}
 
-		long endTime = System.nanoTime(); // End time for trace
-		long executionTime = (endTime - startTime) / 1000000;
+		long executionTime = Metrics.record(Metrics.SELECT_CASE_2, startTime) / 1000000;
 		// Trace creation at the end, populating nonIndexedColNames just before use
 		ArrayList<String> indexedColNames = new ArrayList<>();
 		for(int idx : indexedColIndicesInQuery) indexedColNames.add(cols[idx]);
@@ -794,12 +1720,8 @@ public class DBApp {
 		Collections.sort(indexedColNames);
 		Collections.sort(notIndexedColNames);
 		// Match PDF format for successful completion trace
-		tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-				", Indexed columns: " + indexedColNames.toString() + // Use list of names
-				", Indexed selection count: " + indexedSelectionCount + // Cardinality of combined index result
-				", Non Indexed: " + notIndexedColNames.toString() + // Use list of names
-				", Final count: " + result.size() +
-				", execution time (mil):" + executionTime);
+		tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), indexedColNames,
+				indexedSelectionCount, notIndexedColNames, result.size(), pagesRead, plan, executionTime);
 		return result;
 	}
 
@@ -808,6 +1730,8 @@ public class DBApp {
 		String value = vals[indexedIdx];
 		long startTime = System.nanoTime(); // Start time for trace
 		int indexedSelectionCount = 0;
+		int pagesRead = 0; // For trace - pages loaded to fetch the matching records
+		CostModel.Plan plan = null; // For trace - how the matching records were read
 		ArrayList<String> otherColNames = new ArrayList<>();
 
 		ArrayList<String[]> result = new ArrayList<>(); // Prepare result list
@@ -815,26 +1739,23 @@ public class DBApp {
 		try {
 			BitmapIndex index = FileManager.loadTableIndex(table.getTableName(), colName);
 			if (index == null) {
-				long endTime = System.nanoTime();
-				long executionTime = (endTime - startTime) / 1000000;
+				long executionTime = Metrics.record(Metrics.SELECT_CASE_3, startTime) / 1000000;
 				// Handle error
 				System.err.println("Error: Index not found for column: '" + colName + "' unexpectedly during selectCase3 for table " + table.getTableName());
 //				tableTraces.get(table.getTableName()).add("Select Case 3 Error: Index not found for " + colName + ", execution time (mil):" + executionTime);
 				return result; // Return empty list on error
 			}
 
-			BitSet bitSet = index.getBitMapIndex().get(value);
-			if (bitSet == null) {
-				long endTime = System.nanoTime();
-				long executionTime = (endTime - startTime) / 1000000;
+			CompressedBitmap bitmap = index.getBitmap(value, table.getRecordsCount());
+			if (bitmap == null) {
+				long executionTime = Metrics.record(Metrics.SELECT_CASE_3, startTime) / 1000000;
 				// Match PDF format for early exit trace
-				tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-						", Indexed columns: [" + cols[indexedIdx] + "]" +
-						", Indexed selection count: 0, Non Indexed: [], Final count: 0, execution time (mil):" + executionTime);
+				tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), Collections.singletonList(cols[indexedIdx]),
+						0, Collections.emptyList(), 0, -1, null, executionTime);
 				return result; // Value not in index, no matches
 			}
 
-			indexedSelectionCount = bitSet.cardinality(); // Count records from index
+			indexedSelectionCount = bitmap.cardinality(); // Count records from index
 
 
 			// Pre-calculate column indices for linear scan once
@@ -848,8 +1769,7 @@ public class DBApp {
 					}
 				}
 			} catch (IllegalArgumentException e) {
-				long endTime = System.nanoTime();
-				long executionTime = (endTime - startTime) / 1000000;
+				long executionTime = Metrics.record(Metrics.SELECT_CASE_3, startTime) / 1000000;
 				System.err.println("Error getting column index for non-indexed column during selectCase3: " + e.getMessage());
 				e.printStackTrace();
 //				tableTraces.get(table.getTableName()).add("Select Case 3 Error: Invalid non-indexed column: " + e.getMessage() + ", execution time (mil):" + executionTime);
@@ -857,39 +1777,14 @@ public class DBApp {
 			}
 
 
-			// Iterate through the set bits of the index for the single indexed column
-			for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
-				// Load the specific record corresponding to global index 'i' from disk
-				String[] record = table.getRecordByGlobalIndex(i); // Call your method here
-
-				if (record != null) {
-					// Linearly check the conditions for the OTHER (non-indexed) columns
-					boolean otherColumnsMatch = true;
-					for (Map.Entry<Integer, Integer> entry : otherColMap.entrySet()) {
-						int queryColIndex = entry.getKey();
-						int tableColIndex = entry.getValue();
-
-						// Add check for valid tableColIndex
-						if (tableColIndex < 0 || tableColIndex >= record.length) {
-							System.err.println("Warning: Invalid table column index " + tableColIndex + " for record during selectCase3 for table " + table.getTableName());
-							otherColumnsMatch = false; // Treat as non-match
-							break;
-						}
-
-						if (!record[tableColIndex].equals(vals[queryColIndex])) {
-							otherColumnsMatch = false;
-							break;
-						}
-					}
-
-					if (otherColumnsMatch) {
-						result.add(record);
-					}
-				} else {
-					System.err.println("Warning: Could not load record with global index: " + i + " during selectCase3 for table " + table.getTableName());
-					// Continue even if one record fails to load
-				}
-			}
+			// Load the records of the single indexed column's bitmap page by page,
+			// linearly checking the conditions for the OTHER (non-indexed) columns
+			// (or scan the table and check every condition, if that is estimated to be cheaper)
+			Map<Integer, Integer> colMap = columnMap(table, cols);
+			plan = CostModel.choose(table, indexedSelectionCount, true);
+			pagesRead = readPlanned(table, plan, bitmap,
+					record -> matchesColumns(record, otherColMap, vals, "selectCase3", table.getTableName()),
+					record -> matchesColumns(record, colMap, vals, "selectCase3", table.getTableName()), result);
 
 		} catch (Exception e) { // Catch broader exceptions
 			long endTime = System.nanoTime();
@@ -900,36 +1795,84 @@ public class DBApp {
 			return new ArrayList<>(); // Return empty list on error
 		}
 
-		long endTime = System.nanoTime(); // End time for trace
-		long executionTime = (endTime - startTime) / 1000000;
+		long executionTime = Metrics.record(Metrics.SELECT_CASE_3, startTime) / 1000000;
 		// Trace for successful completion (matching PDF output format)
 		Collections.sort(otherColNames);
-		tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-				", Indexed columns: [" + cols[indexedIdx] + "]" + // Trace format from example
-				", Indexed selection count: " + indexedSelectionCount + // Cardinality of the single index result
-				", Non Indexed: " + otherColNames.toString() + // List of non-indexed names
-				", Final count: " + result.size() +
-				", execution time (mil):" + executionTime);
+		tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), Collections.singletonList(cols[indexedIdx]), // Trace format from example
+				indexedSelectionCount, otherColNames, result.size(), pagesRead, plan, executionTime);
 
 		return result;
 	}
 
 
+	/**
+	 * Checks the conditions on the non-indexed columns of an index select against a record.
+	 *
+	 * @param record    the record to check.
+	 * @param colMap    maps the position of each condition in the query to its column in the table.
+	 * @param vals      the values of the query's conditions.
+	 * @param caseName  the select case, for warnings.
+	 * @param tableName the name of the table, for warnings.
+	 * @return true if every condition holds.
+	 */
+	private static boolean matchesColumns(String[] record, Map<Integer, Integer> colMap, String[] vals, String caseName, String tableName) {
+		for (Map.Entry<Integer, Integer> entry : colMap.entrySet()) {
+			int queryColIndex = entry.getKey(); // Index in the original 'cols' array
+			int tableColIndex = entry.getValue(); // Index in the record array
+
+			// Add check for valid tableColIndex in case getColumnIndex failed somehow (though it throws exception)
+			if (tableColIndex < 0 || tableColIndex >= record.length) {
+				System.err.println("Warning: Invalid table column index " + tableColIndex + " for record during " + caseName + " for table " + tableName);
+				return false; // Treat as non-match if index is bad
+			}
+
+			if (!record[tableColIndex].equals(vals[queryColIndex])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Maps the index of each query column to the index of the column in the table's records
+	private static Map<Integer, Integer> columnMap(Table table, String[] cols) {
+		Map<Integer, Integer> colMap = new HashMap<>();
+		for (int i = 0; i < cols.length; i++) {
+			colMap.put(i, table.getColumnIndex(cols[i]));
+		}
+		return colMap;
+	}
+
+	/**
+	 * Reads the records of an index lookup as a plan says: either the candidates passing the
+	 * residual filter, page by page, or every record of a full scan passing the full filter.
+	 *
+	 * @return the number of pages read.
+	 */
+	private static int readPlanned(Table table, CostModel.Plan plan, CompressedBitmap positions,
+			Predicate<String[]> residual, Predicate<String[]> full, ArrayList<String[]> result) {
+		return readPlanned(table, plan, positions, residual, (page, slot) -> full.test(page.getRecord(slot)), result);
+	}
+
+	private static int readPlanned(Table table, CostModel.Plan plan, CompressedBitmap positions,
+			Predicate<String[]> residual, ParallelScan.PageFilter full, ArrayList<String[]> result) {
+		if (plan.isScan()) {
+			result.addAll(ParallelScan.scan(table, full).getRecords());
+			return table.getPagesCount();
+		}
+		return table.collectRecords(positions, residual, prefetchPages, result);
+	}
+
 	private static ArrayList<String[]> selectCase4_NoIndexedColumns(Table table, String[] cols, String[] vals) {
 		long startTime = System.nanoTime(); // Start time for trace
 		ArrayList<String[]> result = select(table.getTableName(), cols, vals);
-		long endTime = System.nanoTime(); // End time for trace
-		long executionTime = (endTime - startTime) / 1000000;
+		long executionTime = Metrics.record(Metrics.SELECT_CASE_4, startTime) / 1000000;
 		Arrays.sort(cols);
-		tableTraces.get(table.getTableName()).add("Select index condition: " + Arrays.toString(cols) + "->" + Arrays.toString(vals) +
-				", Indexed selection count: 0" +
-				", Non Indexed: " + Arrays.toString(cols) +
-				", Final count: " + result.size() +
-				", execution time (mil):" + executionTime);
+		tableTraces.get(table.getTableName()).selectedIndex(false, TraceLog.condition(cols, vals), null, 0, TraceLog.list(cols),
+				result.size(), -1, null, executionTime);
 		return result;
 	}
 
 	public static void main(String[] args) throws IOException {
 
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+package DBMS;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import java.util.*;
+import org.junit.Test;
+public class DBAppTestsBatch
+{
+
+	@Test(timeout = 1000000)
+	public void TableInsertBatchMatchesSingleInserts() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 3;
+		String[] cols0 = {"a","b","c","d"};
+		DBApp.createTable("s7", cols0);
+		DBApp.createTable("k2", cols0);
+		DBApp.createBitMapIndex("s7","c");
+		DBApp.createBitMapIndex("k2","c");
+		ArrayList<String[]> records = new ArrayList<String[]>();
+		for(int i=0;i<100;i++)
+		{
+			String [] record = new String[cols0.length];
+			record[0] = cols0[0]+i;
+			for(int j=1;j<cols0.length;j++)
+			{
+				record[j] = cols0[j]+((i%(j+1)));
+			}
+			records.add(record);
+			DBApp.insert("s7", record);
+		}
+		DBApp.insertBatch("k2", records.subList(0, 40));
+		DBApp.insertBatch("k2", records.subList(40, 100));
+		String tableTrace0 = DBApp.getLastTrace("k2");
+		assertTrue("A batch insert should appear in the last trace.", tableTrace0.contains("Inserted batch:60 records"));
+		assertTrue("A batch insert should report the pages it filled.", tableTrace0.contains("at page numbers:13-33"));
+		ArrayList<String[]> single = DBApp.select("s7");
+		ArrayList<String[]> batch = DBApp.select("k2");
+		assertEquals("A batch insert should store the same number of records as single inserts.", single.size(), batch.size());
+		for(int i = 0; i < single.size(); i++)
+		{
+			assertEquals("A batch insert should store records in the same order as single inserts.", Arrays.toString(single.get(i)), Arrays.toString(batch.get(i)));
+		}
+		assertEquals("A batch insert should update the bitmap index like single inserts.", DBApp.getValueBits("s7", "c", "c2"), DBApp.getValueBits("k2", "c", "c2"));
+		String fullTrace0 = DBApp.getFullTrace("k2");
+		assertTrue("A batch insert should report the correct pages count.", fullTrace0.contains("Pages Count: 34, Records Count: 100"));
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableBulkLoadMatchesSingleInserts() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 4;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("q5", cols0);
+		DBApp.createTable("w1", cols0);
+		DBApp.createBitMapIndex("q5","b");
+		DBApp.createBitMapIndex("w1","b");
+		java.io.File csv = java.io.File.createTempFile("bulk", ".csv");
+		csv.deleteOnExit();
+		StringBuilder content = new StringBuilder("a,b,c\n");
+		DBApp.insert("w1", new String[] {"a0", "b0", "c0"});
+		DBApp.insert("q5", new String[] {"a0", "b0", "c0"});
+		for(int i=1;i<50;i++)
+		{
+			String [] record = {"a"+i, "b"+(i%3), i%7==0 ? "c,\"" + i + "\"" : "c"+i};
+			DBApp.insert("q5", record);
+			content.append(record[0]).append(',').append(record[1]).append(',');
+			content.append(i%7==0 ? "\"c,\"\"" + i + "\"\"\"" : record[2]).append('\n');
+		}
+		java.nio.file.Files.write(csv.toPath(), content.toString().getBytes("UTF-8"));
+		BulkLoader.Result result = DBApp.bulkLoad("w1", csv.getPath());
+		assertEquals("A bulk load should load every row of the file.", 49, result.getRowsCount());
+		assertEquals("A bulk load should report the bytes it read.", csv.length(), result.getBytesRead());
+		String tableTrace0 = DBApp.getLastTrace("w1");
+		assertTrue("A bulk load should appear in the last trace.", tableTrace0.contains("Bulk loaded:49 records"));
+		assertTrue("A bulk load should report the pages it filled.", tableTrace0.contains("at page numbers:0-12"));
+		assertTrue("A bulk load should report its speed.", tableTrace0.contains("rows/sec:") && tableTrace0.contains("bytes/sec:"));
+		ArrayList<String[]> single = DBApp.select("q5");
+		ArrayList<String[]> loaded = DBApp.select("w1");
+		assertEquals("A bulk load should store the same number of records as single inserts.", single.size(), loaded.size());
+		for(int i = 0; i < single.size(); i++)
+		{
+			assertEquals("A bulk load should store records in the same order as single inserts.", Arrays.toString(single.get(i)), Arrays.toString(loaded.get(i)));
+		}
+		assertEquals("A bulk load should build the bitmap index like single inserts.", DBApp.getValueBits("q5", "b", "b1"), DBApp.getValueBits("w1", "b", "b1"));
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+}
@@ -0,0 +1,271 @@
+package DBMS;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.Test;
+public class DBAppTestsConcurrency
+{
+
+	@Test(timeout = 1000000)
+	public void TableConcurrentInsertsAndSelects() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 10;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("s1", cols0);
+		DBApp.createBitMapIndex("s1","b");
+		DBApp.createSortedIndex("s1","c");
+		for(int w=0;w<3;w++)
+		{
+			DBApp.createTable("w"+w, cols0);
+			DBApp.createBitMapIndex("w"+w,"b");
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			// Writers sharing one table
+			for(int t=0;t<3;t++)
+			{
+				final int thread = t;
+				futures.add(pool.submit(() -> {
+					for(int i=0;i<60;i++)
+					{
+						int n = thread*60+i;
+						DBApp.insert("s1", new String[]{"a"+n, "b"+(n%2), ""+n});
+					}
+				}));
+			}
+			// Writers with a table each
+			for(int t=0;t<3;t++)
+			{
+				final String table = "w"+t;
+				futures.add(pool.submit(() -> {
+					for(int i=0;i<60;i++)
+					{
+						DBApp.insert(table, new String[]{"a"+i, "b"+(i%3), "c"+i});
+					}
+				}));
+			}
+			// Readers of the shared table
+			for(int t=0;t<2;t++)
+			{
+				futures.add(pool.submit(() -> {
+					for(int i=0;i<40;i++)
+					{
+						for(String[] record : DBApp.selectIndex("s1", new String[]{"b"}, new String[]{"b1"}))
+						{
+							assertEquals("Concurrent selects should only return matching records.", "b1", record[1]);
+						}
+						for(String[] record : DBApp.selectIndex("s1", new Condition[]{Condition.lessThan("c", "50")}))
+						{
+							assertTrue("Concurrent range selects should only return matching records.", Integer.parseInt(record[2]) < 50);
+						}
+						DBApp.count("s1", new String[]{"b"}, new String[]{"b0"});
+					}
+				}));
+			}
+			for(Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	
+		assertEquals("Every concurrent insert should be kept.", 180, DBApp.select("s1").size());
+		assertEquals("The bitmap index should hold every concurrent insert.", 90, DBApp.count("s1", new String[]{"b"}, new String[]{"b0"}));
+		assertEquals("The bitmap index should agree with the records.", 90, DBApp.select("s1", new String[]{"b"}, new String[]{"b0"}).size());
+		assertEquals("The sorted index should hold every concurrent insert.", 50, DBApp.selectIndex("s1", new Condition[]{Condition.lessThan("c", "50")}).size());
+		for(int w=0;w<3;w++)
+		{
+			assertEquals("Inserts into other tables should all be kept.", 60, DBApp.select("w"+w).size());
+			assertEquals("Inserts into other tables should keep their index.", 20, DBApp.count("w"+w, new String[]{"b"}, new String[]{"b2"}));
+		}
+		String trace = DBApp.getFullTrace("s1");
+		assertEquals("Every concurrent insert should be traced.", 180, trace.split("Inserted:", -1).length - 1);
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableTinyBufferPoolKeepsConcurrentInserts() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 3;
+		String[] cols0 = {"a","b"};
+		DBApp.createTable("bp", cols0);
+		for(int w=0;w<2;w++)
+		{
+			DBApp.createTable("bw"+w, cols0);
+		}
+		// Two frames: every miss evicts a page that another thread may be reading
+		BufferPool.setCapacity(2);
+		ExecutorService pool = Executors.newFixedThreadPool(7);
+		try
+		{
+			List<Future<?>> futures = new ArrayList<>();
+			for(int t=0;t<3;t++)
+			{
+				final int thread = t;
+				futures.add(pool.submit(() -> {
+					for(int i=0;i<80;i++)
+					{
+						DBApp.insert("bp", new String[]{"a"+(thread*80+i), "b"+thread});
+					}
+				}));
+			}
+			for(int t=0;t<2;t++)
+			{
+				final String table = "bw"+t;
+				futures.add(pool.submit(() -> {
+					for(int i=0;i<80;i++)
+					{
+						DBApp.insert(table, new String[]{"a"+i, "b"});
+					}
+				}));
+			}
+			for(int t=0;t<2;t++)
+			{
+				futures.add(pool.submit(() -> {
+					for(int i=0;i<60;i++)
+					{
+						ArrayList<String[]> records = DBApp.select("bp");
+						for(int r=0;r<records.size();r++)
+						{
+							assertTrue("Selects should only see whole records.", records.get(r)[0].startsWith("a"));
+						}
+						DBApp.select("bw"+(i%2), new String[]{"b"}, new String[]{"b"});
+					}
+				}));
+			}
+			for(Future<?> future : futures)
+			{
+				future.get();
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+			BufferPool.setCapacity(128);
+		}
+	
+		// The pool is empty now, so the records are read back from the page files
+		Set<String> values = new HashSet<>();
+		for(String[] record : DBApp.select("bp"))
+		{
+			values.add(record[0]);
+		}
+		assertEquals("No insert should be lost to a stale page.", 240, DBApp.select("bp").size());
+		assertEquals("Every insert should be on disk exactly once.", 240, values.size());
+		for(int w=0;w<2;w++)
+		{
+			assertEquals("Inserts into other tables should all be on disk.", 80, DBApp.select("bw"+w).size());
+		}
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableSelectsReadSnapshotsWithoutBlockingInserts() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 4;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("m2", cols0);
+		DBApp.createBitMapIndex("m2","b");
+		DBApp.createSortedIndex("m2","c");
+		for(int i=0;i<10;i++)
+		{
+			DBApp.insert("m2", new String[]{"a"+i, "b"+(i%2), ""+i});
+		}
+	
+		// Cursors keep reading the table as it was when they were opened
+		RecordCursor all = DBApp.selectCursor("m2");
+		RecordCursor indexed = DBApp.selectIndexCursor("m2", new String[]{"b"}, new String[]{"b0"});
+		RecordCursor ranged = DBApp.selectIndexCursor("m2", new Condition[]{Condition.greaterThan("c", "5")});
+		for(int i=10;i<20;i++)
+		{
+			DBApp.insert("m2", new String[]{"a"+i, "b"+(i%2), ""+i});
+		}
+		int seen = 0;
+		while(all.hasNext())
+		{
+			assertEquals("A cursor should return the records in table order.", "a"+seen, all.next()[0]);
+			seen++;
+		}
+		assertEquals("A cursor should not return records inserted after it was opened.", 10, seen);
+		seen = 0;
+		while(indexed.hasNext())
+		{
+			assertTrue("An index cursor should only see the bitmaps as of its start.", Integer.parseInt(indexed.next()[2]) < 10);
+			seen++;
+		}
+		assertEquals("An index cursor should return the matches of its snapshot.", 5, seen);
+		seen = 0;
+		while(ranged.hasNext())
+		{
+			assertTrue("A range cursor should only see the sorted index as of its start.", Integer.parseInt(ranged.next()[2]) < 10);
+			seen++;
+		}
+		assertEquals("A range cursor should return the matches of its snapshot.", 4, seen);
+	
+		// A writer holding the table does not hold up its selects
+		CountDownLatch locked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try
+		{
+			pool.submit(() -> TableLocks.write("m2", () -> {
+				locked.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}));
+			locked.await();
+			Future<?> reader = pool.submit(() -> {
+				assertEquals("A select should see every committed insert.", 20, DBApp.select("m2").size());
+				assertEquals("A scan select should run while the table is being written.", 10, DBApp.select("m2", new String[]{"b"}, new String[]{"b1"}).size());
+				assertEquals("An index select should run while the table is being written.", 10, DBApp.selectIndex("m2", new String[]{"b"}, new String[]{"b0"}).size());
+				assertEquals("A range select should run while the table is being written.", 15, DBApp.selectIndex("m2", new Condition[]{Condition.lessThan("c", "15")}).size());
+				assertEquals("A count should run while the table is being written.", 10, DBApp.count("m2", new String[]{"b"}, new String[]{"b1"}));
+			});
+			reader.get(60, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			release.countDown();
+			pool.shutdown();
+		}
+	
+		// A record an insert has added to the last page but not committed yet is not returned
+		DBApp.insert("m2", new String[]{"a20", "b0", "20"});
+		Page last = BufferPool.fetchPage("m2", 5);
+		last.insert(new String[]{"a21", "b1", "21"});
+		try
+		{
+			assertEquals("A pointer select should find committed records.", "a20", DBApp.select("m2", 5, 0).get(0)[0]);
+			assertEquals("A pointer select should not return records past its snapshot.", 0, DBApp.select("m2", 5, 1).size());
+		}
+		finally
+		{
+			BufferPool.unpinPage("m2", 5, false);
+		}
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+}
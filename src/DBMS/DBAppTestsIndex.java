@@ -0,0 +1,522 @@
+package DBMS;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import java.util.*;
+import org.junit.Test;
+public class DBAppTestsIndex
+{
+	@Test(timeout = 1000000)
+	public void CompressedBitmapMatchesBitSet() throws Exception
+	{
+		Random random = new Random(7);
+		ArrayList<BitSet> sets = new ArrayList<>();
+		for(int round=0;round<4;round++)
+		{
+			int limit = 1 << (14 + 2 * round);
+			// Sparse: random positions
+			BitSet sparse = new BitSet();
+			for(int i=0;i<500 * (round + 1);i++)
+			{
+				sparse.set(random.nextInt(limit));
+			}
+			sets.add(sparse);
+			// Dense: most positions of a few chunks
+			BitSet dense = new BitSet();
+			for(int i=0;i<limit;i++)
+			{
+				if(random.nextInt(10) < 6)
+				{
+					dense.set(i);
+				}
+			}
+			sets.add(dense);
+			// Striped: every k-th position
+			BitSet striped = new BitSet();
+			int stride = 2 + random.nextInt(20);
+			for(int i=random.nextInt(stride);i<limit;i+=stride)
+			{
+				striped.set(i);
+			}
+			sets.add(striped);
+			// Run-heavy: long runs of consecutive positions, some across chunks
+			BitSet runs = new BitSet();
+			for(int start=random.nextInt(1000);start<limit;start+=random.nextInt(70000))
+			{
+				runs.set(start, Math.min(limit, start + 1 + random.nextInt(20000)));
+			}
+			sets.add(runs);
+		}
+		// Array containers at and around their 4096 value limit, and positions on each side of chunk boundaries
+		for(int count : new int[]{4095, 4096, 4097})
+		{
+			BitSet limit = new BitSet();
+			for(int i=0;i<count;i++)
+			{
+				limit.set(65536 + 2 * i);
+			}
+			for(int boundary=1;boundary<=3;boundary++)
+			{
+				limit.set(boundary * 65536 - 1);
+				limit.set(boundary * 65536);
+			}
+			sets.add(limit);
+		}
+		BitSet crossing = new BitSet();
+		crossing.set(65536 - 3, 65536 * 2 + 3);
+		sets.add(crossing);
+		sets.add(new BitSet());
+
+		ArrayList<CompressedBitmap> bitmaps = new ArrayList<>();
+		for(BitSet bits : sets)
+		{
+			// Built position by position, so containers change type as they fill
+			CompressedBitmap built = new CompressedBitmap();
+			for(int i=bits.nextSetBit(0);i>=0;i=bits.nextSetBit(i+1))
+			{
+				built.set(i);
+			}
+			assertMatches(bits, built, random);
+			CompressedBitmap optimized = built.clone();
+			optimized.runOptimize();
+			assertMatches(bits, optimized, random);
+			assertMatches(bits, CompressedBitmap.valueOf(bits), random);
+			assertEquals("The BitSet conversion should round-trip.", bits, CompressedBitmap.valueOf(bits).toBitSet());
+			assertEquals("Bitmaps of the same positions should be equal whatever their containers.", built, optimized);
+			assertEquals("Equal bitmaps should hash alike.", built.hashCode(), optimized.hashCode());
+			java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+			try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(bytes))
+			{
+				out.writeObject(optimized);
+			}
+			try (java.io.ObjectInputStream in = new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())))
+			{
+				assertMatches(bits, (CompressedBitmap) in.readObject(), random);
+			}
+			bitmaps.add(random.nextBoolean() ? built : optimized);
+		}
+
+		for(int i=0;i<sets.size();i++)
+		{
+			for(int j=0;j<sets.size();j++)
+			{
+				BitSet and = (BitSet) sets.get(i).clone();
+				and.and(sets.get(j));
+				BitSet or = (BitSet) sets.get(i).clone();
+				or.or(sets.get(j));
+				BitSet andNot = (BitSet) sets.get(i).clone();
+				andNot.andNot(sets.get(j));
+				CompressedBitmap a = bitmaps.get(i);
+				CompressedBitmap b = bitmaps.get(j);
+				assertMatches(and, CompressedBitmap.and(a, b), random);
+				assertMatches(or, CompressedBitmap.or(a, b), random);
+				assertMatches(andNot, CompressedBitmap.andNot(a, b), random);
+				CompressedBitmap inPlace = a.clone();
+				inPlace.and(b);
+				assertMatches(and, inPlace, random);
+				inPlace = a.clone();
+				inPlace.or(b);
+				assertMatches(or, inPlace, random);
+				inPlace = a.clone();
+				inPlace.andNot(b);
+				assertMatches(andNot, inPlace, random);
+				assertMatches(sets.get(i), a, random);
+			}
+		}
+
+		// Ranges and appends to copies across chunk boundaries
+		BitSet range = new BitSet();
+		range.set(65530, 200000);
+		assertMatches(range, CompressedBitmap.range(65530, 200000), random);
+		CompressedBitmap original = CompressedBitmap.valueOf(sets.get(sets.size() - 2));
+		CompressedBitmap appended = original.copyForAppend(65536 * 2 + 3);
+		BitSet expected = (BitSet) sets.get(sets.size() - 2).clone();
+		for(int i=65536 * 2 + 3;i<65536 * 3 + 10;i+=3)
+		{
+			appended.set(i);
+			expected.set(i);
+		}
+		assertMatches(expected, appended, random);
+		assertMatches(sets.get(sets.size() - 2), original, random);
+	}
+
+	// Checks a bitmap against the BitSet holding the same positions
+	private static void assertMatches(BitSet expected, CompressedBitmap actual, Random random)
+	{
+		assertEquals("The cardinality should match BitSet.", expected.cardinality(), actual.cardinality());
+		assertEquals("Emptiness should match BitSet.", expected.isEmpty(), actual.isEmpty());
+		int expectedNext = expected.nextSetBit(0);
+		int actualNext = actual.nextSetBit(0);
+		while(expectedNext >= 0)
+		{
+			assertEquals("Iteration should match BitSet.", expectedNext, actualNext);
+			expectedNext = expected.nextSetBit(expectedNext + 1);
+			actualNext = actual.nextSetBit(actualNext + 1);
+		}
+		assertEquals("Iteration should end like BitSet.", -1, actualNext);
+		int limit = Math.max(expected.length(), 1) + 70000;
+		for(int k=0;k<200;k++)
+		{
+			int i = random.nextInt(limit);
+			assertEquals("get(" + i + ") should match BitSet.", expected.get(i), actual.get(i));
+			assertEquals("nextSetBit(" + i + ") should match BitSet.", expected.nextSetBit(i), actual.nextSetBit(i));
+		}
+		for(int boundary=0;boundary<=4;boundary++)
+		{
+			for(int i=Math.max(0, boundary * 65536 - 2);i<=boundary * 65536 + 1;i++)
+			{
+				assertEquals("get(" + i + ") should match BitSet at a chunk boundary.", expected.get(i), actual.get(i));
+				assertEquals("nextSetBit(" + i + ") should match BitSet at a chunk boundary.", expected.nextSetBit(i), actual.nextSetBit(i));
+			}
+		}
+	}
+
+
+	@Test(timeout = 1000000)
+	public void TableSelectIndexReadsEachPageOnce() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 5;
+		String[] cols0 = {"a","b","c","d"};
+		DBApp.createTable("m4", cols0);
+		for(int i=0;i<100;i++)
+		{
+			String [] record = new String[cols0.length];
+			record[0] = cols0[0]+i;
+			for(int j=1;j<cols0.length;j++)
+			{
+				record[j] = cols0[j]+((i%(j+1)));
+			}
+			DBApp.insert("m4", record);
+		}
+		DBApp.createBitMapIndex("m4","b");
+		DBApp.createBitMapIndex("m4","c");
+		String[] ConditionColumns0 = {"b"};
+		String[] ConditionColumns0Values = {"b0"};
+		ArrayList<String[]> tableSelect0 = DBApp.selectIndex("m4", ConditionColumns0, ConditionColumns0Values);
+		assertEquals("Select Index when all columns are indexed should return the correct number of records.", 50, tableSelect0.size());
+		String tableTrace0 = DBApp.getLastTrace("m4");
+		assertTrue("Select Index should report how many pages it read.", tableTrace0.contains("Final count: 50, Pages read: 20"));
+		for(int i = 0; i < tableSelect0.size(); i++)
+		{
+			assertEquals("Select Index should return records in table order.", "a"+(2*i), tableSelect0.get(i)[0]);
+		}
+		DBApp.prefetchPages = true;
+		String[] ConditionColumns1 = {"b","d"};
+		String[] ConditionColumns1Values = {"b1","d3"};
+		ArrayList<String[]> tableSelect1 = DBApp.selectIndex("m4", ConditionColumns1, ConditionColumns1Values);
+		DBApp.prefetchPages = false;
+		assertEquals("Select Index with prefetching should return the correct number of records.", 25, tableSelect1.size());
+		String tableTrace1 = DBApp.getLastTrace("m4");
+		assertTrue("Select Index with prefetching should report how many pages it read.", tableTrace1.contains("Final count: 25, Pages read: 20"));
+		for(int i = 0; i < tableSelect1.size(); i++)
+		{
+			assertEquals("Select Index with prefetching should return records in table order.", "a"+(3+4*i), tableSelect1.get(i)[0]);
+		}
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableSelectIndexWarmCacheDoesNoIndexIO() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 4;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("x3", cols0);
+		DBApp.createBitMapIndex("x3","b");
+		DBApp.createBitMapIndex("x3","c");
+		for(int i=0;i<30;i++)
+		{
+			String [] record = {"a"+i, "b"+(i%2), "c"+(i%3)};
+			DBApp.insert("x3", record);
+		}
+		IndexCache.resetStatistics();
+		String[] ConditionColumns0 = {"b","c"};
+		String[] ConditionColumns0Values = {"b1","c2"};
+		ArrayList<String[]> tableSelect0 = DBApp.selectIndex("x3", ConditionColumns0, ConditionColumns0Values);
+		assertEquals("Select Index when all columns are indexed should return the correct number of records.", 5, tableSelect0.size());
+		assertEquals("Select Index with a warm index cache should not read any index from disk.", 0, IndexCache.getMissCount());
+		assertEquals("Select Index should find every index in the cache.", 2, IndexCache.getHitCount());
+		IndexCache.clear();
+		BitmapIndex b0 = FileManager.loadTableIndex("x3", "c");
+		assertEquals("Inserts should keep the stored index up to date.", "001001001001001001001001001001", b0.getBitMapIndexByValue("c2"));
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableSelectCursorMatchesSelect() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 3;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("k7", cols0);
+		for(int i=0;i<40;i++)
+		{
+			String [] record = {"a"+i, "b"+(i%2), "c"+(i%5)};
+			DBApp.insert("k7", record);
+		}
+		DBApp.createBitMapIndex("k7","b");
+		BufferPool.setCapacity(2);
+		try
+		{
+			ArrayList<String[]> all = DBApp.select("k7");
+			int count = 0;
+			try (RecordCursor cursor = DBApp.selectCursor("k7"))
+			{
+				while (cursor.hasNext())
+				{
+					assertEquals("Cursor should return records in table order.", all.get(count)[0], cursor.next()[0]);
+					count++;
+				}
+			}
+			assertEquals("Cursor should return every record of the table.", 40, count);
+			assertTrue("Closing a cursor should add its trace.", DBApp.getLastTrace("k7").startsWith("Select cursor all pages:14, records:40, Pages read: 14"));
+
+			String[] ConditionColumns0 = {"b","c"};
+			String[] ConditionColumns0Values = {"b1","c3"};
+			ArrayList<String[]> tableSelect0 = DBApp.selectIndex("k7", ConditionColumns0, ConditionColumns0Values);
+			ArrayList<String[]> streamed0;
+			try (java.util.stream.Stream<String[]> stream = DBApp.selectIndexCursor("k7", ConditionColumns0, ConditionColumns0Values).stream())
+			{
+				streamed0 = stream.collect(java.util.stream.Collectors.toCollection(ArrayList::new));
+			}
+			assertEquals("Index cursor should return the same records as Select Index.", tableSelect0.size(), streamed0.size());
+			for(int i = 0; i < streamed0.size(); i++)
+			{
+				assertEquals("Index cursor should return records in table order.", tableSelect0.get(i)[0], streamed0.get(i)[0]);
+			}
+			assertTrue("Index cursor should only read pages holding a candidate.", DBApp.getLastTrace("k7").contains("Indexed selection count: 20, Non Indexed: [c], Final count: 4, Pages read: 14"));
+
+			long matches = DBApp.selectCursor("k7", new String[] {"c"}, new String[] {"c0"}).stream().limit(3).count();
+			assertEquals("A stream over a cursor can stop early.", 3, matches);
+		}
+		finally
+		{
+			BufferPool.setCapacity(128);
+		}
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableSelectRangeWithSortedIndex() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 4;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("r2", cols0);
+		for(int i=0;i<20;i++)
+		{
+			String [] record = {"a"+i, ""+(i%12), "c"+(i%3)};
+			DBApp.insert("r2", record);
+		}
+		DBApp.createSortedIndex("r2","b");
+		for(int i=20;i<40;i++)
+		{
+			String [] record = {"a"+i, ""+(i%12), "c"+(i%3)};
+			DBApp.insert("r2", record);
+		}
+		Condition[] conditions0 = {Condition.greaterThanOrEqualTo("b", "9")};
+		ArrayList<String[]> tableSelect0 = DBApp.select("r2", conditions0);
+		assertEquals("Range conditions should compare numbers numerically.", 9, tableSelect0.size());
+		ArrayList<String[]> tableSelectIndex0 = DBApp.selectIndex("r2", conditions0);
+		assertEquals("Select Index with a sorted index should return the same records as a scan.", tableSelect0.size(), tableSelectIndex0.size());
+		for(int i = 0; i < tableSelect0.size(); i++)
+		{
+			assertEquals("Select Index with a sorted index should return records in table order.", tableSelect0.get(i)[0], tableSelectIndex0.get(i)[0]);
+		}
+		assertTrue("Select Index should answer range conditions with the sorted index.", DBApp.getLastTrace("r2").contains("Indexed columns: [b], Indexed selection count: 9, Non Indexed: [], Final count: 9"));
+
+		Condition[] conditions1 = {Condition.between("b", "2", "4"), Condition.notEqualTo("c", "c0"), Condition.lessThan("a", "a3")};
+		ArrayList<String[]> tableSelectIndex1 = DBApp.selectIndex("r2", conditions1);
+		assertEquals("Select Index should check the conditions without an index on the records read.", 5, tableSelectIndex1.size());
+		assertEquals("Select Index should return records in table order.", "a2", tableSelectIndex1.get(0)[0]);
+		assertEquals("Select Index should return records in table order.", "a28", tableSelectIndex1.get(4)[0]);
+		assertTrue("Select Index should list the columns answered without an index.", DBApp.getLastTrace("r2").contains("Indexed columns: [b], Indexed selection count: 11, Non Indexed: [a, c], Final count: 5"));
+
+		IndexCache.clear();
+		SortedIndex s0 = FileManager.loadTableSortedIndex("r2", "b");
+		assertEquals("Inserts should keep the stored sorted index up to date.", 40, s0.getPositionsCount());
+		assertEquals("The sorted index should hold one key per distinct value.", 12, s0.getKeysCount());
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void IndexCacheKeepsIndexesThatCannotBeWrittenBack() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			String[] cols0 = {"a","b"};
+			DBApp.createTable("ic1", cols0);
+			DBApp.createBitMapIndex("ic1","b");
+			FileManager.setDeferredWrites(true);
+			for(int i=0;i<12;i++)
+			{
+				DBApp.insert("ic1", new String[]{"a"+i, "b"+(i%3)});
+			}
+	
+			// The dirty index cannot be written back, so evicting it would lose its updates
+			java.io.File indexFile = new java.io.File(new java.io.File(FileManager.directory, "ic1"), "b.db");
+			assertTrue(indexFile.delete() && indexFile.mkdir());
+			IndexCache.resetStatistics();
+			IndexCache.setMemoryBudget(1);
+			assertEquals("An index that could not be written back should stay cached.", 0, IndexCache.getEvictionCount());
+			assertEquals("The cached index should keep its updates.", 4, DBApp.count("ic1", new String[]{"b"}, new String[]{"b1"}));
+	
+			// Once it can be written, it is written and evicted
+			assertTrue(indexFile.delete());
+			IndexCache.setMemoryBudget(1);
+			assertEquals("An index written back should be evicted.", 1, IndexCache.getEvictionCount());
+			assertEquals("The evicted index should be read back with its updates.", 4, DBApp.count("ic1", new String[]{"b"}, new String[]{"b1"}));
+		}
+		finally
+		{
+			IndexCache.setMemoryBudget(64L * 1024 * 1024);
+			FileManager.setDeferredWrites(false);
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableSelectIndexExpressionTree() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 5;
+		String[] cols0 = {"a","b","c","d"};
+		DBApp.createTable("e5", cols0);
+		for(int i=0;i<60;i++)
+		{
+			String [] record = {"a"+i, "b"+(i%4), "c"+(i%5), ""+(i%6)};
+			DBApp.insert("e5", record);
+		}
+		DBApp.createBitMapIndex("e5","b");
+		DBApp.createBitMapIndex("e5","c");
+
+		ArrayList<String[]> tableSelect0 = DBApp.selectIndex("e5", Expression.in("b", "b1", "b3"));
+		assertEquals("IN on an indexed column should return the correct number of records.", 30, tableSelect0.size());
+		assertTrue("IN on an indexed column should be answered by the index alone.", DBApp.getLastTrace("e5").contains("Indexed columns: [b], Indexed selection count: 30, Non Indexed: [], Final count: 30"));
+
+		Expression where1 = Expression.and(Expression.or(Condition.equalTo("b", "b0"), Condition.equalTo("c", "c1")), Expression.not(Condition.equalTo("c", "c0")));
+		ArrayList<String[]> tableSelect1 = DBApp.selectIndex("e5", where1);
+		assertEquals("OR and NOT on indexed columns should return the correct number of records.", 21, tableSelect1.size());
+		assertTrue("OR and NOT on indexed columns should be answered by the indexes alone.", DBApp.getLastTrace("e5").contains("Indexed columns: [b, c], Indexed selection count: 21, Non Indexed: [], Final count: 21"));
+
+		Expression where2 = Expression.and(Expression.in("c", "c2", "c4"), Expression.or(Condition.lessThan("d", "2"), Condition.equalTo("b", "b2")));
+		ArrayList<String[]> tableSelect2 = DBApp.selectIndex("e5", where2);
+		assertEquals("Conditions without an index should be checked on the candidates.", 12, tableSelect2.size());
+		assertTrue("Only the candidates of the indexed part should be read.", DBApp.getLastTrace("e5").contains("Indexed selection count: 24, Non Indexed: [b, d], Final count: 12"));
+		for(int i = 1; i < tableSelect2.size(); i++)
+		{
+			assertTrue("Select Index should return records in table order.", Integer.parseInt(tableSelect2.get(i-1)[0].substring(1)) < Integer.parseInt(tableSelect2.get(i)[0].substring(1)));
+		}
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableSelectIndexChoosesScanByCost() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 5;
+		String[] cols0 = {"a","b","d"};
+		DBApp.createTable("q6", cols0);
+		for(int i=0;i<100;i++)
+		{
+			String [] record = {"a"+i, "b"+(i%2), "d"+(i%25)};
+			DBApp.insert("q6", record);
+		}
+		DBApp.createBitMapIndex("q6","b");
+		DBApp.createBitMapIndex("q6","d");
+		CostModel.randomPageCost = 4;
+		ParallelScan.setParallelism(1);
+		try
+		{
+			ArrayList<String[]> tableSelect0 = DBApp.selectIndex("q6", new String[]{"b"}, new String[]{"b0"});
+			assertEquals("Select Index should return the same records whatever the plan.", 50, tableSelect0.size());
+			assertTrue("Select Index should scan the table when most records are candidates.", DBApp.getLastTrace("q6").contains("Final count: 50, Pages read: 20, Plan: sequential scan"));
+	
+			ArrayList<String[]> tableSelect1 = DBApp.selectIndex("q6", new String[]{"a","b"}, new String[]{"a7","b1"});
+			assertEquals("A scan chosen by cost should still check every condition.", 1, tableSelect1.size());
+			assertEquals("A scan chosen by cost should still check every condition.", "a7", tableSelect1.get(0)[0]);
+			assertTrue("Select Index should record the plan it chose.", DBApp.getLastTrace("q6").contains("Plan: sequential scan"));
+	
+			ArrayList<String[]> tableSelect2 = DBApp.selectIndex("q6", new String[]{"d"}, new String[]{"d3"});
+			assertEquals("Select Index should return the same records whatever the plan.", 4, tableSelect2.size());
+			assertTrue("Select Index should fetch the candidates when few records are candidates.", DBApp.getLastTrace("q6").contains("Final count: 4, Pages read: 4, Plan: index fetch"));
+	
+			ArrayList<String[]> tableSelect3 = DBApp.selectIndex("q6", new String[]{"b","d"}, new String[]{"b1","d3"});
+			assertEquals("Select Index should intersect the bitmaps of every indexed column.", 2, tableSelect3.size());
+			assertEquals("Select Index should return records in table order.", "a53", tableSelect3.get(1)[0]);
+	
+			ArrayList<String[]> tableSelect4 = DBApp.selectIndex("q6", Expression.or(Condition.equalTo("b","b0"), Condition.equalTo("d","d3")));
+			assertEquals("A scan chosen for an expression should check the whole expression.", 52, tableSelect4.size());
+			assertTrue("Select Index should record the plan it chose.", DBApp.getLastTrace("q6").contains("Plan: sequential scan"));
+	
+			int count = 0;
+			try (RecordCursor cursor = DBApp.selectIndexCursor("q6", new String[]{"b"}, new String[]{"b0"}))
+			{
+				while (cursor.hasNext())
+				{
+					assertTrue("A cursor scanning the table should only return matching records.", cursor.next()[1].equals("b0"));
+					count++;
+				}
+			}
+			assertEquals("A cursor should return the same records whatever the plan.", 50, count);
+			assertTrue("A cursor should record the plan it chose.", DBApp.getLastTrace("q6").contains("Pages read: 20, Plan: sequential scan"));
+		}
+		finally
+		{
+			CostModel.randomPageCost = 1.0;
+			ParallelScan.setParallelism(0);
+		}
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+
+	@Test(timeout = 1000000)
+	public void TableCountAndExistsFromBitmaps() throws Exception
+	{
+		FileManager.reset();
+	
+		DBApp.dataPageSize = 4;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("n8", cols0);
+		for(int i=0;i<60;i++)
+		{
+			String [] record = {"a"+i, "b"+(i%2), "c"+(i%3)};
+			DBApp.insert("n8", record);
+		}
+		DBApp.createBitMapIndex("n8","b");
+		DBApp.createBitMapIndex("n8","c");
+		BufferPool.resetStatistics();
+		assertEquals("Count should return the number of matching records.", 10, DBApp.count("n8", new String[]{"b","c"}, new String[]{"b1","c2"}));
+		assertTrue("Count on indexed columns should report the count.", DBApp.getLastTrace("n8").contains("Count: 10, Pages read: 0"));
+		assertTrue("Exists on indexed columns should find a match.", DBApp.exists("n8", new String[]{"c"}, new String[]{"c0"}));
+		assertTrue("Exists on a value no record holds should be false.", !DBApp.exists("n8", new String[]{"b","c"}, new String[]{"b1","c7"}));
+		assertEquals("Count on indexed columns should not read any page.", 0, BufferPool.getHitCount() + BufferPool.getMissCount());
+	
+		assertEquals("Count with a non indexed column should check it on the candidates.", 1, DBApp.count("n8", new String[]{"a","b"}, new String[]{"a7","b1"}));
+		assertTrue("Count should report the columns left to check.", DBApp.getLastTrace("n8").contains("Non Indexed: [a], Count: 1"));
+		assertEquals("Count without an indexed column should scan the table.", 0, DBApp.count("n8", new String[]{"a"}, new String[]{"a60"}));
+		assertTrue("Exists without an indexed column should scan the table.", DBApp.exists("n8", new String[]{"a"}, new String[]{"a59"}));
+		assertEquals("Count should accept expressions.", 40, DBApp.count("n8", Expression.or(Condition.equalTo("b","b0"), Condition.equalTo("c","c1"))));
+		//--------------------------------------------------------------------------
+	
+		FileManager.reset();
+	}
+}
@@ -0,0 +1,997 @@
+package DBMS;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import org.junit.Test;
+public class DBAppTestsStorage
+{
+	// The catalog and page files serialized by the original Table and Page classes, of a table "legacy"
+	// with columns a and b and a page size of 2, holding records {a0, b0}, {a1, b1} and {a2, b2}
+	private static final String LEGACY_TABLE = "rO0ABXNyAApEQk1TLlRhYmxlAAAAAAAAAAECAARJAAhwYWdlU2l6ZVsAC2NvbHVtbk5hbWVzdAATW0xqYXZhL2xhbmcvU3RyaW5nO0wABXBhZ2VzdAAVTGphdmEvdXRpbC9BcnJheUxpc3Q7TAAJdGFibGVOYW1ldAASTGphdmEvbGFuZy9TdHJpbmc7eHAAAAACdXIAE1tMamF2YS5sYW5nLlN0cmluZzut0lbn6R17RwIAAHhwAAAAAnQAAWF0AAFic3IAE2phdmEudXRpbC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAJ3BAAAAAJzcgAJREJNUy5QYWdlwvC4vW8cppkCAANJAApwYWdlTnVtYmVySQAIcGFnZVNpemVMAAdyZWNvcmRzcQB+AAJ4cAAAAAAAAAACc3EAfgAJAAAAAncEAAAAAnVxAH4ABQAAAAJ0AAJhMHQAAmIwdXEAfgAFAAAAAnQAAmExdAACYjF4c3EAfgALAAAAAQAAAAJzcQB+AAkAAAABdwQAAAABdXEAfgAFAAAAAnQAAmEydAACYjJ4eHQABmxlZ2FjeQ==";
+	private static final String LEGACY_PAGE_0 = "rO0ABXNyAAlEQk1TLlBhZ2XC8Li9bxymmQIAA0kACnBhZ2VOdW1iZXJJAAhwYWdlU2l6ZUwAB3JlY29yZHN0ABVMamF2YS91dGlsL0FycmF5TGlzdDt4cAAAAAAAAAACc3IAE2phdmEudXRpbC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAJ3BAAAAAJ1cgATW0xqYXZhLmxhbmcuU3RyaW5nO63SVufpHXtHAgAAeHAAAAACdAACYTB0AAJiMHVxAH4ABQAAAAJ0AAJhMXQAAmIxeA==";
+	private static final String LEGACY_PAGE_1 = "rO0ABXNyAAlEQk1TLlBhZ2XC8Li9bxymmQIAA0kACnBhZ2VOdW1iZXJJAAhwYWdlU2l6ZUwAB3JlY29yZHN0ABVMamF2YS91dGlsL0FycmF5TGlzdDt4cAAAAAEAAAACc3IAE2phdmEudXRpbC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAF3BAAAAAF1cgATW0xqYXZhLmxhbmcuU3RyaW5nO63SVufpHXtHAgAAeHAAAAACdAACYTJ0AAJiMng=";
+
+	@Test(timeout = 1000000)
+	public void TableSegmentFilesKeepLogicalPages() throws Exception
+	{
+		int slotSize = SegmentFile.slotSize;
+		try
+		{
+			String[] cols0 = {"a","b","c"};
+			DBApp.dataPageSize = 10;
+			// Small slots, so pages outgrow their extent and move as records are added
+			SegmentFile.slotSize = 64;
+			String[] traces = new String[2];
+			List<String[]> selected = null;
+			for(int run=0;run<2;run++)
+			{
+				FileManager.reset();
+				FileManager.segmentFiles = run == 1;
+				DBApp.createTable("g1", cols0);
+				DBApp.createBitMapIndex("g1","b");
+				for(int i=0;i<45;i++)
+				{
+					DBApp.insert("g1", new String[]{"a"+i, "b"+(i%3), "c"+i});
+				}
+				traces[run] = FileManager.trace();
+				ArrayList<String[]> records = DBApp.select("g1");
+				if(run == 0)
+				{
+					selected = records;
+				}
+				else
+				{
+					assertEquals("Every record should be read back from the segment.", selected.size(), records.size());
+					for(int i=0;i<records.size();i++)
+					{
+						assertArrayEquals("Records should be read back unchanged.", selected.get(i), records.get(i));
+					}
+				}
+			}
+			assertEquals("The trace should list the same logical pages with segment files.", traces[0], traces[1]);
+			File tableDirectory = new File(FileManager.directory, "g1");
+			assertTrue("Pages should be packed in the segment file.", new File(tableDirectory, SegmentFile.FILE_NAME).exists());
+			assertTrue("No page file should be written.", !new File(tableDirectory, "0.db").exists());
+
+			// Reopen the segment, so its directory is rebuilt from the extent headers
+			BufferPool.clear();
+			SegmentFile.closeAll();
+			ArrayList<String[]> reopened = DBApp.select("g1", new String[]{"b"}, new String[]{"b1"});
+			assertEquals("Pages should be found again after reopening the segment.", 15, reopened.size());
+			assertEquals("Each page should be listed once after reopening.", traces[0], FileManager.trace());
+
+			// Pages written one file each are moved into the segment as they are rewritten
+			FileManager.reset();
+			FileManager.segmentFiles = false;
+			DBApp.createTable("g2", cols0);
+			for(int i=0;i<25;i++)
+			{
+				DBApp.insert("g2", new String[]{"a"+i, "b"+(i%3), "c"+i});
+			}
+			String before = FileManager.trace();
+			FileManager.segmentFiles = true;
+			for(int i=25;i<30;i++)
+			{
+				DBApp.insert("g2", new String[]{"a"+i, "b"+(i%3), "c"+i});
+			}
+			assertTrue("The rewritten page file should be removed.", !new File(new File(FileManager.directory, "g2"), "2.db").exists());
+			assertTrue("Untouched page files should stay.", new File(new File(FileManager.directory, "g2"), "0.db").exists());
+			assertEquals("The trace should still list every logical page once.", before, FileManager.trace());
+			assertEquals("Records from both layouts should be read.", 30, DBApp.select("g2").size());
+		}
+		finally
+		{
+			FileManager.segmentFiles = false;
+			SegmentFile.slotSize = slotSize;
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableWriteBehindCoalescesPageWrites() throws Exception
+	{
+		long interval = WriteBehindFlusher.flushIntervalMillis;
+		long threshold = WriteBehindFlusher.flushThresholdBytes;
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 10;
+			String[] cols0 = {"a","b","c"};
+			File page0 = new File(new File(FileManager.directory, "f1"), "0.db");
+
+			// Asynchronous: nothing is written until the flush, then each page once
+			WriteBehindFlusher.flushIntervalMillis = 60000;
+			WriteBehindFlusher.flushThresholdBytes = Long.MAX_VALUE;
+			DBApp.setDurability(DBApp.Durability.ASYNC);
+			DBApp.createTable("f1", cols0);
+			DBApp.createBitMapIndex("f1","b");
+			Metrics.reset();
+			for(int i=0;i<10;i++)
+			{
+				DBApp.insert("f1", new String[]{"a"+i, "b"+(i%2), "c"+i});
+			}
+			assertTrue("Deferred pages should not be written before the flush.", !page0.exists());
+			assertEquals("Deferred inserts should be visible to selects.", 10, DBApp.select("f1").size());
+			assertEquals("Deferred inserts should be visible to index selects.", 5,
+					DBApp.selectIndex("f1", new String[]{"b"}, new String[]{"b1"}).size());
+			assertTrue("An explicit flush should succeed.", DBApp.flush());
+			assertTrue("The flush should write the page.", page0.exists());
+			assertEquals("Ten inserts into one page should be written once.", 1, Metrics.histogram(Metrics.PAGE_STORE).getCount());
+			assertEquals("The table file should be written by the flush.", 10, FileManager.loadTable("f1").getRecordsCount());
+
+			// The byte threshold and the interval start background flushes
+			WriteBehindFlusher.flushThresholdBytes = 1;
+			DBApp.insert("f1", new String[]{"a10", "b0", "c10"});
+			waitForFile(new File(new File(FileManager.directory, "f1"), "1.db"));
+			WriteBehindFlusher.flushThresholdBytes = Long.MAX_VALUE;
+			WriteBehindFlusher.flushIntervalMillis = 20;
+			for(int i=11;i<21;i++)
+			{
+				DBApp.insert("f1", new String[]{"a"+i, "b"+(i%2), "c"+i});
+			}
+			waitForFile(new File(new File(FileManager.directory, "f1"), "2.db"));
+
+			// Group: inserts return once a shared flush wrote them
+			WriteBehindFlusher.flushIntervalMillis = 60000;
+			DBApp.setDurability(DBApp.Durability.GROUP);
+			DBApp.createTable("f2", cols0);
+			ExecutorService pool = Executors.newFixedThreadPool(4);
+			try
+			{
+				List<Future<?>> futures = new ArrayList<>();
+				for(int t=0;t<4;t++)
+				{
+					final int thread = t;
+					futures.add(pool.submit(() -> {
+						for(int i=0;i<10;i++)
+						{
+							DBApp.insert("f2", new String[]{"a"+(thread*10+i), "b"+thread, "c"+i});
+						}
+					}));
+				}
+				for(Future<?> future : futures)
+				{
+					future.get(60, TimeUnit.SECONDS);
+				}
+			}
+			finally
+			{
+				pool.shutdownNow();
+			}
+			assertEquals("Every grouped insert should be in the table file once it returned.", 40, FileManager.loadTable("f2").getRecordsCount());
+			for(int p=0;p<4;p++)
+			{
+				assertEquals("Every grouped insert should be on disk once it returned.", 10, FileManager.readTablePage("f2", p).getRecordsCount());
+			}
+		}
+		finally
+		{
+			DBApp.setDurability(DBApp.Durability.SYNC);
+			WriteBehindFlusher.flushIntervalMillis = interval;
+			WriteBehindFlusher.flushThresholdBytes = threshold;
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableManifestCatchesDamagedPages() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 10;
+			String[] cols0 = {"a","b","c"};
+			DBApp.createTable("m1", cols0);
+			for(int i=0;i<50;i++)
+			{
+				DBApp.insert("m1", new String[]{"a"+i, "b"+(i%3), "c"+i});
+			}
+			File tableDirectory = new File(FileManager.directory, "m1");
+			assertTrue("Page writes should keep a manifest.", new File(tableDirectory, PageManifest.FILE_NAME).exists());
+			assertEquals("Intact pages should pass validation.", 0, DBApp.validateRecords("m1").size());
+			String trace = FileManager.trace();
+
+			// A changed byte that still decodes, a truncated page and a deleted page
+			File page1 = new File(tableDirectory, "1.db");
+			try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(page1, "rw"))
+			{
+				file.seek(file.length() - 1);
+				int last = file.read();
+				file.seek(file.length() - 1);
+				file.write(last ^ 1);
+			}
+			assertTrue("The changed page should still decode.", FileManager.checkTablePage("m1", 1));
+			try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(new File(tableDirectory, "2.db"), "rw"))
+			{
+				file.setLength(file.length() - 5);
+			}
+			new File(tableDirectory, "4.db").delete();
+
+			BufferPool.clear();
+			ArrayList<String[]> missing = DBApp.validateRecords("m1");
+			assertEquals("Every record of a failing page should be reported.", 30, missing.size());
+			assertTrue("The trace should report the failing records.", DBApp.getLastTrace("m1").contains("30 records missing"));
+
+			// Placeholders, short records and null cells are rejected before anything is written
+			ArrayList<ArrayList<String[]>> rejected = new ArrayList<>();
+			rejected.add(missing);
+			rejected.add(new ArrayList<>(Arrays.asList(new String[][]{{"a10", "b1", "c10"}, {"a11", "b2"}})));
+			rejected.add(new ArrayList<>(Arrays.asList(new String[][]{{"a10", "b1", "c10"}, null})));
+			rejected.add(new ArrayList<>(Arrays.asList(new String[][]{{"a10", null, "c10"}})));
+			for(ArrayList<String[]> invalid : rejected)
+			{
+				boolean thrown = false;
+				try
+				{
+					DBApp.recoverRecords("m1", invalid);
+				}
+				catch (IllegalArgumentException e)
+				{
+					thrown = true;
+				}
+				assertTrue("Recovery should reject records that are not complete rows.", thrown);
+			}
+			assertEquals("Rejected records should not be written.", 30, DBApp.validateRecords("m1").size());
+
+			ArrayList<String[]> records = new ArrayList<>();
+			for(int page : new int[]{1, 2, 4})
+			{
+				for(int i=page*10;i<page*10+10;i++)
+				{
+					records.add(new String[]{"a"+i, "b"+(i%3), "c"+i});
+				}
+			}
+			Metrics.reset();
+			DBApp.recoverRecords("m1", records);
+			assertEquals("Only the failing pages should be rewritten.", 3, Metrics.histogram(Metrics.PAGE_STORE).getCount());
+			assertTrue("The trace should list the rewritten pages.", DBApp.getLastTrace("m1").contains("[1, 2, 4]"));
+			assertEquals("Recovered pages should pass validation.", 0, DBApp.validateRecords("m1").size());
+			assertEquals("The trace should list the same pages after recovery.", trace, FileManager.trace());
+			BufferPool.clear();
+			assertArrayEquals("The changed record should be restored.", new String[]{"a19", "b1", "c19"}, DBApp.select("m1").get(19));
+
+			// Pages packed in a segment file are checked the same way
+			FileManager.reset();
+			FileManager.segmentFiles = true;
+			DBApp.createTable("m2", cols0);
+			for(int i=0;i<30;i++)
+			{
+				DBApp.insert("m2", new String[]{"a"+i, "b"+(i%3), "c"+i});
+			}
+			assertEquals("Intact segment pages should pass validation.", 0, DBApp.validateRecords("m2").size());
+		}
+		finally
+		{
+			FileManager.segmentFiles = false;
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void WriteAheadLogCancelsFailedInserts() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 10;
+			String[] cols0 = {"a","b"};
+			DBApp.createTable("l1", cols0);
+			DBApp.setWriteAheadLog(true);
+			DBApp.insert("l1", new String[]{"a0", "b0"});
+	
+			// The last page cannot be loaded, so the logged insert is not applied
+			BufferPool.setCapacity(128);
+			File page0 = new File(new File(FileManager.directory, "l1"), "0.db");
+			File moved = new File(page0.getParentFile(), "moved");
+			assertTrue(page0.renameTo(moved));
+			DBApp.insert("l1", new String[]{"lost", "b1"});
+			assertTrue(moved.renameTo(page0));
+			DBApp.insert("l1", new String[]{"a1", "b1"});
+	
+			// Replay reads the acknowledged insert at the position the failed one was logged at
+			ArrayList<WriteAheadLog.Entry> entries = WriteAheadLog.read();
+			assertEquals("The failed insert should be cancelled in the log.", 2, entries.size());
+			assertArrayEquals(new String[]{"a0", "b0"}, entries.get(0).getRecord());
+			assertEquals(1, entries.get(1).getRecordIndex());
+			assertArrayEquals("The acknowledged insert should be kept.", new String[]{"a1", "b1"}, entries.get(1).getRecord());
+	
+			// An abort only cancels the entries of its own table from its position on
+			WriteAheadLog.append("l2", 0, new String[]{"x"});
+			WriteAheadLog.append("l1", 2, new String[]{"y"});
+			WriteAheadLog.commit(WriteAheadLog.abort("l1", 2));
+			entries = WriteAheadLog.read();
+			assertEquals(3, entries.size());
+			assertEquals("l2", entries.get(2).getTableName());
+			WriteAheadLog.truncate();
+	
+			DBApp.setWriteAheadLog(false);
+			assertEquals("Only the applied inserts should be in the table.", 2, DBApp.select("l1").size());
+			assertEquals("a1", DBApp.select("l1").get(1)[0]);
+		}
+		finally
+		{
+			DBApp.setWriteAheadLog(false);
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableDictionaryEncodesRepeatedValues() throws Exception
+	{
+		int maxValues = TableDictionary.maxValues;
+		boolean dictionaryEncoding = FileManager.dictionaryEncoding;
+		try
+		{
+			String[] cols0 = {"a","b","c"};
+			DBApp.dataPageSize = 10;
+			// Column a runs out of codes and stores later values inline
+			TableDictionary.maxValues = 25;
+			String[] traces = new String[2];
+			long[] pageSizes = new long[2];
+			for(int run=0;run<2;run++)
+			{
+				FileManager.reset();
+				FileManager.dictionaryEncoding = run == 1;
+				DBApp.createTable("d1", cols0);
+				DBApp.createBitMapIndex("d1","b");
+				for(int i=0;i<60;i++)
+				{
+					DBApp.insert("d1", new String[]{"a"+i, "b"+(i%3), i%7==0 ? null : "c"+(i%5)});
+				}
+				traces[run] = FileManager.trace();
+				pageSizes[run] = new File(new File(FileManager.directory, "d1"), "3.db").length();
+			}
+			File tableDirectory = new File(FileManager.directory, "d1");
+			assertEquals("The trace should not list the dictionary.", traces[0], traces[1]);
+			assertTrue("The dictionary should be written.", new File(tableDirectory, TableDictionary.FILE_NAME).exists());
+			assertTrue("Coded pages should be smaller.", pageSizes[1] < pageSizes[0]);
+
+			// Read the dictionary back from its file
+			BufferPool.clear();
+			TableDictionary.clear();
+			ArrayList<String[]> records = DBApp.select("d1");
+			assertEquals("Every record should be decoded.", 60, records.size());
+			for(int i=0;i<60;i++)
+			{
+				assertArrayEquals("Records should be decoded unchanged.", new String[]{"a"+i, "b"+(i%3), i%7==0 ? null : "c"+(i%5)}, records.get(i));
+			}
+			assertTrue("Repeated values should share one instance.", records.get(1)[1] == records.get(31)[1]);
+			TableDictionary dictionary = TableDictionary.of("d1");
+			assertEquals("A full column should keep its codes.", 25, dictionary.size(0));
+			assertTrue("A column out of codes should be marked full.", dictionary.isFull(0));
+			assertEquals("Low-cardinality columns should take a code per value.", 3, dictionary.size(1));
+			assertEquals("Equality selects should match coded cells.", 20, DBApp.select("d1", new String[]{"b"}, new String[]{"b1"}).size());
+			assertEquals("Index selects should match coded cells.", 20, DBApp.selectIndex("d1", new String[]{"b"}, new String[]{"b2"}).size());
+			java.nio.file.Path page2 = new File(tableDirectory, "2.db").toPath();
+			assertEquals("Coded page files should be read with their dictionary.", 10, PageCodec.read(page2, dictionary).getRecordsCount());
+			assertArrayEquals("Single records of coded page files should be read with their dictionary.", new String[]{"a23", "b2", "c3"}, PageCodec.readRecord(page2, 3, dictionary));
+
+			// New values after a reload take the next codes
+			DBApp.insert("d1", new String[]{"a60", "b9", "c9"});
+			new File(tableDirectory, "6.db").delete();
+			ArrayList<String[]> missing = DBApp.validateRecords("d1");
+			assertEquals("The deleted page should be reported.", 1, missing.size());
+			DBApp.recoverRecords("d1", new ArrayList<>(Arrays.asList(new String[][]{{"a60", "b9", "c9"}})));
+			BufferPool.clear();
+			TableDictionary.clear();
+			assertArrayEquals("Recovered records should be coded and decoded.", new String[]{"a60", "b9", "c9"}, DBApp.select("d1").get(60));
+			assertEquals("The new value should take the next code.", 4, TableDictionary.of("d1").size(1));
+
+			// A torn entry at the end of the file is cut off whole
+			File dictionaryFile = new File(tableDirectory, TableDictionary.FILE_NAME);
+			long dictionaryLength = dictionaryFile.length();
+			try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(dictionaryFile, "rw"))
+			{
+				file.seek(dictionaryLength);
+				file.writeInt(1);
+				file.writeInt(4);
+				file.writeInt(100);
+				file.write(new byte[]{'b', '8'});
+			}
+			BufferPool.clear();
+			TableDictionary.clear();
+			assertEquals("Pages should decode after a torn append.", 61, DBApp.select("d1").size());
+			assertEquals("The torn entry should be cut off.", dictionaryLength, dictionaryFile.length());
+
+			// A dictionary file that cannot be parsed is never appended to
+			try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(dictionaryFile, "rw"))
+			{
+				file.writeInt(0);
+			}
+			BufferPool.clear();
+			TableDictionary.clear();
+			assertEquals("Coded pages should not decode with a damaged dictionary.", 0, DBApp.select("d1").size());
+			assertTrue("The damage should be reported.", TableDictionary.of("d1").isDamaged());
+			assertTrue("A damaged dictionary should not encode pages.", !FileManager.writeTablePage("d1", 7, new Page(10, 7)));
+			assertEquals("A damaged dictionary should not be appended to.", dictionaryLength, dictionaryFile.length());
+
+			// Coded pages still pass their own checksum, so validation fails all of them for the dictionary
+			ArrayList<String[]> all = new ArrayList<>();
+			for(int i=0;i<60;i++)
+			{
+				// Recovery takes no null cells
+				all.add(new String[]{"a"+i, "b"+(i%3), i%7==0 ? "" : "c"+(i%5)});
+			}
+			all.add(new String[]{"a60", "b9", "c9"});
+			assertEquals("A damaged dictionary should fail every page.", 61, DBApp.validateRecords("d1").size());
+			DBApp.recoverRecords("d1", all);
+			assertTrue("Recovery should start a new dictionary.", !TableDictionary.of("d1").isDamaged());
+			assertEquals("Recovered pages should pass validation.", 0, DBApp.validateRecords("d1").size());
+			BufferPool.clear();
+			TableDictionary.clear();
+			assertEquals("Pages rewritten with new codes should decode.", all.get(59)[0], DBApp.select("d1").get(59)[0]);
+
+			// A lost or changed dictionary fails every page as well
+			assertTrue(dictionaryFile.delete());
+			assertEquals("A lost dictionary should fail every page.", 61, DBApp.validateRecords("d1").size());
+			DBApp.recoverRecords("d1", all);
+			try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(dictionaryFile, "rw"))
+			{
+				file.seek(file.length() - 1);
+				int last = file.read();
+				file.seek(file.length() - 1);
+				file.write(last ^ 1);
+			}
+			assertEquals("A changed dictionary should fail every page.", 61, DBApp.validateRecords("d1").size());
+			DBApp.recoverRecords("d1", all);
+			BufferPool.clear();
+			TableDictionary.clear();
+			assertEquals("Every recovered record should decode.", 61, DBApp.select("d1").size());
+			assertArrayEquals("Recovered records should decode unchanged.", all.get(60), DBApp.select("d1").get(60));
+		}
+		finally
+		{
+			TableDictionary.maxValues = maxValues;
+			FileManager.dictionaryEncoding = dictionaryEncoding;
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableTypedColumnsKeepPrimitiveValues() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 10;
+			String[] cols0 = {"id","price","day","name"};
+			ColumnType[] types0 = {ColumnType.INT, ColumnType.DOUBLE, ColumnType.DATE, ColumnType.STRING};
+			DBApp.createTable("p1", cols0, types0);
+			DBApp.createBitMapIndex("p1","id");
+			java.time.LocalDate first = java.time.LocalDate.of(2024, 1, 1);
+			for(int i=0;i<25;i++)
+			{
+				DBApp.insert("p1", new String[]{"00"+i, (i*1.5)+"0", first.plusDays(i).toString(), "n"+(i%3)});
+			}
+			List<String[]> batch = new ArrayList<>();
+			for(int i=25;i<30;i++)
+			{
+				batch.add(new String[]{""+i, ""+(i*1.5), first.plusDays(i).toString(), "n"+(i%3)});
+			}
+			DBApp.insertBatch("p1", batch);
+			try
+			{
+				DBApp.insert("p1", new String[]{"abc", "1.0", "2024-01-01", "x"});
+				assertTrue("A value of the wrong type should be rejected.", false);
+			}
+			catch (IllegalArgumentException e)
+			{
+				assertTrue("The error should name the column.", e.getMessage().contains("'id'"));
+			}
+			assertEquals("A rejected record should not be stored.", 30, FileManager.loadTable("p1").getRecordsCount());
+
+			// Cells are stored in canonical form and decoded from the primitive columns
+			BufferPool.clear();
+			ArrayList<String[]> records = DBApp.select("p1");
+			assertEquals("Every record should be stored.", 30, records.size());
+			assertArrayEquals("Typed cells should be canonical.", new String[]{"7", "10.5", "2024-01-08", "n1"}, records.get(7));
+			Page page = FileManager.loadTablePage("p1", 1);
+			assertEquals("Primitive columns should hold the numbers.", 10, page.getPrimitiveColumn(0)[0]);
+			assertEquals("Dates should be held as epoch days.", first.plusDays(10).toEpochDay(), page.getPrimitiveColumn(2)[0]);
+			assertTrue("STRING columns should not be primitive.", page.getPrimitiveColumn(3) == null);
+			assertEquals("The column types should be stored with the table.", ColumnType.DATE, FileManager.loadTable("p1").getColumnType(2));
+
+			// Conditions compare numbers and dates, not strings
+			assertEquals("9 should be less than 10.", 10, DBApp.select("p1", new Condition[]{Condition.lessThan("id", "10")}).size());
+			assertEquals("BETWEEN should compare numbers.", 11, DBApp.select("p1", new Condition[]{Condition.between("id", "9", "19")}).size());
+			assertEquals("Doubles should compare numerically.", 10, DBApp.select("p1", new Condition[]{Condition.greaterThanOrEqualTo("price", "30")}).size());
+			assertEquals("Dates should compare by day.", 5, DBApp.select("p1", new Condition[]{Condition.lessThan("day", "2024-01-06")}).size());
+			assertEquals("Equality should match the canonical value.", 1, DBApp.select("p1", new Condition[]{Condition.equalTo("id", "7")}).size());
+			assertEquals("Equality should match the exact value, like the index.", 0, DBApp.select("p1", new Condition[]{Condition.equalTo("id", "07")}).size());
+			assertEquals("Index selects should find canonical values.", 1, DBApp.selectIndex("p1", new String[]{"id"}, new String[]{"7"}).size());
+			assertEquals("Index selects should check typed residuals.", 5, DBApp.selectIndex("p1",
+					Expression.and(Condition.between("id", "0", "14"), Condition.equalTo("name", "n2"))).size());
+
+			// Rows that do not match the types are skipped by bulk loads
+			File csv = File.createTempFile("typed", ".csv");
+			csv.deleteOnExit();
+			java.nio.file.Files.write(csv.toPath(), "id,price,day,name\n30,1,2024-02-01,a\nx,1,2024-02-02,b\n31,2.5,2024-02-03,c\n".getBytes("UTF-8"));
+			BulkLoader.Result result = DBApp.bulkLoad("p1", csv.getPath());
+			assertEquals("Valid rows should be loaded.", 2, result.getRowsCount());
+			assertEquals("Invalid rows should be skipped.", 1, result.getSkippedCount());
+			assertArrayEquals("Loaded cells should be canonical.", new String[]{"30", "1.0", "2024-02-01", "a"}, DBApp.select("p1").get(30));
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableRecordsAreCopiedInAndOut() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 4;
+			DBApp.createTable("r1", new String[]{"a","b"});
+			DBApp.createBitMapIndex("r1", "b");
+			// One buffer reused for every insert
+			String[] buffer = new String[2];
+			for(int i=0;i<6;i++)
+			{
+				buffer[0] = "a"+i;
+				buffer[1] = "b"+i;
+				DBApp.insert("r1", buffer);
+			}
+			buffer[0] = "REUSED";
+			ArrayList<String[]> records = DBApp.select("r1");
+			assertEquals("Every record should be stored.", 6, records.size());
+			for(int i=0;i<6;i++)
+			{
+				assertArrayEquals("A reused insert buffer should not change stored records.", new String[]{"a"+i, "b"+i}, records.get(i));
+			}
+			assertEquals("A condition should match the record as inserted.", 1, DBApp.select("r1", new String[]{"a"}, new String[]{"a0"}).size());
+
+			// Results are the caller's to change
+			records.get(0)[0] = "MUTATED";
+			DBApp.select("r1", new String[]{"a"}, new String[]{"a1"}).get(0)[0] = "MUTATED";
+			DBApp.select("r1", 0, 2).get(0)[0] = "MUTATED";
+			DBApp.selectIndex("r1", new String[]{"b"}, new String[]{"b3"}).get(0)[0] = "MUTATED";
+			try (RecordCursor cursor = DBApp.selectCursor("r1"))
+			{
+				while(cursor.hasNext())
+				{
+					cursor.next()[0] = "MUTATED";
+				}
+			}
+			FileManager.loadTableRecord("r1", 1, 0)[0] = "MUTATED";
+			for(int pass=0;pass<2;pass++)
+			{
+				records = DBApp.select("r1");
+				for(int i=0;i<6;i++)
+				{
+					assertArrayEquals("Changing a result should not change the table.", new String[]{"a"+i, "b"+i}, records.get(i));
+				}
+				assertEquals("Changing a result should not change later matches.", 1, DBApp.select("r1", new String[]{"a"}, new String[]{"a0"}).size());
+				assertEquals("Changing a result should not change index results.", "a3", DBApp.selectIndex("r1", new String[]{"b"}, new String[]{"b3"}).get(0)[0]);
+				// Read the pages from disk the second time
+				BufferPool.clear();
+			}
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableCatalogSizeDoesNotGrowWithPages() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 2;
+			DBApp.createTable("q1", new String[]{"a","b"});
+			DBApp.insert("q1", new String[]{"a0", "b0"});
+			File tableFile = new File(new File(FileManager.directory, "q1"), "q1.db");
+			long size = tableFile.length();
+			for(int i=1;i<41;i++)
+			{
+				DBApp.insert("q1", new String[]{"a"+i, "b"+i});
+			}
+			assertEquals("The table file should not grow as pages are added.", size, tableFile.length());
+			Table t = FileManager.loadTable("q1");
+			assertEquals("Pages should be derived from the records count.", 21, t.getPagesCount());
+			assertEquals("Full pages should hold the page size.", 2, t.getPageRecordsCount(0));
+			assertEquals("The last page should hold the rest.", 1, t.getPageRecordsCount(20));
+			assertEquals("Missing pages should hold no records.", 0, t.getPageRecordsCount(21));
+			assertArrayEquals("Records should be found in derived pages.", new String[]{"a40", "b40"}, DBApp.select("q1", 20, 0).get(0));
+
+			// A partial last page is topped up before new pages are appended
+			File csv = File.createTempFile("catalog", ".csv");
+			csv.deleteOnExit();
+			java.nio.file.Files.write(csv.toPath(), "a,b\na41,b41\na42,b42\na43,b43\n".getBytes("UTF-8"));
+			DBApp.bulkLoad("q1", csv.getPath());
+			t = FileManager.loadTable("q1");
+			assertEquals("Bulk loaded rows should be counted.", 44, t.getRecordsCount());
+			assertEquals("Bulk loaded rows should fill the pages in order.", 22, t.getPagesCount());
+			assertArrayEquals("The last bulk loaded row should be in the last page.", new String[]{"a43", "b43"}, DBApp.select("q1", 21, 1).get(0));
+			assertEquals("Every record should be read back.", 44, DBApp.select("q1").size());
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableLegacyPagesStillLoad() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			File tableDirectory = new File(FileManager.directory, "legacy");
+			tableDirectory.mkdirs();
+			writeLegacyFile(new File(tableDirectory, "0.db"), LEGACY_PAGE_0);
+			writeLegacyFile(new File(tableDirectory, "1.db"), LEGACY_PAGE_1);
+			Page page = FileManager.loadTablePage("legacy", 0);
+			assertTrue("A page serialized by the original class should load.", page != null);
+			assertEquals("A legacy page should keep its records.", 2, page.getRecordsCount());
+			assertArrayEquals("Legacy records should load unchanged.", new String[]{"a1", "b1"}, page.getRecord(1));
+			assertArrayEquals("Single records of legacy pages should load.", new String[]{"a2", "b2"}, FileManager.loadTableRecord("legacy", 1, 0));
+
+			// Migration rewrites them in the binary format
+			assertEquals("Every legacy page should be migrated.", 2, FileManager.migrateTablePages("legacy"));
+			assertTrue("Migrated pages should be binary.", PageCodec.isBinaryPage(new File(tableDirectory, "0.db").toPath()));
+			assertTrue("Migrated pages should be binary.", PageCodec.isBinaryPage(new File(tableDirectory, "1.db").toPath()));
+			assertEquals("Binary pages should not be migrated again.", 0, FileManager.migrateTablePages("legacy"));
+			BufferPool.clear();
+			page = FileManager.loadTablePage("legacy", 0);
+			assertArrayEquals("Migrated records should read back unchanged.", new String[]{"a0", "b0"}, page.getRecord(0));
+			assertArrayEquals("Migrated records should read back unchanged.", new String[]{"a1", "b1"}, page.getRecord(1));
+			assertArrayEquals("Migrated records should read back unchanged.", new String[]{"a2", "b2"}, FileManager.loadTableRecord("legacy", 1, 0));
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableLegacyCatalogStillLoads() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.dataPageSize = 2;
+			DBApp.createTable("legacy", new String[]{"a","b"});
+			File tableDirectory = new File(FileManager.directory, "legacy");
+			writeLegacyFile(new File(tableDirectory, "legacy.db"), LEGACY_TABLE);
+			writeLegacyFile(new File(tableDirectory, "0.db"), LEGACY_PAGE_0);
+			writeLegacyFile(new File(tableDirectory, "1.db"), LEGACY_PAGE_1);
+			BufferPool.clear();
+			TableSnapshots.clear();
+
+			Table t = FileManager.loadTable("legacy");
+			assertTrue("A catalog serialized by the original class should load.", t != null);
+			assertArrayEquals("A legacy catalog should keep its columns.", new String[]{"a", "b"}, t.getColumnNames());
+			assertEquals("A legacy catalog should keep its page size.", 2, t.getPageSize());
+			assertEquals("The records should be counted from the legacy pages.", 3, t.getRecordsCount());
+			assertEquals("The pages should be derived from the records count.", 2, t.getPagesCount());
+			assertEquals("The last legacy page should hold the rest.", 1, t.getPageRecordsCount(1));
+			ArrayList<String[]> records = DBApp.select("legacy");
+			assertEquals("Every legacy record should be selected.", 3, records.size());
+			assertArrayEquals("Legacy records should be selected unchanged.", new String[]{"a2", "b2"}, records.get(2));
+
+			// The table takes inserts and is stored in the current shape
+			DBApp.insert("legacy", new String[]{"a3", "b3"});
+			DBApp.insert("legacy", new String[]{"a4", "b4"});
+			TableSnapshots.clear();
+			BufferPool.clear();
+			t = FileManager.loadTable("legacy");
+			assertEquals("A stored legacy table should keep counting its records.", 5, t.getRecordsCount());
+			assertEquals("Inserts should fill the legacy last page first.", 2, t.getPageRecordsCount(1));
+			records = DBApp.select("legacy");
+			for(int i=0;i<5;i++)
+			{
+				assertArrayEquals("Legacy and new records should be read in order.", new String[]{"a"+i, "b"+i}, records.get(i));
+			}
+			assertEquals("Conditions should match legacy records.", 1, DBApp.select("legacy", new String[]{"a"}, new String[]{"a1"}).size());
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void PageCodecRoundTripsPages() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			DBApp.createTable("codec", new String[]{"a","b","c"});
+			String[][] records = {{"x", null, "\u00e9\u20ac"}, {"", "y", null}, {null, null, null}, {"x", "y", "z"}};
+			Page page = new Page(5, 7);
+			for(String[] record : records)
+			{
+				page.insert(record);
+			}
+
+			for(int run=0;run<2;run++)
+			{
+				TableDictionary dictionary = run == 0 ? null : TableDictionary.of("codec");
+				ByteBuffer buffer = PageCodec.encode(page, dictionary);
+				assertEquals("The page should start with the magic number.", PageCodec.MAGIC, buffer.getInt(0));
+				assertEquals("The page should carry the format version.", PageCodec.VERSION, buffer.getShort(4));
+				assertEquals("Only dictionary pages should set the dictionary flag.", run == 0 ? 0 : PageCodec.FLAG_DICTIONARY, buffer.getShort(6));
+				assertEquals("The header should keep the page number.", 7, buffer.getInt(8));
+				assertEquals("The header should keep the page size.", 5, buffer.getInt(12));
+				assertEquals("The header should keep the records count.", records.length, buffer.getInt(16));
+				int previous = PageCodec.HEADER_SIZE + 4 * records.length;
+				assertEquals("The first record should follow the slot directory.", previous, buffer.getInt(PageCodec.HEADER_SIZE));
+				for(int i=0;i<records.length;i++)
+				{
+					int offset = buffer.getInt(PageCodec.HEADER_SIZE + 4 * i);
+					assertTrue("Records should be stored in slot order.", offset >= previous && offset < buffer.limit());
+					assertEquals("Slot " + i + " should point at the record's cells count.", 3, buffer.getInt(offset));
+					previous = offset + 4 + 4 * 3;
+				}
+
+				Page decoded = PageCodec.decode(buffer.duplicate(), dictionary);
+				assertEquals("The page number should round trip.", 7, decoded.getPageNumber());
+				assertEquals("The page size should round trip.", 5, decoded.getPageSize());
+				assertEquals("Every record should round trip.", records.length, decoded.getRecordsCount());
+				for(int i=0;i<records.length;i++)
+				{
+					assertArrayEquals("Record " + i + " should round trip with its null cells.", records[i], decoded.getRecord(i));
+					assertArrayEquals("Record " + i + " should decode on its own.", records[i], PageCodec.decodeRecord(buffer.duplicate(), i, dictionary));
+				}
+				assertEquals("A slot past the records should have no record.", null, PageCodec.decodeRecord(buffer.duplicate(), records.length, dictionary));
+
+				java.nio.file.Path file = new File(FileManager.directory, "codec" + run + ".db").toPath();
+				PageCodec.write(file, buffer);
+				assertTrue("A written page should be recognized.", PageCodec.isBinaryPage(file));
+				assertArrayEquals("A written record should be read on its own.", records[1], PageCodec.readRecord(file, 1, dictionary));
+				assertEquals("A written page should read back whole.", records.length, PageCodec.read(file, dictionary).getRecordsCount());
+				if(dictionary != null)
+				{
+					try
+					{
+						PageCodec.decode(buffer.duplicate());
+						assertTrue("A dictionary page should not decode without its dictionary.", false);
+					}
+					catch (IOException e)
+					{
+						// Expected
+					}
+				}
+			}
+
+			ColumnType[] types = {ColumnType.INT, ColumnType.STRING, ColumnType.DOUBLE};
+			Page typed = new Page(3, 2, types);
+			typed.insert(new String[]{"-5", null, "1.5"});
+			typed.insert(new String[]{"12", "s", "-0.25"});
+			ByteBuffer buffer = PageCodec.encode(typed);
+			assertEquals("Typed pages should set the primitive columns flag.", PageCodec.FLAG_PRIMITIVE_COLUMNS, buffer.getShort(6));
+			Page decoded = PageCodec.decode(buffer);
+			assertArrayEquals("The column types should round trip.", types, decoded.getColumnTypes());
+			assertEquals("STRING columns should have no primitive values.", null, decoded.getPrimitiveColumn(1));
+			for(int j : new int[]{0, 2})
+			{
+				for(int i=0;i<2;i++)
+				{
+					assertEquals("Primitive values should round trip.", typed.getPrimitiveColumn(j)[i], decoded.getPrimitiveColumn(j)[i]);
+				}
+			}
+			assertArrayEquals("Typed records should keep their cells.", new String[]{"12", "s", "-0.25"}, decoded.getRecord(1));
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void PageCodecRejectsDamagedFiles() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			String[][] records = {{"a", null}, {"bb", "c"}, {null, "dddd"}};
+			Page typed = new Page(4, 0, new ColumnType[]{ColumnType.STRING, ColumnType.STRING});
+			Page plain = new Page(4, 0);
+			for(String[] record : records)
+			{
+				typed.insert(record);
+				plain.insert(record);
+			}
+			java.nio.file.Path file = new File(FileManager.directory, "damaged.db").toPath();
+			for(Page page : new Page[]{plain, typed})
+			{
+				byte[] bytes = PageCodec.encode(page).array();
+				for(int length=0;length<bytes.length;length++)
+				{
+					java.nio.file.Files.write(file, Arrays.copyOf(bytes, length));
+					try
+					{
+						PageCodec.read(file);
+						assertTrue("A page cut to " + length + " bytes should not decode.", false);
+					}
+					catch (IOException e)
+					{
+						// Expected
+					}
+					for(int i=0;i<records.length;i++)
+					{
+						try
+						{
+							assertArrayEquals("A record kept whole by the cut should still be read.", records[i], PageCodec.readRecord(file, i));
+						}
+						catch (IOException e)
+						{
+							// Expected for records the cut reaches
+						}
+					}
+				}
+
+				ByteBuffer badSlot = ByteBuffer.wrap(bytes.clone());
+				badSlot.putInt(PageCodec.HEADER_SIZE + 4, bytes.length + 100);
+				for(int i=0;i<2;i++)
+				{
+					try
+					{
+						if(i == 0)
+							PageCodec.decode(badSlot.duplicate());
+						else
+							PageCodec.decodeRecord(badSlot.duplicate(), 1);
+						assertTrue("A slot pointing out of the page should be rejected.", false);
+					}
+					catch (IOException e)
+					{
+						// Expected
+					}
+				}
+			}
+
+			byte[] bytes = PageCodec.encode(plain).array();
+			bytes[0] ^= 1;
+			java.nio.file.Files.write(file, bytes);
+			assertTrue("A file without the magic number should not be a binary page.", !PageCodec.isBinaryPage(file));
+			try
+			{
+				PageCodec.read(file);
+				assertTrue("A file without the magic number should not decode.", false);
+			}
+			catch (IOException e)
+			{
+				// Expected
+			}
+		}
+		finally
+		{
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void TableDamagedSegmentPagesAreSkipped() throws Exception
+	{
+		try
+		{
+			FileManager.reset();
+			FileManager.segmentFiles = true;
+			DBApp.dataPageSize = 2;
+			DBApp.createTable("s1", new String[]{"a","b"});
+			for(int i=0;i<6;i++)
+			{
+				DBApp.insert("s1", new String[]{"a"+i, "b"+(i%2)});
+			}
+			BufferPool.clear();
+			SegmentFile.closeAll();
+			File segment = new File(new File(FileManager.directory, "s1"), SegmentFile.FILE_NAME);
+			byte[] intact = java.nio.file.Files.readAllBytes(segment.toPath());
+			ByteBuffer bytes = ByteBuffer.wrap(intact);
+			int extent = -1;
+			for(int offset=SegmentFile.HEADER_SIZE;offset<intact.length;offset+=SegmentFile.slotSize)
+			{
+				if(bytes.getInt(offset) == 1 && bytes.getInt(offset + 4) > 0)
+					extent = offset;
+			}
+			assertTrue("Page 1 should have an extent in the segment.", extent > 0);
+			int page = extent + SegmentFile.EXTENT_HEADER_SIZE;
+			int record = page + bytes.getInt(page + PageCodec.HEADER_SIZE);
+
+			// A huge cells count, a slot out of the page, a negative records count and a negative extent length
+			int[][] damages = {{record, Integer.MAX_VALUE}, {page + PageCodec.HEADER_SIZE, 1000000}, {page + 16, -1}, {extent + 8, -5}};
+			for(int[] damage : damages)
+			{
+				ByteBuffer damaged = ByteBuffer.wrap(intact.clone());
+				damaged.putInt(damage[0], damage[1]);
+				java.nio.file.Files.write(segment.toPath(), damaged.array());
+				BufferPool.clear();
+				SegmentFile.closeAll();
+				assertEquals("Select should skip the damaged page.", 4, DBApp.select("s1").size());
+				assertEquals("Conditions should skip the damaged page.", 2, DBApp.select("s1", new String[]{"b"}, new String[]{"b0"}).size());
+			}
+			DBApp.insert("s1", new String[]{"a6", "b0"});
+			assertEquals("Inserts should still work with a damaged page.", 5, DBApp.select("s1").size());
+		}
+		finally
+		{
+			FileManager.segmentFiles = false;
+			FileManager.reset();
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void BufferPoolKeepsPagesItCannotWriteBack() throws Exception
+	{
+		long interval = WriteBehindFlusher.flushIntervalMillis;
+		long threshold = WriteBehindFlusher.flushThresholdBytes;
+		try
+		{
+			FileManager.reset();
+			BufferPool.setCapacity(2);
+			DBApp.dataPageSize = 2;
+			DBApp.createTable("w1", new String[]{"a","b"});
+			DBApp.createTable("w2", new String[]{"a","b"});
+			DBApp.insert("w2", new String[]{"x", "y"});
+			BufferPool.clear();
+
+			// Deferred writes keep both pages of w1 dirty, and neither can be written back
+			WriteBehindFlusher.flushIntervalMillis = 60000;
+			WriteBehindFlusher.flushThresholdBytes = Long.MAX_VALUE;
+			DBApp.setDurability(DBApp.Durability.ASYNC);
+			File tableDirectory = new File(FileManager.directory, "w1");
+			File[] blocked = {new File(tableDirectory, "0.db"), new File(tableDirectory, "1.db")};
+			for(File file : blocked)
+			{
+				file.mkdirs();
+			}
+			for(int i=0;i<4;i++)
+			{
+				DBApp.insert("w1", new String[]{"a"+i, "b"+i});
+			}
+			DBApp.insert("w1", new String[]{"a4", "b4"});
+			assertEquals("An insert needing a frame held by an unwritable page should fail.", 4, FileManager.loadTable("w1").getRecordsCount());
+			assertEquals("Unwritable pages should stay cached with their records.", 4, DBApp.select("w1").size());
+			assertEquals("A fetch needing a frame held by an unwritable page should fail.", null, FileManager.loadTablePage("w2", 0));
+			assertTrue("Unwritable pages should stay dirty.", !BufferPool.flushAll());
+
+			for(File file : blocked)
+			{
+				file.delete();
+			}
+			DBApp.insert("w1", new String[]{"a4", "b4"});
+			assertEquals("Inserts should succeed once the page can be written back.", 5, FileManager.loadTable("w1").getRecordsCount());
+			assertTrue("Fetches should succeed once the page can be written back.", FileManager.loadTablePage("w2", 0) != null);
+			assertTrue("The kept pages should be flushed.", DBApp.flush());
+			BufferPool.clear();
+			ArrayList<String[]> records = DBApp.select("w1");
+			assertEquals("Every committed record should reach the disk.", 5, records.size());
+			for(int i=0;i<5;i++)
+			{
+				assertArrayEquals("Records should reach the disk in order.", new String[]{"a"+i, "b"+i}, records.get(i));
+			}
+		}
+		finally
+		{
+			DBApp.setDurability(DBApp.Durability.SYNC);
+			WriteBehindFlusher.flushIntervalMillis = interval;
+			WriteBehindFlusher.flushThresholdBytes = threshold;
+			BufferPool.setCapacity(128);
+			FileManager.reset();
+		}
+	}
+
+	private static void writeLegacyFile(File file, String contents) throws Exception
+	{
+		java.nio.file.Files.write(file.toPath(), Base64.getDecoder().decode(contents));
+	}
+
+	private static void waitForFile(File file) throws InterruptedException
+	{
+		for(int i=0;i<600 && !file.exists();i++)
+		{
+			Thread.sleep(50);
+		}
+		assertTrue("A background flush should write " + file.getName() + ".", file.exists());
+	}
+}
@@ -0,0 +1,126 @@
+package DBMS;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Test;
+public class DBAppTestsTrace
+{
+
+	@Test(timeout = 1000000)
+	public void TableTraceKeepsNewestEventsOrSpillsThem() throws Exception
+	{
+		FileManager.reset();
+		int capacity = TraceLog.capacity;
+		boolean spillToDisk = TraceLog.spillToDisk;
+		try
+		{
+			DBApp.dataPageSize = 10;
+			TraceLog.capacity = 8;
+			String[] cols0 = {"a","b","c"};
+			DBApp.createTable("t1", cols0);
+			String[] record = new String[3];
+			for(int i=0;i<20;i++)
+			{
+				// The record array is reused, as the trace must copy what it keeps
+				record[0] = "a"+i;
+				record[1] = "b"+(i%2);
+				record[2] = "c"+i;
+				DBApp.insert("t1", record);
+			}
+			assertEquals("The last trace should be formatted from the latest event.",
+					"Inserted:[a19, b1, c19], at page number:1, execution time (mil):",
+					DBApp.getLastTrace("t1").replaceAll("\\d+$", ""));
+			String[] lines = DBApp.getFullTrace("t1").split("\n");
+			assertEquals("A full buffer should only keep its capacity of events.", 9, lines.length);
+			assertTrue("The oldest events should be dropped first.", lines[0].startsWith("Inserted:[a12, b0, c12], at page number:1"));
+			assertTrue("The full trace should still end with the table summary.", lines[8].startsWith("Pages Count: 2, Records Count: 20"));
+
+			TraceLog.spillToDisk = true;
+			DBApp.createTable("t2", cols0);
+			for(int i=0;i<20;i++)
+			{
+				DBApp.insert("t2", new String[]{"a"+i, "b"+(i%2), "c"+i});
+			}
+			DBApp.select("t2", new String[]{"b"}, new String[]{"b1"});
+			lines = DBApp.getFullTrace("t2").split("\n");
+			assertEquals("Spilled events should be read back into the full trace.", 23, lines.length);
+			assertTrue("The trace should start with the table creation.", lines[0].startsWith("Table created name:t2"));
+			for(int i=0;i<20;i++)
+			{
+				assertTrue("Events should stay in order across the spill file.", lines[i+1].startsWith("Inserted:[a"+i+", "));
+			}
+			assertTrue("The select should be traced last.", lines[21].startsWith("Select condition:[b]->[b1], Records per page:[[0, 5], [1, 5]], records:10"));
+			assertTrue("The spill file should be next to the tables.", new File(FileManager.directory, "t2" + TraceLog.SPILL_SUFFIX).exists());
+			assertTrue("Spill files should not be listed with the tables.", !FileManager.trace().contains(TraceLog.SPILL_SUFFIX));
+		}
+		finally
+		{
+			TraceLog.capacity = capacity;
+			TraceLog.spillToDisk = spillToDisk;
+		}
+	}
+
+	@Test(timeout = 1000000)
+	public void MetricsRecordLatencyPercentilesAndDump() throws Exception
+	{
+		LatencyHistogram h = new LatencyHistogram("h");
+		for(long v=1;v<=100000;v++)
+		{
+			h.record(v*1000);
+		}
+		assertEquals("Every latency should be counted.", 100000, h.getCount());
+		assertEquals("The maximum should be exact.", 100000000L, h.getMax());
+		long[] expected = {50000000L, 99000000L, 99900000L};
+		double[] percentiles = {50, 99, 99.9};
+		for(int i=0;i<percentiles.length;i++)
+		{
+			long p = h.getPercentile(percentiles[i]);
+			assertTrue("Percentiles should be within 2% of the exact value: " + p,
+					Math.abs(p - expected[i]) <= expected[i] / 50);
+		}
+		assertEquals("An empty histogram should report 0.", 0, new LatencyHistogram("empty").getPercentile(99));
+
+		FileManager.reset();
+		Metrics.reset();
+		DBApp.dataPageSize = 10;
+		String[] cols0 = {"a","b","c"};
+		DBApp.createTable("m1", cols0);
+		for(int i=0;i<30;i++)
+		{
+			DBApp.insert("m1", new String[]{"a"+i, "b"+(i%3), "c"+(i%5)});
+		}
+		DBApp.createBitMapIndex("m1","b");
+		DBApp.createBitMapIndex("m1","c");
+		DBApp.select("m1");
+		DBApp.select("m1", new String[]{"a"}, new String[]{"a1"});
+		DBApp.selectIndex("m1", new String[]{"b","c"}, new String[]{"b1","c1"});
+		DBApp.selectIndex("m1", new String[]{"a","b"}, new String[]{"a1","b1"});
+		assertEquals("Each insert should be recorded.", 30, Metrics.histogram(Metrics.INSERT).getCount());
+		assertEquals("Each index build should be recorded.", 2, Metrics.histogram(Metrics.INDEX_BUILD).getCount());
+		assertEquals("Selects should be recorded by variant.", 1, Metrics.histogram(Metrics.SELECT_ALL).getCount());
+		assertEquals("Selects should be recorded by variant.", 1, Metrics.histogram(Metrics.SELECT_CONDITION).getCount());
+		assertEquals("Index selects should be recorded by case.", 1, Metrics.histogram(Metrics.SELECT_CASE_1).getCount());
+		assertEquals("Index selects should be recorded by case.", 1, Metrics.histogram(Metrics.SELECT_CASE_3).getCount());
+		assertTrue("Page writes should be recorded.", Metrics.histogram(Metrics.PAGE_STORE).getCount() > 0);
+		LatencyHistogram inserts = Metrics.histogram(Metrics.INSERT);
+		assertTrue("Percentiles should be ordered.", inserts.getPercentile(50) <= inserts.getPercentile(99)
+				&& inserts.getPercentile(99) <= inserts.getPercentile(99.9) && inserts.getPercentile(99.9) <= inserts.getMax());
+		assertTrue("Latencies should be measured in nanoseconds.", inserts.getMax() > 0);
+		assertTrue("Throughput should be reported.", Metrics.getThroughput(Metrics.INSERT) > 0);
+
+		File dump = File.createTempFile("metrics", ".txt");
+		try
+		{
+			assertTrue("The registry should be written to a file.", Metrics.dump(dump));
+			List<String> lines = Files.readAllLines(dump.toPath());
+			assertEquals("Every operation type should be dumped.", Metrics.getHistograms().size(), lines.size());
+			assertTrue("Each line should carry the percentiles.", lines.stream().anyMatch(l -> l.startsWith("insert count:30, ops/sec:") && l.contains(", p999:")));
+		}
+		finally
+		{
+			dump.delete();
+		}
+	}
+}
@@ -0,0 +1,369 @@
+package DBMS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A boolean expression over the columns of a record, built from {@link Condition}s with
+ * {@link #and(Expression...)}, {@link #or(Expression...)}, {@link #not(Expression)} and
+ * {@link #in(String, String...)}.
+ * <p>
+ * An expression is planned against the indexes of a table before any page is read. Each
+ * part an index can answer becomes a bitmap of positions, and the bitmaps are combined the
+ * way the expression combines its parts: AND intersects, OR unites and NOT subtracts from
+ * every position of the table. A part no index answers leaves the records it could match
+ * open, and is kept as a residual expression that is only checked against the candidate
+ * records. Inside an AND, parts answered exactly by an index are dropped from the residual,
+ * since every candidate already meets them, and the bitmaps are intersected from the smallest up.
+ */
+public abstract class Expression {
+
+	/**
+	 * The records an expression may match according to the indexes, and what is left to check.
+	 */
+	static final class Candidates {
+		// The candidate positions, or null for every record of the table
+		final CompressedBitmap positions;
+		// The part of the expression the candidates must still meet, or null if the positions are exact
+		final Expression residual;
+
+		Candidates(CompressedBitmap positions, Expression residual) {
+			this.positions = positions;
+			this.residual = residual;
+		}
+	}
+
+	/**
+	 * @return an expression holding when every operand holds, or always if there is none.
+	 */
+	public static Expression and(Expression... operands) {
+		return new And(operands(operands));
+	}
+
+	/**
+	 * @return an expression holding when any operand holds, or never if there is none.
+	 */
+	public static Expression or(Expression... operands) {
+		return new Or(operands(operands));
+	}
+
+	/**
+	 * @return an expression holding when the operand does not.
+	 */
+	public static Expression not(Expression operand) {
+		if (operand == null) {
+			throw new IllegalArgumentException("Expression operand cannot be null.");
+		}
+		return new Not(operand);
+	}
+
+	/**
+	 * @return an expression holding when the column is exactly one of the values.
+	 */
+	public static Expression in(String columnName, String... values) {
+		if (columnName == null || values == null || values.length == 0) {
+			throw new IllegalArgumentException("IN needs a column and at least one value.");
+		}
+		return new In(columnName, values.clone());
+	}
+
+	/**
+	 * Finds the records the expression may match using the indexes.
+	 *
+	 * @param index        gives the positions matching a condition from an index of its column,
+	 *                     or null if no index answers it.
+	 * @param recordsCount the number of records of the table, for NOT.
+	 * @return the candidate positions and the residual expression.
+	 */
+	abstract Candidates candidates(Function<Condition, CompressedBitmap> index, int recordsCount);
+
+	/**
+	 * Compiles the expression into a check on records of a table whose columns it refers to.
+	 *
+	 * @param t the table.
+	 * @return a filter holding for the records the expression matches.
+	 */
+	abstract Predicate<String[]> toFilter(Table t);
+
+	/**
+	 * Compiles the expression into a check on the records of pages of a table, which compares
+	 * the primitive columns of typed tables instead of parsing cells.
+	 *
+	 * @param t the table.
+	 * @return a filter holding for the records the expression matches.
+	 */
+	ParallelScan.PageFilter toPageFilter(Table t) {
+		Predicate<String[]> filter = toFilter(t);
+		return (page, slot) -> filter.test(page.getRecord(slot));
+	}
+
+	/**
+	 * Adds the columns the expression refers to.
+	 *
+	 * @param columns the collection the column names are added to.
+	 */
+	abstract void addColumns(Collection<String> columns);
+
+	private static List<Expression> operands(Expression[] operands) {
+		if (operands == null) {
+			throw new IllegalArgumentException("Expression operands cannot be null.");
+		}
+		for (Expression operand : operands) {
+			if (operand == null) {
+				throw new IllegalArgumentException("Expression operand cannot be null.");
+			}
+		}
+		return Arrays.asList(operands.clone());
+	}
+
+	private static String join(List<Expression> operands, String operator) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < operands.size(); i++) {
+			if (i > 0) {
+				sb.append(' ').append(operator).append(' ');
+			}
+			sb.append(operands.get(i));
+		}
+		return sb.append(')').toString();
+	}
+
+	private static final class And extends Expression {
+		private final List<Expression> operands;
+
+		And(List<Expression> operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		Candidates candidates(Function<Condition, CompressedBitmap> index, int recordsCount) {
+			List<CompressedBitmap> operandPositions = new ArrayList<>();
+			List<Expression> residuals = new ArrayList<>();
+			for (Expression operand : operands) {
+				Candidates c = operand.candidates(index, recordsCount);
+				if (c.positions != null) {
+					if (c.positions.isEmpty()) {
+						return new Candidates(c.positions, null);
+					}
+					operandPositions.add(c.positions);
+				}
+				if (c.residual != null) {
+					residuals.add(c.residual);
+				}
+			}
+			// Intersecting from the smallest operand keeps every intermediate result as small as it can be
+			operandPositions.sort(Comparator.comparingInt(CompressedBitmap::cardinality));
+			CompressedBitmap positions = null;
+			for (CompressedBitmap p : operandPositions) {
+				positions = positions == null ? p : CompressedBitmap.and(positions, p);
+				if (positions.isEmpty()) {
+					return new Candidates(positions, null);
+				}
+			}
+			Expression residual = residuals.isEmpty() ? null : residuals.size() == 1 ? residuals.get(0) : new And(residuals);
+			if (positions == null && residual == null) {
+				// Only an AND without operands gets here: it holds for every record
+				positions = CompressedBitmap.range(0, recordsCount);
+			}
+			return new Candidates(positions, residual);
+		}
+
+		@Override
+		Predicate<String[]> toFilter(Table t) {
+			List<Predicate<String[]>> filters = new ArrayList<>();
+			for (Expression operand : operands) {
+				filters.add(operand.toFilter(t));
+			}
+			return record -> {
+				for (Predicate<String[]> filter : filters) {
+					if (!filter.test(record)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+
+		@Override
+		ParallelScan.PageFilter toPageFilter(Table t) {
+			List<ParallelScan.PageFilter> filters = new ArrayList<>();
+			for (Expression operand : operands) {
+				filters.add(operand.toPageFilter(t));
+			}
+			return (page, slot) -> {
+				for (ParallelScan.PageFilter filter : filters) {
+					if (!filter.test(page, slot)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+
+		@Override
+		void addColumns(Collection<String> columns) {
+			for (Expression operand : operands) {
+				operand.addColumns(columns);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return join(operands, "AND");
+		}
+	}
+
+	private static final class Or extends Expression {
+		private final List<Expression> operands;
+
+		Or(List<Expression> operands) {
+			this.operands = operands;
+		}
+
+		@Override
+		Candidates candidates(Function<Condition, CompressedBitmap> index, int recordsCount) {
+			CompressedBitmap positions = new CompressedBitmap();
+			boolean everyRecord = false;
+			boolean exact = true;
+			for (Expression operand : operands) {
+				Candidates c = operand.candidates(index, recordsCount);
+				if (c.positions == null) {
+					everyRecord = true;
+				} else if (!everyRecord) {
+					positions = CompressedBitmap.or(positions, c.positions);
+				}
+				exact &= c.residual == null;
+			}
+			// A part left to check cannot be split off an OR, so the candidates are checked against all of it
+			return new Candidates(everyRecord ? null : positions, exact ? null : this);
+		}
+
+		@Override
+		Predicate<String[]> toFilter(Table t) {
+			List<Predicate<String[]>> filters = new ArrayList<>();
+			for (Expression operand : operands) {
+				filters.add(operand.toFilter(t));
+			}
+			return record -> {
+				for (Predicate<String[]> filter : filters) {
+					if (filter.test(record)) {
+						return true;
+					}
+				}
+				return false;
+			};
+		}
+
+		@Override
+		ParallelScan.PageFilter toPageFilter(Table t) {
+			List<ParallelScan.PageFilter> filters = new ArrayList<>();
+			for (Expression operand : operands) {
+				filters.add(operand.toPageFilter(t));
+			}
+			return (page, slot) -> {
+				for (ParallelScan.PageFilter filter : filters) {
+					if (filter.test(page, slot)) {
+						return true;
+					}
+				}
+				return false;
+			};
+		}
+
+		@Override
+		void addColumns(Collection<String> columns) {
+			for (Expression operand : operands) {
+				operand.addColumns(columns);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return join(operands, "OR");
+		}
+	}
+
+	private static final class Not extends Expression {
+		private final Expression operand;
+
+		Not(Expression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		Candidates candidates(Function<Condition, CompressedBitmap> index, int recordsCount) {
+			Candidates c = operand.candidates(index, recordsCount);
+			if (c.residual != null) {
+				// The complement of candidates that are only a superset says nothing
+				return new Candidates(null, this);
+			}
+			return new Candidates(CompressedBitmap.andNot(CompressedBitmap.range(0, recordsCount), c.positions), null);
+		}
+
+		@Override
+		Predicate<String[]> toFilter(Table t) {
+			return operand.toFilter(t).negate();
+		}
+
+		@Override
+		ParallelScan.PageFilter toPageFilter(Table t) {
+			ParallelScan.PageFilter filter = operand.toPageFilter(t);
+			return (page, slot) -> !filter.test(page, slot);
+		}
+
+		@Override
+		void addColumns(Collection<String> columns) {
+			operand.addColumns(columns);
+		}
+
+		@Override
+		public String toString() {
+			return "NOT " + operand;
+		}
+	}
+
+	private static final class In extends Expression {
+		private final String columnName;
+		private final String[] values;
+
+		In(String columnName, String[] values) {
+			this.columnName = columnName;
+			this.values = values;
+		}
+
+		@Override
+		Candidates candidates(Function<Condition, CompressedBitmap> index, int recordsCount) {
+			CompressedBitmap positions = new CompressedBitmap();
+			for (String value : values) {
+				CompressedBitmap matches = index.apply(Condition.equalTo(columnName, value));
+				if (matches == null) {
+					return new Candidates(null, this);
+				}
+				positions = CompressedBitmap.or(positions, matches);
+			}
+			return new Candidates(positions, null);
+		}
+
+		@Override
+		Predicate<String[]> toFilter(Table t) {
+			int columnIndex = t.getColumnIndex(columnName);
+			HashSet<String> set = new HashSet<>(Arrays.asList(values));
+			return record -> set.contains(record[columnIndex]);
+		}
+
+		@Override
+		void addColumns(Collection<String> columns) {
+			columns.add(columnName);
+		}
+
+		@Override
+		public String toString() {
+			return columnName + " IN " + Arrays.toString(values);
+		}
+	}
+}
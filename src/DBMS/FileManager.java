@@ -1,12 +1,18 @@
 package DBMS;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class FileManager 
@@ -17,7 +23,128 @@ public class FileManager
     		+ "Tables" + File.separator);
 //	static File directory = new File( "Tables" + File.separator);
 	
+	// Added to the column name to form the file name of a sorted index
+	static final String SORTED_INDEX_SUFFIX = ".sorted";
+	
+	// When enabled, pages are written to one memory-mapped segment file per table instead of a file each
+	static boolean segmentFiles = false;
+	
+	// When enabled, pages store cells as codes of their table's dictionary (see TableDictionary).
+	// Off by default: it only pays off for low-cardinality tables, and selects still compare decoded values
+	static boolean dictionaryEncoding = false;
+	
+	// While writes are deferred, stored tables are kept here until the next flush (indexes wait in the IndexCache)
+	private static boolean deferWrites = false;
+	private static HashMap<String, Table> pendingTables = new HashMap<>();
+	
+	// Held while a table file is read or written, so tables are stored without holding the class lock
+	private static HashMap<String, Object> tableFileLocks = new HashMap<>();
+	
+	// Background thread loading pages ahead of a reader, created on first use
+	private static ExecutorService prefetcher;
+	
+	/**
+	 * Switches between writing tables, indexes and pages to disk as soon as they are stored
+	 * and keeping them in memory until {@link #flush()} is called. Turning deferred writes
+	 * off flushes everything that is pending.
+	 *
+	 * @param defer true to defer writes.
+	 * @return false if pending writes could not be flushed.
+	 */
+	public static boolean setDeferredWrites(boolean defer)
+	{
+		synchronized (FileManager.class)
+		{
+			deferWrites = defer;
+			BufferPool.writeThrough = !defer;
+			IndexCache.writeThrough = !defer;
+		}
+		return defer || flush();
+	}
+	
+	/**
+	 * Writes every pending table, index and dirty page to disk. Files are written
+	 * without holding the class lock, so other tables are stored and loaded meanwhile.
+	 *
+	 * @return false if anything could not be stored.
+	 */
+	public static boolean flush()
+	{
+		boolean stored = BufferPool.flushAll();
+		String[] tableNames;
+		synchronized (FileManager.class)
+		{
+			tableNames = pendingTables.keySet().toArray(new String[0]);
+		}
+		for (String tableName : tableNames)
+		{
+			synchronized (tableFileLock(tableName))
+			{
+				Table t;
+				synchronized (FileManager.class)
+				{
+					t = pendingTables.remove(tableName);
+				}
+				// A table stored meanwhile was written directly and is no longer pending
+				if (t != null && !writeTable(tableName, t))
+				{
+					stored = false;
+				}
+			}
+		}
+		stored &= IndexCache.flush();
+		return stored;
+	}
+	
+	/**
+	 * Stores a table's catalog, or keeps it pending while writes are deferred. Only the
+	 * table's own file lock is held while the file is written, so storing one table does
+	 * not wait for another.
+	 *
+	 * @param tableName the name of the table.
+	 * @param t         the table.
+	 * @return false if the table could not be written.
+	 */
     public static boolean storeTable(String tableName, Table t)
+	{
+		synchronized (tableFileLock(tableName))
+		{
+			synchronized (FileManager.class)
+			{
+				if (deferWrites)
+				{
+					pendingTables.put(tableName, t);
+					TableSnapshots.publish(t);
+					return true;
+				}
+				pendingTables.remove(tableName);
+			}
+			if (!writeTable(tableName, t))
+				return false;
+			TableSnapshots.publish(t);
+			return true;
+		}
+	}
+	
+    public static Table loadTable(String tableName)
+	{
+		synchronized (tableFileLock(tableName))
+		{
+			Table pending;
+			synchronized (FileManager.class)
+			{
+				pending = pendingTables.get(tableName);
+			}
+			return pending != null ? pending : readTable(tableName);
+		}
+	}
+	
+	private static synchronized Object tableFileLock(String tableName)
+	{
+		return tableFileLocks.computeIfAbsent(tableName, k -> new Object());
+	}
+	
+    private static boolean writeTable(String tableName, Table t)
 	{
 //		try {
 //			TimeUnit.MILLISECONDS.sleep(1);
@@ -45,7 +172,7 @@ public class FileManager
 		return false;
 	}
     
-    public static Table loadTable(String tableName)
+    private static Table readTable(String tableName)
 	{
 //		try {
 //			TimeUnit.MILLISECONDS.sleep(1);
@@ -72,7 +199,139 @@ public class FileManager
 	    return res;
 	}
     
+	/**
+	 * Stores a page through the {@link BufferPool}, replacing any cached version of it.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @param p          the page.
+	 * @return false if the page had to be written to disk and could not be stored.
+	 */
 	public static boolean storeTablePage(String tableName, int pageNumber, Page p)
+	{
+		if (!BufferPool.newPage(tableName, pageNumber, p))
+			return false;
+		return BufferPool.unpinPage(tableName, pageNumber, true);
+	}
+	
+	/**
+	 * Loads a page through the {@link BufferPool}, reading it from disk only if it is not cached.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @return the page, or null if it does not exist or could not be loaded.
+	 */
+	public static Page loadTablePage(String tableName, int pageNumber)
+	{
+		Page p = BufferPool.fetchPage(tableName, pageNumber);
+		if (p != null)
+			BufferPool.unpinPage(tableName, pageNumber, false);
+		return p;
+	}
+	
+	/**
+	 * Starts loading a page through the {@link BufferPool} on a background thread, so that
+	 * it is read from disk while the caller is still busy with another page.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @return the page once loaded, or null if it does not exist or could not be loaded.
+	 */
+	public static Future<Page> loadTablePageAsync(String tableName, int pageNumber)
+	{
+		return prefetcher().submit(() -> loadTablePage(tableName, pageNumber));
+	}
+	
+	private static synchronized ExecutorService prefetcher()
+	{
+		if (prefetcher == null)
+		{
+			prefetcher = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "page-prefetch");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return prefetcher;
+	}
+	
+	/**
+	 * Checks that a page file exists on disk and can be decoded, bypassing the {@link BufferPool}.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @return true if the page file is readable.
+	 */
+	public static boolean checkTablePage(String tableName, int pageNumber)
+	{
+		return readTablePage(tableName, pageNumber) != null;
+	}
+	
+	/**
+	 * Checks a page on disk against the length and checksum it was last written with, without
+	 * decoding it. A page file whose size differs is rejected without being read. Pages the
+	 * table's {@link PageManifest} does not know are checked with {@link #checkTablePage}.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param manifest   the table's manifest, or null if it has none.
+	 * @param pageNumber the number of the page.
+	 * @return true if the page is on disk and intact.
+	 */
+	static boolean verifyTablePage(String tableName, PageManifest manifest, int pageNumber)
+	{
+		if (manifest == null || !manifest.contains(pageNumber))
+			return checkTablePage(tableName, pageNumber);
+		ByteBuffer bytes = null;
+		if (SegmentFile.exists(tableName))
+		{
+			SegmentFile segment = SegmentFile.of(tableName);
+			if (segment != null)
+				bytes = segment.readBuffer(pageNumber);
+		}
+		if (bytes == null)
+		{
+			File fl = new File(new File(directory, tableName), ""+pageNumber+".db");
+			if (fl.length() != manifest.getLength(pageNumber))
+				return false;
+			try
+			{
+				bytes = PageCodec.readBuffer(fl.toPath());
+			}
+			catch (IOException e)
+			{
+				return false;
+			}
+		}
+		return manifest.matches(pageNumber, bytes);
+	}
+	
+	/**
+	 * Checks a table's dictionary file against the length and checksum in its manifest.
+	 * Every page encoded with the dictionary depends on it, though its own checksum does not
+	 * cover it.
+	 *
+	 * @param tableName the name of the table.
+	 * @param manifest  the table's manifest, or null if it has none.
+	 * @return true if the dictionary can be read and is intact, or the table has none.
+	 */
+	static boolean verifyTableDictionary(String tableName, PageManifest manifest)
+	{
+		File fl = new File(new File(directory, tableName), TableDictionary.FILE_NAME);
+		if (fl.exists() && TableDictionary.of(tableName).isDamaged())
+			return false;
+		if (manifest == null || manifest.getDictionaryLength() == 0)
+			return true;
+		try
+		{
+			return manifest.matchesDictionary(PageCodec.readBuffer(fl.toPath()));
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	static boolean writeTablePage(String tableName, int pageNumber, Page p)
 	{
 //		try {
 //			TimeUnit.MILLISECONDS.sleep(1);
@@ -80,16 +339,35 @@ public class FileManager
 //			// TODO Auto-generated catch block
 ////			e1.printStackTrace();
 //		}
+		long startTime = System.nanoTime();
+		TableDictionary dictionary = dictionaryEncoding ? TableDictionary.of(tableName) : null;
+		if (dictionary != null && dictionary.isDamaged())
+		{
+			System.err.println("Error: Page " + pageNumber + " of table '" + tableName + "' was not written, the table's dictionary is damaged.");
+			return false;
+		}
+		ByteBuffer bytes = PageCodec.encode(p, dictionary);
+		// New codes reach the dictionary file before any page using them
+		if (dictionary != null && !dictionary.persist())
+			return false;
+		if (segmentFiles)
+		{
+			SegmentFile segment = SegmentFile.of(tableName);
+			if (segment == null || !segment.write(pageNumber, bytes))
+				return false;
+			PageManifest.record(tableName, pageNumber, bytes);
+			Metrics.record(Metrics.PAGE_STORE, startTime);
+			return true;
+		}
 		File tableDirectory = new File(directory, tableName);
-		tableDirectory.mkdir();
+		tableDirectory.mkdirs();
 	    File fl = new File(tableDirectory, ""+pageNumber+".db");
 	    
 		try 
 		{
-			FileOutputStream fout = new FileOutputStream(fl);
-			ObjectOutputStream oos = new ObjectOutputStream(fout);
-			oos.writeObject(p);
-			oos.close();
+			PageCodec.write(fl.toPath(), bytes);
+			PageManifest.record(tableName, pageNumber, bytes);
+			Metrics.record(Metrics.PAGE_STORE, startTime);
 			return true;
 		} 
 		catch (Exception e)
@@ -100,7 +378,7 @@ public class FileManager
 		return false;
 	}
 	
-	public static Page loadTablePage(String tableName, int pageNumber)
+	static Page readTablePage(String tableName, int pageNumber)
 	{
 //		try {
 //			TimeUnit.MILLISECONDS.sleep(1);
@@ -108,26 +386,174 @@ public class FileManager
 //			// TODO Auto-generated catch block
 //			e1.printStackTrace();
 //		}
+		long startTime = System.nanoTime();
+		Page res = segmentFiles ? readSegmentPage(tableName, pageNumber) : null;
+		if (res != null)
+		{
+			Metrics.record(Metrics.PAGE_LOAD, startTime);
+			return res;
+		}
 		File tableDirectory = new File(directory, tableName);
 	    File fl = new File(tableDirectory, ""+pageNumber+".db");
 	    
-	    Page res = null;
 	    try 
 		{
-			FileInputStream fin = new FileInputStream(fl);
-			ObjectInputStream ois = new ObjectInputStream(fin);
-			res = (Page)ois.readObject();
-			ois.close();
+			ByteBuffer buffer = PageCodec.readBuffer(fl.toPath());
+			if (PageCodec.isBinaryPage(buffer))
+			{
+				res = PageCodec.decode(buffer, TableDictionary.of(tableName));
+			}
+			else
+			{
+				res = decodeLegacyPage(buffer);
+			}
 		} 
 		catch (Exception e)
 		{
 			// TODO Auto-generated catch block
 //			e.printStackTrace();
 		}
+	    // Pages may be in a segment written while segment files were enabled
+	    if (res == null && !segmentFiles)
+	    	res = readSegmentPage(tableName, pageNumber);
+	    if (res != null)
+	    	Metrics.record(Metrics.PAGE_LOAD, startTime);
 	    return res;
 	}
 	
+	private static Page readSegmentPage(String tableName, int pageNumber)
+	{
+		if (!SegmentFile.exists(tableName))
+			return null;
+		SegmentFile segment = SegmentFile.of(tableName);
+		ByteBuffer bytes = segment == null ? null : segment.readBuffer(pageNumber);
+		if (bytes == null)
+			return null;
+		try
+		{
+			return PageCodec.decode(bytes, TableDictionary.of(tableName));
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// A damaged slot is reported and its page treated as missing, like a damaged page file
+			System.err.println("Error: Page " + pageNumber + " of table '" + tableName + "' could not be decoded from its segment: " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Loads a single record of a page. The page is fetched through the {@link BufferPool},
+	 * so fetching several records of the same page reads the page file only once.
+	 *
+	 * @param tableName    the name of the table.
+	 * @param pageNumber   the number of the page.
+	 * @param recordNumber the slot of the record within the page.
+	 * @return a copy of the record, or null if it does not exist or could not be loaded.
+	 */
+	public static String[] loadTableRecord(String tableName, int pageNumber, int recordNumber)
+	{
+		Page p = loadTablePage(tableName, pageNumber);
+		String[] record = p == null ? null : p.getRecord(recordNumber);
+		return record == null ? null : record.clone();
+	}
+	
+	/**
+	 * Rewrites every page of a table that is still stored with Java serialization
+	 * in the binary page format.
+	 *
+	 * @param tableName the name of the table.
+	 * @return the number of pages that were migrated.
+	 */
+	public static int migrateTablePages(String tableName)
+	{
+		File tableDirectory = new File(directory, tableName);
+		File[] contents = tableDirectory.listFiles();
+		int migrated = 0;
+		if (contents == null)
+			return migrated;
+		for (File f : contents)
+		{
+			String name = f.getName();
+			if (!name.matches("[0-9]+\\.db") || PageCodec.isBinaryPage(f.toPath()))
+				continue;
+			int pageNumber = Integer.parseInt(name.substring(0, name.length() - 3));
+			Page p = loadTablePage(tableName, pageNumber);
+			if (p != null && storeTablePage(tableName, pageNumber, p))
+				migrated++;
+		}
+		return migrated;
+	}
+	
+	private static Page decodeLegacyPage(ByteBuffer buffer)
+	{
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buffer.array(),
+				buffer.arrayOffset() + buffer.position(), buffer.remaining())))
+		{
+			return (Page)ois.readObject();
+		}
+		catch (Exception e)
+		{
+//			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Stores an index through the {@link IndexCache}. It reaches the disk right away unless
+	 * writes are deferred, in which case it is written at the next flush.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the indexed column.
+	 * @param b          the index.
+	 * @return false if the index had to be written to disk and could not be stored.
+	 */
 	public static boolean storeTableIndex(String tableName, String columnName, BitmapIndex b)
+	{
+		return IndexCache.put(tableName, columnName, b);
+	}
+	
+	/**
+	 * Loads an index through the {@link IndexCache}, reading it from disk only if it is not cached.
+	 * The returned index is shared, so changes to it must be stored back.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the indexed column.
+	 * @return the index, or null if the column has no index.
+	 */
+	public static BitmapIndex loadTableIndex(String tableName, String columnName)
+	{
+		ColumnIndex index = IndexCache.get(tableName, columnName);
+		return index instanceof BitmapIndex ? (BitmapIndex) index : null;
+	}
+	
+	/**
+	 * Stores a sorted index through the {@link IndexCache}, in the file of its column followed by {@link #SORTED_INDEX_SUFFIX}.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the indexed column.
+	 * @param s          the index.
+	 * @return false if the index had to be written to disk and could not be stored.
+	 */
+	public static boolean storeTableSortedIndex(String tableName, String columnName, SortedIndex s)
+	{
+		return IndexCache.put(tableName, columnName + SORTED_INDEX_SUFFIX, s);
+	}
+	
+	/**
+	 * Loads a sorted index through the {@link IndexCache}, reading it from disk only if it is not cached.
+	 * The returned index is shared, so changes to it must be stored back.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the indexed column.
+	 * @return the index, or null if the column has no sorted index.
+	 */
+	public static SortedIndex loadTableSortedIndex(String tableName, String columnName)
+	{
+		ColumnIndex index = IndexCache.get(tableName, columnName + SORTED_INDEX_SUFFIX);
+		return index instanceof SortedIndex ? (SortedIndex) index : null;
+	}
+	
+	static boolean writeTableIndex(String tableName, String columnName, ColumnIndex b)
 	{
 //		try {
 //			TimeUnit.MILLISECONDS.sleep(1);
@@ -155,7 +581,7 @@ public class FileManager
 		return false;
 	}
 	
-	public static BitmapIndex loadTableIndex(String tableName, String columnName)
+	static ColumnIndex readTableIndex(String tableName, String columnName)
 	{
 //		try {
 //			TimeUnit.MILLISECONDS.sleep(1);
@@ -166,12 +592,12 @@ public class FileManager
 		File tableDirectory = new File(directory, tableName);
 	    File fl = new File(tableDirectory, ""+columnName+".db");
 	    
-	    BitmapIndex res = null;
+	    ColumnIndex res = null;
 	    try 
 		{
 			FileInputStream fin = new FileInputStream(fl);
 			ObjectInputStream ois = new ObjectInputStream(fin);
-			res = (BitmapIndex)ois.readObject();
+			res = (ColumnIndex)ois.readObject();
 			ois.close();
 		} 
 		catch (Exception e)
@@ -194,8 +620,16 @@ public class FileManager
 	    file.delete();
 	}
 	
-	public static void reset()
+	public static synchronized void reset()
 	{
+		WriteAheadLog.close();
+		BufferPool.clear();
+		IndexCache.clear();
+		pendingTables.clear();
+		TableSnapshots.clear();
+		SegmentFile.closeAll();
+		PageManifest.closeAll();
+		TableDictionary.clear();
 		deleteDir(directory);
 		directory.mkdir();
 	}
@@ -209,11 +643,25 @@ public class FileManager
 		}
 	    File[] contents = file.listFiles();
 	    if (contents != null) {
-			Arrays.sort(contents, Comparator.comparing(File::getName));
+	    	TreeMap<String, String> entries = new TreeMap<>();
 	        for (File f : contents) 
 	        {
-	        	res+=traceDir(f)+" ";
+	        	if (f.equals(WriteAheadLog.file()) || f.getName().endsWith(TraceLog.SPILL_SUFFIX) || f.getName().equals(PageManifest.FILE_NAME)
+	        			|| f.getName().equals(TableDictionary.FILE_NAME))
+	        		continue;
+	        	if (f.getName().equals(SegmentFile.FILE_NAME))
+	        	{
+	        		// Pages packed in a segment file are listed as the page files they replace
+	        		SegmentFile segment = SegmentFile.of(file.getName());
+	        		if (segment != null)
+	        			for (int pageNumber : segment.getPageNumbers())
+	        				entries.put(pageNumber+".db", pageNumber+".db");
+	        		continue;
+	        	}
+	        	entries.put(f.getName(), traceDir(f));
 	        }
+	        for (String entry : entries.values())
+	        	res+=entry+" ";
 	    }
 	    if(!file.getName().endsWith(".db"))
 		{
@@ -0,0 +1,378 @@
+package DBMS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A process-wide cache of column indexes keyed by (table, index file name), sitting in front
+ * of the index files. Bitmap indexes are named after their column; sorted indexes add a suffix.
+ * <p>
+ * A cached index is shared: inserts update it in place and store it back, which only marks
+ * it dirty. Dirty indexes are written to disk right away while {@link #writeThrough} is set,
+ * otherwise at the next {@link #flush()} (a checkpoint), by a background flush shortly after
+ * they change when write-behind is enabled, or when they are evicted. The cache is bounded
+ * by {@link #memoryBudget} bytes and evicts the least recently used indexes first; an index
+ * that cannot be written back stays cached. An index is only written back or evicted while
+ * no other thread holds the write lock of its table (see {@link TableLocks}), so a change in
+ * progress is never written half done.
+ * <p>
+ * Index files are read and written without holding the cache's lock, so a slow index of one
+ * table does not hold up the indexes of others. An index is written by one thread at a time.
+ */
+public class IndexCache {
+	static long memoryBudget = 64L * 1024 * 1024;
+	static boolean writeThrough = true;
+
+	// Delay between an index changing and its background write, while write-behind is enabled
+	static long writeBehindDelayMillis = 200;
+	// An index updated in place is re-measured once every this many stores
+	private static final int RESIZE_INTERVAL = 1024;
+
+	private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// Indexes being read from disk outside the lock; a load made stale by a store or eviction must not be installed
+	private static final HashMap<String, Load> loading = new HashMap<>();
+	private static long usedBytes = 0;
+	private static boolean writeBehind = false;
+	private static boolean flushScheduled = false;
+	private static ScheduledExecutorService flusher;
+
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long evictions = 0;
+
+	private static class Entry {
+		String tableName;
+		String columnName;
+		ColumnIndex index;
+		long bytes;
+		int storesSinceSizing;
+		boolean dirty;
+		// Incremented by every store, so a write only marks the index clean if it wrote the latest version
+		long version;
+	}
+
+	private static class Load {
+		int readers;
+		boolean stale;
+	}
+
+	/**
+	 * Returns an index, reading it from disk only if it is not cached.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the index file, i.e. the indexed column and any suffix.
+	 * @return the cached index, or null if the column has no index.
+	 */
+	public static ColumnIndex get(String tableName, String columnName) {
+		String key = key(tableName, columnName);
+		boolean missed = false;
+		while (true) {
+			Load load;
+			synchronized (IndexCache.class) {
+				Entry entry = entries.get(key);
+				if (entry != null) {
+					if (!missed) {
+						hits++;
+					}
+					return entry.index;
+				}
+				if (!missed) {
+					misses++;
+					missed = true;
+				}
+				load = loading.computeIfAbsent(key, k -> new Load());
+				load.readers++;
+			}
+
+			ColumnIndex index = FileManager.readTableIndex(tableName, columnName);
+
+			Entry installed = null;
+			synchronized (IndexCache.class) {
+				if (--load.readers == 0 && loading.get(key) == load) {
+					loading.remove(key);
+				}
+				Entry entry = entries.get(key);
+				if (entry != null) {
+					return entry.index;
+				}
+				if (!load.stale) {
+					if (index == null) {
+						return null;
+					}
+					installed = install(tableName, columnName, index, false);
+				}
+			}
+			if (installed != null) {
+				evict(installed);
+				return index;
+			}
+		}
+	}
+
+	/**
+	 * Caches a new or updated index and marks it dirty.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the index file, i.e. the indexed column and any suffix.
+	 * @param index      the index.
+	 * @return false if the index had to be written to disk and could not be stored.
+	 */
+	public static boolean put(String tableName, String columnName, ColumnIndex index) {
+		Entry entry;
+		boolean writeNow;
+		synchronized (IndexCache.class) {
+			entry = install(tableName, columnName, index, true);
+			writeNow = writeThrough;
+			if (!writeNow && writeBehind) {
+				scheduleFlush();
+			}
+		}
+		// The caller holds the table's write lock, so the index is complete
+		boolean stored = !writeNow || write(entry);
+		evict(entry);
+		return stored;
+	}
+
+	/**
+	 * Writes every dirty index to disk.
+	 *
+	 * @return false if any index could not be stored.
+	 */
+	public static boolean flush() {
+		List<Entry> dirty = new ArrayList<>();
+		synchronized (IndexCache.class) {
+			for (Entry entry : entries.values()) {
+				if (entry.dirty) {
+					dirty.add(entry);
+				}
+			}
+		}
+		boolean stored = true;
+		for (Entry entry : dirty) {
+			Lock lock = TableLocks.tryRead(entry.tableName);
+			if (lock == null) {
+				// Being changed by another thread, which stores it again when done
+				continue;
+			}
+			try {
+				stored &= write(entry);
+			} finally {
+				lock.unlock();
+			}
+		}
+		return stored;
+	}
+
+	/**
+	 * Enables or disables writing dirty indexes on a background thread shortly after they
+	 * change, instead of waiting for the next flush. Only used while {@link #writeThrough} is off.
+	 *
+	 * @param enabled true to write dirty indexes in the background.
+	 */
+	public static synchronized void setWriteBehind(boolean enabled) {
+		writeBehind = enabled;
+		if (enabled) {
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Drops every cached index without writing it back and resets the counters.
+	 * Used when the files on disk are deleted.
+	 */
+	public static synchronized void clear() {
+		entries.clear();
+		for (Load load : loading.values()) {
+			load.stale = true;
+		}
+		loading.clear();
+		usedBytes = 0;
+		resetStatistics();
+	}
+
+	/**
+	 * Changes the memory budget, evicting indexes until the cache fits in it.
+	 *
+	 * @param bytes the new budget in bytes.
+	 */
+	public static void setMemoryBudget(long bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException("Index cache memory budget must be positive.");
+		}
+		synchronized (IndexCache.class) {
+			memoryBudget = bytes;
+		}
+		evict(null);
+	}
+
+	public static synchronized long getHitCount() { return hits; }
+
+	public static synchronized long getMissCount() { return misses; }
+
+	public static synchronized long getEvictionCount() { return evictions; }
+
+	/**
+	 * @return the estimated heap used by the cached indexes, in bytes.
+	 */
+	public static synchronized long getUsedBytes() { return usedBytes; }
+
+	public static synchronized void resetStatistics() {
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	private static Entry install(String tableName, String columnName, ColumnIndex index, boolean dirty) {
+		String key = key(tableName, columnName);
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			entry = new Entry();
+			entry.tableName = tableName;
+			entry.columnName = columnName;
+			entries.put(key, entry);
+		}
+		// Measuring walks every value of the index, so in-place updates are only re-measured now and then
+		if (entry.index != index || ++entry.storesSinceSizing >= RESIZE_INTERVAL) {
+			usedBytes -= entry.bytes;
+			entry.bytes = index.sizeInBytes();
+			entry.storesSinceSizing = 0;
+			usedBytes += entry.bytes;
+		}
+		entry.index = index;
+		if (dirty) {
+			entry.dirty = true;
+			entry.version++;
+			invalidate(key);
+		}
+		return entry;
+	}
+
+	// Evicts least recently used indexes until the cache fits its budget, keeping the given one.
+	// Dirty victims are written back outside the lock first, and only evicted if that succeeded.
+	private static void evict(Entry keep) {
+		List<Entry> dirty = new ArrayList<>();
+		synchronized (IndexCache.class) {
+			long excess = usedBytes - memoryBudget;
+			Iterator<Entry> it = entries.values().iterator();
+			while (excess > 0 && it.hasNext()) {
+				Entry victim = it.next();
+				if (victim == keep) {
+					continue;
+				}
+				excess -= victim.bytes;
+				if (victim.dirty) {
+					dirty.add(victim);
+				} else {
+					remove(it, victim);
+				}
+			}
+		}
+		if (dirty.isEmpty()) {
+			return;
+		}
+
+		for (Iterator<Entry> it = dirty.iterator(); it.hasNext();) {
+			Entry victim = it.next();
+			Lock lock = TableLocks.tryRead(victim.tableName);
+			if (lock == null) {
+				it.remove();
+				continue;
+			}
+			try {
+				if (!write(victim)) {
+					System.err.println("Error: Index on column '" + victim.columnName + "' of table '" + victim.tableName + "' could not be written back on eviction, it stays cached.");
+					it.remove();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		synchronized (IndexCache.class) {
+			for (Entry victim : dirty) {
+				String key = key(victim.tableName, victim.columnName);
+				// Skipped if it changed again, was used again or is no longer needed to fit the budget
+				if (usedBytes > memoryBudget && !victim.dirty && entries.get(key) == victim) {
+					entries.remove(key);
+					usedBytes -= victim.bytes;
+					evictions++;
+					invalidate(key);
+				}
+			}
+		}
+	}
+
+	private static void remove(Iterator<Entry> it, Entry victim) {
+		it.remove();
+		usedBytes -= victim.bytes;
+		evictions++;
+		invalidate(key(victim.tableName, victim.columnName));
+	}
+
+	// Writes an index back if it is dirty, without holding the cache's lock
+	private static boolean write(Entry entry) {
+		synchronized (entry) {
+			ColumnIndex index;
+			long version;
+			synchronized (IndexCache.class) {
+				if (!entry.dirty) {
+					return true;
+				}
+				index = entry.index;
+				version = entry.version;
+			}
+			if (!FileManager.writeTableIndex(entry.tableName, entry.columnName, index)) {
+				return false;
+			}
+			synchronized (IndexCache.class) {
+				if (entry.version == version) {
+					entry.dirty = false;
+				}
+			}
+			return true;
+		}
+	}
+
+	// Marks the reads of an index in progress as stale; readers starting later get a new load
+	private static void invalidate(String key) {
+		Load load = loading.remove(key);
+		if (load != null) {
+			load.stale = true;
+		}
+	}
+
+	private static void scheduleFlush() {
+		if (flushScheduled) {
+			return;
+		}
+		if (flusher == null) {
+			flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, "index-flush");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		flushScheduled = true;
+		flusher.schedule(() -> {
+			boolean flush;
+			synchronized (IndexCache.class) {
+				flushScheduled = false;
+				flush = !writeThrough && writeBehind;
+			}
+			if (flush && !flush()) {
+				System.err.println("Error: Background index flush failed.");
+			}
+		}, writeBehindDelayMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static String key(String tableName, String columnName) {
+		return tableName + "/" + columnName;
+	}
+}
@@ -0,0 +1,121 @@
+package DBMS;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, with buckets laid out like an HDR histogram.
+ * <p>
+ * Values below 128 get a bucket each. Larger values are grouped by their highest set bit
+ * into ranges of 64 buckets, each bucket covering the same width, so any value is known to
+ * within 1/64 (under 2%) from 0 up to {@link Long#MAX_VALUE} in 3712 buckets. Recording
+ * increments one atomic counter and never blocks, so threads can record concurrently;
+ * reads are consistent per bucket but not across the whole histogram.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_BUCKETS = SUB_BUCKETS / 2;
+	private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Creates an empty histogram.
+	 *
+	 * @param name the operation whose latencies it records.
+	 */
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos the latency in nanoseconds; negative values are counted as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(bucket(value));
+		count.incrementAndGet();
+		total.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * @return the operation whose latencies are recorded.
+	 */
+	public String getName() { return name; }
+
+	/**
+	 * @return the number of latencies recorded.
+	 */
+	public long getCount() { return count.get(); }
+
+	/**
+	 * @return the largest latency recorded, in nanoseconds, or 0 if none was.
+	 */
+	public long getMax() { return max.get(); }
+
+	/**
+	 * @return the mean latency in nanoseconds, or 0 if none was recorded.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) total.get() / n;
+	}
+
+	/**
+	 * Finds the latency below or at which a percentage of the recorded latencies fall.
+	 * The result is the highest value of that latency's bucket, but never more than
+	 * {@link #getMax()}.
+	 *
+	 * @param percentile the percentage, from 0 to 100, such as 99.9.
+	 * @return the latency in nanoseconds, or 0 if none was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+		}
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		// Shift that brings the value into [64, 128)
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		return SUB_BUCKETS + (shift - 1) * HALF_BUCKETS + (int) (value >>> shift) - HALF_BUCKETS;
+	}
+
+	static long highestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - SUB_BUCKETS) / HALF_BUCKETS + 1;
+		long lowest = (long) ((bucket - SUB_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,140 @@
+package DBMS;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The process-wide registry of operation latencies.
+ * <p>
+ * Each operation type has a {@link LatencyHistogram} of its latencies in nanoseconds,
+ * created the first time it is recorded. Histograms give the count, mean, percentiles and
+ * maximum of an operation; its throughput is its count over the time since the registry
+ * was last {@link #reset()}. The whole registry can be read with {@link #report()} or
+ * written to a file with {@link #dump(File)}.
+ */
+public class Metrics {
+	// When disabled, operations are not recorded
+	static boolean enabled = true;
+
+	public static final String INSERT = "insert";
+	public static final String INSERT_BATCH = "insertBatch";
+	public static final String BULK_LOAD = "bulkLoad";
+	public static final String SELECT_ALL = "select.all";
+	public static final String SELECT_POINTER = "select.pointer";
+	public static final String SELECT_CONDITION = "select.condition";
+	public static final String SELECT_CURSOR = "select.cursor";
+	public static final String SELECT_INDEX = "selectIndex";
+	public static final String SELECT_INDEX_CURSOR = "selectIndex.cursor";
+	public static final String SELECT_CASE_1 = "selectCase1.allIndexed";
+	public static final String SELECT_CASE_2 = "selectCase2.someIndexed";
+	public static final String SELECT_CASE_3 = "selectCase3.oneIndexed";
+	public static final String SELECT_CASE_4 = "selectCase4.noneIndexed";
+	public static final String COUNT = "count";
+	public static final String EXISTS = "exists";
+	public static final String INDEX_BUILD = "index.build";
+	public static final String SORTED_INDEX_BUILD = "sortedIndex.build";
+	public static final String PAGE_LOAD = "page.load";
+	public static final String PAGE_STORE = "page.store";
+	public static final String FLUSH = "flush";
+
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+	private static volatile long startTime = System.nanoTime();
+
+	/**
+	 * Records the latency of an operation that started at a given time.
+	 *
+	 * @param operation the operation type, such as {@link #INSERT}.
+	 * @param startNanos the {@link System#nanoTime()} at which the operation started.
+	 * @return the latency in nanoseconds, so callers can also trace it.
+	 */
+	public static long record(String operation, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		if (enabled) {
+			histogram(operation).record(nanos);
+		}
+		return nanos;
+	}
+
+	/**
+	 * @param operation the operation type.
+	 * @return the histogram of the operation's latencies, created empty if it has none yet.
+	 */
+	public static LatencyHistogram histogram(String operation) {
+		return histograms.computeIfAbsent(operation, LatencyHistogram::new);
+	}
+
+	/**
+	 * @return the histograms recorded so far, by operation type.
+	 */
+	public static Map<String, LatencyHistogram> getHistograms() {
+		return new TreeMap<>(histograms);
+	}
+
+	/**
+	 * @param operation the operation type.
+	 * @return the operations per second recorded since the registry was last reset.
+	 */
+	public static double getThroughput(String operation) {
+		LatencyHistogram h = histograms.get(operation);
+		return h == null ? 0 : throughput(h, System.nanoTime() - startTime);
+	}
+
+	/**
+	 * Formats every histogram, one operation per line, as
+	 * {@code name count:N, ops/sec:R, mean:M, p50:A, p99:B, p999:C, max:D} with latencies in nanoseconds.
+	 *
+	 * @return the report, empty if nothing was recorded.
+	 */
+	public static String report() {
+		long elapsed = System.nanoTime() - startTime;
+		StringBuilder sb = new StringBuilder();
+		for (LatencyHistogram h : getHistograms().values()) {
+			if (sb.length() > 0) {
+				sb.append("\n");
+			}
+			sb.append(h.getName())
+					.append(" count:").append(h.getCount())
+					.append(", ops/sec:").append(String.format("%.1f", throughput(h, elapsed)))
+					.append(", mean:").append(Math.round(h.getMean()))
+					.append(", p50:").append(h.getPercentile(50))
+					.append(", p99:").append(h.getPercentile(99))
+					.append(", p999:").append(h.getPercentile(99.9))
+					.append(", max:").append(h.getMax());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the {@link #report()} to a file, replacing its content.
+	 *
+	 * @param file the file.
+	 * @return false if the file could not be written.
+	 */
+	public static boolean dump(File file) {
+		try (Writer out = new FileWriter(file)) {
+			out.write(report());
+			out.write(System.lineSeparator());
+			return true;
+		} catch (IOException e) {
+			System.err.println("Error: Metrics could not be written to " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Removes every histogram and restarts the throughput clock.
+	 */
+	public static void reset() {
+		histograms.clear();
+		startTime = System.nanoTime();
+	}
+
+	private static double throughput(LatencyHistogram h, long elapsedNanos) {
+		return elapsedNanos <= 0 ? 0 : h.getCount() * 1e9 / elapsedNanos;
+	}
+}
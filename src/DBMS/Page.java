@@ -1,16 +1,33 @@
 package DBMS;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 
 /**
  * Represents a page within a table.
+ * <p>
+ * The record list is sized for a full page up front and never reallocated, so a reader
+ * holding a snapshot of the table can read the records it counts while an insert appends
+ * to the same page.
+ * <p>
+ * The cells of INT, LONG, DOUBLE and DATE columns are also kept in a primitive array per
+ * column (see {@link ColumnType#toBits(String)}), likewise sized up front, so scans compare
+ * them without parsing the cells.
  */
 public class Page implements Serializable
 {
+    // The value computed for the original class, which had no serialVersionUID, so page files it serialized still load
+    private static final long serialVersionUID = -4399813712188496231L;
+
     private int pageNumber;
     private ArrayList<String[]> records;
     private int pageSize;
+    // Null if no column is primitive
+    private ColumnType[] columnTypes;
+    // The cells of each primitive column by slot; null for the other columns
+    private long[][] primitiveColumns;
 
     /**
      * Constructs a new Page.
@@ -22,10 +39,32 @@ public class Page implements Serializable
     {
         this.pageNumber = pageNumber;
         this.pageSize = pageSize;
-        this.records = new ArrayList<String[]>();
+        this.records = new ArrayList<String[]>(pageSize);
 
     }
 
+    /**
+     * Constructs a new Page keeping the cells of primitive columns as primitive values.
+     *
+     * @param pageSize    The maximum number of records allowed on the page.
+     * @param pageNumber  The identifier of the page within the table.
+     * @param columnTypes The type of each column, or null if every column is STRING.
+     */
+    public Page(int pageSize, int pageNumber, ColumnType[] columnTypes)
+    {
+        this(pageSize, pageNumber);
+        if (columnTypes != null)
+        {
+            this.primitiveColumns = new long[columnTypes.length][];
+            for (int i = 0; i < columnTypes.length; i++)
+            {
+                if (columnTypes[i].isPrimitive())
+                    this.primitiveColumns[i] = new long[pageSize];
+            }
+            this.columnTypes = columnTypes;
+        }
+    }
+
     /**
      * Retrieves the current page number.
      *
@@ -35,6 +74,15 @@ public class Page implements Serializable
         return pageNumber;
     }
 
+    /**
+     * Retrieves the maximum number of records allowed on the page.
+     *
+     * @return the page size
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
     /**
      * Checks if the page is full.
      *
@@ -46,19 +94,65 @@ public class Page implements Serializable
     }
 
     /**
-     * Inserts a new record into the page.
+     * Inserts a copy of a record into the page, so the caller may reuse its array.
      *
      * @param record An array of values representing the record.
      */
     public void insert(String[] record)
     {
+        record = record.clone();
+        if (primitiveColumns != null)
+        {
+            int slot = records.size();
+            for (int i = 0; i < primitiveColumns.length; i++)
+            {
+                if (primitiveColumns[i] != null)
+                    primitiveColumns[i][slot] = columnTypes[i].toBits(record[i]);
+            }
+        }
         records.add(record);
     }
 
+    /**
+     * Appends a record whose primitive cells were already written to {@link #getPrimitiveColumn(int)}.
+     *
+     * @param record The record, as decoded from the page file.
+     */
+    void insertDecoded(String[] record)
+    {
+        records.add(record);
+    }
+
+    /**
+     * @return The type of each column, or null if every column is STRING.
+     */
+    public ColumnType[] getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * Gets the primitive values of a column, indexed by slot. Only the first
+     * {@link #getRecordsCount()} values belong to records.
+     *
+     * @param columnIndex The position of the column.
+     * @return The values, or null if the column is not kept as primitive values.
+     */
+    public long[] getPrimitiveColumn(int columnIndex) {
+        return primitiveColumns == null || columnIndex < 0 || columnIndex >= primitiveColumns.length ? null : primitiveColumns[columnIndex];
+    }
+
     public ArrayList<String[]> getRecords() {
         return records;  // Assuming records is an ArrayList<String[]>
     }
 
+    /**
+     * Gets a record of the page. The array is the one the page holds, possibly shared
+     * through the {@link BufferPool}: it must not be changed, and it is copied before it
+     * is handed out of the DBMS.
+     *
+     * @param recordIndex The slot of the record.
+     * @return The record, or null if the slot is empty.
+     */
     public String[] getRecord(int recordIndex) {
         if (recordIndex >= 0 && recordIndex < records.size()) {
             return records.get(recordIndex);
@@ -68,4 +162,9 @@ public class Page implements Serializable
     }
 
     public int getRecordsCount() { return records.size(); }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        records.ensureCapacity(pageSize);
+    }
 }
@@ -0,0 +1,480 @@
+package DBMS;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Encodes and decodes pages in a compact, versioned binary format.
+ * <p>
+ * Layout of a page file (all integers are big-endian):
+ * <pre>
+ * header:          magic (int) | version (short) | flags (short) | pageNumber (int) | pageSize (int) | recordsCount (int)
+ * slot directory:  one int per record holding the file offset of that record
+ * records:         cellsCount (int), then for each cell its UTF-8 length (int, -1 for null) and bytes
+ * </pre>
+ * The slot directory lets a single record be read and decoded without touching the rest of the page.
+ * <p>
+ * Pages encoded with a {@link TableDictionary} set {@link #FLAG_DICTIONARY}. Each cell is then a
+ * single int: its code in the dictionary (0 or more), -1 for null, or -2 - length for a cell
+ * stored inline, followed by its UTF-8 bytes.
+ * <p>
+ * Pages whose columns have types (see {@link ColumnType}) set {@link #FLAG_PRIMITIVE_COLUMNS}. The slot
+ * directory is then followed by columnsCount (int), the ordinal of each column's type (one byte each)
+ * and, for each INT, LONG, DOUBLE or DATE column, the primitive value (long) of every record in slot
+ * order. The cells of those columns are still stored in the records, so decoding neither parses
+ * nor formats them.
+ */
+public class PageCodec {
+	static final int MAGIC = 0x4D444250; // "MDBP"
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 20;
+	static final short FLAG_DICTIONARY = 1;
+	static final short FLAG_PRIMITIVE_COLUMNS = 2;
+
+	private static final int RECORDS_COUNT_OFFSET = 16;
+	private static final int SLOT_SIZE = 4;
+
+	/**
+	 * Encodes a page into a buffer ready to be written.
+	 *
+	 * @param page the page to encode.
+	 * @return a buffer positioned at 0 whose limit is the encoded length.
+	 */
+	public static ByteBuffer encode(Page page) {
+		return encode(page, null);
+	}
+
+	/**
+	 * Encodes a page into a buffer ready to be written, storing cells as dictionary codes.
+	 * Values the dictionary has no code for yet take one, so the dictionary has to be
+	 * persisted before the page is written.
+	 *
+	 * @param page       the page to encode.
+	 * @param dictionary the dictionary of the page's table, or null to store every cell inline.
+	 * @return a buffer positioned at 0 whose limit is the encoded length.
+	 */
+	public static ByteBuffer encode(Page page, TableDictionary dictionary) {
+		int recordsCount = page.getRecordsCount();
+		ColumnType[] types = page.getColumnTypes();
+		byte[][][] cells = new byte[recordsCount][][];
+		int[][] codes = dictionary == null ? null : dictionary.encode(page);
+		int columnsSize = types == null ? 0 : PrimitiveColumns.size(types, recordsCount);
+		int size = HEADER_SIZE + recordsCount * SLOT_SIZE + columnsSize;
+		for (int i = 0; i < recordsCount; i++) {
+			String[] record = page.getRecord(i);
+			cells[i] = new byte[record.length][];
+			size += 4;
+			for (int j = 0; j < record.length; j++) {
+				if (record[j] != null && (codes == null || codes[i][j] < 0)) {
+					cells[i][j] = record[j].getBytes(StandardCharsets.UTF_8);
+					size += cells[i][j].length;
+				}
+				size += 4;
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		buffer.putInt(MAGIC);
+		buffer.putShort(VERSION);
+		buffer.putShort((short) ((codes == null ? 0 : FLAG_DICTIONARY) | (types == null ? 0 : FLAG_PRIMITIVE_COLUMNS)));
+		buffer.putInt(page.getPageNumber());
+		buffer.putInt(page.getPageSize());
+		buffer.putInt(recordsCount);
+
+		int offset = HEADER_SIZE + recordsCount * SLOT_SIZE + columnsSize;
+		for (int i = 0; i < recordsCount; i++) {
+			buffer.putInt(offset);
+			offset += 4;
+			for (byte[] cell : cells[i]) {
+				offset += 4 + (cell == null ? 0 : cell.length);
+			}
+		}
+		if (types != null) {
+			buffer.putInt(types.length);
+			for (ColumnType type : types) {
+				buffer.put((byte) type.ordinal());
+			}
+			for (int j = 0; j < types.length; j++) {
+				long[] column = page.getPrimitiveColumn(j);
+				for (int i = 0; column != null && i < recordsCount; i++) {
+					buffer.putLong(column[i]);
+				}
+			}
+		}
+		for (int i = 0; i < recordsCount; i++) {
+			buffer.putInt(cells[i].length);
+			for (int j = 0; j < cells[i].length; j++) {
+				byte[] cell = cells[i][j];
+				if (cell != null) {
+					buffer.putInt(codes == null ? cell.length : -2 - cell.length);
+					buffer.put(cell);
+				} else {
+					buffer.putInt(codes == null ? -1 : codes[i][j]);
+				}
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Decodes a whole page from a buffer produced by {@link #encode(Page)}.
+	 *
+	 * @param buffer the encoded page, positioned at its first byte.
+	 * @return the decoded page.
+	 * @throws IOException if the buffer does not hold a supported page.
+	 */
+	public static Page decode(ByteBuffer buffer) throws IOException {
+		return decode(buffer, null);
+	}
+
+	/**
+	 * Decodes a whole page from a buffer produced by {@link #encode(Page, TableDictionary)}.
+	 *
+	 * @param buffer     the encoded page, positioned at its first byte.
+	 * @param dictionary the dictionary of the page's table, or null if the page was encoded without one.
+	 * @return the decoded page.
+	 * @throws IOException if the buffer does not hold a supported page or holds an unknown code.
+	 */
+	public static Page decode(ByteBuffer buffer, TableDictionary dictionary) throws IOException {
+		int start = buffer.position();
+		TableDictionary codes = checkHeader(buffer, start, dictionary);
+		int pageNumber = buffer.getInt(start + 8);
+		int pageSize = buffer.getInt(start + 12);
+		int recordsCount = buffer.getInt(start + RECORDS_COUNT_OFFSET);
+		if (recordsCount < 0 || recordsCount > pageSize
+				|| HEADER_SIZE + (long) recordsCount * SLOT_SIZE > buffer.limit() - start) {
+			throw new IOException("Damaged page: " + recordsCount + " records in a page of " + pageSize + ".");
+		}
+		PrimitiveColumns columns = PrimitiveColumns.read(buffer, start, recordsCount);
+
+		Page page = columns == null ? new Page(pageSize, pageNumber) : new Page(pageSize, pageNumber, columns.types);
+		if (columns != null) {
+			columns.copyTo(buffer, page, recordsCount);
+		}
+		for (int i = 0; i < recordsCount; i++) {
+			seek(buffer, start, buffer.getInt(start + HEADER_SIZE + i * SLOT_SIZE));
+			String[] record = readRecord(buffer, codes);
+			if (columns == null) {
+				page.insert(record);
+			} else {
+				page.insertDecoded(record);
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Decodes one record of an encoded page without decoding the others.
+	 *
+	 * @param buffer       the encoded page, positioned at its first byte.
+	 * @param recordNumber the slot of the record within the page.
+	 * @return the record, or null if the slot is out of range.
+	 * @throws IOException if the buffer does not hold a supported page.
+	 */
+	public static String[] decodeRecord(ByteBuffer buffer, int recordNumber) throws IOException {
+		return decodeRecord(buffer, recordNumber, null);
+	}
+
+	/**
+	 * Decodes one record of an encoded page without decoding the others.
+	 *
+	 * @param buffer       the encoded page, positioned at its first byte.
+	 * @param recordNumber the slot of the record within the page.
+	 * @param dictionary   the dictionary of the page's table, or null if the page was encoded without one.
+	 * @return the record, or null if the slot is out of range.
+	 * @throws IOException if the buffer does not hold a supported page or holds an unknown code.
+	 */
+	public static String[] decodeRecord(ByteBuffer buffer, int recordNumber, TableDictionary dictionary) throws IOException {
+		int start = buffer.position();
+		TableDictionary codes = checkHeader(buffer, start, dictionary);
+		int recordsCount = buffer.getInt(start + RECORDS_COUNT_OFFSET);
+		if (recordNumber < 0 || recordNumber >= recordsCount) {
+			return null;
+		}
+		if (HEADER_SIZE + (long) (recordNumber + 1) * SLOT_SIZE > buffer.limit() - start) {
+			throw new IOException("Damaged page: truncated slot directory.");
+		}
+		seek(buffer, start, buffer.getInt(start + HEADER_SIZE + recordNumber * SLOT_SIZE));
+		return readRecord(buffer, codes);
+	}
+
+	/**
+	 * Writes a page to a file, replacing any previous content.
+	 *
+	 * @param file the page file.
+	 * @param page the page to write.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void write(Path file, Page page) throws IOException {
+		write(file, encode(page));
+	}
+
+	/**
+	 * Writes an encoded page to a file, replacing any previous content.
+	 *
+	 * @param file   the page file.
+	 * @param buffer the page, as returned by {@link #encode(Page)}; its position is left unchanged.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void write(Path file, ByteBuffer buffer) throws IOException {
+		buffer = buffer.duplicate();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Reads and decodes a whole page file.
+	 *
+	 * @param file the page file.
+	 * @return the decoded page.
+	 * @throws IOException if the file cannot be read or is not a binary page encoded without a dictionary.
+	 */
+	public static Page read(Path file) throws IOException {
+		return read(file, null);
+	}
+
+	/**
+	 * Reads and decodes a whole page file.
+	 *
+	 * @param file       the page file.
+	 * @param dictionary the dictionary of the page's table, or null if the page was encoded without one.
+	 * @return the decoded page.
+	 * @throws IOException if the file cannot be read, is not a binary page or holds an unknown code.
+	 */
+	public static Page read(Path file, TableDictionary dictionary) throws IOException {
+		return decode(readBuffer(file), dictionary);
+	}
+
+	/**
+	 * Reads the raw bytes of a file into a buffer.
+	 *
+	 * @param file the file to read.
+	 * @return a buffer positioned at 0 holding the whole file.
+	 * @throws IOException if the file cannot be read.
+	 */
+	public static ByteBuffer readBuffer(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			readFully(channel, buffer, 0);
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Reads a single record from a page file. Only the header, the record's slot and
+	 * the record's own bytes are read.
+	 *
+	 * @param file         the page file.
+	 * @param recordNumber the slot of the record within the page.
+	 * @return the record, or null if the slot is out of range.
+	 * @throws IOException if the file cannot be read or is not a binary page encoded without a dictionary.
+	 */
+	public static String[] readRecord(Path file, int recordNumber) throws IOException {
+		return readRecord(file, recordNumber, null);
+	}
+
+	/**
+	 * Reads a single record from a page file. Only the header, the record's slot and
+	 * the record's own bytes are read.
+	 *
+	 * @param file         the page file.
+	 * @param recordNumber the slot of the record within the page.
+	 * @param dictionary   the dictionary of the page's table, or null if the page was encoded without one.
+	 * @return the record, or null if the slot is out of range.
+	 * @throws IOException if the file cannot be read, is not a binary page or holds an unknown code.
+	 */
+	public static String[] readRecord(Path file, int recordNumber, TableDictionary dictionary) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			TableDictionary codes = checkHeader(header, 0, dictionary);
+			int recordsCount = header.getInt(RECORDS_COUNT_OFFSET);
+			if (recordNumber < 0 || recordNumber >= recordsCount) {
+				return null;
+			}
+
+			ByteBuffer slots = ByteBuffer.allocate(recordNumber + 1 < recordsCount ? 2 * SLOT_SIZE : SLOT_SIZE);
+			readFully(channel, slots, HEADER_SIZE + (long) recordNumber * SLOT_SIZE);
+			int offset = slots.getInt(0);
+			long end = slots.capacity() > SLOT_SIZE ? slots.getInt(SLOT_SIZE) : channel.size();
+			if (offset < HEADER_SIZE || end < offset || end > channel.size()) {
+				throw new IOException("Damaged page: record " + recordNumber + " is out of the file.");
+			}
+
+			ByteBuffer record = ByteBuffer.allocate((int) (end - offset));
+			readFully(channel, record, offset);
+			record.flip();
+			return readRecord(record, codes);
+		}
+	}
+
+	/**
+	 * Checks whether the first bytes of a file belong to a binary page.
+	 *
+	 * @param file the file to inspect.
+	 * @return true if the file starts with the page magic number.
+	 */
+	public static boolean isBinaryPage(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Checks whether a buffer starts with the page magic number.
+	 *
+	 * @param buffer the bytes to inspect, positioned at their first byte.
+	 * @return true if the buffer holds a binary page.
+	 */
+	public static boolean isBinaryPage(ByteBuffer buffer) {
+		return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	// Returns the dictionary to decode cells with, or null if the page stores every cell inline
+	private static TableDictionary checkHeader(ByteBuffer buffer, int start, TableDictionary dictionary) throws IOException {
+		if (buffer.limit() - start < HEADER_SIZE || buffer.getInt(start) != MAGIC) {
+			throw new IOException("Not a binary page.");
+		}
+		short version = buffer.getShort(start + 4);
+		if (version != VERSION) {
+			throw new IOException("Unsupported page version " + version + ".");
+		}
+		if ((buffer.getShort(start + 6) & FLAG_DICTIONARY) == 0) {
+			return null;
+		}
+		if (dictionary == null) {
+			throw new IOException("Page is dictionary encoded but no dictionary was given.");
+		}
+		dictionary.checkReadable();
+		return dictionary;
+	}
+
+	// Moves to a record's offset from the start of the page, which a damaged slot may put out of the buffer
+	private static void seek(ByteBuffer buffer, int start, int offset) throws IOException {
+		if (offset < HEADER_SIZE || offset > buffer.limit() - start) {
+			throw new IOException("Damaged page: record offset " + offset + " is out of the page.");
+		}
+		buffer.position(start + offset);
+	}
+
+	private static String[] readRecord(ByteBuffer buffer, TableDictionary dictionary) throws IOException {
+		try {
+			return decodeCells(buffer, dictionary);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+			throw new IOException("Damaged page: truncated record.", e);
+		}
+	}
+
+	private static String[] decodeCells(ByteBuffer buffer, TableDictionary dictionary) throws IOException {
+		int cellsCount = buffer.getInt();
+		if (cellsCount > buffer.remaining() / 4) {
+			throw new IOException("Damaged page: " + cellsCount + " cells in a truncated record.");
+		}
+		String[] record = new String[cellsCount];
+		for (int j = 0; j < record.length; j++) {
+			int length = buffer.getInt();
+			if (dictionary != null) {
+				if (length >= 0) {
+					record[j] = dictionary.decode(j, length);
+					if (record[j] == null) {
+						throw new IOException("Unknown dictionary code " + length + " in column " + j + ".");
+					}
+					continue;
+				}
+				length = length == -1 ? -1 : -2 - length;
+			}
+			if (length >= 0) {
+				record[j] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+				buffer.position(buffer.position() + length);
+			}
+		}
+		return record;
+	}
+
+	// The primitive columns block of an encoded page
+	private static final class PrimitiveColumns {
+		private final ColumnType[] types;
+		// Absolute offset of each column's values in the buffer, -1 for columns that are not primitive
+		private final int[] offsets;
+
+		private PrimitiveColumns(ColumnType[] types, int[] offsets) {
+			this.types = types;
+			this.offsets = offsets;
+		}
+
+		static int size(ColumnType[] types, int recordsCount) {
+			int size = 4 + types.length;
+			for (ColumnType type : types) {
+				if (type.isPrimitive()) {
+					size += 8 * recordsCount;
+				}
+			}
+			return size;
+		}
+
+		// Returns null if the page has no primitive columns block
+		static PrimitiveColumns read(ByteBuffer buffer, int start, int recordsCount) throws IOException {
+			if ((buffer.getShort(start + 6) & FLAG_PRIMITIVE_COLUMNS) == 0) {
+				return null;
+			}
+			int position = start + HEADER_SIZE + recordsCount * SLOT_SIZE;
+			int columnsCount = position + 4 <= buffer.limit() ? buffer.getInt(position) : -1;
+			if (columnsCount < 0 || position + 4 + columnsCount > buffer.limit()) {
+				throw new IOException("Truncated primitive columns.");
+			}
+			ColumnType[] all = ColumnType.values();
+			ColumnType[] types = new ColumnType[columnsCount];
+			int[] offsets = new int[columnsCount];
+			int offset = position + 4 + columnsCount;
+			for (int j = 0; j < columnsCount; j++) {
+				int ordinal = buffer.get(position + 4 + j);
+				if (ordinal < 0 || ordinal >= all.length) {
+					throw new IOException("Unknown column type " + ordinal + ".");
+				}
+				types[j] = all[ordinal];
+				offsets[j] = types[j].isPrimitive() ? offset : -1;
+				if (types[j].isPrimitive()) {
+					offset += 8 * recordsCount;
+				}
+			}
+			if (offset > buffer.limit()) {
+				throw new IOException("Truncated primitive columns.");
+			}
+			return new PrimitiveColumns(types, offsets);
+		}
+
+		void copyTo(ByteBuffer buffer, Page page, int recordsCount) {
+			for (int j = 0; j < types.length; j++) {
+				long[] column = page.getPrimitiveColumn(j);
+				if (column != null) {
+					ByteBuffer values = buffer.duplicate();
+					values.position(offsets[j]);
+					values.asLongBuffer().get(column, 0, Math.min(recordsCount, column.length));
+				}
+			}
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new IOException("Unexpected end of page file.");
+			}
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package DBMS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * The expected length and CRC32C checksum of every page of a table, so a page can be checked
+ * without decoding it and a page that was truncated or corrupted is caught even if it still decodes.
+ * <p>
+ * Layout of a manifest file (all integers are big-endian):
+ * <pre>
+ * header:   magic (int) | version (short) | flags (short)
+ *           dictionary length (int, 0 if none) | dictionary CRC32C (int)
+ * entries:  one per page number, in page order: length (int, 0 if unknown) | CRC32C (int)
+ * </pre>
+ * An entry is overwritten in place each time its page is written, after the page itself, so
+ * a crash in between makes the page fail its check rather than pass it. The dictionary
+ * fields cover the first bytes of the table's {@link TableDictionary} file, which is only
+ * appended to; they are updated after each append and before the pages using the new codes
+ * are written. A manifest of an older version is started over, and the pages it listed are
+ * checked by decoding them until they are written again. The channels of the most recently
+ * written manifests are kept open, up to {@link #openFiles}.
+ */
+public class PageManifest {
+	// Manifest files kept open at most; the least recently written are closed first
+	static int openFiles = 64;
+
+	static final String FILE_NAME = "pages.crc";
+	static final int MAGIC = 0x4D44424D; // "MDBM"
+	static final short VERSION = 2;
+	static final int HEADER_SIZE = 16;
+	static final int ENTRY_SIZE = 8;
+
+	private static final int DICTIONARY_OFFSET = 8;
+
+	private static final LinkedHashMap<String, FileChannel> channels = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final ByteBuffer entries;
+	private final int dictionaryLength;
+	private final int dictionaryChecksum;
+
+	private PageManifest(ByteBuffer entries, int dictionaryLength, int dictionaryChecksum) {
+		this.entries = entries;
+		this.dictionaryLength = dictionaryLength;
+		this.dictionaryChecksum = dictionaryChecksum;
+	}
+
+	/**
+	 * Records the length and checksum of a page that was just written.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param pageNumber the number of the page.
+	 * @param page       the encoded page, as written; its position is left unchanged.
+	 * @return false if the manifest could not be written.
+	 */
+	public static boolean record(String tableName, int pageNumber, ByteBuffer page) {
+		return write(tableName, HEADER_SIZE + (long) pageNumber * ENTRY_SIZE, page.remaining(), checksum(page));
+	}
+
+	/**
+	 * Records the length and checksum of a table's dictionary file after an append.
+	 *
+	 * @param tableName the name of the table.
+	 * @param length    the length of the dictionary file, or 0 if the table has none.
+	 * @param checksum  the CRC32C checksum of the file's first length bytes.
+	 * @return false if the manifest could not be written.
+	 */
+	public static boolean recordDictionary(String tableName, int length, int checksum) {
+		return write(tableName, DICTIONARY_OFFSET, length, checksum);
+	}
+
+	private static boolean write(String tableName, long position, int length, int checksum) {
+		ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+		entry.putInt(length);
+		entry.putInt(checksum);
+		entry.flip();
+		synchronized (PageManifest.class) {
+			try {
+				FileChannel channel = channel(tableName);
+				while (entry.hasRemaining()) {
+					position += channel.write(entry, position);
+				}
+				return true;
+			} catch (IOException e) {
+				System.err.println("Error: Manifest of table '" + tableName + "' could not be written: " + e.getMessage());
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Reads the manifest of a table.
+	 *
+	 * @param tableName the name of the table.
+	 * @return the manifest, or null if the table has none (its pages were written before manifests existed).
+	 */
+	public static synchronized PageManifest read(String tableName) {
+		File file = file(tableName);
+		FileChannel channel = channels.get(tableName);
+		try {
+			if (channel == null) {
+				if (!file.exists()) {
+					return null;
+				}
+				channel = channel(tableName);
+			}
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				return null;
+			}
+			ByteBuffer dictionary = ByteBuffer.allocate(ENTRY_SIZE);
+			channel.read(dictionary, DICTIONARY_OFFSET);
+			ByteBuffer entries = ByteBuffer.allocate((int) Math.min(size - HEADER_SIZE, Integer.MAX_VALUE));
+			long position = HEADER_SIZE;
+			while (entries.hasRemaining()) {
+				int read = channel.read(entries, position);
+				if (read < 0) {
+					break;
+				}
+				position += read;
+			}
+			entries.flip();
+			return new PageManifest(entries, dictionary.getInt(0), dictionary.getInt(4));
+		} catch (IOException e) {
+			System.err.println("Error: Manifest of table '" + tableName + "' could not be read: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Closes every open manifest file. They are reopened on their next use.
+	 */
+	public static synchronized void closeAll() {
+		for (FileChannel channel : channels.values()) {
+			close(channel);
+		}
+		channels.clear();
+	}
+
+	/**
+	 * @param page the encoded page; its position is left unchanged.
+	 * @return the CRC32C checksum of the page's remaining bytes.
+	 */
+	public static int checksum(ByteBuffer page) {
+		CRC32C crc = new CRC32C();
+		crc.update(page.duplicate());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * @param pageNumber the number of the page.
+	 * @return true if the manifest knows the length and checksum of the page.
+	 */
+	public boolean contains(int pageNumber) {
+		return getLength(pageNumber) > 0;
+	}
+
+	/**
+	 * @param pageNumber the number of the page.
+	 * @return the length the page was written with, or 0 if unknown.
+	 */
+	public int getLength(int pageNumber) {
+		int offset = pageNumber * ENTRY_SIZE;
+		return pageNumber < 0 || offset + ENTRY_SIZE > entries.limit() ? 0 : entries.getInt(offset);
+	}
+
+	/**
+	 * @param pageNumber the number of the page.
+	 * @return the checksum the page was written with.
+	 */
+	public int getChecksum(int pageNumber) {
+		return entries.getInt(pageNumber * ENTRY_SIZE + 4);
+	}
+
+	/**
+	 * @return the length of the table's dictionary file when it was last appended to, or 0 if unknown.
+	 */
+	public int getDictionaryLength() {
+		return dictionaryLength;
+	}
+
+	/**
+	 * Checks a table's dictionary file against the length and checksum recorded after the
+	 * last append. Bytes appended since are not checked: no page uses their codes yet.
+	 *
+	 * @param dictionary the dictionary file as read from disk, or null if it could not be read.
+	 * @return true if the file starts with the bytes it had after the last recorded append.
+	 */
+	public boolean matchesDictionary(ByteBuffer dictionary) {
+		if (dictionaryLength == 0) {
+			return true;
+		}
+		if (dictionary == null || dictionary.remaining() < dictionaryLength) {
+			return false;
+		}
+		ByteBuffer recorded = dictionary.duplicate();
+		recorded.limit(recorded.position() + dictionaryLength);
+		return checksum(recorded) == dictionaryChecksum;
+	}
+
+	/**
+	 * Checks an encoded page against its entry.
+	 *
+	 * @param pageNumber the number of the page.
+	 * @param page       the encoded page as read from disk, or null if it could not be read.
+	 * @return true if the page has the length and checksum it was written with.
+	 */
+	public boolean matches(int pageNumber, ByteBuffer page) {
+		return page != null && page.remaining() == getLength(pageNumber) && checksum(page) == getChecksum(pageNumber);
+	}
+
+	private static FileChannel channel(String tableName) throws IOException {
+		FileChannel channel = channels.get(tableName);
+		if (channel != null) {
+			return channel;
+		}
+		File file = file(tableName);
+		file.getParentFile().mkdirs();
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (channel.size() >= 8) {
+			channel.read(header, 0);
+			if (header.getInt(0) != MAGIC) {
+				channel.close();
+				throw new IOException("Not a supported manifest file: " + file);
+			}
+		}
+		if (channel.size() < HEADER_SIZE || header.getShort(4) != VERSION) {
+			channel.truncate(0);
+			header.clear();
+			header.putInt(MAGIC);
+			header.putShort(VERSION);
+			header.putShort((short) 0);
+			header.putInt(0);
+			header.putInt(0);
+			header.flip();
+			channel.write(header, 0);
+		}
+		channels.put(tableName, channel);
+		Iterator<Map.Entry<String, FileChannel>> eldest = channels.entrySet().iterator();
+		while (channels.size() > Math.max(openFiles, 1) && eldest.hasNext()) {
+			close(eldest.next().getValue());
+			eldest.remove();
+		}
+		return channel;
+	}
+
+	private static void close(FileChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Error: Manifest file could not be closed: " + e.getMessage());
+		}
+	}
+
+	private static File file(String tableName) {
+		return new File(new File(FileManager.directory, tableName), FILE_NAME);
+	}
+}
@@ -0,0 +1,170 @@
+package DBMS;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
+
+/**
+ * Scans the pages of a table in parallel and collects the records matching a predicate.
+ * <p>
+ * The page range is split in halves on a {@link ForkJoinPool} until a range holds at most
+ * {@link #pagesPerTask} pages. Each task loads its pages through the {@link BufferPool} and
+ * evaluates the predicate once per record, keeping the matches and their count per page.
+ * The per-page results are then concatenated in page order, so the output is the same as
+ * a sequential scan. Tables smaller than one task are scanned on the calling thread.
+ * <p>
+ * Only the records counted by the table passed in are read, so scanning a snapshot of a
+ * table (see {@link TableSnapshots}) leaves out records appended to its pages afterwards.
+ */
+public class ParallelScan {
+	// Largest page range scanned by a single task
+	static int pagesPerTask = 4;
+
+	private static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * A condition on the record in a slot of a page. Unlike a predicate on the record, it can
+	 * read the page's primitive columns (see {@link Page#getPrimitiveColumn(int)}).
+	 */
+	public interface PageFilter {
+		boolean test(Page page, int slot);
+	}
+
+	/**
+	 * The records matching a scan and how many of them each page held.
+	 */
+	public static class Result {
+		private final ArrayList<String[]> records;
+		private final int[] pageMatchCounts;
+
+		Result(ArrayList<String[]> records, int[] pageMatchCounts) {
+			this.records = records;
+			this.pageMatchCounts = pageMatchCounts;
+		}
+
+		/**
+		 * @return the matching records in table order.
+		 */
+		public ArrayList<String[]> getRecords() { return records; }
+
+		/**
+		 * @return the number of matching records of each page, indexed by page number.
+		 */
+		public int[] getPageMatchCounts() { return pageMatchCounts; }
+	}
+
+	/**
+	 * Scans every page of a table.
+	 *
+	 * @param t         the table to scan.
+	 * @param predicate the condition a record must meet, evaluated once per record.
+	 * @return the matching records in table order and the match count of each page.
+	 */
+	public static Result scan(Table t, Predicate<String[]> predicate) {
+		return scan(t, (page, slot) -> predicate.test(page.getRecord(slot)));
+	}
+
+	/**
+	 * Scans every page of a table.
+	 *
+	 * @param t      the table to scan.
+	 * @param filter the condition a record must meet, evaluated once per record.
+	 * @return the matching records in table order and the match count of each page.
+	 */
+	public static Result scan(Table t, PageFilter filter) {
+		int pagesCount = t.getPagesCount();
+		List<List<String[]>> pageMatches = new ArrayList<>(Collections.nCopies(pagesCount, null));
+		ScanTask task = new ScanTask(t, filter, pageMatches, 0, pagesCount);
+		if (pagesCount <= pagesPerTask) {
+			task.compute();
+		} else {
+			pool.invoke(task);
+		}
+
+		int total = 0;
+		int[] pageMatchCounts = new int[pagesCount];
+		for (int pageNumber = 0; pageNumber < pagesCount; pageNumber++) {
+			if (pageMatches.get(pageNumber) != null) {
+				pageMatchCounts[pageNumber] = pageMatches.get(pageNumber).size();
+				total += pageMatchCounts[pageNumber];
+			}
+		}
+		ArrayList<String[]> records = new ArrayList<>(total);
+		for (List<String[]> matches : pageMatches) {
+			if (matches != null) {
+				records.addAll(matches);
+			}
+		}
+		return new Result(records, pageMatchCounts);
+	}
+
+	/**
+	 * @return the number of threads the scans run on.
+	 */
+	public static int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Changes the pool the scans run on, e.g. to limit the number of threads.
+	 *
+	 * @param parallelism the number of threads, or 0 for the common pool.
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		if (parallelism < 0) {
+			throw new IllegalArgumentException("Parallelism cannot be negative.");
+		}
+		ForkJoinPool previous = pool;
+		pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+		if (previous != ForkJoinPool.commonPool()) {
+			previous.shutdown();
+		}
+	}
+
+	private static class ScanTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Table table;
+		private final transient PageFilter filter;
+		private final transient List<List<String[]>> pageMatches;
+		private final int from;
+		private final int to;
+
+		ScanTask(Table table, PageFilter filter, List<List<String[]>> pageMatches, int from, int to) {
+			this.table = table;
+			this.filter = filter;
+			this.pageMatches = pageMatches;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > pagesPerTask) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ScanTask(table, filter, pageMatches, from, middle),
+						new ScanTask(table, filter, pageMatches, middle, to));
+				return;
+			}
+			// Each task sets its own slots of pageMatches, which are read after the pool joins
+			for (int pageNumber = from; pageNumber < to; pageNumber++) {
+				Page page = FileManager.loadTablePage(table.getTableName(), pageNumber);
+				if (page == null) {
+					continue;
+				}
+				// The page may have grown since the table was read; later records are not visible
+				int visible = Math.min(table.getPageRecordsCount(pageNumber), page.getRecordsCount());
+				ArrayList<String[]> matches = new ArrayList<>();
+				for (int slot = 0; slot < visible; slot++) {
+					if (filter.test(page, slot)) {
+						matches.add(page.getRecord(slot).clone());
+					}
+				}
+				pageMatches.set(pageNumber, matches);
+			}
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package DBMS;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A forward-only cursor over the records of a table, loading one page at a time.
+ * <p>
+ * Pages are pulled through the {@link FileManager} only when the consumer reaches them,
+ * and the cursor drops its reference to a page as soon as it moves past it, so the heap
+ * used by a scan does not grow with the size of the table. A cursor can be limited to
+ * a set of record positions (such as a bitmap index result), in which case pages holding
+ * none of them are never read, and to the records passing a filter. With prefetching, the
+ * next page to be read is loaded in the background while the current one is consumed.
+ * <p>
+ * Records are returned in table order. Pages that cannot be loaded are skipped. The cursor
+ * reads the table it was opened on, usually a snapshot (see {@link TableSnapshots}), without
+ * taking a lock, so inserts run freely while it is open; records inserted after the table
+ * was read are not returned. A cursor is not thread safe; it should be closed once the
+ * consumer is done with it, which also happens when it runs out of records.
+ */
+public class RecordCursor implements Iterator<String[]>, AutoCloseable {
+	private final String tableName;
+	private final int pageSize;
+	private final long end;
+	private final CompressedBitmap positions;
+	private final Predicate<String[]> filter;
+	private final boolean prefetch;
+
+	private long position;
+	private int pageNumber = -1;
+	private Page page;
+	private Future<Page> prefetched;
+	private int prefetchedNumber = -1;
+	private String[] nextRecord;
+	private boolean closed;
+
+	private int pagesRead = 0;
+	private int recordsReturned = 0;
+	private Runnable onClose;
+
+	/**
+	 * Opens a cursor over a table.
+	 *
+	 * @param t         the table to read.
+	 * @param positions the global indices of the records to visit, or null for every record.
+	 * @param filter    the condition a record must meet to be returned, or null for none.
+	 * @param prefetch  whether to load the next page in the background.
+	 */
+	public RecordCursor(Table t, CompressedBitmap positions, Predicate<String[]> filter, boolean prefetch) {
+		this.tableName = t.getTableName();
+		this.pageSize = t.getPageSize();
+		// Records are numbered in insertion order, so this leaves out records inserted later
+		this.end = t.getRecordsCount();
+		this.positions = positions;
+		this.filter = filter;
+		this.prefetch = prefetch;
+		this.position = candidate(0);
+	}
+
+	private RecordCursor() {
+		this.tableName = null;
+		this.pageSize = 1;
+		this.end = 0;
+		this.positions = null;
+		this.filter = null;
+		this.prefetch = false;
+		this.position = -1;
+	}
+
+	/**
+	 * @return a cursor without records, returned when a select cannot be run.
+	 */
+	public static RecordCursor empty() {
+		return new RecordCursor();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextRecord == null && !closed) {
+			advance();
+		}
+		return nextRecord != null;
+	}
+
+	@Override
+	public String[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		String[] record = nextRecord;
+		nextRecord = null;
+		recordsReturned++;
+		return record;
+	}
+
+	/**
+	 * Wraps the remaining records in a sequential stream. Closing the stream closes the cursor.
+	 *
+	 * @return a stream over the records not yet returned.
+	 */
+	public Stream<String[]> stream() {
+		Spliterator<String[]> spliterator = Spliterators.spliteratorUnknownSize(this,
+				Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(this::close);
+	}
+
+	/**
+	 * Releases the current page. Further calls to {@link #hasNext()} return false.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		page = null;
+		prefetched = null;
+		nextRecord = null;
+		if (onClose != null) {
+			onClose.run();
+		}
+	}
+
+	/**
+	 * @return the number of pages loaded so far.
+	 */
+	public int getPagesRead() { return pagesRead; }
+
+	/**
+	 * @return the number of records returned so far.
+	 */
+	public int getRecordsReturned() { return recordsReturned; }
+
+	// Called once when the cursor is closed, e.g. to record a trace
+	void setOnClose(Runnable onClose) {
+		this.onClose = onClose;
+	}
+
+	private void advance() {
+		while (nextRecord == null) {
+			if (position < 0 || position >= end) {
+				close();
+				return;
+			}
+			int number = (int) (position / pageSize);
+			if (number != pageNumber) {
+				openPage(number);
+			}
+			long nextPageStart = (long) (number + 1) * pageSize;
+			int slot = (int) (position - (long) number * pageSize);
+			if (page == null || slot >= page.getRecordsCount()) {
+				position = candidate(nextPageStart);
+				continue;
+			}
+			String[] record = page.getRecord(slot);
+			position = candidate(position + 1);
+			if (filter == null || filter.test(record)) {
+				// Pages are shared through the buffer pool, so callers get their own copy
+				nextRecord = record.clone();
+			}
+		}
+	}
+
+	private void openPage(int number) {
+		// The previous page is only referenced by the pool from here on
+		page = null;
+		pageNumber = number;
+		if (prefetched != null && prefetchedNumber == number) {
+			page = await(prefetched, number);
+		} else {
+			page = FileManager.loadTablePage(tableName, number);
+		}
+		prefetched = null;
+		if (page != null) {
+			pagesRead++;
+		}
+
+		if (prefetch) {
+			long following = candidate((long) (number + 1) * pageSize);
+			if (following >= 0 && following < end) {
+				prefetchedNumber = (int) (following / pageSize);
+				prefetched = FileManager.loadTablePageAsync(tableName, prefetchedNumber);
+			}
+		}
+	}
+
+	// The first position at or after from to visit, or -1 if there is none
+	private long candidate(long from) {
+		if (positions == null) {
+			return from;
+		}
+		if (from > Integer.MAX_VALUE) {
+			return -1;
+		}
+		return positions.nextSetBit((int) from);
+	}
+
+	private Page await(Future<Page> future, int number) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// Fall back to loading the page on this thread
+		}
+		return FileManager.loadTablePage(tableName, number);
+	}
+}
@@ -0,0 +1,313 @@
+package DBMS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The pages of a table packed into a single segment file, read and written through a memory mapping.
+ * <p>
+ * Layout of a segment file (all integers are big-endian):
+ * <pre>
+ * header:  magic (int) | version (short) | flags (short) | slotSize (int) | reserved (int)
+ * slots:   fixed-size slots; a page takes an extent of consecutive slots starting with
+ *          pageNumber (int, -1 once freed) | slotsCount (int) | length (int) | sequence (int)
+ *          followed by the page encoded with {@link PageCodec}
+ * </pre>
+ * The page directory, from page number to extent, is kept in memory and rebuilt by walking the
+ * extent headers when the file is opened; the used slots end at the first header whose slots
+ * count is 0. A page that outgrows its extent is written to a free extent or the end of the
+ * file before its old extent is freed, and every write takes a higher sequence number, so if
+ * both extents survive a crash the newer one wins. The file is mapped in growing chunks,
+ * so writing a page is a memory copy instead of an open, a write and a close of its own file.
+ * A segment file holds up to 2 GB.
+ * <p>
+ * Page files written before segment files were enabled are still read; they are deleted once
+ * the page is rewritten into the segment.
+ */
+public class SegmentFile {
+	// Size of a slot of newly created segment files, in bytes
+	static int slotSize = 1024;
+
+	static final String FILE_NAME = "pages.seg";
+	static final int MAGIC = 0x4D444253; // "MDBS"
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int EXTENT_HEADER_SIZE = 16;
+
+	// Slots mapped at least when the mapping grows
+	private static final int MIN_GROWTH_SLOTS = 64;
+
+	private static final ConcurrentHashMap<String, SegmentFile> open = new ConcurrentHashMap<>();
+
+	private final File file;
+	private final File tableDirectory;
+	private final FileChannel channel;
+	private final int fileSlotSize;
+	private MappedByteBuffer map;
+	// Page number -> {first slot, slots count}
+	private final HashMap<Integer, int[]> directory = new HashMap<>();
+	private final List<int[]> freeExtents = new ArrayList<>();
+	// Page files left from before the segment, deleted once their page is rewritten
+	private final HashSet<Integer> pageFiles = new HashSet<>();
+	private int slotsUsed = 0;
+	private int sequence = 0;
+
+	private SegmentFile(File tableDirectory) throws IOException {
+		this.tableDirectory = tableDirectory;
+		this.file = new File(tableDirectory, FILE_NAME);
+		tableDirectory.mkdirs();
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		if (size < HEADER_SIZE) {
+			this.fileSlotSize = slotSize;
+			if (fileSlotSize < EXTENT_HEADER_SIZE + PageCodec.HEADER_SIZE) {
+				channel.close();
+				throw new IllegalArgumentException("Segment slot size is too small: " + fileSlotSize);
+			}
+			map(MIN_GROWTH_SLOTS);
+			map.putInt(0, MAGIC);
+			map.putShort(4, VERSION);
+			map.putShort(6, (short) 0);
+			map.putInt(8, fileSlotSize);
+		} else {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			channel.read(header, 0);
+			if (header.getInt(0) != MAGIC || header.getShort(4) != VERSION) {
+				channel.close();
+				throw new IOException("Not a supported segment file: " + file);
+			}
+			this.fileSlotSize = header.getInt(8);
+			map((int) ((size - HEADER_SIZE) / fileSlotSize));
+			readDirectory();
+		}
+		String[] names = tableDirectory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.matches("[0-9]+\\.db")) {
+					pageFiles.add(Integer.parseInt(name.substring(0, name.length() - 3)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens the segment file of a table, creating it if needed. Segment files stay open
+	 * until {@link #closeAll()}.
+	 *
+	 * @param tableName the name of the table.
+	 * @return the segment file, or null if it could not be opened.
+	 */
+	public static SegmentFile of(String tableName) {
+		try {
+			return open.computeIfAbsent(tableName, name -> {
+				try {
+					return new SegmentFile(new File(FileManager.directory, name));
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		} catch (IllegalStateException e) {
+			System.err.println("Error: Segment file of table '" + tableName + "' could not be opened: " + e.getCause().getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether a table's pages are stored in a segment file, without opening it.
+	 *
+	 * @param tableName the name of the table.
+	 * @return true if the table has a segment file.
+	 */
+	public static boolean exists(String tableName) {
+		return open.containsKey(tableName) || new File(new File(FileManager.directory, tableName), FILE_NAME).exists();
+	}
+
+	/**
+	 * Closes every open segment file. They are reopened on their next use.
+	 */
+	public static void closeAll() {
+		for (SegmentFile segment : open.values()) {
+			segment.close();
+		}
+		open.clear();
+	}
+
+	/**
+	 * Writes a page to its extent, moving it to a larger one if it no longer fits.
+	 *
+	 * @param pageNumber the number of the page.
+	 * @param page       the page.
+	 * @return false if the page could not be written.
+	 */
+	public boolean write(int pageNumber, Page page) {
+		return write(pageNumber, PageCodec.encode(page));
+	}
+
+	/**
+	 * Writes an encoded page to its extent, moving it to a larger one if it no longer fits.
+	 *
+	 * @param pageNumber the number of the page.
+	 * @param bytes      the page, as returned by {@link PageCodec#encode(Page)}; its position is left unchanged.
+	 * @return false if the page could not be written.
+	 */
+	public synchronized boolean write(int pageNumber, ByteBuffer bytes) {
+		int length = bytes.remaining();
+		int needed = (EXTENT_HEADER_SIZE + length + fileSlotSize - 1) / fileSlotSize;
+		try {
+			int[] extent = directory.get(pageNumber);
+			int[] old = null;
+			if (extent == null || extent[1] < needed) {
+				old = extent;
+				extent = allocate(needed);
+			}
+			int offset = offset(extent[0]);
+			map.put(offset + EXTENT_HEADER_SIZE, bytes.array(), bytes.arrayOffset() + bytes.position(), length);
+			map.putInt(offset + 4, extent[1]);
+			map.putInt(offset + 8, length);
+			map.putInt(offset + 12, ++sequence);
+			map.putInt(offset, pageNumber);
+			directory.put(pageNumber, extent);
+			if (old != null) {
+				map.putInt(offset(old[0]), -1);
+				freeExtents.add(old);
+			}
+		} catch (IOException e) {
+			System.err.println("Error: Page " + pageNumber + " could not be written to " + file + ": " + e.getMessage());
+			return false;
+		}
+		if (pageFiles.remove(pageNumber)) {
+			new File(tableDirectory, pageNumber + ".db").delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a page from its extent.
+	 *
+	 * @param pageNumber the number of the page.
+	 * @return the page, or null if the segment does not hold it or it could not be decoded.
+	 */
+	public synchronized Page read(int pageNumber) {
+		ByteBuffer bytes = readBuffer(pageNumber);
+		if (bytes == null) {
+			return null;
+		}
+		try {
+			return PageCodec.decode(bytes, TableDictionary.of(tableDirectory.getName()));
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the encoded bytes of a page from its extent, without decoding them.
+	 *
+	 * @param pageNumber the number of the page.
+	 * @return a buffer holding the page, or null if the segment does not hold it.
+	 */
+	public synchronized ByteBuffer readBuffer(int pageNumber) {
+		int[] extent = directory.get(pageNumber);
+		if (extent == null) {
+			return null;
+		}
+		int offset = offset(extent[0]);
+		int length = map.getInt(offset + 8);
+		if (length < 0 || EXTENT_HEADER_SIZE + (long) length > (long) extent[1] * fileSlotSize) {
+			return ByteBuffer.allocate(0);
+		}
+		byte[] bytes = new byte[length];
+		map.get(offset + EXTENT_HEADER_SIZE, bytes);
+		return ByteBuffer.wrap(bytes);
+	}
+
+	/**
+	 * @return the numbers of the pages the segment holds, in order.
+	 */
+	public synchronized TreeSet<Integer> getPageNumbers() {
+		return new TreeSet<>(directory.keySet());
+	}
+
+	/**
+	 * Writes the mapped pages back to the segment file on disk.
+	 */
+	public synchronized void force() {
+		map.force();
+	}
+
+	private synchronized void close() {
+		try {
+			map.force();
+			channel.close();
+		} catch (IOException e) {
+			System.err.println("Error: Segment file " + file + " could not be closed: " + e.getMessage());
+		}
+	}
+
+	private void readDirectory() throws IOException {
+		int slots = (map.capacity() - HEADER_SIZE) / fileSlotSize;
+		HashMap<Integer, Integer> sequences = new HashMap<>();
+		int slot = 0;
+		while (slot < slots) {
+			int offset = offset(slot);
+			int count = map.getInt(offset + 4);
+			if (count <= 0) {
+				break;
+			}
+			int pageNumber = map.getInt(offset);
+			int[] extent = {slot, count};
+			int extentSequence = map.getInt(offset + 12);
+			sequence = Math.max(sequence, extentSequence);
+			if (pageNumber < 0) {
+				freeExtents.add(extent);
+			} else if (!directory.containsKey(pageNumber) || sequences.get(pageNumber) < extentSequence) {
+				int[] older = directory.put(pageNumber, extent);
+				if (older != null) {
+					freeExtents.add(older);
+				}
+				sequences.put(pageNumber, extentSequence);
+			} else {
+				freeExtents.add(extent);
+			}
+			slot += count;
+		}
+		slotsUsed = slot;
+	}
+
+	// Takes the first free extent large enough, or new slots at the end of the file
+	private int[] allocate(int slots) throws IOException {
+		for (int i = 0; i < freeExtents.size(); i++) {
+			if (freeExtents.get(i)[1] >= slots) {
+				return freeExtents.remove(i);
+			}
+		}
+		int[] extent = {slotsUsed, slots};
+		int end = slotsUsed + slots;
+		if ((long) HEADER_SIZE + (long) end * fileSlotSize > Integer.MAX_VALUE) {
+			throw new IOException("Segment file is full.");
+		}
+		if (offset(end) > map.capacity()) {
+			long doubled = Math.min(2L * ((map.capacity() - HEADER_SIZE) / fileSlotSize), (Integer.MAX_VALUE - HEADER_SIZE) / fileSlotSize);
+			map(Math.max(end, (int) doubled));
+		}
+		slotsUsed += slots;
+		return extent;
+	}
+
+	private void map(int slots) throws IOException {
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, offset(Math.max(slots, MIN_GROWTH_SLOTS)));
+	}
+
+	private int offset(int slot) {
+		return HEADER_SIZE + slot * fileSlotSize;
+	}
+}
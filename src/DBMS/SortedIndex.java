@@ -0,0 +1,486 @@
+package DBMS;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An order-preserving index of a column, kept as a B+-tree keyed by the column value.
+ * <p>
+ * Every distinct value is a key of a leaf, and holds the positions of the records with that
+ * value in increasing order. A position is the global index of a record, i.e.
+ * {@code page * pageSize + slot}, the same numbering the bitmap indexes use. Leaves are
+ * chained in key order, so a range predicate descends once to its first key and then walks
+ * the leaves until its last one, without visiting the rest of the column.
+ * <p>
+ * Keys are ordered with {@link Condition#compareValues(String, String)}, ties between values
+ * written differently (such as "1" and "1.0") being broken by their string order. On disk the
+ * index is stored as its sorted keys and rebuilt bottom-up when read.
+ * <p>
+ * The tree is changed in place, so every access to it holds the index's monitor: a search
+ * running alongside an insert sees the tree before or after the insert, never during it.
+ */
+public class SortedIndex implements ColumnIndex {
+	private static final long serialVersionUID = 1L;
+
+	// Maximum number of keys in a node
+	static final int ORDER = 64;
+
+	private final String tableName;
+	private final String columnName;
+	private transient Node root;
+	private transient int keysCount;
+	private transient long positionsCount;
+
+	private static abstract class Node {
+		String[] keys = new String[ORDER];
+		int size;
+	}
+
+	private static final class Leaf extends Node {
+		int[][] positions = new int[ORDER][];
+		int[] counts = new int[ORDER];
+		Leaf next;
+	}
+
+	private static final class Inner extends Node {
+		Node[] children = new Node[ORDER + 1];
+	}
+
+	// The separator and the new right node produced by splitting a node
+	private static final class Split {
+		final String key;
+		final Node right;
+
+		Split(String key, Node right) {
+			this.key = key;
+			this.right = right;
+		}
+	}
+
+	/**
+	 * Constructs an empty index.
+	 *
+	 * @param tableName  the name of the table.
+	 * @param columnName the name of the indexed column.
+	 */
+	public SortedIndex(String tableName, String columnName) {
+		this.tableName = tableName;
+		this.columnName = columnName;
+		this.root = new Leaf();
+	}
+
+	/**
+	 * Builds the index of a column by reading the table page by page.
+	 * Pages that cannot be loaded are skipped.
+	 *
+	 * @param t           the table.
+	 * @param columnIndex the position of the column in the records.
+	 * @return the index.
+	 */
+	public static SortedIndex build(Table t, int columnIndex) {
+		HashMap<String, int[]> positions = new HashMap<>();
+		HashMap<String, Integer> counts = new HashMap<>();
+		for (int pageNumber = 0; pageNumber < t.getPagesCount(); pageNumber++) {
+			Page page = t.getPage(pageNumber);
+			if (page == null) {
+				continue;
+			}
+			for (int slot = 0; slot < page.getRecordsCount(); slot++) {
+				String value = page.getRecord(slot)[columnIndex];
+				int count = counts.getOrDefault(value, 0);
+				int[] list = positions.get(value);
+				if (list == null || list.length == count) {
+					list = list == null ? new int[4] : Arrays.copyOf(list, count * 2);
+					positions.put(value, list);
+				}
+				list[count] = pageNumber * t.getPageSize() + slot;
+				counts.put(value, count + 1);
+			}
+		}
+
+		String[] keys = positions.keySet().toArray(new String[0]);
+		Arrays.sort(keys, SortedIndex::compareKeys);
+		int[][] lists = new int[keys.length][];
+		int[] listCounts = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			lists[i] = positions.get(keys[i]);
+			listCounts[i] = counts.get(keys[i]);
+		}
+		SortedIndex index = new SortedIndex(t.getTableName(), t.getColumnNames()[columnIndex]);
+		index.load(keys, lists, listCounts);
+		return index;
+	}
+
+	/**
+	 * Adds the records of a table from a given position on, reading them page by page.
+	 * Used after pages were appended without going through {@link #insert(String, int)}.
+	 *
+	 * @param t            the table.
+	 * @param columnIndex  the position of the column in the records.
+	 * @param fromPosition the global index of the first record to add.
+	 */
+	public void addRecords(Table t, int columnIndex, int fromPosition) {
+		int pageSize = t.getPageSize();
+		for (int pageNumber = fromPosition / pageSize; pageNumber < t.getPagesCount(); pageNumber++) {
+			Page page = t.getPage(pageNumber);
+			if (page == null) {
+				continue;
+			}
+			// Pages are read without the monitor, so searches only wait for the inserts
+			synchronized (this) {
+				int firstSlot = Math.max(0, fromPosition - pageNumber * pageSize);
+				for (int slot = firstSlot; slot < page.getRecordsCount(); slot++) {
+					insert(page.getRecord(slot)[columnIndex], pageNumber * pageSize + slot);
+				}
+			}
+		}
+	}
+
+	public String getTableName() {
+		return tableName;
+	}
+
+	public String getColumnName() {
+		return columnName;
+	}
+
+	/**
+	 * @return the number of distinct values in the index.
+	 */
+	public synchronized int getKeysCount() {
+		return keysCount;
+	}
+
+	/**
+	 * @return the number of records in the index.
+	 */
+	public synchronized long getPositionsCount() {
+		return positionsCount;
+	}
+
+	/**
+	 * Adds a record to the index. Records are expected to be added in position order.
+	 *
+	 * @param value    the value of the column in the record.
+	 * @param position the global index of the record.
+	 */
+	public synchronized void insert(String value, int position) {
+		Split split = insert(root, value, position);
+		if (split != null) {
+			Inner newRoot = new Inner();
+			newRoot.keys[0] = split.key;
+			newRoot.children[0] = root;
+			newRoot.children[1] = split.right;
+			newRoot.size = 1;
+			root = newRoot;
+		}
+		positionsCount++;
+	}
+
+	/**
+	 * Finds the records meeting a condition on the indexed column.
+	 *
+	 * @param condition the condition, on the indexed column.
+	 * @return the positions of the matching records.
+	 */
+	public synchronized CompressedBitmap search(Condition condition) {
+		String value = condition.getValue();
+		switch (condition.getOperator()) {
+			case EQUAL:
+				return equalTo(value);
+			case NOT_EQUAL:
+				CompressedBitmap result = range(null, false, null, false);
+				result.andNot(equalTo(value));
+				return result;
+			case LESS:
+				return range(null, false, value, false);
+			case LESS_OR_EQUAL:
+				return range(null, false, value, true);
+			case GREATER:
+				return range(value, false, null, false);
+			case GREATER_OR_EQUAL:
+				return range(value, true, null, false);
+			default:
+				return range(value, true, condition.getUpperValue(), true);
+		}
+	}
+
+	/**
+	 * Finds the records meeting a condition among the first records of the table, such as
+	 * the records of a snapshot, leaving out those inserted since.
+	 *
+	 * @param condition    the condition, on the indexed column.
+	 * @param recordsCount the number of records visible to the caller.
+	 * @return the positions below recordsCount of the matching records.
+	 */
+	public synchronized CompressedBitmap search(Condition condition, int recordsCount) {
+		CompressedBitmap result = search(condition);
+		if (positionsCount <= recordsCount) {
+			return result;
+		}
+		return CompressedBitmap.and(result, CompressedBitmap.range(0, recordsCount));
+	}
+
+	/**
+	 * Collects the records whose value lies between two bounds, walking the leaves from the
+	 * first key past the lower bound to the last key before the upper bound.
+	 *
+	 * @param lower          the lower bound, or null for none.
+	 * @param lowerInclusive whether values equal to the lower bound are included.
+	 * @param upper          the upper bound, or null for none.
+	 * @param upperInclusive whether values equal to the upper bound are included.
+	 * @return the positions of the records in the range.
+	 */
+	public synchronized CompressedBitmap range(String lower, boolean lowerInclusive, String upper, boolean upperInclusive) {
+		CompressedBitmap result = new CompressedBitmap();
+		Node node = root;
+		while (node instanceof Inner) {
+			int i = 0;
+			while (i < node.size && !aboveLower(node.keys[i], lower, lowerInclusive)) {
+				i++;
+			}
+			node = ((Inner) node).children[i];
+		}
+		Leaf leaf = (Leaf) node;
+		int i = 0;
+		while (i < leaf.size && !aboveLower(leaf.keys[i], lower, lowerInclusive)) {
+			i++;
+		}
+		for (; leaf != null; leaf = leaf.next, i = 0) {
+			for (; i < leaf.size; i++) {
+				if (upper != null) {
+					int c = Condition.compareValues(leaf.keys[i], upper);
+					if (c > 0 || (c == 0 && !upperInclusive)) {
+						result.runOptimize();
+						return result;
+					}
+				}
+				for (int p = 0; p < leaf.counts[i]; p++) {
+					result.set(leaf.positions[i][p]);
+				}
+			}
+		}
+		result.runOptimize();
+		return result;
+	}
+
+	/**
+	 * @return the positions of the records holding exactly this value.
+	 */
+	public synchronized CompressedBitmap equalTo(String value) {
+		CompressedBitmap result = new CompressedBitmap();
+		Node node = root;
+		while (node instanceof Inner) {
+			node = ((Inner) node).children[childIndex(node, value)];
+		}
+		Leaf leaf = (Leaf) node;
+		int i = Arrays.binarySearch(leaf.keys, 0, leaf.size, value, SortedIndex::compareKeys);
+		if (i >= 0) {
+			for (int p = 0; p < leaf.counts[i]; p++) {
+				result.set(leaf.positions[i][p]);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized long sizeInBytes() {
+		// Node arrays plus, per key, the string and its positions array
+		long nodes = keysCount / (ORDER / 2) + 1;
+		long bytes = 64 + nodes * (48 + 12L * ORDER);
+		for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+			for (int i = 0; i < leaf.size; i++) {
+				bytes += 56 + 2L * leaf.keys[i].length() + 16 + 4L * leaf.positions[i].length;
+			}
+		}
+		return bytes;
+	}
+
+	// Orders keys by value, breaking ties between differently written equal values by their text
+	static int compareKeys(String a, String b) {
+		int c = Condition.compareValues(a, b);
+		return c != 0 ? c : a.compareTo(b);
+	}
+
+	private static boolean aboveLower(String key, String lower, boolean inclusive) {
+		if (lower == null) {
+			return true;
+		}
+		int c = Condition.compareValues(key, lower);
+		return c > 0 || (c == 0 && inclusive);
+	}
+
+	// The child of an inner node whose key range holds the key
+	private static int childIndex(Node node, String key) {
+		int i = Arrays.binarySearch(node.keys, 0, node.size, key, SortedIndex::compareKeys);
+		return i >= 0 ? i + 1 : -i - 1;
+	}
+
+	private Split insert(Node node, String key, int position) {
+		if (node instanceof Inner) {
+			Inner inner = (Inner) node;
+			int child = childIndex(inner, key);
+			Split split = insert(inner.children[child], key, position);
+			if (split == null) {
+				return null;
+			}
+			System.arraycopy(inner.keys, child, inner.keys, child + 1, inner.size - child);
+			System.arraycopy(inner.children, child + 1, inner.children, child + 2, inner.size - child);
+			inner.keys[child] = split.key;
+			inner.children[child + 1] = split.right;
+			inner.size++;
+			return inner.size == ORDER ? splitInner(inner) : null;
+		}
+
+		Leaf leaf = (Leaf) node;
+		int i = Arrays.binarySearch(leaf.keys, 0, leaf.size, key, SortedIndex::compareKeys);
+		if (i >= 0) {
+			if (leaf.counts[i] == leaf.positions[i].length) {
+				leaf.positions[i] = Arrays.copyOf(leaf.positions[i], leaf.counts[i] * 2);
+			}
+			leaf.positions[i][leaf.counts[i]++] = position;
+			return null;
+		}
+		i = -i - 1;
+		System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.size - i);
+		System.arraycopy(leaf.positions, i, leaf.positions, i + 1, leaf.size - i);
+		System.arraycopy(leaf.counts, i, leaf.counts, i + 1, leaf.size - i);
+		leaf.keys[i] = key;
+		leaf.positions[i] = new int[] {position};
+		leaf.counts[i] = 1;
+		leaf.size++;
+		keysCount++;
+		return leaf.size == ORDER ? splitLeaf(leaf) : null;
+	}
+
+	private static Split splitLeaf(Leaf leaf) {
+		Leaf right = new Leaf();
+		int half = leaf.size / 2;
+		right.size = leaf.size - half;
+		System.arraycopy(leaf.keys, half, right.keys, 0, right.size);
+		System.arraycopy(leaf.positions, half, right.positions, 0, right.size);
+		System.arraycopy(leaf.counts, half, right.counts, 0, right.size);
+		Arrays.fill(leaf.keys, half, leaf.size, null);
+		Arrays.fill(leaf.positions, half, leaf.size, null);
+		leaf.size = half;
+		right.next = leaf.next;
+		leaf.next = right;
+		return new Split(right.keys[0], right);
+	}
+
+	private static Split splitInner(Inner inner) {
+		Inner right = new Inner();
+		int half = inner.size / 2;
+		String separator = inner.keys[half];
+		right.size = inner.size - half - 1;
+		System.arraycopy(inner.keys, half + 1, right.keys, 0, right.size);
+		System.arraycopy(inner.children, half + 1, right.children, 0, right.size + 1);
+		Arrays.fill(inner.keys, half, inner.size, null);
+		Arrays.fill(inner.children, half + 1, inner.size + 1, null);
+		inner.size = half;
+		return new Split(separator, right);
+	}
+
+	private Leaf firstLeaf() {
+		Node node = root;
+		while (node instanceof Inner) {
+			node = ((Inner) node).children[0];
+		}
+		return (Leaf) node;
+	}
+
+	// Builds the tree bottom-up from keys that are already sorted, filling nodes to three quarters
+	private void load(String[] keys, int[][] positions, int[] counts) {
+		int fill = ORDER * 3 / 4;
+		ArrayList<Node> level = new ArrayList<>();
+		ArrayList<String> firstKeys = new ArrayList<>();
+		Leaf previous = null;
+		for (int start = 0; start < keys.length || level.isEmpty(); start += fill) {
+			Leaf leaf = new Leaf();
+			leaf.size = Math.min(fill, keys.length - start);
+			for (int i = 0; i < leaf.size; i++) {
+				leaf.keys[i] = keys[start + i];
+				leaf.positions[i] = positions[start + i];
+				leaf.counts[i] = counts[start + i];
+				positionsCount += counts[start + i];
+			}
+			if (previous != null) {
+				previous.next = leaf;
+			}
+			previous = leaf;
+			level.add(leaf);
+			firstKeys.add(leaf.size > 0 ? leaf.keys[0] : null);
+		}
+
+		while (level.size() > 1) {
+			ArrayList<Node> parents = new ArrayList<>();
+			ArrayList<String> parentFirstKeys = new ArrayList<>();
+			for (int start = 0; start < level.size(); start += fill + 1) {
+				Inner inner = new Inner();
+				int children = Math.min(fill + 1, level.size() - start);
+				for (int c = 0; c < children; c++) {
+					inner.children[c] = level.get(start + c);
+					if (c > 0) {
+						inner.keys[c - 1] = firstKeys.get(start + c);
+					}
+				}
+				inner.size = children - 1;
+				parents.add(inner);
+				parentFirstKeys.add(firstKeys.get(start));
+			}
+			level = parents;
+			firstKeys = parentFirstKeys;
+		}
+		root = level.get(0);
+		keysCount = keys.length;
+	}
+
+	/**
+	 * Writes the keys in order with their positions, instead of the linked nodes.
+	 */
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(keysCount);
+		for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+			for (int i = 0; i < leaf.size; i++) {
+				out.writeObject(leaf.keys[i]);
+				out.writeInt(leaf.counts[i]);
+				for (int p = 0; p < leaf.counts[i]; p++) {
+					out.writeInt(leaf.positions[i][p]);
+				}
+			}
+		}
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int count = in.readInt();
+		String[] keys = new String[count];
+		int[][] positions = new int[count][];
+		int[] counts = new int[count];
+		for (int i = 0; i < count; i++) {
+			keys[i] = (String) in.readObject();
+			counts[i] = in.readInt();
+			positions[i] = new int[Math.max(1, counts[i])];
+			for (int p = 0; p < counts[i]; p++) {
+				positions[i][p] = in.readInt();
+			}
+		}
+		load(keys, positions, counts);
+	}
+
+	@Override
+	public synchronized String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Leaf leaf = firstLeaf(); leaf != null; leaf = leaf.next) {
+			for (int i = 0; i < leaf.size; i++) {
+				sb.append(leaf.keys[i]).append(Arrays.toString(Arrays.copyOf(leaf.positions[i], leaf.counts[i]))).append(' ');
+			}
+		}
+		return sb.toString().trim();
+	}
+}
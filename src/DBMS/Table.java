@@ -1,20 +1,39 @@
 package DBMS;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 
 /**
- * Represents a table within the DBMS.
+ * Represents the catalog entry of a table within the DBMS.
+ * <p>
+ * Only metadata is kept here (schema, page size and the number of records). Tables
+ * are append-only and every page but the last is full, so the number of pages and the
+ * records of each are derived from the records count. The records themselves live in
+ * the page files and are loaded through the {@link FileManager} on demand, so storing
+ * or copying the table costs the same regardless of how many records or pages it holds.
+ * <p>
+ * Catalogs written before kept a list of every page, records included. They are still
+ * read: the records count is taken from the pages and the list is dropped.
  */
 public class Table implements Serializable
 {
 	private static final long serialVersionUID = 1L;
 
-	private final String tableName;
-	private final String[] columnNames;
-	private ArrayList<Page> pages;
+	// Not final, so that readObject can set them from either shape of the catalog
+	private String tableName;
+	private String[] columnNames;
+	// Null for tables created without types, whose columns are all STRING
+	private ColumnType[] columnTypes;
+	private int recordsCount;
 	private int pageSize;
 
 
@@ -28,11 +47,26 @@ public class Table implements Serializable
 	public Table(String tableName, int pageSize, String[] columnNames)
 	{
 		this.tableName = tableName;
-		this.pages = new ArrayList<Page>();
 		this.pageSize = pageSize;
 		this.columnNames = columnNames;
 	}
 
+	/**
+	 * Constructs a new Table with typed columns.
+	 *
+	 * @param tableName   The name of the table.
+	 * @param pageSize    The maximum number of records per page.
+	 * @param columnNames An array of column names for the table.
+	 * @param columnTypes The type of each column, or null for STRING columns only.
+	 */
+	public Table(String tableName, int pageSize, String[] columnNames, ColumnType[] columnTypes)
+	{
+		this(tableName, pageSize, columnNames);
+		if (columnTypes != null && columnTypes.length != columnNames.length)
+			throw new IllegalArgumentException("Table '" + tableName + "' has " + columnNames.length + " columns but " + columnTypes.length + " column types.");
+		this.columnTypes = columnTypes == null || Arrays.stream(columnTypes).noneMatch(ColumnType::isPrimitive) ? null : columnTypes.clone();
+	}
+
 	/**
 	 * Gets the name of the table.
 	 *
@@ -44,66 +78,207 @@ public class Table implements Serializable
 
 	/**
 	 * Inserts a record into the table, creating new pages if necessary.
+	 * Only the last page is fetched (through the {@link BufferPool}) and written back.
 	 *
 	 * @param record An array of values representing the record.
+	 * @return True if the record was stored, false if the last page could not be loaded.
 	 */
-	public void insert(String[] record)
+	public boolean insert(String[] record)
 	{
-		if (pages.isEmpty())
-		{
-			pages.add(new Page(pageSize,0));
-		}
+		return insertBatch(Collections.singletonList(record)) == 1;
+	}
 
-		Page lastPage = pages.get(pages.size() - 1);
-		if (lastPage.isFull())
+	/**
+	 * Appends records to the table in order, filling the last page and then new pages.
+	 * Each page is filled in memory and written back once, however many records it receives.
+	 *
+	 * @param records The records to append.
+	 * @return The number of records stored, lower than requested only if the last page could not be loaded
+	 *         or the {@link BufferPool} had no frame to spare for it.
+	 */
+	public int insertBatch(List<String[]> records)
+	{
+		int inserted = 0;
+		while (inserted < records.size())
 		{
-			pages.add(new Page(pageSize,pages.size()));
-			lastPage = pages.get(pages.size() - 1);
+			Page lastPage;
+			int lastPageNumber = getPagesCount() - 1;
+			if (lastPageNumber < 0 || getPageRecordsCount(lastPageNumber) == pageSize)
+			{
+				lastPageNumber++;
+				lastPage = newPage(lastPageNumber);
+				if (!BufferPool.newPage(tableName, lastPageNumber, lastPage))
+				{
+					System.err.println("Error: Page " + lastPageNumber + " of table '" + tableName + "' could not be cached.");
+					return inserted;
+				}
+			}
+			else
+			{
+				lastPage = BufferPool.fetchPage(tableName, lastPageNumber);
+				if (lastPage == null)
+				{
+					System.err.println("Error: Page " + lastPageNumber + " of table '" + tableName + "' could not be loaded.");
+					return inserted;
+				}
+			}
+
+			int before = lastPage.getRecordsCount();
+			while (!lastPage.isFull() && inserted < records.size())
+			{
+				lastPage.insert(records.get(inserted++));
+			}
+			recordsCount += lastPage.getRecordsCount() - before;
+
+			boolean storeTablePage = false;
+			storeTablePage = BufferPool.unpinPage(tableName, lastPageNumber, true);
+			if(!storeTablePage)
+				System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
 		}
+		return inserted;
+	}
 
-		lastPage.insert(record);
-		
-		boolean storeTablePage = false;
-		storeTablePage = FileManager.storeTablePage(tableName,lastPage.getPageNumber(), lastPage);
-		if(!storeTablePage)
-			System.err.println("Error: Table '" + tableName + "' could not be stored correctly.");
+	/**
+	 * Adds a page built in memory after the last page of the table and writes it straight
+	 * to its page file, bypassing the {@link BufferPool}. Used by bulk loads, whose pages
+	 * are written once and would only evict pages that are still in use.
+	 *
+	 * @param page The page, numbered {@link #getPagesCount()}.
+	 * @return True if the page was written, false if it could not be stored, is misnumbered or the last page is not full.
+	 */
+	public boolean appendPage(Page page)
+	{
+		if (page.getPageNumber() != getPagesCount() || (long) getPagesCount() * pageSize != recordsCount || page.getRecordsCount() > pageSize)
+			return false;
+		if (!FileManager.writeTablePage(tableName, page.getPageNumber(), page))
+			return false;
+		recordsCount += page.getRecordsCount();
+		return true;
 	}
+
+	/**
+	 * Loads every page of the table and collects its records in page order.
+	 * Pages that cannot be loaded are skipped. Use {@link #cursor()} to read a table
+	 * without holding all of its records in memory.
+	 *
+	 * @return All the records that could be read from disk.
+	 */
 	public ArrayList<String[]> getRecords() {
-		ArrayList<String[]> allRecords = new ArrayList<>();
+		ArrayList<String[]> allRecords = new ArrayList<>(recordsCount);
 
-		for (Page page : pages) {
-			allRecords.addAll(page.getRecords());  // Fetch records from each page
+		try (RecordCursor cursor = cursor()) {
+			cursor.forEachRemaining(allRecords::add);
 		}
 
 		return allRecords;
 	}
 
+	/**
+	 * Opens a cursor over every record of the table, loading one page at a time.
+	 *
+	 * @return A cursor positioned before the first record.
+	 */
+	public RecordCursor cursor() {
+		return new RecordCursor(this, null, null, false);
+	}
+
 	public String[] getColumnNames() {
 		return columnNames;
 	}
 
+	/**
+	 * @return The type of each column, or null if every column is STRING.
+	 */
+	public ColumnType[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * @param columnIndex The position of the column.
+	 * @return The type of the column.
+	 */
+	public ColumnType getColumnType(int columnIndex) {
+		return columnTypes == null || columnIndex < 0 || columnIndex >= columnTypes.length ? ColumnType.STRING : columnTypes[columnIndex];
+	}
+
+	/**
+	 * Checks a record against the column types and writes its typed cells in canonical form.
+	 *
+	 * @param record The record to insert.
+	 * @return The record to store: the same array if the table has no types, a normalized copy otherwise.
+	 * @throws IllegalArgumentException If the record does not have a cell per column, or a cell of a typed column is null or not a value of its type.
+	 */
+	public String[] normalize(String[] record) {
+		if (columnTypes == null)
+			return record;
+		if (record.length != columnTypes.length)
+			throw new IllegalArgumentException("Record has " + record.length + " cells but table '" + tableName + "' has " + columnTypes.length + " columns.");
+		String[] normalized = record.clone();
+		for (int i = 0; i < normalized.length && i < columnTypes.length; i++) {
+			try {
+				normalized[i] = columnTypes[i].normalize(normalized[i]);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Column '" + columnNames[i] + "' of table '" + tableName + "': " + e.getMessage());
+			}
+		}
+		return normalized;
+	}
+
+	/**
+	 * Creates an empty page of the table, keeping the cells of typed columns as primitive values.
+	 *
+	 * @param pageNumber The number of the page.
+	 * @return The page.
+	 */
+	public Page newPage(int pageNumber) {
+		return new Page(pageSize, pageNumber, columnTypes);
+	}
+
+	/**
+	 * Loads a page of the table from disk.
+	 *
+	 * @param pageNumber The number of the page.
+	 * @return The page, or null if it does not exist or could not be loaded.
+	 */
 	public Page getPage(int pageNumber) {
-		if (pageNumber >= 0 && pageNumber < pages.size()) {
-			return pages.get(pageNumber);
+		if (pageNumber >= 0 && pageNumber < getPagesCount()) {
+			return FileManager.loadTablePage(tableName, pageNumber);
 		} else {
 			return null;
 		}
 	}
 
+	public int getPagesCount() { return (int) (((long) recordsCount + pageSize - 1) / pageSize); }
 
-	public ArrayList<Page> getPages() {
-		return pages;  // Returns the internal list of pages
+	/**
+	 * Gets the number of records the catalog expects to find in a page: the page size
+	 * for every page but the last, which holds the rest.
+	 *
+	 * @param pageNumber The number of the page.
+	 * @return The records count of the page, or 0 if the page does not exist.
+	 */
+	public int getPageRecordsCount(int pageNumber) {
+		if (pageNumber >= 0 && pageNumber < getPagesCount()) {
+			return (int) Math.min(pageSize, recordsCount - (long) pageNumber * pageSize);
+		}
+		return 0;
 	}
 
-	public int getPagesCount() { return pages.size(); }
+	public int getRecordsCount() { return recordsCount; }
 
-	public int getRecordsCount() {
-		int numberOfRecords = 0;
-		for (Page page : pages) {
-			numberOfRecords += page.getRecordsCount();
-		}
-		return numberOfRecords;
+	/**
+	 * Copies the catalog entry, so that later inserts into the table leave the copy unchanged.
+	 * The pages are shared, and the copy only reads the records it counts in them.
+	 *
+	 * @return A copy of the table as it is now.
+	 */
+	Table snapshot() {
+		Table copy = new Table(tableName, pageSize, columnNames);
+		copy.columnTypes = columnTypes;
+		copy.recordsCount = recordsCount;
+		return copy;
 	}
+
 	public int getColumnIndex(String colName) {
 		// Iterate through the array of column names
 		for (int i = 0; i < this.columnNames.length; i++) {
@@ -124,18 +299,13 @@ public class Table implements Serializable
 		// Calculate the index of the record within that page
 		int recordIndexInPage = globalRecordIndex % this.pageSize;
 
-		// Use the FileManager to load the specific page from disk
-		Page page = FileManager.loadTablePage(this.tableName, pageNumber);
-
-		if (page != null) {
-			// Check if the record index is valid for the records currently in this page
-			if (recordIndexInPage < page.getRecords().size()) {
-				return page.getRecord(recordIndexInPage);
-			}
-
+		// Use the FileManager to decode only the requested record from disk
+		String[] record = FileManager.loadTableRecord(this.tableName, pageNumber, recordIndexInPage);
+		if (record != null) {
+			return record;
 		}
 
-		// If the page was null or the record index was invalid in that page
+		// If the page was missing or the record index was invalid in that page
 		System.err.println("Warning: Could not retrieve record with global index " + globalRecordIndex +
 				". Calculated page: " + pageNumber + ", index in page: " + recordIndexInPage);
 		return null; // Indicate record not found or could not be loaded
@@ -144,4 +314,95 @@ public class Table implements Serializable
 	public int getPageSize() {
 		return pageSize;
 	}
+
+	/**
+	 * Collects the records at the given positions that pass a filter, in position order.
+	 * Positions are grouped by page, so every page holding one of them is loaded once and
+	 * all of its matching slots are read from it. With prefetching, the next page holding
+	 * a position is loaded in the background while the current one is filtered.
+	 *
+	 * @param positions The global indices of the records, such as a bitmap index result.
+	 * @param filter    The condition a record must meet to be collected.
+	 * @param prefetch  Whether to load the next page in the background.
+	 * @param result    The list the collected records are added to, as copies of the cached records.
+	 * @return The number of pages read.
+	 */
+	public int collectRecords(CompressedBitmap positions, Predicate<String[]> filter, boolean prefetch, ArrayList<String[]> result)
+	{
+		int pagesRead = 0;
+		Future<Page> prefetched = null;
+		int i = positions.nextSetBit(0);
+		while (i >= 0)
+		{
+			int pageNumber = i / pageSize;
+			Page page = prefetched != null ? await(prefetched, pageNumber) : FileManager.loadTablePage(tableName, pageNumber);
+			prefetched = null;
+			if (page != null)
+				pagesRead++;
+
+			long nextPageStart = (long) (pageNumber + 1) * pageSize;
+			if (prefetch && nextPageStart <= Integer.MAX_VALUE)
+			{
+				int following = positions.nextSetBit((int) nextPageStart);
+				if (following >= 0)
+					prefetched = FileManager.loadTablePageAsync(tableName, following / pageSize);
+			}
+
+			for (; i >= 0 && i < nextPageStart; i = positions.nextSetBit(i + 1))
+			{
+				String[] record = page == null ? null : page.getRecord(i - pageNumber * pageSize);
+				if (record == null)
+				{
+					System.err.println("Warning: Could not retrieve record with global index " + i +
+							". Calculated page: " + pageNumber + ", index in page: " + (i - pageNumber * pageSize));
+				}
+				else if (filter.test(record))
+				{
+					result.add(record.clone());
+				}
+			}
+		}
+		return pagesRead;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields();
+		tableName = (String) fields.get("tableName", null);
+		columnNames = (String[]) fields.get("columnNames", null);
+		pageSize = fields.get("pageSize", 0);
+		if (fields.getObjectStreamClass().getField("pages") != null)
+		{
+			// A catalog of the original shape: every page but the last was full
+			List<?> pages = (List<?>) fields.get("pages", null);
+			recordsCount = 0;
+			if (pages != null)
+			{
+				for (Object page : pages)
+					recordsCount += ((Page) page).getRecordsCount();
+			}
+		}
+		else
+		{
+			columnTypes = (ColumnType[]) fields.get("columnTypes", null);
+			recordsCount = fields.get("recordsCount", 0);
+		}
+	}
+
+	private Page await(Future<Page> page, int pageNumber)
+	{
+		try
+		{
+			return page.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e)
+		{
+			// Fall back to loading the page on this thread
+		}
+		return FileManager.loadTablePage(tableName, pageNumber);
+	}
 }
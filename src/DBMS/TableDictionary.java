@@ -0,0 +1,341 @@
+package DBMS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+
+/**
+ * The per-column dictionaries of a table, mapping each distinct cell value to an int code.
+ * <p>
+ * Pages encoded with a dictionary store the code of a cell instead of its bytes, and decoding
+ * a page returns the dictionary's own instance of each value, so a value repeated in many
+ * records is held once on the heap however many pages are loaded. A column takes new codes
+ * until it has {@link #maxValues} of them; cells with other values are then stored inline.
+ * <p>
+ * Layout of a dictionary file (all integers are big-endian):
+ * <pre>
+ * header:   magic (int) | version (short) | flags (short)
+ * entries:  column (int) | code (int) | UTF-8 length (int) | bytes
+ *           a code of -1 marks the column as full: it has cells stored inline
+ * </pre>
+ * The file is append-only. New entries are appended by {@link #persist()} before the page
+ * that uses them is written, so every code found in a page file is in the dictionary file.
+ * After each append the file's length and CRC32C checksum are recorded in the table's
+ * {@link PageManifest}, so validating the table also checks the dictionary.
+ * A dictionary file that exists but cannot be parsed is never appended to: the table's pages
+ * then fail to encode and decode until the dictionary is {@link #discard(String) discarded}.
+ */
+public class TableDictionary {
+	// Distinct values a column takes codes for at most
+	static int maxValues = 4096;
+
+	static final String FILE_NAME = "values.dict";
+	static final int MAGIC = 0x4D444244; // "MDBD"
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	// Columns a dictionary file may name; a larger column number means the file is damaged
+	static final int MAX_COLUMNS = 1 << 16;
+
+	private static final ConcurrentHashMap<String, TableDictionary> open = new ConcurrentHashMap<>();
+
+	/**
+	 * The dictionary of one column. Codes are only appended, and a code is published by
+	 * writing its value before the size, so {@link #value(int)} reads without locking.
+	 */
+	private static class Column {
+		private volatile String[] values = new String[16];
+		private volatile int size = 0;
+		private final HashMap<String, Integer> codes = new HashMap<>();
+		private boolean full = false;
+		private int persisted = 0;
+		private boolean fullPersisted = false;
+
+		String value(int code) {
+			int s = size;
+			return code < s ? values[code] : null;
+		}
+
+		void add(int code, String value) {
+			if (code != size) {
+				throw new IllegalArgumentException("Dictionary codes must be added in order: " + code);
+			}
+			if (code == values.length) {
+				values = Arrays.copyOf(values, 2 * values.length);
+			}
+			values[code] = value;
+			codes.put(value, code);
+			size = code + 1;
+		}
+	}
+
+	private final File file;
+	// Replaced, never changed in place, when a column is added
+	private volatile Column[] columns = new Column[0];
+	// Why the dictionary file could not be read, or null if it was read
+	private volatile String damage;
+	// Length and running checksum of the entries read from or appended to the file
+	private int length = 0;
+	private final CRC32C checksum = new CRC32C();
+
+	private TableDictionary(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the dictionary of a table, reading its file if it has one. Dictionaries stay
+	 * in memory until {@link #clear()}.
+	 *
+	 * @param tableName the name of the table.
+	 * @return the dictionary.
+	 */
+	public static TableDictionary of(String tableName) {
+		return open.computeIfAbsent(tableName, name -> {
+			TableDictionary dictionary = new TableDictionary(new File(new File(FileManager.directory, name), FILE_NAME));
+			dictionary.load();
+			return dictionary;
+		});
+	}
+
+	/**
+	 * Drops every dictionary from memory. They are read again on their next use.
+	 */
+	public static void clear() {
+		open.clear();
+	}
+
+	/**
+	 * Drops the dictionary of a table from memory and deletes its file, so its pages are
+	 * encoded with new codes. Pages encoded with the old codes can no longer be decoded
+	 * and must be rewritten.
+	 *
+	 * @param tableName the name of the table.
+	 */
+	public static void discard(String tableName) {
+		new File(new File(FileManager.directory, tableName), FILE_NAME).delete();
+		open.remove(tableName);
+		PageManifest.recordDictionary(tableName, 0, 0);
+	}
+
+	/**
+	 * Returns the codes of every cell of a page, taking new ones for the values of columns
+	 * that are not full. Taking the codes of a page at once locks the dictionary once.
+	 *
+	 * @param page the page.
+	 * @return the codes by record and column, -1 for cells that are null or have to be stored inline.
+	 */
+	public synchronized int[][] encode(Page page) {
+		if (damage != null) {
+			throw new IllegalStateException("Dictionary " + file + " is damaged: " + damage);
+		}
+		int[][] codes = new int[page.getRecordsCount()][];
+		for (int i = 0; i < codes.length; i++) {
+			String[] record = page.getRecord(i);
+			codes[i] = new int[record.length];
+			for (int j = 0; j < record.length; j++) {
+				codes[i][j] = record[j] == null ? -1 : code(j, record[j]);
+			}
+		}
+		return codes;
+	}
+
+	// Returns the code of a value, taking a new one if the column is not full, or -1 to store it inline
+	private int code(int column, String value) {
+		Column c = column(column);
+		Integer code = c.codes.get(value);
+		if (code != null) {
+			return code;
+		}
+		if (c.size >= maxValues) {
+			c.full = true;
+			return -1;
+		}
+		c.add(c.size, value);
+		return c.size - 1;
+	}
+
+	/**
+	 * Returns the value of a code, as the single instance the dictionary holds.
+	 *
+	 * @param column the position of the column in the record.
+	 * @param code   the code.
+	 * @return the value, or null if the column has no such code.
+	 */
+	public String decode(int column, int code) {
+		Column[] c = columns;
+		return column < 0 || column >= c.length || code < 0 ? null : c[column].value(code);
+	}
+
+	/**
+	 * @param column the position of the column in the record.
+	 * @return the number of distinct values the column has codes for.
+	 */
+	public synchronized int size(int column) {
+		return column < columns.length ? columns[column].size : 0;
+	}
+
+	/**
+	 * @param column the position of the column in the record.
+	 * @return true if some cells of the column were stored inline because it had no code left.
+	 */
+	public synchronized boolean isFull(int column) {
+		return column < columns.length && columns[column].full;
+	}
+
+	/**
+	 * @return true if the dictionary file exists but could not be read.
+	 */
+	public boolean isDamaged() {
+		return damage != null;
+	}
+
+	/**
+	 * Fails if the dictionary file could not be read, so no page is decoded with missing codes.
+	 *
+	 * @throws IOException if the dictionary is damaged.
+	 */
+	void checkReadable() throws IOException {
+		if (damage != null) {
+			throw new IOException("Dictionary " + file + " is damaged: " + damage);
+		}
+	}
+
+	/**
+	 * Appends the codes taken since the last call to the dictionary file.
+	 *
+	 * @return false if the file could not be written or is damaged.
+	 */
+	public synchronized boolean persist() {
+		if (damage != null) {
+			return false;
+		}
+		int bytes = 0;
+		boolean pending = false;
+		for (Column c : columns) {
+			pending |= c.persisted < c.size || c.full != c.fullPersisted;
+		}
+		if (!pending) {
+			return true;
+		}
+		ArrayList<byte[]> encoded = new ArrayList<>();
+		for (Column c : columns) {
+			for (int code = c.persisted; code < c.size; code++) {
+				byte[] value = c.values[code].getBytes(StandardCharsets.UTF_8);
+				encoded.add(value);
+				bytes += 12 + value.length;
+			}
+			if (c.full != c.fullPersisted) {
+				bytes += 12;
+			}
+		}
+		boolean create = !file.exists();
+		ByteBuffer buffer = ByteBuffer.allocate((create ? HEADER_SIZE : 0) + bytes);
+		if (create) {
+			buffer.putInt(MAGIC);
+			buffer.putShort(VERSION);
+			buffer.putShort((short) 0);
+		}
+		int next = 0;
+		for (int column = 0; column < columns.length; column++) {
+			Column c = columns[column];
+			for (int code = c.persisted; code < c.size; code++) {
+				byte[] value = encoded.get(next++);
+				buffer.putInt(column);
+				buffer.putInt(code);
+				buffer.putInt(value.length);
+				buffer.put(value);
+			}
+			if (c.full != c.fullPersisted) {
+				buffer.putInt(column);
+				buffer.putInt(-1);
+				buffer.putInt(0);
+			}
+		}
+		buffer.flip();
+		file.getParentFile().mkdirs();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			System.err.println("Error: Dictionary " + file + " could not be written: " + e.getMessage());
+			return false;
+		}
+		for (Column c : columns) {
+			c.persisted = c.size;
+			c.fullPersisted = c.full;
+		}
+		checksum.update(buffer.array(), 0, buffer.limit());
+		length += buffer.limit();
+		PageManifest.recordDictionary(file.getParentFile().getName(), length, (int) checksum.getValue());
+		return true;
+	}
+
+	private Column column(int column) {
+		if (column >= columns.length) {
+			Column[] grown = Arrays.copyOf(columns, column + 1);
+			for (int i = columns.length; i < grown.length; i++) {
+				grown[i] = new Column();
+			}
+			columns = grown;
+		}
+		return columns[column];
+	}
+
+	private synchronized void load() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			ByteBuffer buffer = PageCodec.readBuffer(file.toPath());
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+				throw new IOException("Not a supported dictionary file.");
+			}
+			buffer.position(HEADER_SIZE);
+			// A torn last entry, from a crash while appending, is cut off; no page uses its code yet
+			int end = buffer.position();
+			while (buffer.remaining() >= 12) {
+				int column = buffer.getInt();
+				int code = buffer.getInt();
+				int length = buffer.getInt();
+				if (length > buffer.remaining()) {
+					break;
+				}
+				if (column < 0 || column >= MAX_COLUMNS || code < -1 || length < 0) {
+					throw new IOException("Damaged entry at byte " + end + ".");
+				}
+				Column c = column(column);
+				if (code < 0) {
+					c.full = true;
+				} else {
+					c.add(code, new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8));
+				}
+				buffer.position(buffer.position() + length);
+				end = buffer.position();
+			}
+			if (end < buffer.limit()) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+					channel.truncate(end);
+				}
+			}
+			checksum.update(buffer.array(), 0, end);
+			length = end;
+		} catch (IOException | IllegalArgumentException e) {
+			// Codes taken from here on would clash with those the table's pages already use
+			damage = e.getMessage();
+			System.err.println("Error: Dictionary " + file + " could not be read, pages of the table cannot be encoded or decoded: " + e.getMessage());
+		}
+		for (Column c : columns) {
+			c.persisted = c.size;
+			c.fullPersisted = c.full;
+		}
+	}
+}
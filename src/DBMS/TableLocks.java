@@ -0,0 +1,132 @@
+package DBMS;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * The locks coordinating threads using the database at the same time.
+ * <p>
+ * Each table has a read/write lock: validations and traces hold its read lock, so any number
+ * of them run together, while inserts, loads, index creation and recovery hold its write
+ * lock, so they see the table alone. Selects and counts take no lock at all; they read the
+ * last committed version of the table (see {@link TableSnapshots}). Operations on different tables never wait
+ * for each other, except for a checkpoint: every write also holds the shared side of a
+ * global checkpoint lock, and {@link DBApp#checkpoint()} holds its exclusive side, so a
+ * checkpoint never writes out a table halfway through a change, nor empties the write-ahead
+ * log between an insert being logged and being applied.
+ * <p>
+ * Locks are reentrant, and a thread holding the write lock of a table may also read it.
+ * A thread holding a table lock must not start a checkpoint.
+ */
+public class TableLocks {
+	private static final ConcurrentHashMap<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+	private static final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
+	/**
+	 * Runs an action while holding the read lock of a table.
+	 *
+	 * @param tableName the table, or null to run the action without a lock.
+	 * @param action    the action.
+	 * @return the result of the action.
+	 */
+	public static <T> T read(String tableName, Supplier<T> action) {
+		if (tableName == null) {
+			return action.get();
+		}
+		Lock lock = lock(tableName).readLock();
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs an action while holding the write lock of a table.
+	 *
+	 * @param tableName the table, or null to run the action without a lock.
+	 * @param action    the action.
+	 * @return the result of the action.
+	 */
+	public static <T> T write(String tableName, Supplier<T> action) {
+		if (tableName == null) {
+			return action.get();
+		}
+		Lock shared = checkpointLock.readLock();
+		Lock lock = lock(tableName).writeLock();
+		shared.lock();
+		try {
+			lock.lock();
+			try {
+				return action.get();
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			shared.unlock();
+		}
+	}
+
+	/**
+	 * Runs an action while holding the write lock of a table.
+	 *
+	 * @param tableName the table, or null to run the action without a lock.
+	 * @param action    the action.
+	 */
+	public static void write(String tableName, Runnable action) {
+		write(tableName, () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Runs an action while no table is being written.
+	 *
+	 * @param action the action.
+	 * @return the result of the action.
+	 */
+	public static <T> T exclusive(Supplier<T> action) {
+		Lock lock = checkpointLock.writeLock();
+		lock.lock();
+		try {
+			return action.get();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the read lock of a table if it is free or held by the calling thread, without waiting.
+	 * Used by background work that must not block a writer, such as writing back a cached index.
+	 *
+	 * @param tableName the table.
+	 * @return the lock to release once done, or null if the table is being written by another thread.
+	 */
+	static Lock tryRead(String tableName) {
+		Lock lock = lock(tableName).readLock();
+		return lock.tryLock() ? lock : null;
+	}
+
+	/**
+	 * @return true if the calling thread holds a lock of any table.
+	 */
+	static boolean isHeldByCurrentThread() {
+		if (checkpointLock.getReadHoldCount() > 0) {
+			return true;
+		}
+		for (ReentrantReadWriteLock lock : locks.values()) {
+			if (lock.getReadHoldCount() > 0 || lock.isWriteLockedByCurrentThread()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static ReentrantReadWriteLock lock(String tableName) {
+		return locks.computeIfAbsent(tableName, name -> new ReentrantReadWriteLock());
+	}
+}
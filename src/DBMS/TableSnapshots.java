@@ -0,0 +1,64 @@
+package DBMS;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest committed version of each table, which selects read without taking a lock.
+ * <p>
+ * Tables are append-only, so a version of a table is its catalog entry: how many records
+ * each page holds. Whenever a writer stores a table through {@link FileManager#storeTable},
+ * after its pages and indexes were updated, a copy of the entry is published here. A select
+ * opens the latest version when it starts and only reads the records that version counts,
+ * from pages and index bitmaps it shares with the writers: pages never move the records they
+ * hold, and inserts build new bitmap versions instead of changing published ones (see
+ * {@link BitmapIndex}). Inserts therefore never wait for selects, and selects never wait for
+ * inserts, each select seeing the table as of its start.
+ * <p>
+ * An old version, and the bitmap versions read through it, are reclaimed by the garbage
+ * collector once no select still holds them.
+ */
+public class TableSnapshots {
+	private static final ConcurrentHashMap<String, Table> committed = new ConcurrentHashMap<>();
+
+	/**
+	 * Opens the latest committed version of a table.
+	 *
+	 * @param tableName the name of the table.
+	 * @return the table as of its last store, or null if it does not exist.
+	 */
+	public static Table open(String tableName) {
+		if (tableName == null) {
+			return null;
+		}
+		Table t = committed.get(tableName);
+		if (t != null) {
+			return t;
+		}
+		// Not stored since start-up: read the catalog once, while no insert changes it
+		return TableLocks.read(tableName, () -> {
+			Table loaded = FileManager.loadTable(tableName);
+			if (loaded == null) {
+				return null;
+			}
+			Table snapshot = loaded.snapshot();
+			Table previous = committed.putIfAbsent(tableName, snapshot);
+			return previous != null ? previous : snapshot;
+		});
+	}
+
+	/**
+	 * Publishes a copy of a table as its latest committed version.
+	 *
+	 * @param t the table, as just stored.
+	 */
+	static void publish(Table t) {
+		committed.put(t.getTableName(), t.snapshot());
+	}
+
+	/**
+	 * Forgets every version. Used when the files on disk are deleted.
+	 */
+	static void clear() {
+		committed.clear();
+	}
+}
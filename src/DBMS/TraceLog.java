@@ -0,0 +1,368 @@
+package DBMS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The trace of a table: its most recent operations, kept as structured events in a ring buffer.
+ * <p>
+ * Recording an event only stores its kind, a few numbers in a primitive array and references
+ * to values that already exist (or small copies of arrays the caller may change), so inserts
+ * and selects do not build strings. An event is formatted into its trace line only when the
+ * trace is read by {@link DBApp#getFullTrace(String)} or {@link DBApp#getLastTrace(String)}.
+ * <p>
+ * The buffer grows on demand up to {@link #capacity} events. Once full, each new event pushes
+ * out the oldest one, which is dropped, or, while {@link #spillToDisk} is set, formatted and
+ * appended with the other oldest half of the buffer to a compressed file next to the tables,
+ * from which the full trace reads it back. The methods are thread safe.
+ */
+public class TraceLog {
+	// Maximum number of events kept in memory per table
+	static int capacity = 1 << 16;
+	// When enabled, events pushed out of a full buffer are written to a compressed file instead of dropped
+	static boolean spillToDisk = false;
+
+	static final String SPILL_SUFFIX = ".trace.gz";
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NUMBERS = 4;
+	private static final int OBJECTS = 4;
+
+	private enum Kind {
+		TEXT, INSERT, INSERT_BATCH, SELECT_ALL, SELECT_POINTER, SELECT_CONDITION, SELECT_CURSOR_ALL,
+		SELECT_CURSOR_CONDITION, SELECT_INDEX, SELECT_INDEX_CURSOR, COUNT, EXISTS
+	}
+
+	private final String tableName;
+	private final int maxEvents;
+	private Kind[] kinds;
+	private long[] numbers;
+	private Object[] objects;
+	// Slot of the oldest event and number of events in the buffer
+	private int head = 0;
+	private int size = 0;
+	private long dropped = 0;
+	private long spilled = 0;
+
+	/**
+	 * Creates the empty trace of a table.
+	 *
+	 * @param tableName the name of the table.
+	 */
+	public TraceLog(String tableName) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Trace capacity must be positive.");
+		}
+		this.tableName = tableName;
+		this.maxEvents = capacity;
+		int length = Math.min(INITIAL_CAPACITY, capacity);
+		this.kinds = new Kind[length];
+		this.numbers = new long[length * NUMBERS];
+		this.objects = new Object[length * OBJECTS];
+	}
+
+	/**
+	 * Records an event whose line is already known, for rare operations.
+	 *
+	 * @param line the trace line.
+	 */
+	public void add(String line) {
+		record(Kind.TEXT, line, null, null, null, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Records the insert of a record.
+	 */
+	public void inserted(String[] record, int pageNumber, long executionTime) {
+		record(Kind.INSERT, record.clone(), null, null, null, pageNumber, executionTime, 0, 0);
+	}
+
+	/**
+	 * Records the insert of a batch of records.
+	 */
+	public void insertedBatch(int count, int firstPageNumber, int lastPageNumber, long executionTime) {
+		record(Kind.INSERT_BATCH, null, null, null, null, count, firstPageNumber, lastPageNumber, executionTime);
+	}
+
+	/**
+	 * Records a select of every record.
+	 */
+	public void selectedAll(int pagesCount, int recordsCount, long executionTime) {
+		record(Kind.SELECT_ALL, null, null, null, null, pagesCount, recordsCount, executionTime, 0);
+	}
+
+	/**
+	 * Records a select of one record by its page and slot.
+	 */
+	public void selectedPointer(int pageNumber, int recordNumber, int outputCount, long executionTime) {
+		record(Kind.SELECT_POINTER, null, null, null, null, pageNumber, recordNumber, outputCount, executionTime);
+	}
+
+	/**
+	 * Records a select scanning every page.
+	 *
+	 * @param condition       the condition, see {@link #condition(String[], String[])} and {@link #list(Object[])}.
+	 * @param pageMatchCounts the number of matches of each page, owned by the trace from now on.
+	 */
+	public void selectedCondition(Object condition, int[] pageMatchCounts, int recordsCount, long executionTime) {
+		record(Kind.SELECT_CONDITION, condition, pageMatchCounts, null, null, recordsCount, executionTime, 0, 0);
+	}
+
+	/**
+	 * Records a cursor over every record, once closed.
+	 */
+	public void selectedCursorAll(int pagesCount, int recordsCount, int pagesRead, long executionTime) {
+		record(Kind.SELECT_CURSOR_ALL, null, null, null, null, pagesCount, recordsCount, pagesRead, executionTime);
+	}
+
+	/**
+	 * Records a cursor over the records meeting some conditions, once closed.
+	 */
+	public void selectedCursorCondition(Object condition, int recordsCount, int pagesRead, long executionTime) {
+		record(Kind.SELECT_CURSOR_CONDITION, condition, null, null, null, recordsCount, pagesRead, executionTime, 0);
+	}
+
+	/**
+	 * Records a select using the indexes. The parts given as null, or as a negative page
+	 * count, are left out of the line.
+	 *
+	 * @param cursor         whether the records were returned by a cursor.
+	 * @param condition      the condition.
+	 * @param indexed        the columns answered by an index, or null.
+	 * @param selectionCount the number of positions the indexes selected.
+	 * @param nonIndexed     the columns checked on the records, or null.
+	 * @param finalCount     the number of records returned.
+	 * @param pagesRead      the number of pages read, or -1.
+	 * @param plan           how the records were read, or null.
+	 * @param executionTime  the execution time in milliseconds.
+	 */
+	public void selectedIndex(boolean cursor, Object condition, Object indexed, long selectionCount, Object nonIndexed,
+							  int finalCount, int pagesRead, Object plan, long executionTime) {
+		record(cursor ? Kind.SELECT_INDEX_CURSOR : Kind.SELECT_INDEX, condition, indexed, nonIndexed, plan,
+				selectionCount, finalCount, pagesRead, executionTime);
+	}
+
+	/**
+	 * Records a count, or an existence check when only the first match was looked for.
+	 */
+	public void counted(boolean exists, Object condition, Object indexed, Object nonIndexed, int count, int pagesRead, long executionTime) {
+		record(exists ? Kind.EXISTS : Kind.COUNT, condition, indexed, nonIndexed, null, count, pagesRead, executionTime, 0);
+	}
+
+	/**
+	 * @return the line of the latest event, or null if nothing was recorded.
+	 */
+	public synchronized String last() {
+		return size == 0 ? null : format((head + size - 1) % kinds.length);
+	}
+
+	/**
+	 * Formats the trace, from the oldest event still available to the latest one.
+	 *
+	 * @return the trace lines, starting with those spilled to disk.
+	 */
+	public synchronized ArrayList<String> lines() {
+		ArrayList<String> lines = new ArrayList<>();
+		if (spilled > 0) {
+			readSpilled(lines);
+		}
+		for (int i = 0; i < size; i++) {
+			lines.add(format((head + i) % kinds.length));
+		}
+		return lines;
+	}
+
+	/**
+	 * @return the number of events pushed out of the buffer without being spilled.
+	 */
+	public synchronized long getDroppedCount() { return dropped; }
+
+	/**
+	 * @return the number of events written to the spill file.
+	 */
+	public synchronized long getSpilledCount() { return spilled; }
+
+	/**
+	 * Wraps the condition of a select on equal values; the arrays are copied.
+	 *
+	 * @return an object printed as {@code [cols]->[vals]}.
+	 */
+	public static Object condition(String[] cols, String[] vals) {
+		String[] columns = cols.clone();
+		String[] values = vals.clone();
+		return new Object() {
+			@Override
+			public String toString() {
+				return Arrays.toString(columns) + "->" + Arrays.toString(values);
+			}
+		};
+	}
+
+	/**
+	 * Copies an array into a list, printed like {@link Arrays#toString(Object[])}.
+	 */
+	public static List<Object> list(Object[] values) {
+		return Arrays.asList(values.clone());
+	}
+
+	private synchronized void record(Kind kind, Object o0, Object o1, Object o2, Object o3, long n0, long n1, long n2, long n3) {
+		if (size == kinds.length) {
+			if (kinds.length < maxEvents) {
+				grow();
+			} else if (spillToDisk) {
+				spill(size / 2);
+			} else {
+				remove(1);
+				dropped++;
+			}
+		}
+		int slot = (head + size) % kinds.length;
+		kinds[slot] = kind;
+		int o = slot * OBJECTS;
+		objects[o] = o0;
+		objects[o + 1] = o1;
+		objects[o + 2] = o2;
+		objects[o + 3] = o3;
+		int n = slot * NUMBERS;
+		numbers[n] = n0;
+		numbers[n + 1] = n1;
+		numbers[n + 2] = n2;
+		numbers[n + 3] = n3;
+		size++;
+	}
+
+	// The buffer only grows before it first wraps, so the events are still in slot order
+	private void grow() {
+		int length = Math.min(kinds.length * 2, maxEvents);
+		kinds = Arrays.copyOf(kinds, length);
+		numbers = Arrays.copyOf(numbers, length * NUMBERS);
+		objects = Arrays.copyOf(objects, length * OBJECTS);
+	}
+
+	private void remove(int count) {
+		for (int i = 0; i < count; i++) {
+			int slot = (head + i) % kinds.length;
+			kinds[slot] = null;
+			Arrays.fill(objects, slot * OBJECTS, (slot + 1) * OBJECTS, null);
+		}
+		head = (head + count) % kinds.length;
+		size -= count;
+	}
+
+	// Appends the oldest events to the spill file as one gzip member, dropping them if that fails
+	private void spill(int count) {
+		count = Math.max(count, 1);
+		File file = spillFile();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(file, spilled > 0))))) {
+			for (int i = 0; i < count; i++) {
+				byte[] line = format((head + i) % kinds.length).getBytes(StandardCharsets.UTF_8);
+				out.writeInt(line.length);
+				out.write(line);
+			}
+			spilled += count;
+		} catch (IOException e) {
+			System.err.println("Error: Trace of table '" + tableName + "' could not be spilled to disk: " + e.getMessage());
+			dropped += count;
+		}
+		remove(count);
+	}
+
+	private void readSpilled(ArrayList<String> lines) {
+		// Concatenated gzip members are read as one stream
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(spillFile()))))) {
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] line = new byte[length];
+				in.readFully(line);
+				lines.add(new String(line, StandardCharsets.UTF_8));
+			}
+		} catch (IOException e) {
+			System.err.println("Error: Spilled trace of table '" + tableName + "' could not be read: " + e.getMessage());
+		}
+	}
+
+	private File spillFile() {
+		return new File(FileManager.directory, tableName + SPILL_SUFFIX);
+	}
+
+	private String format(int slot) {
+		int o = slot * OBJECTS;
+		Object o0 = objects[o], o1 = objects[o + 1], o2 = objects[o + 2], o3 = objects[o + 3];
+		int n = slot * NUMBERS;
+		long n0 = numbers[n], n1 = numbers[n + 1], n2 = numbers[n + 2], n3 = numbers[n + 3];
+		switch (kinds[slot]) {
+			case INSERT:
+				return "Inserted:[" + String.join(", ", (String[]) o0) + "], at page number:" + n0 + ", execution time (mil):" + n1;
+			case INSERT_BATCH:
+				return "Inserted batch:" + n0 + " records, at page numbers:" + n1 + "-" + n2 + ", execution time (mil):" + n3;
+			case SELECT_ALL:
+				return "Select all pages:" + n0 + ", records:" + n1 + ", execution time (mil):" + n2;
+			case SELECT_POINTER:
+				return "Select pointer page:" + n0 + ", record:" + n1 + ", total output count:" + n2 + ", execution time (mil):" + n3;
+			case SELECT_CONDITION:
+				return "Select condition:" + o0 + ", Records per page:" + recordsPerPage((int[]) o1) +
+						", records:" + n0 + ", execution time (mil):" + n1;
+			case SELECT_CURSOR_ALL:
+				return "Select cursor all pages:" + n0 + ", records:" + n1 + ", Pages read: " + n2 + ", execution time (mil):" + n3;
+			case SELECT_CURSOR_CONDITION:
+				return "Select cursor condition:" + o0 + ", records:" + n0 + ", Pages read: " + n1 + ", execution time (mil):" + n2;
+			case SELECT_INDEX:
+			case SELECT_INDEX_CURSOR:
+				StringBuilder sb = new StringBuilder(kinds[slot] == Kind.SELECT_INDEX ? "Select index condition: " : "Select index cursor condition: ");
+				sb.append(o0);
+				if (o1 != null) {
+					sb.append(", Indexed columns: ").append(o1);
+				}
+				sb.append(", Indexed selection count: ").append(n0);
+				if (o2 != null) {
+					sb.append(", Non Indexed: ").append(o2);
+				}
+				sb.append(", Final count: ").append(n1);
+				if (n2 >= 0) {
+					sb.append(", Pages read: ").append(n2);
+				}
+				if (o3 != null) {
+					sb.append(", Plan: ").append(o3);
+				}
+				return sb.append(", execution time (mil):").append(n3).toString();
+			case COUNT:
+			case EXISTS:
+				boolean exists = kinds[slot] == Kind.EXISTS;
+				return (exists ? "Exists" : "Count") + " condition: " + o0 + ", Indexed columns: " + o1 + ", Non Indexed: " + o2 +
+						(exists ? ", Exists: " + (n0 > 0) : ", Count: " + n0) + ", Pages read: " + n1 + ", execution time (mil):" + n2;
+			default:
+				return (String) o0;
+		}
+	}
+
+	// The pages holding matches, as [[page, count], ...]
+	private static String recordsPerPage(int[] counts) {
+		StringJoiner entries = new StringJoiner(", ", "[", "]");
+		for (int pageNum = 0; pageNum < counts.length; pageNum++) {
+			if (counts[pageNum] > 0) {
+				entries.add("[" + pageNum + ", " + counts[pageNum] + "]");
+			}
+		}
+		return entries.toString();
+	}
+}
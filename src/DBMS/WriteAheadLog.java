@@ -0,0 +1,302 @@
+package DBMS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of inserted records, shared by all tables.
+ * <p>
+ * An insert is durable once its entry is appended and forced to disk, which is a single
+ * sequential write. Threads committing at the same time share one force: the first thread
+ * to reach {@link #commit(long)} forces everything appended so far, and the others wait
+ * for it instead of forcing again (group commit).
+ * <p>
+ * Each entry is stored as: length (int) | CRC32 of the body (int) | body, where the body
+ * holds the table name, the position of the record in the table and its cells. A torn
+ * entry at the end of the log fails its checksum and is ignored when the log is read.
+ * <p>
+ * An insert that was logged but could not be applied is cancelled by an abort entry,
+ * whose cells count is -1, so its position can be logged again by the next insert.
+ */
+public class WriteAheadLog {
+	static final String FILE_NAME = "wal.log";
+
+	private static final Object lock = new Object();
+	private static FileChannel channel;
+	private static long appendedPosition = 0;
+	private static long forcedPosition = 0;
+	private static boolean forcing = false;
+	private static long forceCount = 0;
+
+	/**
+	 * An insert read back from the log.
+	 */
+	public static class Entry {
+		private final String tableName;
+		private final int recordIndex;
+		private final String[] record;
+
+		Entry(String tableName, int recordIndex, String[] record) {
+			this.tableName = tableName;
+			this.recordIndex = recordIndex;
+			this.record = record;
+		}
+
+		public String getTableName() { return tableName; }
+
+		public int getRecordIndex() { return recordIndex; }
+
+		public String[] getRecord() { return record; }
+	}
+
+	/**
+	 * Appends an insert to the log without forcing it to disk.
+	 *
+	 * @param tableName   the name of the table.
+	 * @param recordIndex the position the record takes in the table.
+	 * @param record      the inserted record.
+	 * @return the log position that must be committed for the insert to be durable.
+	 * @throws IOException if the log cannot be written.
+	 */
+	public static long append(String tableName, int recordIndex, String[] record) throws IOException {
+		ByteBuffer entry = encode(tableName, recordIndex, record);
+		synchronized (lock) {
+			FileChannel log = open();
+			while (entry.hasRemaining()) {
+				appendedPosition += log.write(entry, appendedPosition);
+			}
+			return appendedPosition;
+		}
+	}
+
+	/**
+	 * Appends an abort entry, cancelling the logged inserts of a table from a position on.
+	 * The table's inserts are logged under its write lock, so the entries cancelled are
+	 * those of the insert that failed.
+	 *
+	 * @param tableName   the name of the table.
+	 * @param recordIndex the position of the first insert that could not be applied.
+	 * @return the log position that must be committed for the abort to be durable.
+	 * @throws IOException if the log cannot be written.
+	 */
+	public static long abort(String tableName, int recordIndex) throws IOException {
+		ByteBuffer entry = encode(tableName, recordIndex, null);
+		synchronized (lock) {
+			FileChannel log = open();
+			while (entry.hasRemaining()) {
+				appendedPosition += log.write(entry, appendedPosition);
+			}
+			return appendedPosition;
+		}
+	}
+
+	/**
+	 * Waits until the log is forced to disk up to a position, forcing it if no other
+	 * thread is already doing so.
+	 *
+	 * @param position a position returned by {@link #append(String, int, String[])}.
+	 * @throws IOException if the log cannot be forced.
+	 */
+	public static void commit(long position) throws IOException {
+		long target;
+		FileChannel log;
+		synchronized (lock) {
+			while (forcedPosition < position && forcing) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the log to be forced.", e);
+				}
+			}
+			if (forcedPosition >= position) {
+				return;
+			}
+			forcing = true;
+			target = appendedPosition;
+			log = open();
+		}
+
+		try {
+			log.force(false);
+		} finally {
+			synchronized (lock) {
+				forcing = false;
+				if (log == channel && target > forcedPosition) {
+					forcedPosition = target;
+					forceCount++;
+				}
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reads every complete entry of the log, stopping at the first torn or corrupted one.
+	 * Inserts cancelled by a later abort entry are left out.
+	 *
+	 * @return the logged inserts in the order they were appended.
+	 */
+	public static ArrayList<Entry> read() {
+		ArrayList<Entry> entries = new ArrayList<>();
+		synchronized (lock) {
+			File file = file();
+			if (!file.exists()) {
+				return entries;
+			}
+			try {
+				ByteBuffer buffer = PageCodec.readBuffer(file.toPath());
+				while (buffer.remaining() >= 8) {
+					int length = buffer.getInt();
+					int checksum = buffer.getInt();
+					if (length < 0 || length > buffer.remaining()) {
+						break;
+					}
+					CRC32 crc = new CRC32();
+					crc.update(buffer.array(), buffer.position(), length);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+					Entry entry = decode(buffer);
+					if (entry.record == null) {
+						entries.removeIf(e -> e.tableName.equals(entry.tableName) && e.recordIndex >= entry.recordIndex);
+					} else {
+						entries.add(entry);
+					}
+				}
+			} catch (Exception e) {
+				System.err.println("Error: Write-ahead log could not be read completely: " + e.getMessage());
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Empties the log. Called once every logged change has been written to the data files.
+	 *
+	 * @throws IOException if the log cannot be truncated.
+	 */
+	public static void truncate() throws IOException {
+		synchronized (lock) {
+			if (channel == null && !file().exists()) {
+				return;
+			}
+			FileChannel log = open();
+			log.truncate(0);
+			log.force(true);
+			appendedPosition = 0;
+			forcedPosition = 0;
+		}
+	}
+
+	/**
+	 * Closes the log file. It is opened again by the next append.
+	 */
+	public static void close() {
+		synchronized (lock) {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// The channel is discarded either way
+				}
+			}
+			channel = null;
+			appendedPosition = 0;
+			forcedPosition = 0;
+		}
+	}
+
+	/**
+	 * @return the number of bytes currently in the log.
+	 */
+	public static long size() {
+		synchronized (lock) {
+			return channel != null ? appendedPosition : file().length();
+		}
+	}
+
+	/**
+	 * @return how many times the log was forced to disk, which is lower than the number
+	 * of commits when commits were grouped.
+	 */
+	public static long getForceCount() {
+		synchronized (lock) {
+			return forceCount;
+		}
+	}
+
+	static File file() {
+		return new File(FileManager.directory, FILE_NAME);
+	}
+
+	private static FileChannel open() throws IOException {
+		if (channel == null) {
+			FileManager.directory.mkdirs();
+			channel = FileChannel.open(file().toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			appendedPosition = channel.size();
+			forcedPosition = appendedPosition;
+		}
+		return channel;
+	}
+
+	private static ByteBuffer encode(String tableName, int recordIndex, String[] record) {
+		byte[] name = tableName.getBytes(StandardCharsets.UTF_8);
+		byte[][] cells = new byte[record == null ? 0 : record.length][];
+		int length = 4 + name.length + 4 + 4;
+		for (int i = 0; i < cells.length; i++) {
+			if (record[i] != null) {
+				cells[i] = record[i].getBytes(StandardCharsets.UTF_8);
+				length += cells[i].length;
+			}
+			length += 4;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(8 + length);
+		buffer.putInt(length);
+		buffer.putInt(0);
+		buffer.putInt(name.length).put(name);
+		buffer.putInt(recordIndex);
+		buffer.putInt(record == null ? -1 : cells.length);
+		for (byte[] cell : cells) {
+			if (cell == null) {
+				buffer.putInt(-1);
+			} else {
+				buffer.putInt(cell.length).put(cell);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 8, length);
+		buffer.putInt(4, (int) crc.getValue());
+		buffer.flip();
+		return buffer;
+	}
+
+	private static Entry decode(ByteBuffer buffer) {
+		String tableName = readString(buffer, buffer.getInt());
+		int recordIndex = buffer.getInt();
+		int cellsCount = buffer.getInt();
+		if (cellsCount < 0) {
+			return new Entry(tableName, recordIndex, null);
+		}
+		String[] record = new String[cellsCount];
+		for (int i = 0; i < record.length; i++) {
+			int length = buffer.getInt();
+			record[i] = length < 0 ? null : readString(buffer, length);
+		}
+		return new Entry(tableName, recordIndex, record);
+	}
+
+	private static String readString(ByteBuffer buffer, int length) {
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+}
@@ -0,0 +1,141 @@
+package DBMS;
+
+/**
+ * The background thread writing dirty pages, pending tables and dirty indexes to disk while
+ * inserts are deferred by {@link DBApp.Durability#GROUP} or {@link DBApp.Durability#ASYNC}.
+ * <p>
+ * Deferred inserts only change the cached page, table and indexes, so a page that takes many
+ * inserts between two flushes is written once. A flush, through {@link DBApp#flush()}, starts
+ * {@link #flushIntervalMillis} after the first insert since the previous one, as soon as
+ * {@link #flushThresholdBytes} were inserted, or right away when an inserter waits for one.
+ * Inserters waiting at the same time share the next flush (group commit): a flush covers
+ * every insert that returned from its table lock before the flush started.
+ */
+public class WriteBehindFlusher {
+	// Longest time inserted data waits in memory before a flush starts
+	static long flushIntervalMillis = 50;
+	// Inserted bytes (cell characters) that start a flush before the interval is over
+	static long flushThresholdBytes = 4L * 1024 * 1024;
+
+	private static final Object lock = new Object();
+	private static Thread thread;
+	private static boolean enabled = false;
+	// Something was inserted since the last flush started
+	private static boolean pending = false;
+	private static long pendingBytes = 0;
+	// An inserter is waiting, or the byte threshold was reached
+	private static boolean flushRequested = false;
+	// Flushes started and completed; the flush with a number covers the inserts made before it started
+	private static long started = 0;
+	private static long completed = 0;
+	private static boolean lastFlushFailed = false;
+
+	/**
+	 * Starts or pauses background flushes. Flushes requested by waiting inserters still run while paused.
+	 *
+	 * @param on true to flush pending inserts in the background.
+	 */
+	static void setEnabled(boolean on) {
+		synchronized (lock) {
+			enabled = on;
+			if (thread == null) {
+				thread = new Thread(WriteBehindFlusher::run, "write-behind-flush");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Notes deferred inserts, so a flush is scheduled for them.
+	 *
+	 * @param bytes the size of the inserted cells, in characters.
+	 */
+	static void written(long bytes) {
+		synchronized (lock) {
+			pendingBytes += bytes;
+			boolean wake = !pending;
+			pending = true;
+			if (pendingBytes >= flushThresholdBytes && !flushRequested) {
+				flushRequested = true;
+				wake = true;
+			}
+			if (wake) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits until a flush that started after the call has completed, so every insert the
+	 * caller made before is on disk.
+	 *
+	 * @return false if that flush failed or the wait was interrupted.
+	 */
+	static boolean awaitFlush() {
+		synchronized (lock) {
+			long target = started + 1;
+			pending = true;
+			if (!flushRequested) {
+				flushRequested = true;
+				lock.notifyAll();
+			}
+			while (completed < target) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			return !lastFlushFailed;
+		}
+	}
+
+	/**
+	 * @return the number of background flushes completed.
+	 */
+	public static long getFlushCount() {
+		synchronized (lock) {
+			return completed;
+		}
+	}
+
+	private static void run() {
+		while (true) {
+			long generation;
+			synchronized (lock) {
+				try {
+					while (!flushRequested && !(pending && enabled)) {
+						lock.wait();
+					}
+					// Let inserts accumulate for the interval, unless a flush is asked for meanwhile
+					long deadline = System.currentTimeMillis() + flushIntervalMillis;
+					long remaining;
+					while (!flushRequested && (remaining = deadline - System.currentTimeMillis()) > 0) {
+						lock.wait(remaining);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				generation = ++started;
+				pending = false;
+				pendingBytes = 0;
+				flushRequested = false;
+			}
+
+			long startTime = System.nanoTime();
+			boolean flushed = DBApp.flush();
+			Metrics.record(Metrics.FLUSH, startTime);
+			if (!flushed) {
+				System.err.println("Error: Background flush failed.");
+			}
+			synchronized (lock) {
+				completed = generation;
+				lastFlushFailed = !flushed;
+				lock.notifyAll();
+			}
+		}
+	}
+}
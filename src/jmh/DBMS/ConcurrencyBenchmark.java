@@ -0,0 +1,134 @@
+package DBMS;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of {@link DBApp} used by several threads at once, in operations
+ * per second, as the number of threads grows.
+ * <p>
+ * Each invocation runs {@link #OPERATIONS} operations spread evenly over {@link #threads}
+ * worker threads. An operation is an insert with probability {@link #writePercent} percent
+ * and otherwise an index select of one value of c1 on a shared table of {@link #rows}
+ * records (c1 has a bitmap index). With {@link #sharedWrites} the inserts go to the shared
+ * table and contend with the selects for its lock; otherwise each worker inserts into a
+ * table of its own, which never waits for the selects. Inserts reach the data files as set by
+ * {@link #durability}. Run with e.g.
+ * {@code gradle jmh -Pjmh="ConcurrencyBenchmark -p writePercent=10 -p durability=SYNC,GROUP,ASYNC"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ConcurrencyBenchmark {
+	static final String TABLE = "stress";
+	static final int OPERATIONS = 256;
+	static final int CARDINALITY = 100;
+
+	@Param({"1", "2", "4", "8"})
+	public int threads;
+
+	@Param({"0", "10", "50"})
+	public int writePercent;
+
+	@Param({"false", "true"})
+	public boolean sharedWrites;
+
+	@Param({"10000"})
+	public int rows;
+
+	@Param({"200"})
+	public int dataPageSize;
+
+	@Param({"SYNC"})
+	public DBApp.Durability durability;
+
+	private ExecutorService workers;
+	private int[] inserted;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		FileManager.reset();
+		DBApp.dataPageSize = dataPageSize;
+		String[] columnNames = {"c0", "c1", "c2"};
+		DBApp.createTable(TABLE, columnNames);
+		ArrayList<String[]> records = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++) {
+			records.add(record(i));
+		}
+		DBApp.insertBatch(TABLE, records);
+		DBApp.createBitMapIndex(TABLE, "c1");
+		for (int w = 0; w < threads; w++) {
+			DBApp.createTable(TABLE + w, columnNames);
+			DBApp.createBitMapIndex(TABLE + w, "c1");
+		}
+		inserted = new int[threads];
+		workers = Executors.newFixedThreadPool(threads);
+		DBApp.setDurability(durability);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		workers.shutdownNow();
+		DBApp.setDurability(DBApp.Durability.SYNC);
+		FileManager.reset();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public long mixed() throws InterruptedException, ExecutionException {
+		ArrayList<Future<Long>> results = new ArrayList<>(threads);
+		for (int w = 0; w < threads; w++) {
+			int worker = w;
+			int operations = OPERATIONS / threads + (w < OPERATIONS % threads ? 1 : 0);
+			results.add(workers.submit(() -> run(worker, operations)));
+		}
+		long selected = 0;
+		for (Future<Long> result : results) {
+			selected += result.get();
+		}
+		return selected;
+	}
+
+	// Runs one worker's share of the operations and returns the number of records selected
+	private long run(int worker, int operations) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String insertTable = sharedWrites ? TABLE : TABLE + worker;
+		long selected = 0;
+		for (int i = 0; i < operations; i++) {
+			if (random.nextInt(100) < writePercent) {
+				DBApp.insert(insertTable, record(rows + worker * 1_000_000 + inserted[worker]++));
+			} else {
+				String value = "v" + random.nextInt(CARDINALITY);
+				selected += DBApp.selectIndex(TABLE, new String[] {"c1"}, new String[] {value}).size();
+			}
+		}
+		return selected;
+	}
+
+	private static String[] record(int i) {
+		return new String[] {"k" + i, "v" + (i % CARDINALITY), "w" + (i % 7)};
+	}
+}
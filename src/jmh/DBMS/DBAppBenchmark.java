@@ -0,0 +1,215 @@
+package DBMS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the public operations of {@link DBApp} on a table built once per parameter set.
+ * <p>
+ * The table has {@link #columns} columns named c0, c1, ...; c0 holds a unique value per
+ * record and column cj holds "v" + ((i + j) % cardinality), so the conditions used below
+ * (c1 = v1, c2 = v2, c3 = v3) all select the records whose position is a multiple of the
+ * cardinality. Columns c1 and c2 have bitmap indexes, c3 has none, which gives the four cases of
+ * {@link DBApp#selectIndex(String, String[], String[])}:
+ * <ul>
+ *     <li>case 1, every condition on an indexed column: c1, c2;</li>
+ *     <li>case 2, several indexed and some non-indexed columns: c1, c2, c3;</li>
+ *     <li>case 3, a single indexed column: c1, c3;</li>
+ *     <li>case 4, no indexed column: c3.</li>
+ * </ul>
+ * The count benchmarks use the conditions of cases 1 and 3.
+ * Column c0 also has a sorted index, used by the range selects (c0 between k1 and k2).
+ * Run with e.g. {@code gradle jmh -Pjmh="DBAppBenchmark -p rows=10000"}; results are
+ * written as JSON under build/reports/jmh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DBAppBenchmark {
+	static final String TABLE = "bench";
+	static final String INSERT_TABLE = "benchInsert";
+	static final String INDEX_TABLE = "benchIndex";
+	static final String RECOVER_TABLE = "benchRecover";
+
+	@Param({"20", "200"})
+	public int dataPageSize;
+
+	@Param({"1000", "10000"})
+	public int rows;
+
+	@Param({"4", "8"})
+	public int columns;
+
+	@Param({"10", "1000"})
+	public int cardinality;
+
+	private String[] columnNames;
+	private String[] insertRecord;
+	private int inserted;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		FileManager.reset();
+		DBApp.dataPageSize = dataPageSize;
+		columnNames = new String[columns];
+		for (int j = 0; j < columns; j++) {
+			columnNames[j] = "c" + j;
+		}
+
+		createTable(TABLE, rows);
+		DBApp.createBitMapIndex(TABLE, "c1");
+		DBApp.createBitMapIndex(TABLE, "c2");
+		DBApp.createSortedIndex(TABLE, "c0");
+
+		createTable(INSERT_TABLE, 0);
+		DBApp.createBitMapIndex(INSERT_TABLE, "c1");
+		insertRecord = record(0);
+
+		createTable(INDEX_TABLE, rows);
+		createTable(RECOVER_TABLE, rows);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileManager.reset();
+	}
+
+	private void createTable(String tableName, int count) {
+		DBApp.createTable(tableName, columnNames);
+		ArrayList<String[]> records = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			records.add(record(i));
+		}
+		if (!records.isEmpty()) {
+			DBApp.insertBatch(tableName, records);
+		}
+	}
+
+	private String[] record(int i) {
+		String[] record = new String[columns];
+		record[0] = "k" + i;
+		for (int j = 1; j < columns; j++) {
+			record[j] = "v" + ((i + j) % cardinality);
+		}
+		return record;
+	}
+
+	@Benchmark
+	public int insert() {
+		insertRecord[0] = "k" + inserted++;
+		DBApp.insert(INSERT_TABLE, insertRecord);
+		return inserted;
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectAll() {
+		return DBApp.select(TABLE);
+	}
+
+	@Benchmark
+	public long selectAllCursor() {
+		try (RecordCursor cursor = DBApp.selectCursor(TABLE)) {
+			long count = 0;
+			while (cursor.hasNext()) {
+				cursor.next();
+				count++;
+			}
+			return count;
+		}
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectConditional() {
+		return DBApp.select(TABLE, new String[] {"c1", "c3"}, new String[] {"v1", "v3"});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectIndexAllIndexed() {
+		return DBApp.selectIndex(TABLE, new String[] {"c1", "c2"}, new String[] {"v1", "v2"});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectIndexSomeIndexed() {
+		return DBApp.selectIndex(TABLE, new String[] {"c1", "c2", "c3"}, new String[] {"v1", "v2", "v3"});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectIndexOneIndexed() {
+		return DBApp.selectIndex(TABLE, new String[] {"c1", "c3"}, new String[] {"v1", "v3"});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectIndexNoneIndexed() {
+		return DBApp.selectIndex(TABLE, new String[] {"c3"}, new String[] {"v3"});
+	}
+
+	@Benchmark
+	public int countAllIndexed() {
+		return DBApp.count(TABLE, new String[] {"c1", "c2"}, new String[] {"v1", "v2"});
+	}
+
+	@Benchmark
+	public int countSomeIndexed() {
+		return DBApp.count(TABLE, new String[] {"c1", "c3"}, new String[] {"v1", "v3"});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectRangeScan() {
+		return DBApp.select(TABLE, new Condition[] {Condition.between("c0", "k1", "k2")});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectIndexRange() {
+		return DBApp.selectIndex(TABLE, new Condition[] {Condition.between("c0", "k1", "k2")});
+	}
+
+	@Benchmark
+	public String createBitMapIndex() {
+		DBApp.createBitMapIndex(INDEX_TABLE, "c1");
+		return DBApp.getLastTrace(INDEX_TABLE);
+	}
+
+	@Benchmark
+	public ArrayList<String[]> validateRecords() {
+		return DBApp.validateRecords(TABLE);
+	}
+
+	/**
+	 * Deletes one page file of its own table before each invocation, so every call of
+	 * {@link #validateAndRecoverRecords(RecoveryState)} finds and restores a missing page.
+	 * Recovery refills the page with placeholder records, so the other benchmarks do not use that table.
+	 */
+	@State(Scope.Thread)
+	public static class RecoveryState {
+		@Setup(Level.Invocation)
+		public void deletePage(DBAppBenchmark benchmark) {
+			int pageNumber = Math.max(0, (benchmark.rows / benchmark.dataPageSize) / 2 - 1);
+			new File(new File(FileManager.directory, RECOVER_TABLE), pageNumber + ".db").delete();
+		}
+	}
+
+	@Benchmark
+	public int validateAndRecoverRecords(RecoveryState state) {
+		ArrayList<String[]> missing = DBApp.validateRecords(RECOVER_TABLE);
+		DBApp.recoverRecords(RECOVER_TABLE, missing);
+		return missing.size();
+	}
+}
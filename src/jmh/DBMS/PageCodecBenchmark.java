@@ -0,0 +1,95 @@
+package DBMS;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the binary page format of {@link PageCodec} against the Java serialization
+ * previously used by the {@link FileManager}, in memory so only the format cost is measured.
+ * With {@code dictionary}, the binary format stores cells as codes of a {@link TableDictionary}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageCodecBenchmark {
+	@Param({"2", "200"})
+	public int recordsPerPage;
+
+	@Param({"5", "20"})
+	public int columnsCount;
+
+	@Param({"false", "true"})
+	public boolean dictionary;
+
+	private Page page;
+	private byte[] serialized;
+	private ByteBuffer encoded;
+	private TableDictionary codes;
+
+	@Setup
+	public void setup() throws IOException {
+		page = new Page(recordsPerPage, 0);
+		for (int i = 0; i < recordsPerPage; i++) {
+			String[] record = new String[columnsCount];
+			for (int j = 0; j < columnsCount; j++) {
+				record[j] = "c" + j + "_" + (i % (j + 2));
+			}
+			page.insert(record);
+		}
+		serialized = serializeJava();
+		TableDictionary.clear();
+		codes = dictionary ? TableDictionary.of("benchDictionary") : null;
+		encoded = PageCodec.encode(page, codes);
+	}
+
+	@Benchmark
+	public byte[] serializeJava() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(out)) {
+			oos.writeObject(page);
+		}
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public Page deserializeJava() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+			return (Page) ois.readObject();
+		}
+	}
+
+	@Benchmark
+	public ByteBuffer encodeBinary() {
+		return PageCodec.encode(page, codes);
+	}
+
+	@Benchmark
+	public Page decodeBinary() throws IOException {
+		return PageCodec.decode(encoded.duplicate(), codes);
+	}
+
+	@Benchmark
+	public String[] decodeOneRecordBinary() throws IOException {
+		return PageCodec.decodeRecord(encoded.duplicate(), recordsPerPage / 2, codes);
+	}
+}
@@ -0,0 +1,75 @@
+package DBMS;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing and reading pages as one file each against packing them in a
+ * memory-mapped {@link SegmentFile}. Pages are written and read below the {@link BufferPool},
+ * so only the storage layout is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentFileBenchmark {
+	static final String TABLE = "benchSegment";
+
+	@Param({"false", "true"})
+	public boolean segmentFiles;
+
+	@Param({"2", "200"})
+	public int recordsPerPage;
+
+	@Param({"1000"})
+	public int pagesCount;
+
+	private Page page;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		FileManager.reset();
+		FileManager.segmentFiles = segmentFiles;
+		page = new Page(recordsPerPage, 0);
+		for (int i = 0; i < recordsPerPage; i++) {
+			page.insert(new String[]{"k" + i, "v" + (i % 10), "w" + (i % 7), "x" + i});
+		}
+		for (int p = 0; p < pagesCount; p++) {
+			FileManager.writeTablePage(TABLE, p, page);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileManager.reset();
+		FileManager.segmentFiles = false;
+	}
+
+	@Benchmark
+	public boolean storePage() {
+		next = (next + 1) % pagesCount;
+		return FileManager.writeTablePage(TABLE, next, page);
+	}
+
+	@Benchmark
+	public Page loadPage() {
+		next = (next + 1) % pagesCount;
+		return FileManager.readTablePage(TABLE, next);
+	}
+}
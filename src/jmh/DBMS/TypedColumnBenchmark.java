@@ -0,0 +1,83 @@
+package DBMS;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares range conditions on numeric and date columns of a table created without types,
+ * whose cells are parsed on every comparison, and of a typed table, whose pages keep the
+ * cells as primitive values (see {@link ColumnType}). Record i holds i in "id", i / 4 in
+ * "price" and day i % 3650 after 2000-01-01 in "day"; each condition selects about a tenth
+ * of the records. The pages fit in the {@link BufferPool}, so the scan itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TypedColumnBenchmark {
+	static final String TABLE = "benchTyped";
+
+	@Param({"false", "true"})
+	public boolean typed;
+
+	@Param({"20000"})
+	public int rows;
+
+	private Condition idRange;
+	private Condition priceRange;
+	private Condition dayRange;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		FileManager.reset();
+		DBApp.dataPageSize = 200;
+		String[] columnNames = {"id", "price", "day", "name"};
+		ColumnType[] columnTypes = {ColumnType.INT, ColumnType.DOUBLE, ColumnType.DATE, ColumnType.STRING};
+		DBApp.createTable(TABLE, columnNames, typed ? columnTypes : null);
+		java.time.LocalDate first = java.time.LocalDate.of(2000, 1, 1);
+		ArrayList<String[]> records = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++) {
+			records.add(new String[]{Integer.toString(i), Double.toString(i / 4.0), first.plusDays(i % 3650).toString(), "n" + (i % 100)});
+		}
+		DBApp.insertBatch(TABLE, records);
+		idRange = Condition.between("id", Integer.toString(rows / 2), Integer.toString(rows / 2 + rows / 10));
+		priceRange = Condition.greaterThanOrEqualTo("price", Double.toString(rows * 0.9 / 4));
+		dayRange = Condition.lessThan("day", first.plusDays(365).toString());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileManager.reset();
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectIntRange() {
+		return DBApp.select(TABLE, new Condition[]{idRange});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectDoubleRange() {
+		return DBApp.select(TABLE, new Condition[]{priceRange});
+	}
+
+	@Benchmark
+	public ArrayList<String[]> selectDateRange() {
+		return DBApp.select(TABLE, new Condition[]{dayRange});
+	}
+}